@@ -0,0 +1,179 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.ISyncTransfer;
+import org.zdevra.sync.SyncBufferPool;
+import org.zdevra.sync.filesystem.FilesystemRepository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copy of one file. The copy into the file goes through the transfer
+ * like the sync does, with checkpoints at several intervals. The copy
+ * into the stream goes through buffers of several sizes.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CopyBenchmark {
+
+	private static final int FILE_SIZE = 16 * 1024 * 1024;
+
+
+	@Benchmark
+	public long transferToFile(TransferState state) throws IOException {
+		ISyncFile source = state.file;
+		long size = source.size();
+		ISyncTransfer transfer = state.repository.openTransfer("/destination.dat", size, source.timestamp());
+		try {
+			SeekableByteChannel in = source.openChannel();
+			try {
+				long offset = transfer.getOffset();
+				in.position(offset);
+				long checkpoint = offset + state.checkpointInterval;
+				while (offset < size) {
+					long n = transfer.transferFrom(in, Math.min(checkpoint, size) - offset);
+					if (n <= 0) {
+						break;
+					}
+					offset += n;
+					if (offset >= checkpoint && offset < size) {
+						transfer.checkpoint();
+						checkpoint = offset + state.checkpointInterval;
+					}
+				}
+			} finally {
+				in.close();
+			}
+			transfer.commit();
+			return size;
+		} finally {
+			transfer.close();
+		}
+	}
+
+
+	@Benchmark
+	public void copyToStream(BufferState state) throws IOException {
+		state.file.copyTo(new NullOutputStream());
+	}
+
+
+	private static File createSource(String prefix) throws IOException {
+		File root = File.createTempFile(prefix, "");
+		root.delete();
+		root.mkdirs();
+
+		byte[] content = new byte[FILE_SIZE];
+		new Random(1).nextBytes(content);
+		SyntheticTree.write(new File(root, "source.dat"), content, FILE_SIZE);
+		return root;
+	}
+
+
+	/**
+	 * Source file copied through the transfer, the interval of the file
+	 * size means no checkpoint
+	 */
+	@State(Scope.Benchmark)
+	public static class TransferState {
+
+		@Param({"1048576", "4194304", "16777216"})
+		private long checkpointInterval;
+
+		private File root;
+		private FilesystemRepository repository;
+		private ISyncFile file;
+
+		@Setup
+		public void setup() throws IOException {
+			root = createSource("sync-benchmark-transfer");
+			repository = new FilesystemRepository(root);
+			file = repository.getFile("/source.dat");
+		}
+
+		@TearDown
+		public void tearDown() {
+			SyntheticTree.delete(root);
+		}
+	}
+
+
+	/**
+	 * Source file read through the buffer pool
+	 */
+	@State(Scope.Benchmark)
+	public static class BufferState {
+
+		@Param({"8192", "65536", "1048576"})
+		private int bufferSize;
+
+		@Param({"false", "true"})
+		private boolean direct;
+
+		private File root;
+		private ISyncFile file;
+
+		@Setup
+		public void setup() throws IOException {
+			root = createSource("sync-benchmark-copy");
+			FilesystemRepository repository = new FilesystemRepository(root);
+			repository.setBufferPool(new SyncBufferPool(bufferSize, direct));
+			file = repository.getFile("/source.dat");
+		}
+
+		@TearDown
+		public void tearDown() {
+			SyntheticTree.delete(root);
+		}
+	}
+
+
+	/**
+	 * Stream which drops everything, so only reading and buffer handling is measured
+	 */
+	private static class NullOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.Sync;
+import org.zdevra.sync.SyncCaseSensitivity;
+import org.zdevra.sync.SyncFileIndex;
+import org.zdevra.sync.filesystem.FilesystemRepository;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching of primary files with secondary files. The linear lookup
+ * of {@link Sync#getAndRemoveFile} is compared with the index.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MergeBenchmark {
+
+	@Param({"1000", "10000"})
+	private int files;
+
+	private File root;
+	private List<ISyncFile> primaryFiles;
+	private List<ISyncFile> secondaryFiles;
+
+
+	@Setup
+	public void setup() throws IOException {
+		root = SyntheticTree.create("merge", files, 2, SyntheticTree.Sizes.EMPTY);
+		primaryFiles = new FilesystemRepository(root).scan();
+		secondaryFiles = new FilesystemRepository(root).scan();
+
+		//the secondary listing is in different order than primary
+		Collections.reverse(secondaryFiles);
+	}
+
+
+	@TearDown
+	public void tearDown() {
+		SyntheticTree.delete(root);
+	}
+
+
+	@Benchmark
+	public int linear() {
+		List<ISyncFile> secondary = new ArrayList<ISyncFile>(secondaryFiles);
+		int matched = 0;
+		for (ISyncFile f : primaryFiles) {
+			if (Sync.getAndRemoveFile(f, secondary) != null) {
+				matched++;
+			}
+		}
+		return matched;
+	}
+
+
+	@Benchmark
+	public int index() {
+		SyncFileIndex secondary = new SyncFileIndex(secondaryFiles, SyncCaseSensitivity.INSENSITIVE);
+		int matched = 0;
+		for (ISyncFile f : primaryFiles) {
+			if (secondary.getAndRemove(f) != null) {
+				matched++;
+			}
+		}
+		return matched;
+	}
+}
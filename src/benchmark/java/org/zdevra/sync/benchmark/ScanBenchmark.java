@@ -0,0 +1,104 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.ISyncFileIterator;
+import org.zdevra.sync.SyncCaseSensitivity;
+import org.zdevra.sync.SyncPathComparator;
+import org.zdevra.sync.filesystem.FilesystemRepository;
+import org.zdevra.sync.filesystem.NioFilesystemRepository;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scan of the directory tree, whole listing and sorted iteration,
+ * with attributes read on demand or cached by the scan
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ScanBenchmark {
+
+	@Param({"10000"})
+	private int files;
+
+	@Param({"1", "4"})
+	private int depth;
+
+	@Param({"1", "4"})
+	private int parallelism;
+
+	@Param({"false", "true"})
+	private boolean cachedAttributes;
+
+	private File root;
+	private FilesystemRepository repository;
+
+
+	@Setup
+	public void setup() throws IOException {
+		root = SyntheticTree.create("scan", files, depth, SyntheticTree.Sizes.EMPTY);
+		repository = cachedAttributes ? new NioFilesystemRepository(root, parallelism) : new FilesystemRepository(root, parallelism);
+	}
+
+
+	@TearDown
+	public void tearDown() {
+		SyntheticTree.delete(root);
+	}
+
+
+	@Benchmark
+	public List<ISyncFile> scan() {
+		return repository.scan();
+	}
+
+
+	@Benchmark
+	public int iterate() throws IOException {
+		int count = 0;
+		ISyncFileIterator it = repository.iterate(new SyncPathComparator(SyncCaseSensitivity.INSENSITIVE));
+		try {
+			while (it.hasNext()) {
+				it.next();
+				count++;
+			}
+		} finally {
+			it.close();
+		}
+		return count;
+	}
+}
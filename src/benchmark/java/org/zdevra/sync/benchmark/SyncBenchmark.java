@@ -0,0 +1,114 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zdevra.sync.Sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end sync of two directories. The cold sync copies whole
+ * primary tree into empty secondary directory, the no-change sync
+ * runs over already synchronized directories.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class SyncBenchmark {
+
+	@Param({"2000"})
+	private int files;
+
+	@Param({"SMALL", "MIXED"})
+	private SyntheticTree.Sizes sizes;
+
+	@Param({"false", "true"})
+	private boolean streaming;
+
+	@Param({"1", "4"})
+	private int copyThreads;
+
+	private File root;
+	private File primaryDir;
+	private File coldDir;
+	private File syncedDir;
+
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		root = File.createTempFile("sync-benchmark-sync", "");
+		root.delete();
+		primaryDir = new File(root, "primary");
+		coldDir = new File(root, "cold");
+		syncedDir = new File(root, "synced");
+		SyntheticTree.generate(primaryDir, files, 3, sizes, 1);
+
+		syncedDir.mkdirs();
+		createSync(syncedDir).sync();
+	}
+
+
+	@Setup(Level.Invocation)
+	public void cleanCold() {
+		SyntheticTree.delete(coldDir);
+		coldDir.mkdirs();
+	}
+
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		SyntheticTree.delete(root);
+	}
+
+
+	@Benchmark
+	public void cold() {
+		createSync(coldDir).sync();
+	}
+
+
+	@Benchmark
+	public void noChange() {
+		createSync(syncedDir).sync();
+	}
+
+
+	private Sync createSync(File secondaryDir) {
+		Sync sync = Sync.createForFilesystem(primaryDir, secondaryDir);
+		sync.setStreaming(streaming);
+		sync.setCopyThreads(copyThreads);
+		return sync;
+	}
+}
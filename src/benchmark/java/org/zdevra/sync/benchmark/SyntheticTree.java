@@ -0,0 +1,127 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Generator of synthetic directory trees used by benchmarks. Files
+ * are spread over directories with the fan-out 8 up to the given depth.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class SyntheticTree {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private static final int FAN_OUT = 8;
+
+	/**
+	 * Distribution of file sizes
+	 */
+	public enum Sizes {
+		/** all files are empty, only metadata is exercised */
+		EMPTY,
+
+		/** up to 16 KB */
+		SMALL,
+
+		/** mostly small files, each 100th file has 1 - 4 MB */
+		MIXED
+	}
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Create the tree in new temporary directory
+	 */
+	public static File create(String name, int files, int depth, Sizes sizes) throws IOException {
+		File root = File.createTempFile("sync-benchmark-" + name, "");
+		root.delete();
+		generate(root, files, depth, sizes, 1);
+		return root;
+	}
+
+
+	/**
+	 * Generate the files into the root directory. The same seed
+	 * generates the same tree.
+	 */
+	public static void generate(File root, int files, int depth, Sizes sizes, long seed) throws IOException {
+		Random random = new Random(seed);
+		byte[] content = new byte[4 * 1024 * 1024];
+		random.nextBytes(content);
+
+		for (int i = 0; i < files; ++i) {
+			File dir = root;
+			int n = i;
+			for (int level = 0; level < depth; ++level) {
+				dir = new File(dir, "dir" + (n % FAN_OUT));
+				n /= FAN_OUT;
+			}
+			dir.mkdirs();
+			write(new File(dir, "file" + i + ".dat"), content, size(sizes, i, random));
+		}
+	}
+
+
+	public static void write(File file, byte[] content, int size) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content, 0, size);
+		} finally {
+			out.close();
+		}
+	}
+
+
+	/**
+	 * Delete the directory with all its content
+	 */
+	public static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+
+	private static int size(Sizes sizes, int index, Random random) {
+		switch (sizes) {
+			case SMALL:
+				return random.nextInt(16 * 1024);
+			case MIXED:
+				if (index % 100 == 99) {
+					return 1024 * 1024 + random.nextInt(3 * 1024 * 1024);
+				}
+				return random.nextInt(16 * 1024);
+			default:
+				return 0;
+		}
+	}
+}
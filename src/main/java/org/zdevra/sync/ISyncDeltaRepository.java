@@ -0,0 +1,43 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import java.io.IOException;
+
+/**
+ * Repository which can update its files by the delta transfer. The block
+ * signatures of the file are computed by the repository itself, so the
+ * delta transfer doesn't read the whole destination (e.g. from the remote
+ * server), and the delta is applied to the copy of the file made by the
+ * repository.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public interface ISyncDeltaRepository {
+
+	/**
+	 * Returns signatures of the file on the path
+	 *
+	 * @param blockSize size of the block, see {@link SyncDelta#blockSize(long)}
+	 */
+	public SyncDelta.Signatures signatures(String path, int blockSize) throws IOException;
+
+	/**
+	 * Opens the delta transfer of the existing file on the path
+	 */
+	public ISyncDeltaTransfer openDeltaTransfer(String path) throws IOException;
+}
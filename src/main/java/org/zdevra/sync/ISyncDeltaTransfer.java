@@ -0,0 +1,42 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Delta transfer of the file. The delta is applied to the copy of the
+ * destination, which replaces the destination only by {@link #commit()},
+ * so the interrupted transfer never leaves the destination half-written.
+ * The transfer closed without commit discards the copy.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public interface ISyncDeltaTransfer extends Closeable {
+
+	/**
+	 * Returns the channel of the copy of the destination
+	 */
+	public SeekableByteChannel getChannel();
+
+	/**
+	 * Replace the destination by the updated copy
+	 */
+	public void commit() throws IOException;
+}
@@ -18,6 +18,7 @@ package org.zdevra.sync;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
 
 /**
  * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
@@ -25,6 +26,24 @@ import java.io.OutputStream;
 public interface ISyncFile {
 	public String path();
 	public long timestamp() throws IOException;
+	public long size() throws IOException;
+
+	/**
+	 * Returns the identity of the file (e.g. device and inode),
+	 * or null if repository doesn't support it.
+	 */
+	public String fileKey() throws IOException;
+
 	public void touch(long timestamp) throws IOException;
 	public void copyTo(OutputStream os) throws IOException;
+
+	/**
+	 * Returns the SHA-256 digest of the file content
+	 */
+	public byte[] digest() throws IOException;
+
+	/**
+	 * Opens the channel for reading the content at any position
+	 */
+	public SeekableByteChannel openChannel() throws IOException;
 }
@@ -0,0 +1,30 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Streaming result of the repository scan. The files are
+ * returned lazily in the order given by {@link SyncPathComparator}
+ * and the iterator must be closed when it's not needed anymore.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public interface ISyncFileIterator extends Iterator<ISyncFile>, Closeable {
+}
@@ -18,6 +18,7 @@ package org.zdevra.sync;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
 import java.util.List;
 
 /**
@@ -25,6 +26,41 @@ import java.util.List;
  */
 public interface ISyncRepository {
 	public List<ISyncFile> scan();
+
+	/**
+	 * Streaming variant of the scan. Returned files must be sorted
+	 * by the given order.
+	 */
+	public ISyncFileIterator iterate(SyncPathComparator order) throws IOException;
+
+	/**
+	 * Returns the file on the path, or null if there is no such file.
+	 */
 	public ISyncFile getFile(String path);
 	public OutputStream openStream(String path) throws IOException;
+
+	/**
+	 * Opens the channel for reading and writing the file at any position.
+	 * The file is created if it doesn't exist, but it's not truncated.
+	 */
+	public SeekableByteChannel openChannel(String path) throws IOException;
+
+	/**
+	 * Opens the atomic transfer of the file. If there is the interrupted
+	 * transfer of the same source (given by its size and timestamp),
+	 * it's resumed from its last checkpoint.
+	 */
+	public ISyncTransfer openTransfer(String path, long size, long timestamp) throws IOException;
+
+	/**
+	 * Deletes the file on the path, nothing happens if there is no such
+	 * file. Directories left empty by the deletion may be removed too.
+	 */
+	public void delete(String path) throws IOException;
+
+	/**
+	 * Returns the number of bytes available for new files, or -1
+	 * if repository doesn't know it.
+	 */
+	public long getUsableSpace();
 }
@@ -0,0 +1,56 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Transfer of the file into repository. The content is written aside
+ * and the destination is replaced only by {@link #commit()}, so the
+ * destination is never seen half-written. The transfer closed without
+ * commit can be resumed from its last checkpoint by the next transfer
+ * of the same source.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public interface ISyncTransfer extends Closeable {
+
+	/**
+	 * Returns the number of bytes already transferred. The source
+	 * must continue from this offset.
+	 */
+	public long getOffset();
+
+	/**
+	 * Transfer max. count bytes from the channel, returns the number
+	 * of transferred bytes.
+	 */
+	public long transferFrom(ReadableByteChannel source, long count) throws IOException;
+
+	/**
+	 * Make the transferred bytes durable and record them, so the
+	 * interrupted transfer resumes from here.
+	 */
+	public void checkpoint() throws IOException;
+
+	/**
+	 * Replace the destination by the transferred content
+	 */
+	public void commit() throws IOException;
+}
@@ -16,14 +16,31 @@
  *****************************************************************************/
 package org.zdevra.sync;
 
+import org.apache.log4j.Logger;
+import org.zdevra.sync.archive.ArchiveRepository;
 import org.zdevra.sync.filesystem.FilesystemRepository;
+import org.zdevra.sync.filesystem.NioFilesystemRepository;
+import org.zdevra.sync.state.SyncState;
+import org.zdevra.sync.state.SyncStateStore;
 
 import java.io.File;
+import java.io.Flushable;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
@@ -34,6 +51,16 @@ public class Sync {
 	// members
 	//------------------------------------------------------------------------------------------------------------------
 
+	static Logger log = Logger.getLogger(Sync.class);
+
+	public static final long DEFAULT_CHECKPOINT_INTERVAL = 64 * 1024 * 1024;
+
+	/** tombstones of deleted files are kept 30 days by default */
+	public static final long DEFAULT_TOMBSTONE_TTL = 30L * 24 * 60 * 60 * 1000;
+
+	/** max. bytes copied at once when the copy is rate limited */
+	private static final long LIMITED_CHUNK = 1024 * 1024;
+
 	/** the primary (usually local) repository */
 	private final ISyncRepository primaryRepo;
 
@@ -42,13 +69,84 @@ public class Sync {
 	/** the secondary (usually remote or shared) directory */
 	private final ISyncRepository secondaryRepo;
 
-	private List<ISyncFile> secondaryFiles;
+	/** index of secondary files used for matching with primary files */
+	private SyncFileIndex secondaryFiles;
+
+	/** actions collected by the current planning, only deletions in streaming sync */
+	private List<SyncAction> plannedActions;
+
+	/** free space left in destination of each direction during streaming sync */
+	private long[] spaceLeft;
+
+	/** number of files processed by the current planning */
+	private long plannedFiles;
 
 	/** determines sync mode. */
 	private SyncMode mode;
 
+	/** determines how the paths are matched */
+	private SyncCaseSensitivity caseSensitivity;
+
+	/** if true, repositories are walked by sorted iterators and merged on the fly */
+	private boolean streaming;
+
+	/** state of files after previous sync, null if sync doesn't use it */
+	private SyncStateStore stateStore;
+
+	/** if true, the file deleted since previous sync is deleted in the other repository too */
+	private boolean deletePropagation = false;
+
+	/** time in milliseconds the tombstones of deleted files are kept */
+	private long tombstoneTtl = DEFAULT_TOMBSTONE_TTL;
+
+	/** number of primary and secondary files seen by the current planning */
+	private long primarySeen;
+	private long secondarySeen;
+
+	/** max. number of concurrent copies */
+	private int copyThreads = 1;
+
+	/** max. number of concurrent copies per destination repository */
+	private final Map<ISyncRepository, Integer> copyLimits = new HashMap<ISyncRepository, Integer>();
+
+	/** limits of copies per destination repository */
+	private final Map<ISyncRepository, SyncRateLimiter> rateLimiters = new HashMap<ISyncRepository, SyncRateLimiter>();
+
+	/** engine running copies of the current sync */
+	private SyncCopyEngine copyEngine;
+
+	/** cache of digests, null if files are compared only by timestamps */
+	private SyncDigestCache digestCache;
+
+	/** number of threads computing digests */
+	private int digestThreads = Runtime.getRuntime().availableProcessors();
+
+	/** engine comparing digests of the current sync */
+	private SyncCopyEngine digestEngine;
+
+	/** min. size of files updated by delta transfer, 0 means always full copy */
+	private long deltaThreshold;
+
+	/** number of bytes copied between two checkpoints of the transfer */
+	private long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+	/** metrics of the running or last sync */
+	private final SyncMetrics metrics = new SyncMetrics();
+
 	/** list of all registered event listeners */
-	private List<SyncEventListener> syncEventListeners = new LinkedList<SyncEventListener>();
+	private final List<SyncEventListener> syncEventListeners = new CopyOnWriteArrayList<SyncEventListener>();
+
+	/** delivers events of the current sync, null if there are no listeners */
+	private SyncEventDispatcher eventDispatcher;
+
+	/** size of the event buffer */
+	private int eventCapacity = SyncEventDispatcher.DEFAULT_CAPACITY;
+
+	/** interval of progress events in milliseconds */
+	private long progressInterval = SyncEventDispatcher.DEFAULT_PROGRESS_INTERVAL;
+
+	/** number of files of the current sync, as it was announced by start event */
+	private volatile long fileCount;
 
 
 	//------------------------------------------------------------------------------------------------------------------
@@ -59,9 +157,42 @@ public class Sync {
 	 * Construct the Sync object for filesystem directories
 	 */
 	public static Sync createForFilesystem(File primaryDir, File secondaryDir) {
+		return createForFilesystem(primaryDir, secondaryDir, 1);
+	}
+
+
+	/**
+	 * Construct the Sync object for filesystem directories which
+	 * are scanned by given number of threads
+	 */
+	public static Sync createForFilesystem(File primaryDir, File secondaryDir, int scanParallelism) {
+		return new Sync(
+				new FilesystemRepository(primaryDir, scanParallelism),
+				new FilesystemRepository(secondaryDir, scanParallelism));
+	}
+
+
+	/**
+	 * Construct the Sync object for filesystem directories, where
+	 * attributes of files are read once by the scan
+	 */
+	public static Sync createForNioFilesystem(File primaryDir, File secondaryDir, int scanParallelism) {
 		return new Sync(
-				new FilesystemRepository(primaryDir),
-				new FilesystemRepository(secondaryDir));
+				new NioFilesystemRepository(primaryDir, scanParallelism),
+				new NioFilesystemRepository(secondaryDir, scanParallelism));
+	}
+
+
+	/**
+	 * Construct the one-directional Sync object backing up the directory
+	 * into compressed archive
+	 */
+	public static Sync createForArchive(File primaryDir, File archive) {
+		Sync sync = new Sync(
+				new NioFilesystemRepository(primaryDir, 1),
+				new ArchiveRepository(archive));
+		sync.setSyncMode(SyncMode.ONE_DIRECTIONAL);
+		return sync;
 	}
 
 
@@ -72,6 +203,7 @@ public class Sync {
 		this.primaryRepo = primary;
 		this.secondaryRepo = secondary;
 		this.mode = SyncMode.BI_DIRECTIONAL;
+		this.caseSensitivity = SyncCaseSensitivity.INSENSITIVE;
 	}
 
 
@@ -79,34 +211,704 @@ public class Sync {
 	// methods
 	//------------------------------------------------------------------------------------------------------------------
 
+	/**
+	 * Register the listener. Events are delivered by the dispatcher thread,
+	 * so the listener doesn't slow down the sync. Listeners registered
+	 * during the sync receive events from the next sync.
+	 */
 	public void addEventListener(SyncEventListener listener) {
 		this.syncEventListeners.add(listener);
 	}
 
 
+	public void removeEventListener(SyncEventListener listener) {
+		this.syncEventListeners.remove(listener);
+	}
+
+
+	/**
+	 * Set the size of event buffer. When listeners are too slow and the
+	 * buffer is full, the per-file events are dropped.
+	 */
+	public void setEventCapacity(int eventCapacity) {
+		if (eventCapacity < 2) {
+			throw new IllegalArgumentException("event capacity must be at least 2:" + eventCapacity);
+		}
+		this.eventCapacity = eventCapacity;
+	}
+
+
+	/**
+	 * Set the interval of progress events in milliseconds
+	 */
+	public void setProgressInterval(long progressInterval) {
+		if (progressInterval < 1) {
+			throw new IllegalArgumentException("progress interval must be positive:" + progressInterval);
+		}
+		this.progressInterval = progressInterval;
+	}
+
+
+	public ISyncRepository getPrimaryRepository() {
+		return primaryRepo;
+	}
+
+
+	public ISyncRepository getSecondaryRepository() {
+		return secondaryRepo;
+	}
+
+
 	public void setSyncMode(SyncMode mode) {
 		this.mode = mode;
 	}
 
+
+	public void setCaseSensitivity(SyncCaseSensitivity caseSensitivity) {
+		this.caseSensitivity = caseSensitivity;
+	}
+
+
+	/**
+	 * Enables streaming sync. Both repositories are walked in sorted
+	 * order and merged on the fly, each action is executed as soon as the
+	 * merge produces it, so the memory doesn't grow with number of files
+	 * and copying starts while the scan is still going. Only deletions wait
+	 * for the end of the merge. The total count of files isn't known and
+	 * the free space is checked for each action instead of the whole plan.
+	 * The {@link #plan()} still collects all actions.
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * Set max. number of files copied concurrently. Default 1 means
+	 * files are copied one by one on the thread calling {@link #sync()}.
+	 */
+	public void setCopyThreads(int copyThreads) {
+		if (copyThreads < 1) {
+			throw new IllegalArgumentException("copy threads must be positive:" + copyThreads);
+		}
+		this.copyThreads = copyThreads;
+	}
+
+
+	/**
+	 * Set max. number of files copied concurrently into the destination
+	 * repository. Slow or remote destinations may need lower limit than
+	 * the number of copy threads.
+	 */
+	public void setCopyLimit(ISyncRepository destination, int limit) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("copy limit must be positive:" + limit);
+		}
+		this.copyLimits.put(destination, limit);
+	}
+
+
+	/**
+	 * Set the limiter of bytes and files per second copied into the
+	 * destination repository, so the sync running in background doesn't
+	 * saturate the disk or network. Null removes the limiter.
+	 */
+	public void setRateLimiter(ISyncRepository destination, SyncRateLimiter limiter) {
+		if (limiter == null) {
+			this.rateLimiters.remove(destination);
+		} else {
+			this.rateLimiters.put(destination, limiter);
+		}
+	}
+
+
+	/**
+	 * Returns the limiter of copies into the destination repository,
+	 * or null if copies are not limited
+	 */
+	public SyncRateLimiter getRateLimiter(ISyncRepository destination) {
+		return rateLimiters.get(destination);
+	}
+
+	/**
+	 * Set the store with state of files from previous syncs. With the
+	 * state, the file modified since last sync is detected by comparing
+	 * it with its own state instead of comparing timestamps of both sides,
+	 * so restoring an older version of file is propagated too. The store
+	 * is flushed at the end of sync, but it's not closed.
+	 */
+	public void setStateStore(SyncStateStore stateStore) {
+		this.stateStore = stateStore;
+	}
+
+
+	/**
+	 * Enables the propagation of deletions in bi-directional mode with
+	 * the state store. The file which was synced before and now exists
+	 * in one repository only, unchanged since the sync, was deleted in the
+	 * other repository and it's deleted instead of copied back. It's
+	 * disabled by default, so the deletions are never propagated unless
+	 * the user asked for it.
+	 */
+	public void setDeletePropagation(boolean deletePropagation) {
+		this.deletePropagation = deletePropagation;
+	}
+
+
+	/**
+	 * Set the time in milliseconds the tombstones of deleted files are kept.
+	 * Till the tombstone expires, the stale copy of the deleted file which
+	 * appears in any repository is deleted again instead of being synced.
+	 */
+	public void setTombstoneTtl(long tombstoneTtl) {
+		if (tombstoneTtl < 0) {
+			throw new IllegalArgumentException("tombstone ttl must not be negative:" + tombstoneTtl);
+		}
+		this.tombstoneTtl = tombstoneTtl;
+	}
+
+	/**
+	 * Enables comparison of file content. Files with the same size are
+	 * compared by digests before they're copied and identical files are
+	 * not copied even if their timestamps differ. Only the timestamp of
+	 * destination is updated. The cache can be shared by more syncs,
+	 * null disables the comparison.
+	 */
+	public void setDigestCache(SyncDigestCache digestCache) {
+		this.digestCache = digestCache;
+	}
+
+
+	/**
+	 * Set the number of threads computing digests, default is number of CPU cores
+	 */
+	public void setDigestThreads(int digestThreads) {
+		if (digestThreads < 1) {
+			throw new IllegalArgumentException("digest threads must be positive:" + digestThreads);
+		}
+		this.digestThreads = digestThreads;
+	}
+
+
+	/**
+	 * Enables the delta transfer for files which are at least as large
+	 * as the threshold. When such file exists in destination, only the
+	 * changed blocks are written into it. 0 disables delta transfer.
+	 * The delta is used only for destinations which support it, see
+	 * {@link ISyncDeltaRepository}, other files are copied whole.
+	 */
+	public void setDeltaThreshold(long deltaThreshold) {
+		if (deltaThreshold < 0) {
+			throw new IllegalArgumentException("delta threshold must not be negative:" + deltaThreshold);
+		}
+		this.deltaThreshold = deltaThreshold;
+	}
+
+	/**
+	 * Set the number of bytes copied between two checkpoints. The copy
+	 * interrupted by crash is resumed from its last checkpoint.
+	 */
+	public void setCheckpointInterval(long checkpointInterval) {
+		if (checkpointInterval < 1) {
+			throw new IllegalArgumentException("checkpoint interval must be positive:" + checkpointInterval);
+		}
+		this.checkpointInterval = checkpointInterval;
+	}
+
+
+	/**
+	 * Returns metrics of the running or last sync. The snapshot
+	 * can be taken from any thread during the sync.
+	 */
+	public SyncMetrics getMetrics() {
+		return metrics;
+	}
+
 	/**
-	 * do synchronization
+	 * do synchronization, it plans and executes the plan
 	 */
 	public void sync() {
-		scan();
-		merge();
+		begin();
+		try {
+			if (streaming) {
+				stream();
+			} else {
+				run(createPlan());
+			}
+		} finally {
+			end();
+		}
+	}
+
+
+	/**
+	 * Synchronize only given paths, without scanning the repositories.
+	 * It's used when the changed paths are known (e.g. from file watcher).
+	 * Paths which are not files in any repository are ignored.
+	 */
+	public void sync(Collection<String> paths) {
+		begin();
+		try {
+			run(createPlan(paths));
+		} finally {
+			end();
+		}
+	}
+
+
+	/**
+	 * Scan repositories and plan the sync. Nothing is written into
+	 * repositories, so it can be used as a dry-run.
+	 */
+	public SyncPlan plan() {
+		begin();
+		try {
+			return createPlan();
+		} finally {
+			end();
+		}
+	}
+
+
+	/**
+	 * Plan the sync of given paths only
+	 */
+	public SyncPlan plan(Collection<String> paths) {
+		begin();
+		try {
+			return createPlan(paths);
+		} finally {
+			end();
+		}
+	}
+
+
+	/**
+	 * Execute the plan. The plan may be created earlier or by another
+	 * sync of the same repositories, files which disappeared in meantime
+	 * are skipped.
+	 *
+	 * @throws SyncError if any side hasn't enough free space for the plan
+	 */
+	public void execute(SyncPlan plan) {
+		begin();
+		try {
+			start(plan.getFileCount());
+			run(plan);
+		} finally {
+			end();
+		}
+	}
+
+
+	private SyncPlan createPlan() {
+		plannedActions = new ArrayList<SyncAction>();
+		plannedFiles = 0;
+		primarySeen = 0;
+		secondarySeen = 0;
+		try {
+			if (streaming) {
+				start(SyncEvent.StartEvent.UNKNOWN_COUNT);
+				long phaseStart = startPhase(SyncPhase.MATCH);
+				mergeStreams();
+				endPhase(SyncPhase.MATCH, phaseStart);
+			} else {
+				long phaseStart = startPhase(SyncPhase.SCAN);
+				scan();
+				endPhase(SyncPhase.SCAN, phaseStart);
+
+				phaseStart = startPhase(SyncPhase.MATCH);
+				merge();
+				endPhase(SyncPhase.MATCH, phaseStart);
+			}
+			if (primarySeen == 0 || secondarySeen == 0) {
+				keepFiles();
+			}
+			return new SyncPlan(plannedActions, plannedFiles, concurrency());
+		} finally {
+			plannedActions = null;
+			primaryFiles = null;
+			secondaryFiles = null;
+		}
+	}
+
+
+	private SyncPlan createPlan(Collection<String> paths) {
+		plannedActions = new ArrayList<SyncAction>();
+		plannedFiles = 0;
+		try {
+			start(paths.size());
+			long phaseStart = startPhase(SyncPhase.MATCH);
+			for (String path : paths) {
+				process(primaryRepo.getFile(path), secondaryRepo.getFile(path));
+			}
+			endPhase(SyncPhase.MATCH, phaseStart);
+			return new SyncPlan(plannedActions, plannedFiles, concurrency());
+		} finally {
+			plannedActions = null;
+		}
+	}
+
+
+	/**
+	 * Streaming sync. Actions are executed by engines while the streams
+	 * are merged. The copied files are behind the position of iterators,
+	 * so the walk doesn't see them. Deletions are executed after the merge,
+	 * when it's known whether any repository is empty.
+	 */
+	private void stream() {
+		plannedActions = new ArrayList<SyncAction>();
+		plannedFiles = 0;
+		primarySeen = 0;
+		secondarySeen = 0;
+		spaceLeft = new long[SyncDirection.values().length];
+		for (SyncDirection direction : SyncDirection.values()) {
+			long usable = destination(direction).getUsableSpace();
+			spaceLeft[direction.ordinal()] = usable >= 0 ? usable : Long.MAX_VALUE;
+		}
+
+		metrics.planned(0);
+		startEngines();
+		try {
+			start(SyncEvent.StartEvent.UNKNOWN_COUNT);
+			long phaseStart = startPhase(SyncPhase.MATCH);
+			mergeStreams();
+			endPhase(SyncPhase.MATCH, phaseStart);
+			if (primarySeen == 0 || secondarySeen == 0) {
+				keepFiles();
+			}
+
+			//the phase covers deletions and copies still running after the merge
+			phaseStart = startPhase(SyncPhase.COPY);
+			for (SyncAction action : plannedActions) {
+				execute(action);
+			}
+			finish();
+			endPhase(SyncPhase.COPY, phaseStart);
+		} finally {
+			plannedActions = null;
+			spaceLeft = null;
+			stopEngines();
+		}
+	}
+
+
+	/**
+	 * Remove deletions from the plan. The empty repository is more likely
+	 * unmounted or unreachable than emptied by the user, so the deletions
+	 * are not propagated from it.
+	 */
+	private void keepFiles() {
+		int deletes = 0;
+		for (Iterator<SyncAction> it = plannedActions.iterator(); it.hasNext(); ) {
+			if (it.next().getType() == SyncAction.Type.DELETE) {
+				it.remove();
+				deletes++;
+			}
+		}
+		if (deletes > 0) {
+			log.warn("one of repositories is empty, " + deletes + " deletions are not propagated");
+		}
+	}
+
+
+	/**
+	 * Execute actions of the plan by copy and digest engines
+	 */
+	private void run(SyncPlan plan) {
+		checkFreeSpace(plan);
+		metrics.planned(plan.getBytes());
+
+		startEngines();
+		try {
+			long phaseStart = startPhase(SyncPhase.COPY);
+			for (SyncAction action : order(plan.getActions())) {
+				execute(action);
+			}
+			finish();
+			endPhase(SyncPhase.COPY, phaseStart);
+		} finally {
+			stopEngines();
+		}
+	}
+
+
+	private void startEngines() {
+		copyEngine = new SyncCopyEngine(copyThreads, copyLimits);
+		if (digestCache != null) {
+			digestEngine = new SyncCopyEngine(digestThreads, Collections.<ISyncRepository, Integer>emptyMap(), "sync-digest");
+		}
+	}
+
+
+	/**
+	 * Wait for submitted copies and flush repositories
+	 */
+	private void finish() {
+		//digest workers may still submit copies
+		if (digestEngine != null) {
+			digestEngine.await();
+		}
+		copyEngine.await();
+		flush(primaryRepo);
+		flush(secondaryRepo);
+		expireTombstones();
+	}
+
+
+	private void stopEngines() {
+		if (digestEngine != null) {
+			digestEngine.shutdown();
+			digestEngine = null;
+		}
+		copyEngine.shutdown();
+		copyEngine = null;
+	}
+
+
+	/**
+	 * Flush the repository which buffers written files (e.g. archive)
+	 */
+	private static void flush(ISyncRepository repository) {
+		if (repository instanceof Flushable) {
+			try {
+				((Flushable) repository).flush();
+			} catch (IOException e) {
+				throw new SyncError("error when flush " + repository, e);
+			}
+		}
+	}
+
+
+	private void expireTombstones() {
+		if (stateStore != null) {
+			stateStore.expire(System.currentTimeMillis() - tombstoneTtl);
+		}
+	}
+
+
+	/**
+	 * Returns actions in order of execution. Records and deletions are
+	 * applied first, then comparisons, so digests are computed while files are copied.
+	 * With more copy threads the largest files are started first, which
+	 * keeps the threads busy till the end of the sync.
+	 */
+	private List<SyncAction> order(List<SyncAction> actions) {
+		List<SyncAction> out = new ArrayList<SyncAction>(actions);
+		Collections.sort(out, new Comparator<SyncAction>() {
+			@Override
+			public int compare(SyncAction a1, SyncAction a2) {
+				int cmp = rank(a1.getType()) - rank(a2.getType());
+				if (cmp != 0 || copyThreads == 1) {
+					return cmp;
+				}
+				return a1.getSize() > a2.getSize() ? -1 : (a1.getSize() < a2.getSize() ? 1 : 0);
+			}
+		});
+		return out;
+	}
+
+
+	private static int rank(SyncAction.Type type) {
+		switch (type) {
+			case RECORD:
+				return 0;
+			case DELETE:
+				return 1;
+			case COMPARE:
+				return 2;
+			default:
+				return 3;
+		}
+	}
+
+
+	/**
+	 * Reject the action of streaming sync which doesn't fit into the free
+	 * space left by previous actions. Like in the plan, the action needs its
+	 * growth and its part file aside of the replaced destination.
+	 */
+	private void reserveSpace(SyncAction action) {
+		int direction = action.getDirection().ordinal();
+		if (action.getBytes() > spaceLeft[direction]) {
+			ISyncRepository destinationRepo = destination(action.getDirection());
+			throw new SyncError("not enough space in " + destinationRepo + ", the sync of " + action.getPath() + " needs " + action.getBytes() + " bytes but only " + spaceLeft[direction] + " bytes are left");
+		}
+		spaceLeft[direction] -= action.getSpaceNeeded();
+	}
+
+
+	/**
+	 * Returns max. number of concurrent copies into the destination of
+	 * each direction
+	 */
+	private Map<SyncDirection, Integer> concurrency() {
+		Map<SyncDirection, Integer> concurrency = new EnumMap<SyncDirection, Integer>(SyncDirection.class);
+		for (SyncDirection direction : SyncDirection.values()) {
+			Integer limit = copyLimits.get(destination(direction));
+			concurrency.put(direction, limit != null ? Math.min(copyThreads, limit) : copyThreads);
+		}
+		return concurrency;
+	}
+
+
+	/**
+	 * Reject the plan which would fill the disk
+	 */
+	private void checkFreeSpace(SyncPlan plan) {
+		for (SyncDirection direction : SyncDirection.values()) {
+			ISyncRepository destinationRepo = destination(direction);
+			long needed = plan.getSpaceNeeded(direction);
+			long usable = needed > 0 ? destinationRepo.getUsableSpace() : -1;
+			if (usable >= 0 && needed > usable) {
+				throw new SyncError("not enough space in " + destinationRepo + ", the sync needs " + needed + " bytes but only " + usable + " bytes are free");
+			}
+		}
+	}
+
+
+	private void execute(SyncAction action) {
+		ISyncRepository destinationRepo = destination(action.getDirection());
+		ISyncRepository sourceRepo = destinationRepo == primaryRepo ? secondaryRepo : primaryRepo;
+		if (action.getType() == SyncAction.Type.DELETE) {
+			delete(action, destinationRepo, sourceRepo);
+			return;
+		}
+
+		ISyncFile source = action.getSource() != null ? action.getSource() : sourceRepo.getFile(action.getPath());
+		if (source == null) {
+			//file disappeared after planning
+			return;
+		}
+		ISyncFile destination = action.getDestination();
+		if (destination == null && action.getDestinationSize() != SyncAction.NO_DESTINATION) {
+			destination = destinationRepo.getFile(action.getPath());
+		}
+
+		try {
+			switch (action.getType()) {
+				case RECORD:
+					if (stateStore != null && destination != null) {
+						saveState(source, destination, destinationRepo);
+					}
+					break;
+				case COMPARE:
+					if (destination != null) {
+						compare(source, destination, destinationRepo);
+					} else {
+						copy(source, destinationRepo);
+					}
+					break;
+				default:
+					copy(source, destinationRepo);
+			}
+		} catch (IOException e) {
+			throw new SyncError("error when sync " + action.getPath(), e);
+		}
+	}
+
+
+	/**
+	 * Delete the file and keep its state as the tombstone. The file is
+	 * kept if it was changed since planning or if it appeared in the
+	 * other repository in meantime.
+	 */
+	private void delete(SyncAction action, ISyncRepository repository, ISyncRepository otherRepo) {
+		try {
+			ISyncFile file = repository.getFile(action.getPath());
+			if (file == null || otherRepo.getFile(action.getPath()) != null) {
+				return;
+			}
+			if (file.size() != action.getDestinationSize() || file.timestamp() != action.getTimestamp()) {
+				return;
+			}
+
+			fileEvent(new SyncEvent.DeleteEvent(action.getPath(), repository));
+			repository.delete(action.getPath());
+			metrics.deleted();
+
+			if (stateStore != null) {
+				String key = stateKey(file);
+				SyncState state = stateStore.get(key);
+				if (state != null && !state.isTombstone()) {
+					stateStore.put(key, state.tombstone(System.currentTimeMillis()));
+				}
+			}
+		} catch (IOException e) {
+			throw new SyncError("error when delete " + action.getPath() + " from " + repository, e);
+		}
+	}
+
+
+	private ISyncRepository destination(SyncDirection direction) {
+		return direction == SyncDirection.TO_SECONDARY ? secondaryRepo : primaryRepo;
+	}
+
+
+	private static SyncDirection direction(ISyncRepository destinationRepo, ISyncRepository secondaryRepo) {
+		return destinationRepo == secondaryRepo ? SyncDirection.TO_SECONDARY : SyncDirection.TO_PRIMARY;
+	}
+
+
+	private void begin() {
+		metrics.start();
+		fileCount = SyncEvent.StartEvent.UNKNOWN_COUNT;
+		if (!syncEventListeners.isEmpty()) {
+			eventDispatcher = new SyncEventDispatcher(syncEventListeners, eventCapacity, progressInterval, new SyncEventDispatcher.ProgressSource() {
+				@Override
+				public SyncEvent progress() {
+					SyncMetrics.Snapshot snapshot = metrics.snapshot();
+					return new SyncEvent.ProgressEvent(fileCount, snapshot.getProcessedFiles(), snapshot.getCopiedFiles(),
+							snapshot.getCopiedBytes(), snapshot.getPlannedBytes());
+				}
+			});
+		}
+	}
+
+
+	private long startPhase(SyncPhase phase) {
+		invokeEvent(new SyncEvent.PhaseStartEvent(phase));
+		return System.nanoTime();
+	}
+
+
+	private void endPhase(SyncPhase phase, long phaseStart) {
+		long time = System.nanoTime() - phaseStart;
+		metrics.phase(phase, time);
+		invokeEvent(new SyncEvent.PhaseEndEvent(phase, time));
+	}
+
+
+	private void end() {
+		flushState();
+		metrics.end();
+		if (eventDispatcher != null) {
+			eventDispatcher.close();
+			eventDispatcher = null;
+		}
 	}
 
 
 	private void scan() {
+		//scan the secondary repository in background while primary is scanned
+		FutureTask<List<ISyncFile>> secondaryScan = new FutureTask<List<ISyncFile>>(new Callable<List<ISyncFile>>() {
+			@Override
+			public List<ISyncFile> call() throws Exception {
+				return secondaryRepo.scan();
+			}
+		});
+		Thread secondaryThread = new Thread(secondaryScan, "sync-scan-secondary");
+		secondaryThread.setDaemon(true);
+		secondaryThread.start();
+
 		primaryFiles = primaryRepo.scan();
-		secondaryFiles = secondaryRepo.scan();
+		secondaryFiles = new SyncFileIndex(waitFor(secondaryScan), caseSensitivity);
 
 		//invoke start event
 		if (mode == SyncMode.ONE_DIRECTIONAL) {
-			invokeEvent(new SyncEvent.StartEvent(primaryFiles.size()));
+			start(primaryFiles.size());
 		} else {
 			long count = primaryFiles.size() > secondaryFiles.size() ? primaryFiles.size() : secondaryFiles.size();
-			invokeEvent(new SyncEvent.StartEvent(count));
+			start(count);
 		}
 
 	}
@@ -114,74 +916,471 @@ public class Sync {
 	private void merge() {
 		// go through primary files and merge them with secondary
 		for (ISyncFile a : primaryFiles) {
-			invokeEvent(new SyncEvent.ProcessFileEvent(a));
-			ISyncFile b = getAndRemoveFile(a, secondaryFiles);
-			if (b != null) {
-				merge(a, b);
-			} else {
-				copy(a, secondaryRepo);
-			}
+			process(a, secondaryFiles.getAndRemove(a));
 		}
 
 		//copy rest of missing files from secondary to primary
-		if (mode == SyncMode.BI_DIRECTIONAL) {
-			for (ISyncFile b : secondaryFiles) {
-				invokeEvent(new SyncEvent.ProcessFileEvent(b));
-				copy(b, primaryRepo);
+		for (ISyncFile b : secondaryFiles.remaining()) {
+			process(null, b);
+		}
+	}
+
+
+	/**
+	 * Merge-join of two sorted streams. Each step advances the side with
+	 * lower path, or both if paths are matching.
+	 */
+	private void mergeStreams() {
+		SyncPathComparator order = new SyncPathComparator(caseSensitivity);
+		ISyncFileIterator primaryIt = null;
+		ISyncFileIterator secondaryIt = null;
+		try {
+			primaryIt = primaryRepo.iterate(order);
+			secondaryIt = secondaryRepo.iterate(order);
+
+			ISyncFile a = nextOrNull(primaryIt);
+			ISyncFile b = nextOrNull(secondaryIt);
+			while (a != null || b != null) {
+				int cmp;
+				if (a == null) {
+					cmp = 1;
+				} else if (b == null) {
+					cmp = -1;
+				} else {
+					cmp = order.compare(a.path(), b.path());
+				}
+
+				if (cmp == 0) {
+					process(a, b);
+					a = nextOrNull(primaryIt);
+					b = nextOrNull(secondaryIt);
+				} else if (cmp < 0) {
+					process(a, null);
+					a = nextOrNull(primaryIt);
+				} else {
+					process(null, b);
+					b = nextOrNull(secondaryIt);
+				}
+			}
+		} catch (IOException e) {
+			throw new SyncError("error when scan", e);
+		} finally {
+			closeQuietly(primaryIt);
+			closeQuietly(secondaryIt);
+		}
+	}
+
+
+	/**
+	 * Process the pair of files with the same path. One of them
+	 * is null if the file exists only in one repository.
+	 */
+	private void process(ISyncFile primary, ISyncFile secondary) {
+		if (primary != null) {
+			primarySeen++;
+		}
+		if (secondary != null) {
+			secondarySeen++;
+		}
+
+		if (primary != null && secondary != null) {
+			processed(primary);
+			merge(primary, secondary);
+		} else if (primary != null) {
+			processed(primary);
+			if (!planDelete(primary, primaryRepo)) {
+				plan(SyncAction.Type.COPY, primary, null, secondaryRepo);
+			}
+		} else if (secondary != null && mode == SyncMode.BI_DIRECTIONAL) {
+			processed(secondary);
+			if (!planDelete(secondary, secondaryRepo)) {
+				plan(SyncAction.Type.COPY, secondary, null, primaryRepo);
+			}
+		}
+	}
+
+
+	/**
+	 * Plan the deletion of the file which exists in one repository only.
+	 * If the file is same as at the last sync, it was deleted in the other
+	 * repository. The same applies to the stale copy of file matching its
+	 * tombstone. The file changed since the last sync is copied, so the
+	 * modification wins over the deletion.
+	 *
+	 * @return true if the deletion is planned
+	 */
+	private boolean planDelete(ISyncFile file, ISyncRepository repository) {
+		if (stateStore == null || !deletePropagation || mode != SyncMode.BI_DIRECTIONAL) {
+			return false;
+		}
+
+		SyncState state = stateStore.get(stateKey(file));
+		if (state == null || (state.isTombstone() && state.getDeleted() < System.currentTimeMillis() - tombstoneTtl)) {
+			return false;
+		}
+
+		try {
+			boolean unchanged = repository == primaryRepo ?
+					state.matchesPrimary(file.size(), file.timestamp(), file.fileKey()) :
+					state.matchesSecondary(file.size(), file.timestamp(), file.fileKey());
+			if (!unchanged) {
+				return false;
 			}
+		} catch (IOException e) {
+			throw new SyncError("error when plan " + file.path(), e);
+		}
+
+		plan(SyncAction.Type.DELETE, null, file, repository);
+		return true;
+	}
+
+
+	private void processed(ISyncFile file) {
+		plannedFiles++;
+		metrics.processed();
+		fileEvent(new SyncEvent.ProcessFileEvent(file));
+	}
+
+
+	private void plan(SyncAction.Type type, ISyncFile source, ISyncFile destination, ISyncRepository destinationRepo) {
+		SyncAction action;
+		try {
+			action = new SyncAction(type, direction(destinationRepo, secondaryRepo), source, destination);
+		} catch (IOException e) {
+			throw new SyncError("error when plan " + (source != null ? source : destination).path(), e);
+		}
+
+		if (spaceLeft != null && type != SyncAction.Type.DELETE) {
+			//streaming sync executes the action right away
+			reserveSpace(action);
+			execute(action);
+		} else {
+			plannedActions.add(action);
 		}
 	}
 
 
 	private void merge(ISyncFile primary, ISyncFile secondary) {
 		try {
+			SyncState state = stateStore != null ? stateStore.get(stateKey(primary)) : null;
+			if (state != null && !state.isTombstone()) {
+				boolean primaryChanged = !state.matchesPrimary(primary.size(), primary.timestamp(), primary.fileKey());
+				boolean secondaryChanged = !state.matchesSecondary(secondary.size(), secondary.timestamp(), secondary.fileKey());
+				if (!primaryChanged && !secondaryChanged) {
+					metrics.skipped();
+					return;
+				} else if (!secondaryChanged) {
+					update(primary, secondary, secondaryRepo);
+					return;
+				} else if (!primaryChanged) {
+					update(secondary, primary, primaryRepo);
+					return;
+				}
+				//both files changed, newer one wins
+			}
+
 			long primaryTime = primary.timestamp();
 			long secondaryTime = secondary.timestamp();
 			if (primaryTime > secondaryTime) {
-				copy(primary, secondaryRepo);
+				update(primary, secondary, secondaryRepo);
 			} else if (primaryTime < secondaryTime) {
-				copy(secondary, primaryRepo);
+				update(secondary, primary, primaryRepo);
+			} else {
+				metrics.skipped();
+				if (stateStore != null && primary.size() == secondary.size()) {
+					plan(SyncAction.Type.RECORD, primary, secondary, secondaryRepo);
+				}
 			}
 		} catch (IOException e) {
-			e.printStackTrace();
+			throw new SyncError("error when sync " + primary.path(), e);
 		}
 	}
 
 
-	private void copy(ISyncFile source, ISyncRepository destinationRepo) {
-		OutputStream os = null;
-		try {
-			invokeEvent(new SyncEvent.CopyEvent(source, destinationRepo));
+	/**
+	 * Plan the update of existing destination file by the source. When
+	 * the digest comparison is enabled and both files have the same size,
+	 * they're compared by digests before copy.
+	 */
+	private void update(ISyncFile source, ISyncFile destination, ISyncRepository destinationRepo) throws IOException {
+		if (digestCache == null || source.size() != destination.size()) {
+			plan(SyncAction.Type.COPY, source, destination, destinationRepo);
+		} else {
+			plan(SyncAction.Type.COMPARE, source, destination, destinationRepo);
+		}
+	}
 
+
+	/**
+	 * The digests are compared by digest workers. Identical files are
+	 * not copied, only the timestamp of destination is reconciled.
+	 */
+	private void compare(final ISyncFile source, final ISyncFile destination, final ISyncRepository destinationRepo) {
+		digestEngine.submit(null, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					long start = System.nanoTime();
+					byte[] sourceDigest = digestCache.digest(source);
+					byte[] destinationDigest = digestCache.digest(destination);
+					metrics.digested(System.nanoTime() - start);
+					if (Arrays.equals(sourceDigest, destinationDigest)) {
+						metrics.skipped();
+						destination.touch(source.timestamp());
+						if (stateStore != null) {
+							saveState(source, destinationRepo.getFile(destination.path()), destinationRepo);
+						}
+					} else {
+						copy(source, destinationRepo);
+					}
+				} catch (IOException e) {
+					throw new SyncError("error when compare " + source.path(), e);
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * Invoke the copy event and hand the copy over to copy engine. The
+	 * events are fired in order of execution, even if copies are running
+	 * concurrently.
+	 */
+	private void copy(final ISyncFile source, final ISyncRepository destinationRepo) {
+		fileEvent(new SyncEvent.CopyEvent(source, destinationRepo));
+		copyEngine.submit(destinationRepo, new Runnable() {
+			@Override
+			public void run() {
+				transfer(source, destinationRepo);
+			}
+		});
+	}
+
+
+	private void transfer(ISyncFile source, ISyncRepository destinationRepo) {
+		try {
 			//copy
-			os = destinationRepo.openStream(source.path());
-			source.copyTo(os);
+			SyncRateLimiter limiter = rateLimiters.get(destinationRepo);
+			if (limiter != null) {
+				limiter.acquireOperation();
+			}
+			long start = System.nanoTime();
+			long bytes;
+			if (isDeltaCandidate(source, destinationRepo)) {
+				bytes = transferDelta(source, (ISyncDeltaRepository) destinationRepo);
+				if (limiter != null) {
+					limiter.written(bytes, System.nanoTime() - start);
+					limiter.acquireBytes(bytes);
+				}
+			} else {
+				bytes = transferAtomic(source, destinationRepo, limiter);
+			}
+			long copied = System.nanoTime();
 
 			//touch
 			ISyncFile destinationFile = destinationRepo.getFile(source.path());
 			long timestamp = source.timestamp();
 			destinationFile.touch(timestamp);
+			metrics.copied(bytes, copied - start, System.nanoTime() - copied);
+
+			if (stateStore != null) {
+				saveState(source, destinationFile, destinationRepo);
+			}
 		} catch (IOException e) {
 			throw new SyncError("error when copy " + source.path(), e);
+		}
+	}
+
+
+	/**
+	 * Copy the source through the transfer, which replaces the destination
+	 * only when the whole content is written. Large files are checkpointed,
+	 * so the interrupted copy is resumed by the next sync. With the rate
+	 * limiter, the content is copied in smaller chunks and each chunk
+	 * waits for its bytes. Returns number of transferred bytes.
+	 */
+	private long transferAtomic(ISyncFile source, ISyncRepository destinationRepo, SyncRateLimiter limiter) throws IOException {
+		long size = source.size();
+		ISyncTransfer transfer = destinationRepo.openTransfer(source.path(), size, source.timestamp());
+		try {
+			long resumed = transfer.getOffset();
+			SeekableByteChannel in = source.openChannel();
+			try {
+				in.position(resumed);
+				long offset = resumed;
+				long checkpoint = resumed + checkpointInterval;
+				while (offset < size) {
+					long chunk = Math.min(checkpoint, size) - offset;
+					if (limiter != null) {
+						chunk = Math.min(chunk, LIMITED_CHUNK);
+						limiter.acquireBytes(chunk);
+					}
+					long start = System.nanoTime();
+					long n = transfer.transferFrom(in, chunk);
+					if (n <= 0) {
+						break;
+					}
+					if (limiter != null) {
+						limiter.written(n, System.nanoTime() - start);
+					}
+					offset += n;
+					if (offset >= checkpoint && offset < size) {
+						transfer.checkpoint();
+						checkpoint = offset + checkpointInterval;
+					}
+				}
+				if (offset != size || in.size() != size) {
+					throw new IOException("the file " + source.path() + " has been changed during copy");
+				}
+			} finally {
+				in.close();
+			}
+			transfer.commit();
+			return size - resumed;
 		} finally {
-			if (os != null) {
-				try {
-					os.close();
-				} catch (IOException e) {
-					throw new SyncError("Error closing the stream when copy " + source.path(), e);
+			transfer.close();
+		}
+	}
+
+
+	private boolean isDeltaCandidate(ISyncFile source, ISyncRepository destinationRepo) throws IOException {
+		if (deltaThreshold == 0 || source.size() < deltaThreshold || !(destinationRepo instanceof ISyncDeltaRepository)) {
+			return false;
+		}
+		ISyncFile destination = destinationRepo.getFile(source.path());
+		return destination != null && destination.size() >= deltaThreshold;
+	}
+
+
+	/**
+	 * Update the destination by delta, returns number of written bytes.
+	 * The delta is applied to the copy of the destination made by the
+	 * repository, which replaces the destination when it's complete. The
+	 * signatures are computed by the repository too, so the destination
+	 * isn't read whole.
+	 */
+	private long transferDelta(ISyncFile source, ISyncDeltaRepository destinationRepo) throws IOException {
+		int blockSize = SyncDelta.blockSize(source.size());
+		ISyncDeltaTransfer transfer = destinationRepo.openDeltaTransfer(source.path());
+		try {
+			SyncDelta.Signatures signatures = destinationRepo.signatures(source.path(), blockSize);
+			long written;
+			SeekableByteChannel in = source.openChannel();
+			try {
+				written = new SyncDelta(blockSize).apply(in, transfer.getChannel(), signatures).getWritten();
+				if (in.size() != source.size()) {
+					throw new IOException("the file " + source.path() + " has been changed during copy");
 				}
+			} finally {
+				in.close();
+			}
+			transfer.commit();
+			return written;
+		} finally {
+			transfer.close();
+		}
+	}
+
+
+	private String stateKey(ISyncFile file) {
+		return SyncFileIndex.key(file.path(), caseSensitivity);
+	}
+
+
+	private void saveState(ISyncFile primary, ISyncFile secondary) throws IOException {
+		SyncState state = new SyncState(
+				primary.size(),
+				primary.timestamp(),
+				secondary.timestamp(),
+				primary.fileKey(),
+				secondary.fileKey());
+		stateStore.put(stateKey(primary), state);
+	}
+
+
+	private void saveState(ISyncFile source, ISyncFile destination, ISyncRepository destinationRepo) throws IOException {
+		if (destinationRepo == primaryRepo) {
+			saveState(destination, source);
+		} else {
+			saveState(source, destination);
+		}
+	}
+
+
+	private void flushState() {
+		if (stateStore != null) {
+			try {
+				stateStore.flush();
+			} catch (IOException e) {
+				//state is only an optimization, next sync falls back to timestamps
+				log.error("error when flush sync state", e);
+			}
+		}
+	}
+
+
+	private static ISyncFile nextOrNull(ISyncFileIterator it) {
+		return it.hasNext() ? it.next() : null;
+	}
+
+
+	private static void closeQuietly(ISyncFileIterator it) {
+		if (it != null) {
+			try {
+				it.close();
+			} catch (IOException e) {
+				log.error("error when close iterator", e);
+			}
+		}
+	}
+
+
+	private static <T> T waitFor(FutureTask<T> task) {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SyncError("scan has been interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
 			}
+			throw new SyncError("error when scan", e.getCause());
 		}
 	}
 
 
+	private void start(long count) {
+		fileCount = count;
+		invokeEvent(new SyncEvent.StartEvent(count));
+	}
+
+
+	/**
+	 * Publish the lifecycle event, it's never dropped
+	 */
 	private void invokeEvent(SyncEvent e) {
-		for (SyncEventListener listener : syncEventListeners) {
-			listener.listen(e);
+		if (eventDispatcher != null) {
+			eventDispatcher.publishAndWait(e);
 		}
 	}
 
 
+	/**
+	 * Publish the per-file event, it's dropped if listeners are
+	 * behind. Events may be published also by digest workers.
+	 */
+	private void fileEvent(SyncEvent e) {
+		if (eventDispatcher != null) {
+			eventDispatcher.publish(e);
+		}
+	}
+
+
+	/**
+	 * Linear lookup of the file by path. The sync itself uses
+	 * {@link SyncFileIndex} which is constant-time per file.
+	 */
 	public static ISyncFile getAndRemoveFile(ISyncFile target, Collection<ISyncFile> collection) {
 		String targetPath = target.path();
 		for(ISyncFile f : collection) {
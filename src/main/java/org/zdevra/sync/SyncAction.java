@@ -0,0 +1,168 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * One planned action of the {@link SyncPlan}. The action is immutable
+ * and carries only paths and attributes, so the plan can be stored and
+ * executed later. The scanned files are kept only in memory to save
+ * their lookup when the plan is executed by the same sync.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class SyncAction implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Type of the action
+	 */
+	public enum Type {
+		/** copy the source into destination */
+		COPY,
+
+		/** compare content by digests, copy the source only if they're different */
+		COMPARE,
+
+		/** files are in sync, only their state is recorded */
+		RECORD,
+
+		/** the file was deleted in the other repository, the destination is deleted too */
+		DELETE
+	}
+
+	/** size of destination which doesn't exist */
+	public static final long NO_DESTINATION = -1;
+
+	private final Type type;
+	private final SyncDirection direction;
+	private final String path;
+	private final long size;
+	private final long timestamp;
+	private final long destinationSize;
+
+	private final transient ISyncFile source;
+	private final transient ISyncFile destination;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param type
+	 * @param direction
+	 * @param source      the source file, or null if the destination is deleted
+	 * @param destination the destination file, or null if it doesn't exist
+	 */
+	SyncAction(Type type, SyncDirection direction, ISyncFile source, ISyncFile destination) throws IOException {
+		this.type = type;
+		this.direction = direction;
+		if (source != null) {
+			this.path = source.path();
+			this.size = source.size();
+			this.timestamp = source.timestamp();
+		} else {
+			this.path = destination.path();
+			this.size = 0;
+			this.timestamp = destination.timestamp();
+		}
+		this.destinationSize = destination != null ? destination.size() : NO_DESTINATION;
+		this.source = source;
+		this.destination = destination;
+	}
+
+
+	public Type getType() {
+		return type;
+	}
+
+	public SyncDirection getDirection() {
+		return direction;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	/** size of the source, 0 for deletion */
+	public long getSize() {
+		return size;
+	}
+
+	/** timestamp of the source, or of the deleted destination */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/** size of the destination, or {@link #NO_DESTINATION} */
+	public long getDestinationSize() {
+		return destinationSize;
+	}
+
+	/**
+	 * Returns the number of bytes the action may transfer
+	 */
+	public long getBytes() {
+		return type == Type.RECORD || type == Type.DELETE ? 0 : size;
+	}
+
+	/**
+	 * Returns the net growth of the destination, the size of the source
+	 * less the size of the replaced destination. Shrinking file doesn't
+	 * count as a gain, the order of transfers isn't known.
+	 */
+	public long getSpaceNeeded() {
+		if (type == Type.RECORD || type == Type.DELETE) {
+			return 0;
+		}
+		return destinationSize == NO_DESTINATION ? size : Math.max(0, size - destinationSize);
+	}
+
+	/**
+	 * Returns the space needed above the net growth while the action
+	 * runs. The part file is written aside and the replaced destination
+	 * is kept till the rename, so both exist for a while.
+	 */
+	public long getHeadroomNeeded() {
+		return getBytes() - getSpaceNeeded();
+	}
+
+	/** scanned source, null if the plan was deserialized or the action is deletion */
+	ISyncFile getSource() {
+		return source;
+	}
+
+	/** scanned destination, null if it doesn't exist or the plan was deserialized */
+	ISyncFile getDestination() {
+		return destination;
+	}
+
+	@Override
+	public String toString() {
+		return type + " " + direction + " " + path + " (" + size + " bytes)";
+	}
+}
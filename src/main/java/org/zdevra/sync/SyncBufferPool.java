@@ -0,0 +1,106 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of large I/O buffers shared by copy operations. Allocating
+ * a megabyte buffer for each copied file would put pressure on GC
+ * (and for direct buffers on the native memory), so buffers are
+ * returned back to pool and reused.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class SyncBufferPool {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	/** default size of the buffer */
+	public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+	/** pool shared by repositories which don't configure own pool */
+	public static final SyncBufferPool DEFAULT = new SyncBufferPool(DEFAULT_BUFFER_SIZE, false);
+
+	private final int bufferSize;
+	private final boolean direct;
+
+	/** max. number of idle buffers kept in pool */
+	private final int maxIdle;
+
+	private final ConcurrentLinkedQueue<ByteBuffer> idle = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger idleCount = new AtomicInteger();
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param bufferSize size of each buffer in bytes
+	 * @param direct     if true, buffers are allocated outside of heap
+	 */
+	public SyncBufferPool(int bufferSize, boolean direct) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("buffer size must be positive:" + bufferSize);
+		}
+		this.bufferSize = bufferSize;
+		this.direct = direct;
+		this.maxIdle = Runtime.getRuntime().availableProcessors() * 2;
+	}
+
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+
+	/**
+	 * Returns cleared buffer from pool or allocate new one
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buf = idle.poll();
+		if (buf == null) {
+			return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+		}
+		idleCount.decrementAndGet();
+		buf.clear();
+		return buf;
+	}
+
+
+	/**
+	 * Returns the buffer back to pool
+	 */
+	public void release(ByteBuffer buf) {
+		if (buf.capacity() != bufferSize) {
+			return;
+		}
+		if (idleCount.incrementAndGet() <= maxIdle) {
+			idle.offer(buf);
+		} else {
+			idleCount.decrementAndGet();
+		}
+	}
+
+}
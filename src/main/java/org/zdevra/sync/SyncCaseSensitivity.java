@@ -0,0 +1,50 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+/**
+ * Determines how the paths from primary and secondary
+ * repository are matched together.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public enum SyncCaseSensitivity {
+	SENSITIVE("sensitive"),
+	INSENSITIVE("insensitive");
+
+	private String name;
+
+	SyncCaseSensitivity(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+
+	public static SyncCaseSensitivity from(String value) {
+		for (SyncCaseSensitivity v : SyncCaseSensitivity.values()) {
+			if (v.name.equalsIgnoreCase(value)) {
+				return v;
+			}
+		}
+		return INSENSITIVE;
+	}
+
+}
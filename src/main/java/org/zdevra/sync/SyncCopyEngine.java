@@ -0,0 +1,233 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs copy operations concurrently. The number of running copies
+ * is bounded globally by number of threads and for each destination
+ * repository by its limit. Because each running copy holds two open
+ * files, the limits are also bounding number of open descriptors.
+ *
+ * Submitting blocks when the limit is reached, so the caller
+ * (merging files) can't run away from copying. When any copy fails,
+ * the next submit or {@link #await()} throws the failure and no
+ * other copy is started.
+ *
+ * With one thread the copies are executed directly by the caller.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class SyncCopyEngine {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final int threads;
+
+	/** null when the copies run on caller's thread */
+	private final ExecutorService executor;
+
+	/** bounds number of all running copies */
+	private final Semaphore running;
+
+	/** bounds number of running copies per destination */
+	private final Map<ISyncRepository, Semaphore> destinationLimits = new HashMap<ISyncRepository, Semaphore>();
+
+	/** first failure of the copy */
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param threads max. number of concurrent copies
+	 * @param limits  max. number of concurrent copies per destination repository
+	 */
+	SyncCopyEngine(int threads, Map<ISyncRepository, Integer> limits) {
+		this(threads, limits, "sync-copy");
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param threads    max. number of concurrent tasks
+	 * @param limits     max. number of concurrent tasks per destination repository
+	 * @param threadName prefix of the worker thread names
+	 */
+	SyncCopyEngine(int threads, Map<ISyncRepository, Integer> limits, String threadName) {
+		this.threads = threads;
+		this.running = new Semaphore(threads);
+		for (Map.Entry<ISyncRepository, Integer> limit : limits.entrySet()) {
+			destinationLimits.put(limit.getKey(), new Semaphore(Math.min(threads, limit.getValue())));
+		}
+
+		if (threads > 1) {
+			executor = Executors.newFixedThreadPool(threads, new CopyThreadFactory(threadName));
+		} else {
+			executor = null;
+		}
+	}
+
+
+	/**
+	 * Submit the copy into destination. Blocks until there is
+	 * free slot for the destination.
+	 */
+	void submit(ISyncRepository destination, final Runnable copy) {
+		checkFailure();
+		if (executor == null) {
+			//the caller may be a worker of another engine, so the limit still applies
+			acquire(running);
+			try {
+				copy.run();
+			} finally {
+				running.release();
+			}
+			return;
+		}
+
+		final Semaphore destinationLimit = destinationLimits.get(destination);
+		acquire(destinationLimit);
+		try {
+			acquire(running);
+		} catch (SyncError e) {
+			release(destinationLimit);
+			throw e;
+		}
+
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (failure.get() == null) {
+							copy.run();
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						running.release();
+						release(destinationLimit);
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			running.release();
+			release(destinationLimit);
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Wait until all submitted copies are finished and throws the
+	 * failure if any copy failed.
+	 */
+	void await() {
+		acquire(running, threads);
+		running.release(threads);
+		checkFailure();
+	}
+
+
+	/**
+	 * Stop the engine. The copies in progress are finished, the
+	 * engine doesn't wait for them if the caller is interrupted.
+	 */
+	void shutdown() {
+		if (executor != null) {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+
+	private void checkFailure() {
+		Throwable e = failure.get();
+		if (e instanceof SyncError) {
+			throw (SyncError) e;
+		} else if (e != null) {
+			throw new SyncError("error when copy", e);
+		}
+	}
+
+
+	private static void acquire(Semaphore semaphore) {
+		if (semaphore != null) {
+			acquire(semaphore, 1);
+		}
+	}
+
+
+	private static void acquire(Semaphore semaphore, int permits) {
+		try {
+			semaphore.acquire(permits);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SyncError("sync has been interrupted", e);
+		}
+	}
+
+
+	private static void release(Semaphore semaphore) {
+		if (semaphore != null) {
+			semaphore.release();
+		}
+	}
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// inner classes
+	//------------------------------------------------------------------------------------------------------------------
+
+	private static class CopyThreadFactory implements ThreadFactory {
+
+		private final String name;
+		private final AtomicInteger counter = new AtomicInteger();
+
+		private CopyThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
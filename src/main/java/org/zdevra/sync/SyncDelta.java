@@ -0,0 +1,476 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * rsync-like delta transfer. The destination file is split into blocks
+ * with weak rolling checksum and strong MD5 checksum. The source is
+ * scanned by rolling window and windows matching any block of destination
+ * are not transferred, only the literal data between them.
+ *
+ * The delta is applied in place, so the destination must not be read by
+ * anyone else. As in rsync's in-place mode, the matching block can be moved
+ * only towards the start of the file, therefore the block which is needed
+ * later is never overwritten. The blocks which are on the same offset in
+ * both files are not written at all.
+ *
+ * The signatures may be computed by the repository holding the destination
+ * (see {@link ISyncDeltaRepository}), so the remote destination isn't read
+ * whole, only the blocks which are moved.
+ *
+ * When the destination is a prefix of the source (e.g. appended logs),
+ * only the tail is written without scanning. The prefix is checked by
+ * signatures, so the destination isn't read at all.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class SyncDelta {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	public static final int MIN_BLOCK_SIZE = 2 * 1024;
+	public static final int MAX_BLOCK_SIZE = 128 * 1024;
+
+	/** max. number of blocks compared by the append check */
+	public static final int APPEND_SAMPLES = 32;
+
+	private final int blockSize;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param blockSize size of the block of destination
+	 */
+	public SyncDelta(int blockSize) {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("block size must be positive:" + blockSize);
+		}
+		this.blockSize = blockSize;
+	}
+
+
+	/**
+	 * Returns the block size suitable for the file of given size. As
+	 * in rsync, it's square root of the size.
+	 */
+	public static int blockSize(long fileSize) {
+		long size = ((long) Math.sqrt(fileSize) + 1023) & ~1023L;
+		return (int) Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, size));
+	}
+
+
+	/**
+	 * Update the destination to have the same content as the source.
+	 */
+	public Result apply(SeekableByteChannel source, SeekableByteChannel destination) throws IOException {
+		return apply(source, destination, signatures(destination));
+	}
+
+
+	/**
+	 * Update the destination by its signatures computed earlier, e.g. by
+	 * the remote repository.
+	 */
+	public Result apply(SeekableByteChannel source, SeekableByteChannel destination, Signatures signatures) throws IOException {
+		if (signatures.getBlockSize() != blockSize) {
+			throw new IllegalArgumentException("signatures have different block size:" + signatures.getBlockSize());
+		}
+		long sourceSize = source.size();
+		long destinationSize = signatures.getSize();
+		if (destination.size() != destinationSize) {
+			throw new IOException("the destination was changed since its signatures were computed");
+		}
+
+		Result result = new Result();
+		if (destinationSize > 0 && destinationSize <= sourceSize && isPrefix(source, signatures)) {
+			result.appended = true;
+			result.matched = destinationSize;
+			copyRange(source, destinationSize, sourceSize - destinationSize, destination, result);
+			return result;
+		}
+
+		scan(source, destination, signatures, result);
+		destination.truncate(sourceSize);
+		return result;
+	}
+
+
+	/**
+	 * Compute signatures of all full blocks of the destination and
+	 * the digest of its last partial block
+	 */
+	public Signatures signatures(SeekableByteChannel destination) throws IOException {
+		Signatures signatures = new Signatures(blockSize, destination.size());
+		MessageDigest md5 = md5();
+		byte[] block = new byte[blockSize];
+		destination.position(0);
+		for (int i = 0; i < signatures.getCount(); ++i) {
+			readFully(destination, block, blockSize);
+			signatures.add(i, weak(block, 0, blockSize), md5.digest(block));
+		}
+
+		int tail = (int) (signatures.getSize() - (long) signatures.getCount() * blockSize);
+		readFully(destination, block, tail);
+		md5.update(block, 0, tail);
+		signatures.setTail(md5.digest());
+		return signatures;
+	}
+
+
+	/**
+	 * Scan the source by rolling window and apply the delta
+	 */
+	private void scan(SeekableByteChannel source, SeekableByteChannel destination, Signatures signatures, Result result) throws IOException {
+		MessageDigest md5 = md5();
+		byte[] buf = new byte[Math.max(4 * blockSize, 1024 * 1024)];
+		byte[] block = new byte[blockSize];
+		long bufStart = 0;
+		int filled = 0;
+		int window = 0;
+		int literalStart = 0;
+		boolean eof = false;
+		boolean fresh = true;
+		int a = 0;
+		int b = 0;
+
+		source.position(0);
+		while (true) {
+			if (window + blockSize > filled) {
+				if (eof) {
+					break;
+				}
+
+				//make place for the next data, pending literal is written when it fills the buffer
+				if (filled - literalStart + blockSize >= buf.length) {
+					writeLiteral(destination, bufStart + literalStart, buf, literalStart, window - literalStart, result);
+					literalStart = window;
+				}
+				System.arraycopy(buf, literalStart, buf, 0, filled - literalStart);
+				bufStart += literalStart;
+				filled -= literalStart;
+				window -= literalStart;
+				literalStart = 0;
+
+				int n = source.read(ByteBuffer.wrap(buf, filled, buf.length - filled));
+				if (n < 0) {
+					eof = true;
+				} else {
+					filled += n;
+				}
+				continue;
+			}
+
+			if (fresh) {
+				int weak = weak(buf, window, blockSize);
+				a = weak & 0xffff;
+				b = weak >>> 16;
+				fresh = false;
+			}
+
+			long position = bufStart + window;
+			int match = signatures.find(a | (b << 16), position, blockSize, buf, window, md5);
+			if (match >= 0) {
+				writeLiteral(destination, bufStart + literalStart, buf, literalStart, window - literalStart, result);
+
+				long blockPosition = (long) match * blockSize;
+				if (blockPosition != position) {
+					destination.position(blockPosition);
+					readFully(destination, block, blockSize);
+					write(destination, position, block, 0, blockSize, result);
+				}
+				result.matched += blockSize;
+
+				window += blockSize;
+				literalStart = window;
+				fresh = true;
+				continue;
+			}
+
+			//roll the window by one byte
+			if (window + blockSize < filled) {
+				int out = buf[window] & 0xff;
+				int in = buf[window + blockSize] & 0xff;
+				a = (a - out + in) & 0xffff;
+				b = (b - blockSize * out + a) & 0xffff;
+				window++;
+			} else {
+				window++;
+				fresh = true;
+			}
+		}
+
+		writeLiteral(destination, bufStart + literalStart, buf, literalStart, filled - literalStart, result);
+	}
+
+
+	/**
+	 * Returns true if the destination is the prefix of the source. The last
+	 * partial block and up to {@link #APPEND_SAMPLES} full blocks spread over
+	 * the destination are compared first, so different files are refused by
+	 * a bounded number of reads. Only then all blocks are confirmed, the file
+	 * changed between sampled blocks must not be taken as appended.
+	 */
+	private boolean isPrefix(SeekableByteChannel source, Signatures signatures) throws IOException {
+		MessageDigest md5 = md5();
+		byte[] block = new byte[blockSize];
+		int count = signatures.getCount();
+
+		long tailStart = (long) count * blockSize;
+		int tail = (int) (signatures.getSize() - tailStart);
+		source.position(tailStart);
+		readFully(source, block, tail);
+		md5.update(block, 0, tail);
+		if (!MessageDigest.isEqual(md5.digest(), signatures.tail)) {
+			return false;
+		}
+
+		int samples = Math.min(count, APPEND_SAMPLES);
+		for (int i = samples - 1; i >= 0; --i) {
+			int index = samples == 1 ? 0 : (int) ((long) i * (count - 1) / (samples - 1));
+			source.position((long) index * blockSize);
+			readFully(source, block, blockSize);
+			if (!MessageDigest.isEqual(md5.digest(block), signatures.strong[index])) {
+				return false;
+			}
+		}
+
+		source.position(0);
+		for (int i = 0; i < count; ++i) {
+			readFully(source, block, blockSize);
+			if (!MessageDigest.isEqual(md5.digest(block), signatures.strong[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	private static void copyRange(SeekableByteChannel source, long position, long length, SeekableByteChannel destination, Result result) throws IOException {
+		byte[] buf = new byte[64 * 1024];
+		source.position(position);
+		long remaining = length;
+		long target = position;
+		while (remaining > 0) {
+			int n = (int) Math.min(buf.length, remaining);
+			readFully(source, buf, n);
+			writeLiteral(destination, target, buf, 0, n, result);
+			remaining -= n;
+			target += n;
+		}
+	}
+
+
+	private static void writeLiteral(SeekableByteChannel destination, long position, byte[] buf, int offset, int length, Result result) throws IOException {
+		write(destination, position, buf, offset, length, result);
+		result.literal += Math.max(0, length);
+	}
+
+
+	private static void write(SeekableByteChannel destination, long position, byte[] buf, int offset, int length, Result result) throws IOException {
+		if (length <= 0) {
+			return;
+		}
+		result.written += length;
+		destination.position(position);
+		ByteBuffer bb = ByteBuffer.wrap(buf, offset, length);
+		while (bb.hasRemaining()) {
+			destination.write(bb);
+		}
+	}
+
+
+	private static void readFully(SeekableByteChannel channel, byte[] buf, int length) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(buf, 0, length);
+		while (bb.hasRemaining()) {
+			if (channel.read(bb) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+
+
+	/**
+	 * rsync weak checksum, lower 16 bits is sum of bytes and upper 16 bits
+	 * is sum of prefix sums
+	 */
+	static int weak(byte[] buf, int offset, int length) {
+		int a = 0;
+		int b = 0;
+		for (int i = 0; i < length; ++i) {
+			int x = buf[offset + i] & 0xff;
+			a += x;
+			b += (length - i) * x;
+		}
+		return (a & 0xffff) | ((b & 0xffff) << 16);
+	}
+
+
+	private static MessageDigest md5() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new SyncError("MD5 is not supported", e);
+		}
+	}
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// inner classes
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Result of the delta transfer
+	 */
+	public static class Result {
+		private long matched;
+		private long literal;
+		private long written;
+		private boolean appended;
+
+		/** bytes which were found in destination and were not transferred */
+		public long getMatched() {
+			return matched;
+		}
+
+		/** bytes which were transferred from the source */
+		public long getLiteral() {
+			return literal;
+		}
+
+		/** bytes written into the destination */
+		public long getWritten() {
+			return written;
+		}
+
+		/** true if the destination was prefix of source and only tail was written */
+		public boolean isAppended() {
+			return appended;
+		}
+	}
+
+
+	/**
+	 * Block signatures of destination, hashed by weak checksum
+	 */
+	public static class Signatures {
+		private final int blockSize;
+		private final long size;
+		private final int[] weak;
+		private final byte[][] strong;
+		private final int[] head;
+		private final int[] next;
+		private byte[] tail;
+
+		/**
+		 * Constructor
+		 *
+		 * @param blockSize size of the block
+		 * @param size      size of the destination
+		 */
+		public Signatures(int blockSize, long size) {
+			int count = (int) (size / blockSize);
+			int tableSize = Integer.highestOneBit(Math.max(16, count * 2 - 1)) << 1;
+			this.blockSize = blockSize;
+			this.size = size;
+			this.weak = new int[count];
+			this.strong = new byte[count][];
+			this.head = new int[tableSize];
+			this.next = new int[count];
+			Arrays.fill(head, -1);
+		}
+
+		public int getBlockSize() {
+			return blockSize;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		/** number of full blocks */
+		public int getCount() {
+			return weak.length;
+		}
+
+		public int getWeak(int index) {
+			return weak[index];
+		}
+
+		/** MD5 of the full block */
+		public byte[] getStrong(int index) {
+			return strong[index];
+		}
+
+		/** MD5 of the data after the last full block */
+		public byte[] getTail() {
+			return tail;
+		}
+
+		public void setTail(byte[] tail) {
+			this.tail = tail;
+		}
+
+		public void add(int index, int weakSum, byte[] strongSum) {
+			int slot = slot(weakSum);
+			weak[index] = weakSum;
+			strong[index] = strongSum;
+			next[index] = head[slot];
+			head[slot] = index;
+		}
+
+		/**
+		 * Returns index of the block matching the window, which can be
+		 * used at the position, or -1
+		 */
+		private int find(int weakSum, long position, int blockSize, byte[] buf, int offset, MessageDigest md5) {
+			byte[] strongSum = null;
+			for (int i = head[slot(weakSum)]; i >= 0; i = next[i]) {
+				if (weak[i] != weakSum || (long) i * blockSize < position) {
+					continue;
+				}
+				if (strongSum == null) {
+					md5.update(buf, offset, blockSize);
+					strongSum = md5.digest();
+				}
+				if (Arrays.equals(strong[i], strongSum)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private int slot(int weakSum) {
+			int h = weakSum * 0x9e3779b9;
+			return (h ^ (h >>> 16)) & (head.length - 1);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of content digests. The digest is keyed by the file identity
+ * (or path if repository doesn't provide it), size and timestamp, so
+ * any modification of the file makes the cached digest unreachable.
+ * The cache keeps the most recently used digests.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class SyncDigestCache {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+	private final Map<String, byte[]> digests;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 */
+	public SyncDigestCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxEntries max. number of cached digests
+	 */
+	public SyncDigestCache(final int maxEntries) {
+		this.digests = new LinkedHashMap<String, byte[]>(1024, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+
+	/**
+	 * Returns the digest of file, computes it if it isn't cached.
+	 */
+	public byte[] digest(ISyncFile file) throws IOException {
+		String key = key(file);
+		synchronized (digests) {
+			byte[] digest = digests.get(key);
+			if (digest != null) {
+				return digest;
+			}
+		}
+
+		//computed outside of the lock, the digests of other files may be computed concurrently
+		byte[] digest = file.digest();
+
+		//file could be modified while it was read
+		if (key.equals(key(file))) {
+			synchronized (digests) {
+				digests.put(key, digest);
+			}
+		}
+		return digest;
+	}
+
+
+	public int size() {
+		synchronized (digests) {
+			return digests.size();
+		}
+	}
+
+
+	private static String key(ISyncFile file) throws IOException {
+		String id = file.fileKey();
+		if (id == null) {
+			id = file.path();
+		}
+		return id + '|' + file.size() + '|' + file.timestamp();
+	}
+
+}
@@ -28,6 +28,9 @@ public interface SyncEvent {
 	 */
 	public static class StartEvent implements SyncEvent {
 
+		/** count used by streaming sync, where number of files isn't known in advance */
+		public static final long UNKNOWN_COUNT = -1;
+
 		private final long count;
 
 		StartEvent(long count) {
@@ -80,4 +83,129 @@ public interface SyncEvent {
 		}
 	}
 
+	/**
+	 * This event is invoked when file is deleted from
+	 * repository because it was deleted in the other one
+	 */
+	public static class DeleteEvent implements SyncEvent {
+
+		private final String path;
+		private final ISyncRepository repository;
+
+		DeleteEvent(String path, ISyncRepository repository) {
+			this.path = path;
+			this.repository = repository;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public ISyncRepository getRepository() {
+			return repository;
+		}
+	}
+
+	/**
+	 * This event is invoked when the phase of sync
+	 * is started
+	 */
+	public static class PhaseStartEvent implements SyncEvent {
+
+		private final SyncPhase phase;
+
+		PhaseStartEvent(SyncPhase phase) {
+			this.phase = phase;
+		}
+
+		public SyncPhase getPhase() {
+			return phase;
+		}
+	}
+
+	/**
+	 * This event is invoked when the phase of sync
+	 * is finished and carry its wall time
+	 */
+	public static class PhaseEndEvent implements SyncEvent {
+
+		private final SyncPhase phase;
+		private final long time;
+
+		PhaseEndEvent(SyncPhase phase, long time) {
+			this.phase = phase;
+			this.time = time;
+		}
+
+		public SyncPhase getPhase() {
+			return phase;
+		}
+
+		/** wall time of the phase in nanoseconds */
+		public long getTime() {
+			return time;
+		}
+	}
+
+	/**
+	 * This event is invoked periodically during the sync
+	 * instead of handling each file, it carry the number
+	 * of processed and copied files and bytes so far
+	 */
+	public static class ProgressEvent implements SyncEvent {
+
+		private final long count;
+		private final long processed;
+		private final long copied;
+		private final long bytes;
+		private final long plannedBytes;
+
+		ProgressEvent(long count, long processed, long copied, long bytes, long plannedBytes) {
+			this.count = count;
+			this.processed = processed;
+			this.copied = copied;
+			this.bytes = bytes;
+			this.plannedBytes = plannedBytes;
+		}
+
+		/** total number of files, or {@link StartEvent#UNKNOWN_COUNT} */
+		public long count() {
+			return count;
+		}
+
+		public long getProcessed() {
+			return processed;
+		}
+
+		public long getCopied() {
+			return copied;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		/** max. bytes the plan transfers, 0 while the sync is planning */
+		public long getPlannedBytes() {
+			return plannedBytes;
+		}
+
+		/**
+		 * Returns the progress in percents, or -1 if it's not known yet.
+		 * When the plan is executed, the progress is given by copied
+		 * bytes, otherwise by processed files.
+		 */
+		public double getPercentage() {
+			double value;
+			if (plannedBytes > 0) {
+				value = (bytes * 100.0d) / plannedBytes;
+			} else if (count > 0) {
+				value = (processed * 100.0d) / count;
+			} else {
+				return -1;
+			}
+			return Math.min(100.0d, value);
+		}
+	}
+
 }
@@ -0,0 +1,234 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import org.apache.log4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers events to listeners on its own thread, so the slow listener
+ * can't stall merging or copying. Events are published into a bounded
+ * lock-free ring buffer (multiple producers, one consumer). When the
+ * buffer is full, per-file events are dropped and counted, only the
+ * rare lifecycle events wait for a free slot.
+ *
+ * Besides published events, the dispatcher emits the coalesced progress
+ * event at fixed rate, so listeners showing progress don't need to handle
+ * each file.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class SyncEventDispatcher {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	static Logger log = Logger.getLogger(SyncEventDispatcher.class);
+
+	public static final int DEFAULT_CAPACITY = 64 * 1024;
+	public static final long DEFAULT_PROGRESS_INTERVAL = 100;
+
+	private final List<SyncEventListener> listeners;
+	private final ProgressSource progressSource;
+	private final long progressInterval;
+
+	private final int mask;
+	private final AtomicReferenceArray<SyncEvent> slots;
+
+	/** sequence of each slot, the slot is free for the producer when sequence equals to its position */
+	private final AtomicLongArray sequences;
+
+	/** next position for producers */
+	private final AtomicLong tail = new AtomicLong();
+
+	/** next position for consumer, written only by dispatcher thread */
+	private volatile long head;
+
+	private final AtomicLong dropped = new AtomicLong();
+	private final Thread thread;
+	private volatile boolean running = true;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor starts the dispatcher thread
+	 *
+	 * @param listeners        listeners receiving events, the list must be safe for iteration during modification
+	 * @param capacity         size of the buffer, rounded up to power of two
+	 * @param progressInterval interval of progress events in milliseconds
+	 * @param progressSource   creates progress events, may be null
+	 */
+	SyncEventDispatcher(List<SyncEventListener> listeners, int capacity, long progressInterval, ProgressSource progressSource) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.listeners = listeners;
+		this.progressSource = progressSource;
+		this.progressInterval = TimeUnit.MILLISECONDS.toNanos(progressInterval);
+		this.mask = size - 1;
+		this.slots = new AtomicReferenceArray<SyncEvent>(size);
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; ++i) {
+			sequences.set(i, i);
+		}
+
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				dispatch();
+			}
+		}, "sync-events");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+
+	/**
+	 * Publish the event which can be dropped when the buffer is full.
+	 * Never blocks.
+	 */
+	void publish(SyncEvent e) {
+		if (!offer(e)) {
+			dropped.incrementAndGet();
+		}
+	}
+
+
+	/**
+	 * Publish the event which must be delivered, waits for
+	 * the free slot if the buffer is full.
+	 */
+	void publishAndWait(SyncEvent e) {
+		while (!offer(e)) {
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+		}
+	}
+
+
+	/**
+	 * Returns number of events which were dropped because of full buffer
+	 */
+	long getDropped() {
+		return dropped.get();
+	}
+
+
+	/**
+	 * Wait until all published events are delivered, then emits last
+	 * progress and stops the dispatcher thread.
+	 */
+	void close() {
+		long published = tail.get();
+		while (head < published && thread.isAlive()) {
+			LockSupport.unpark(thread);
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+		}
+
+		running = false;
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	private boolean offer(SyncEvent e) {
+		while (true) {
+			long position = tail.get();
+			int index = (int) position & mask;
+			long sequence = sequences.get(index);
+			if (sequence == position) {
+				if (tail.compareAndSet(position, position + 1)) {
+					slots.set(index, e);
+					sequences.set(index, position + 1);
+					return true;
+				}
+			} else if (sequence < position) {
+				//the slot wasn't consumed yet, buffer is full
+				return false;
+			}
+		}
+	}
+
+
+	private void dispatch() {
+		long nextProgress = System.nanoTime() + progressInterval;
+		while (true) {
+			boolean stopping = !running;
+
+			//drain everything what is published
+			long position = head;
+			while (true) {
+				int index = (int) position & mask;
+				if (sequences.get(index) != position + 1) {
+					break;
+				}
+				SyncEvent e = slots.get(index);
+				slots.set(index, null);
+				sequences.set(index, position + mask + 1);
+				position++;
+				head = position;
+				deliver(e);
+			}
+
+			long now = System.nanoTime();
+			if (progressSource != null && (now >= nextProgress || stopping)) {
+				deliver(progressSource.progress());
+				nextProgress = now + progressInterval;
+			}
+
+			if (stopping) {
+				return;
+			}
+			LockSupport.parkNanos(Math.min(progressInterval, TimeUnit.MILLISECONDS.toNanos(1)));
+		}
+	}
+
+
+	private void deliver(SyncEvent e) {
+		for (SyncEventListener listener : listeners) {
+			try {
+				listener.listen(e);
+			} catch (RuntimeException ex) {
+				//the failing listener must not stop delivery to others
+				log.error("error in sync event listener", ex);
+			}
+		}
+	}
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// inner classes
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Creates the coalesced progress event
+	 */
+	interface ProgressSource {
+		SyncEvent progress();
+	}
+}
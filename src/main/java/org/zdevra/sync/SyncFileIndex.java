@@ -0,0 +1,119 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Index of scanned files keyed by normalized path. The index is
+ * built once per scan and each lookup is constant-time, so matching
+ * primary files against secondary files doesn't depend on size of
+ * the secondary repository.
+ *
+ * Keys are normalized to Unicode NFC (Mac OS stores names in NFD)
+ * and lower-cased when the case-insensitive policy is used.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class SyncFileIndex {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final SyncCaseSensitivity caseSensitivity;
+
+	/** files by normalized key, in order of the scan */
+	private final Map<String, ISyncFile> files;
+
+	/** files whose key collides with already indexed file (e.g. 'Foo' and 'foo' on Linux) */
+	private final List<ISyncFile> duplicates;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor builds the index over given files
+	 */
+	public SyncFileIndex(Collection<ISyncFile> files, SyncCaseSensitivity caseSensitivity) {
+		this.caseSensitivity = caseSensitivity;
+		this.files = new LinkedHashMap<String, ISyncFile>(capacity(files.size()));
+		this.duplicates = new ArrayList<ISyncFile>();
+		for (ISyncFile f : files) {
+			String key = key(f.path(), caseSensitivity);
+			if (this.files.containsKey(key)) {
+				this.duplicates.add(f);
+			} else {
+				this.files.put(key, f);
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the file matching the target's path and remove it
+	 * from index, or null if there is no such file.
+	 */
+	public ISyncFile getAndRemove(ISyncFile target) {
+		return files.remove(key(target.path(), caseSensitivity));
+	}
+
+
+	/**
+	 * Returns all files which wasn't matched yet.
+	 */
+	public Collection<ISyncFile> remaining() {
+		List<ISyncFile> out = new ArrayList<ISyncFile>(files.size() + duplicates.size());
+		out.addAll(files.values());
+		out.addAll(duplicates);
+		return out;
+	}
+
+
+	public int size() {
+		return files.size() + duplicates.size();
+	}
+
+
+	/**
+	 * Returns the normalized key of the path used for matching.
+	 */
+	public static String key(String path, SyncCaseSensitivity caseSensitivity) {
+		String key = path;
+		if (!Normalizer.isNormalized(key, Normalizer.Form.NFC)) {
+			key = Normalizer.normalize(key, Normalizer.Form.NFC);
+		}
+		if (caseSensitivity == SyncCaseSensitivity.INSENSITIVE) {
+			key = key.toLowerCase(Locale.ROOT);
+		}
+		return key;
+	}
+
+
+	private static int capacity(int size) {
+		return Math.max(16, (int) (size / 0.75f) + 1);
+	}
+
+}
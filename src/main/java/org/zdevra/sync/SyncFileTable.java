@@ -0,0 +1,317 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * Compact columnar table of scanned files. Instead of the object with
+ * strings per file, each file is a row of primitive columns (directory,
+ * name, size, timestamp, file key) and the names are kept as UTF-8 in
+ * one shared arena. Directories are rows too, with the reference to
+ * their parent, so the common prefix of paths is stored only once.
+ * A file costs ~30 bytes plus its name and key, the arena can be kept
+ * off-heap, so the tree with millions of files doesn't put pressure
+ * on the garbage collector.
+ *
+ * The table is the list of files, {@link #get(int)} returns the light
+ * view (flyweight) of the row, which is created on demand and holds
+ * only the table and the index. The path is decoded when it's asked.
+ * Rows are appended concurrently by the scan, but the table must not
+ * be modified after the scan, except the timestamp of touched files.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public abstract class SyncFileTable extends AbstractList<ISyncFile> {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	/** index of the root directory */
+	public static final int ROOT = 0;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int NO_KEY = -1;
+	private static final int INITIAL_ROWS = 256;
+
+	private final char separator;
+	private final boolean offHeap;
+
+	/** UTF-8 names and keys, each prefixed by its varint length */
+	private ByteBuffer arena;
+
+	private int dirCount;
+	private int[] dirParent;
+	private int[] dirName;
+
+	private int fileCount;
+	private int[] fileDir;
+	private int[] fileName;
+	private int[] fileKey;
+	private long[] fileSize;
+	private long[] fileTimestamp;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor creates the table with the root directory
+	 *
+	 * @param separator separator of path elements
+	 * @param offHeap   if true, the names are stored in the direct memory
+	 */
+	protected SyncFileTable(char separator, boolean offHeap) {
+		this.separator = separator;
+		this.offHeap = offHeap;
+		this.arena = allocate(INITIAL_ROWS * 32);
+		this.dirParent = new int[INITIAL_ROWS];
+		this.dirName = new int[INITIAL_ROWS];
+		this.fileDir = new int[INITIAL_ROWS];
+		this.fileName = new int[INITIAL_ROWS];
+		this.fileKey = new int[INITIAL_ROWS];
+		this.fileSize = new long[INITIAL_ROWS];
+		this.fileTimestamp = new long[INITIAL_ROWS];
+		addDirectory(ROOT, "");
+	}
+
+
+	/**
+	 * Creates the view of the file on given row
+	 */
+	protected abstract ISyncFile view(int index);
+
+
+	/**
+	 * Add the directory, returns its index
+	 */
+	public synchronized int addDirectory(int parent, String name) {
+		if (dirCount == dirParent.length) {
+			int capacity = grow(dirCount);
+			dirParent = Arrays.copyOf(dirParent, capacity);
+			dirName = Arrays.copyOf(dirName, capacity);
+		}
+		dirParent[dirCount] = parent;
+		dirName[dirCount] = put(name);
+		return dirCount++;
+	}
+
+
+	/**
+	 * Add the file, returns its index
+	 *
+	 * @param dir       index of the directory
+	 * @param name      name of the file without the directory
+	 * @param size
+	 * @param timestamp
+	 * @param key       identity of the file, may be null
+	 */
+	public synchronized int addFile(int dir, String name, long size, long timestamp, String key) {
+		if (fileCount == fileDir.length) {
+			int capacity = grow(fileCount);
+			fileDir = Arrays.copyOf(fileDir, capacity);
+			fileName = Arrays.copyOf(fileName, capacity);
+			fileKey = Arrays.copyOf(fileKey, capacity);
+			fileSize = Arrays.copyOf(fileSize, capacity);
+			fileTimestamp = Arrays.copyOf(fileTimestamp, capacity);
+		}
+		fileDir[fileCount] = dir;
+		fileName[fileCount] = put(name);
+		fileKey[fileCount] = key != null ? put(key) : NO_KEY;
+		fileSize[fileCount] = size;
+		fileTimestamp[fileCount] = timestamp;
+		return fileCount++;
+	}
+
+
+	@Override
+	public int size() {
+		return fileCount;
+	}
+
+
+	@Override
+	public ISyncFile get(int index) {
+		check(index);
+		return view(index);
+	}
+
+
+	/**
+	 * Returns the path of the file, e.g. '/dir/file.txt'
+	 */
+	public String path(int index) {
+		check(index);
+
+		//collect names from the file up to the root
+		int[] names = new int[8];
+		int count = 0;
+		names[count++] = fileName[index];
+		for (int dir = fileDir[index]; dir != ROOT; dir = dirParent[dir]) {
+			if (count == names.length) {
+				names = Arrays.copyOf(names, count * 2);
+			}
+			names[count++] = dirName[dir];
+		}
+
+		int length = 0;
+		for (int i = 0; i < count; ++i) {
+			length += 1 + lengthAt(names[i]);
+		}
+
+		byte[] out = new byte[length];
+		int pos = 0;
+		for (int i = count - 1; i >= 0; --i) {
+			out[pos++] = (byte) separator;
+			pos = copyTo(names[i], out, pos);
+		}
+		return new String(out, UTF8);
+	}
+
+
+	public long fileSize(int index) {
+		check(index);
+		return fileSize[index];
+	}
+
+
+	public long timestamp(int index) {
+		check(index);
+		return fileTimestamp[index];
+	}
+
+
+	/**
+	 * Update the timestamp of touched file
+	 */
+	public void setTimestamp(int index, long timestamp) {
+		check(index);
+		fileTimestamp[index] = timestamp;
+	}
+
+
+	public String fileKey(int index) {
+		check(index);
+		int key = fileKey[index];
+		if (key == NO_KEY) {
+			return null;
+		}
+		byte[] out = new byte[lengthAt(key)];
+		copyTo(key, out, 0);
+		return new String(out, UTF8);
+	}
+
+
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+
+	/**
+	 * Returns the approx. number of bytes used by the table
+	 */
+	public synchronized long getMemoryUsage() {
+		return arena.capacity()
+				+ 4L * (dirParent.length + dirName.length)
+				+ 4L * (fileDir.length + fileName.length + fileKey.length)
+				+ 8L * (fileSize.length + fileTimestamp.length);
+	}
+
+
+	private void check(int index) {
+		if (index < 0 || index >= fileCount) {
+			throw new IndexOutOfBoundsException("index:" + index + " size:" + fileCount);
+		}
+	}
+
+
+	/**
+	 * Append the string into arena, returns its offset
+	 */
+	private int put(String value) {
+		byte[] bytes = value.getBytes(UTF8);
+		if (arena.remaining() < bytes.length + 5) {
+			long needed = (long) arena.position() + bytes.length + 5;
+			long capacity = Math.max(needed, (long) arena.capacity() * 3 / 2);
+			if (capacity > Integer.MAX_VALUE) {
+				throw new SyncError("the file table is full");
+			}
+			ByteBuffer bigger = allocate((int) capacity);
+			arena.flip();
+			bigger.put(arena);
+			arena = bigger;
+		}
+
+		int offset = arena.position();
+		int length = bytes.length;
+		while ((length & ~0x7F) != 0) {
+			arena.put((byte) ((length & 0x7F) | 0x80));
+			length >>>= 7;
+		}
+		arena.put((byte) length);
+		arena.put(bytes);
+		return offset;
+	}
+
+
+	private int lengthAt(int offset) {
+		int length = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = arena.get(offset++);
+			length |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return length;
+	}
+
+
+	/**
+	 * Copy the string at the offset into the array, returns the position after it
+	 */
+	private int copyTo(int offset, byte[] out, int pos) {
+		int length = lengthAt(offset);
+		while ((arena.get(offset) & 0x80) != 0) {
+			offset++;
+		}
+		offset++;
+		for (int i = 0; i < length; ++i) {
+			out[pos++] = arena.get(offset + i);
+		}
+		return pos;
+	}
+
+
+	private ByteBuffer allocate(int capacity) {
+		return offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+
+	private static int grow(int size) {
+		long capacity = (long) size * 3 / 2 + 1;
+		if (capacity > Integer.MAX_VALUE - 8) {
+			throw new SyncError("the file table is full");
+		}
+		return (int) capacity;
+	}
+}
@@ -0,0 +1,357 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics of the running or last sync. All counters are atomic,
+ * so copy workers update them without locking and the {@link #snapshot()}
+ * can be taken by any thread at any time during the sync.
+ *
+ * The cumulative copy, touch and digest times are sums over all workers,
+ * so with concurrent copies they can be longer than the wall time.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class SyncMetrics {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	/** number of histogram buckets, the bucket i holds latencies in [2^(i-1), 2^i) microseconds */
+	public static final int BUCKETS = 40;
+
+	private final AtomicLong startTime = new AtomicLong();
+	private final AtomicLong endTime = new AtomicLong();
+	private final AtomicLongArray phaseTimes = new AtomicLongArray(SyncPhase.values().length);
+
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong copied = new AtomicLong();
+	private final AtomicLong deleted = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong plannedBytes = new AtomicLong();
+	private final AtomicLong executionStart = new AtomicLong();
+
+	private final AtomicLong copyTime = new AtomicLong();
+	private final AtomicLong touchTime = new AtomicLong();
+	private final AtomicLong digestTime = new AtomicLong();
+
+	private final AtomicLongArray copyLatency = new AtomicLongArray(BUCKETS);
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Reset all metrics, it's called when the sync starts
+	 */
+	void start() {
+		for (int i = 0; i < phaseTimes.length(); ++i) {
+			phaseTimes.set(i, 0);
+		}
+		for (int i = 0; i < BUCKETS; ++i) {
+			copyLatency.set(i, 0);
+		}
+		processed.set(0);
+		skipped.set(0);
+		copied.set(0);
+		deleted.set(0);
+		bytes.set(0);
+		plannedBytes.set(0);
+		executionStart.set(0);
+		copyTime.set(0);
+		touchTime.set(0);
+		digestTime.set(0);
+		endTime.set(0);
+		startTime.set(System.nanoTime());
+	}
+
+
+	void end() {
+		endTime.set(System.nanoTime());
+	}
+
+
+	/**
+	 * The plan is being executed
+	 */
+	void planned(long bytes) {
+		plannedBytes.set(bytes);
+		executionStart.set(System.nanoTime());
+	}
+
+
+	void phase(SyncPhase phase, long nanos) {
+		phaseTimes.addAndGet(phase.ordinal(), nanos);
+	}
+
+
+	void processed() {
+		processed.incrementAndGet();
+	}
+
+
+	void skipped() {
+		skipped.incrementAndGet();
+	}
+
+
+	void copied(long bytes, long copyNanos, long touchNanos) {
+		this.copied.incrementAndGet();
+		this.bytes.addAndGet(bytes);
+		this.copyTime.addAndGet(copyNanos);
+		this.touchTime.addAndGet(touchNanos);
+		this.copyLatency.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMicros(copyNanos)));
+	}
+
+
+	void deleted() {
+		deleted.incrementAndGet();
+	}
+
+
+	void digested(long nanos) {
+		digestTime.addAndGet(nanos);
+	}
+
+
+	/**
+	 * Returns the consistent-enough copy of current values. Counters are
+	 * read one by one, so the snapshot taken during the sync may be off
+	 * by the files which were just being finished.
+	 */
+	public Snapshot snapshot() {
+		long start = startTime.get();
+		long end = endTime.get();
+		long now = end != 0 ? end : System.nanoTime();
+		long elapsed = now - start;
+		long execution = executionStart.get();
+
+		long[] phases = new long[phaseTimes.length()];
+		for (int i = 0; i < phases.length; ++i) {
+			phases[i] = phaseTimes.get(i);
+		}
+		long[] histogram = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; ++i) {
+			histogram[i] = copyLatency.get(i);
+		}
+
+		return new Snapshot(
+				start == 0 ? 0 : elapsed,
+				end != 0,
+				phases,
+				processed.get(),
+				skipped.get(),
+				copied.get(),
+				deleted.get(),
+				bytes.get(),
+				plannedBytes.get(),
+				execution == 0 ? 0 : now - execution,
+				copyTime.get(),
+				touchTime.get(),
+				digestTime.get(),
+				histogram);
+	}
+
+
+	static int bucket(long micros) {
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		return Math.min(bucket, BUCKETS - 1);
+	}
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// inner classes
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Immutable values of metrics in one moment
+	 */
+	public static class Snapshot {
+		private final long elapsed;
+		private final boolean finished;
+		private final long[] phases;
+		private final long processed;
+		private final long skipped;
+		private final long copied;
+		private final long deleted;
+		private final long bytes;
+		private final long plannedBytes;
+		private final long executionTime;
+		private final long copyTime;
+		private final long touchTime;
+		private final long digestTime;
+		private final long[] histogram;
+
+		private Snapshot(long elapsed, boolean finished, long[] phases, long processed, long skipped, long copied, long deleted, long bytes,
+						 long plannedBytes, long executionTime, long copyTime, long touchTime, long digestTime, long[] histogram) {
+			this.elapsed = elapsed;
+			this.finished = finished;
+			this.phases = phases;
+			this.processed = processed;
+			this.skipped = skipped;
+			this.copied = copied;
+			this.deleted = deleted;
+			this.bytes = bytes;
+			this.plannedBytes = plannedBytes;
+			this.executionTime = executionTime;
+			this.copyTime = copyTime;
+			this.touchTime = touchTime;
+			this.digestTime = digestTime;
+			this.histogram = histogram;
+		}
+
+		/** wall time of the sync in nanoseconds, till now if sync is running */
+		public long getElapsed() {
+			return elapsed;
+		}
+
+		public boolean isFinished() {
+			return finished;
+		}
+
+		/** wall time of the phase in nanoseconds */
+		public long getPhaseTime(SyncPhase phase) {
+			return phases[phase.ordinal()];
+		}
+
+		public long getProcessedFiles() {
+			return processed;
+		}
+
+		/** files which were up-to-date and were not copied */
+		public long getSkippedFiles() {
+			return skipped;
+		}
+
+		public long getCopiedFiles() {
+			return copied;
+		}
+
+		/** files deleted because they were deleted in the other repository */
+		public long getDeletedFiles() {
+			return deleted;
+		}
+
+		public long getCopiedBytes() {
+			return bytes;
+		}
+
+		/** max. bytes the plan transfers, 0 until the plan is executed */
+		public long getPlannedBytes() {
+			return plannedBytes;
+		}
+
+		/**
+		 * Returns estimated time to the end of the plan in nanoseconds,
+		 * based on the throughput so far, or -1 if it's not known yet.
+		 */
+		public long getEstimatedRemainingTime() {
+			if (plannedBytes == 0 || bytes == 0 || executionTime <= 0) {
+				return -1;
+			}
+			long remaining = Math.max(0, plannedBytes - bytes);
+			return (long) (remaining * ((double) executionTime / bytes));
+		}
+
+		/** cumulative time of copying in nanoseconds */
+		public long getCopyTime() {
+			return copyTime;
+		}
+
+		/** cumulative time of touching the copied files in nanoseconds */
+		public long getTouchTime() {
+			return touchTime;
+		}
+
+		/** cumulative time of computing digests in nanoseconds */
+		public long getDigestTime() {
+			return digestTime;
+		}
+
+		public double getFilesPerSecond() {
+			return perSecond(processed);
+		}
+
+		public double getBytesPerSecond() {
+			return perSecond(bytes);
+		}
+
+		/**
+		 * Returns the copy latency histogram, the bucket i counts copies
+		 * taking [2^(i-1), 2^i) microseconds, the bucket 0 the copies under 1us.
+		 */
+		public long[] getCopyLatencyHistogram() {
+			return histogram.clone();
+		}
+
+		/**
+		 * Returns the upper bound of copy latency percentile in microseconds,
+		 * e.g. 0.99 for 99th percentile. Returns 0 if nothing was copied.
+		 */
+		public long getCopyLatencyPercentile(double percentile) {
+			long total = 0;
+			for (long count : histogram) {
+				total += count;
+			}
+			if (total == 0) {
+				return 0;
+			}
+
+			long rank = (long) Math.ceil(percentile * total);
+			long sum = 0;
+			for (int i = 0; i < histogram.length; ++i) {
+				sum += histogram[i];
+				if (sum >= rank) {
+					return 1L << i;
+				}
+			}
+			return 1L << (histogram.length - 1);
+		}
+
+		private double perSecond(long count) {
+			if (elapsed <= 0) {
+				return 0;
+			}
+			return count * 1e9 / elapsed;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder out = new StringBuilder();
+			out.append("elapsed=").append(TimeUnit.NANOSECONDS.toMillis(elapsed)).append("ms");
+			for (SyncPhase phase : SyncPhase.values()) {
+				out.append(", ").append(phase).append("=").append(TimeUnit.NANOSECONDS.toMillis(getPhaseTime(phase))).append("ms");
+			}
+			out.append(", processed=").append(processed);
+			out.append(", skipped=").append(skipped);
+			out.append(", copied=").append(copied);
+			out.append(", deleted=").append(deleted);
+			out.append(", bytes=").append(bytes);
+			out.append(String.format(", files/s=%.1f, bytes/s=%.0f", getFilesPerSecond(), getBytesPerSecond()));
+			out.append(", copy p50=").append(getCopyLatencyPercentile(0.5)).append("us");
+			out.append(", p99=").append(getCopyLatencyPercentile(0.99)).append("us");
+			return out.toString();
+		}
+	}
+}
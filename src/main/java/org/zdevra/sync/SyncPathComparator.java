@@ -0,0 +1,98 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import java.io.File;
+import java.util.Comparator;
+
+/**
+ * Lexicographical order of the paths used by streaming scan. The paths
+ * are compared by their normalized keys (see {@link SyncFileIndex#key})
+ * segment by segment, so the separator is lower than any other character
+ * and all files of directory 'a' go before the file 'a.txt'. Thanks to
+ * that, the depth-first walk with sorted directory listings produces
+ * paths in this order.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class SyncPathComparator implements Comparator<String> {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final SyncCaseSensitivity caseSensitivity;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 */
+	public SyncPathComparator(SyncCaseSensitivity caseSensitivity) {
+		this.caseSensitivity = caseSensitivity;
+	}
+
+
+	public SyncCaseSensitivity getCaseSensitivity() {
+		return caseSensitivity;
+	}
+
+
+	@Override
+	public int compare(String path1, String path2) {
+		return compareKeys(key(path1), key(path2));
+	}
+
+
+	/**
+	 * Returns the normalized key of the path. Repositories sorting
+	 * large listings should compute keys once and use {@link #compareKeys}.
+	 */
+	public String key(String path) {
+		return SyncFileIndex.key(path, caseSensitivity);
+	}
+
+
+	/**
+	 * Compare two already normalized keys
+	 */
+	public int compareKeys(String key1, String key2) {
+		int len = Math.min(key1.length(), key2.length());
+		for (int i = 0; i < len; ++i) {
+			char c1 = key1.charAt(i);
+			char c2 = key2.charAt(i);
+			if (c1 != c2) {
+				if (isSeparator(c1)) {
+					return -1;
+				} else if (isSeparator(c2)) {
+					return 1;
+				}
+				return c1 - c2;
+			}
+		}
+		return key1.length() - key2.length();
+	}
+
+
+	private static boolean isSeparator(char c) {
+		return c == '/' || c == File.separatorChar;
+	}
+
+}
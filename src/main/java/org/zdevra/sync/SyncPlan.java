@@ -0,0 +1,181 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Immutable plan of the sync, produced by {@link Sync#plan()} and
+ * executed by {@link Sync#execute(SyncPlan)}. The plan holds the actions
+ * with byte totals and free space needed by each side, so the run can
+ * be previewed (dry-run), estimated or rejected before anything is copied.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class SyncPlan implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final List<SyncAction> actions;
+
+	/** number of files which were processed by planning */
+	private final long fileCount;
+
+	private final long[] bytes = new long[SyncDirection.values().length];
+	private final long[] spaceNeeded = new long[SyncDirection.values().length];
+	private final int[] transfers = new int[SyncDirection.values().length];
+	private final int[] deletes = new int[SyncDirection.values().length];
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor of the plan executed by one copy at a time
+	 *
+	 * @param actions   planned actions
+	 * @param fileCount number of processed files
+	 */
+	public SyncPlan(List<SyncAction> actions, long fileCount) {
+		this(actions, fileCount, Collections.<SyncDirection, Integer>emptyMap());
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param actions     planned actions
+	 * @param fileCount   number of processed files
+	 * @param concurrency max. number of concurrent copies into the destination of each direction, 1 if missing
+	 */
+	public SyncPlan(List<SyncAction> actions, long fileCount, Map<SyncDirection, Integer> concurrency) {
+		this.actions = Collections.unmodifiableList(new ArrayList<SyncAction>(actions));
+		this.fileCount = fileCount;
+
+		//the largest headrooms of each direction, the smallest one is on the top
+		List<PriorityQueue<Long>> headrooms = new ArrayList<PriorityQueue<Long>>();
+		int[] limits = new int[SyncDirection.values().length];
+		for (SyncDirection direction : SyncDirection.values()) {
+			Integer limit = concurrency.get(direction);
+			limits[direction.ordinal()] = limit != null ? Math.max(1, limit) : 1;
+			headrooms.add(new PriorityQueue<Long>());
+		}
+
+		for (SyncAction action : actions) {
+			int direction = action.getDirection().ordinal();
+			bytes[direction] += action.getBytes();
+			spaceNeeded[direction] += action.getSpaceNeeded();
+			PriorityQueue<Long> headroom = headrooms.get(direction);
+			headroom.add(action.getHeadroomNeeded());
+			if (headroom.size() > limits[direction]) {
+				headroom.poll();
+			}
+			if (action.getType() == SyncAction.Type.DELETE) {
+				deletes[direction]++;
+			} else if (action.getType() != SyncAction.Type.RECORD) {
+				transfers[direction]++;
+			}
+		}
+
+		for (int direction = 0; direction < spaceNeeded.length; ++direction) {
+			for (long headroom : headrooms.get(direction)) {
+				spaceNeeded[direction] += headroom;
+			}
+		}
+	}
+
+
+	public List<SyncAction> getActions() {
+		return actions;
+	}
+
+	public long getFileCount() {
+		return fileCount;
+	}
+
+	/**
+	 * Returns the number of actions which may transfer the file in
+	 * given direction
+	 */
+	public int getTransfers(SyncDirection direction) {
+		return transfers[direction.ordinal()];
+	}
+
+	/**
+	 * Returns the number of files deleted in destination of given direction
+	 */
+	public int getDeletes(SyncDirection direction) {
+		return deletes[direction.ordinal()];
+	}
+
+	/**
+	 * Returns max. bytes transferred in given direction. Compared files
+	 * are counted as they would be copied.
+	 */
+	public long getBytes(SyncDirection direction) {
+		return bytes[direction.ordinal()];
+	}
+
+	/**
+	 * Returns max. bytes transferred in both directions.
+	 */
+	public long getBytes() {
+		long out = 0;
+		for (long b : bytes) {
+			out += b;
+		}
+		return out;
+	}
+
+	/**
+	 * Returns the free space needed by the destination of given direction,
+	 * the net growth of all files plus the largest replaced files, which
+	 * exist together with their part files till the rename. The number of
+	 * counted replaced files is the concurrency of copies into the destination.
+	 */
+	public long getSpaceNeeded(SyncDirection direction) {
+		return spaceNeeded[direction.ordinal()];
+	}
+
+	public boolean isEmpty() {
+		return actions.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder();
+		out.append("files=").append(fileCount);
+		out.append(", actions=").append(actions.size());
+		for (SyncDirection direction : SyncDirection.values()) {
+			out.append(", ").append(direction).append("=[transfers=").append(getTransfers(direction));
+			out.append(", deletes=").append(getDeletes(direction));
+			out.append(", bytes=").append(getBytes(direction));
+			out.append(", space=").append(getSpaceNeeded(direction)).append("]");
+		}
+		return out.toString();
+	}
+}
@@ -0,0 +1,308 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting bytes/sec and operations/sec of copies. The
+ * bucket holds tokens for one second of the rate, so short bursts are
+ * not delayed. The caller may take more tokens than bucket holds, the
+ * debt is paid by waiting, so the limiter can be used also after the
+ * bytes were transferred. The limiter can be shared by more threads.
+ *
+ * In adaptive mode the byte rate is lowered when the limiter sees
+ * pressure and raised again when the pressure is gone (additive
+ * increase, multiplicative decrease). The pressure is the write latency
+ * much longer than the usual one, or the I/O pressure reported by Linux
+ * kernel in /proc/pressure/io.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class SyncRateLimiter {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	/** latency longer than this multiple of usual latency is the pressure */
+	private static final double LATENCY_PRESSURE = 3.0;
+
+	/** I/O pressure (percent of time with stalled tasks) which is the pressure */
+	private static final double IO_PRESSURE = 20.0;
+
+	/** the rate is lowered to this fraction on pressure */
+	private static final double DECREASE = 0.7;
+
+	/** min. bytes/sec the adaptive mode goes down to */
+	private static final double MIN_RATE = 64 * 1024;
+
+	private static final long ADJUST_INTERVAL = TimeUnit.MILLISECONDS.toNanos(250);
+	private static final long PRESSURE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+	private static final File PRESSURE_FILE = new File("/proc/pressure/io");
+
+	/** configured max. bytes/sec, 0 means unlimited */
+	private final long maxBytesRate;
+	private final Bucket bytes;
+	private final Bucket ops;
+
+	private boolean adaptive;
+
+	/** usual latency of one transferred byte, in nanoseconds */
+	private double baseline = -1;
+
+	/** the highest throughput seen, bytes/sec */
+	private double peakThroughput;
+
+	private long lastAdjust;
+	private long lastPressureCheck;
+	private double lastPressure = -1;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param bytesRate max. bytes per second, 0 means unlimited
+	 * @param opsRate   max. files per second, 0 means unlimited
+	 */
+	public SyncRateLimiter(long bytesRate, long opsRate) {
+		if (bytesRate < 0 || opsRate < 0) {
+			throw new IllegalArgumentException("rate cannot be negative");
+		}
+		this.maxBytesRate = bytesRate;
+		this.bytes = new Bucket(bytesRate > 0 ? bytesRate : Double.POSITIVE_INFINITY);
+		this.ops = new Bucket(opsRate > 0 ? opsRate : Double.POSITIVE_INFINITY);
+	}
+
+
+	/**
+	 * Enables the adaptive mode. Without the max. bytes rate, the
+	 * limiter starts unlimited and throttles only under pressure.
+	 */
+	public synchronized void setAdaptive(boolean adaptive) {
+		this.adaptive = adaptive;
+	}
+
+
+	public synchronized boolean isAdaptive() {
+		return adaptive;
+	}
+
+
+	/**
+	 * Returns current bytes/sec, or -1 if it's unlimited
+	 */
+	public synchronized double getBytesRate() {
+		double rate = bytes.rate;
+		return Double.isInfinite(rate) ? -1 : rate;
+	}
+
+
+	/**
+	 * Wait until the next operation (e.g. the file copy) is allowed
+	 */
+	public void acquireOperation() {
+		long wait;
+		synchronized (this) {
+			wait = ops.reserve(1, System.nanoTime());
+		}
+		sleep(wait);
+	}
+
+
+	/**
+	 * Wait until given bytes are allowed
+	 */
+	public void acquireBytes(long count) {
+		long wait;
+		synchronized (this) {
+			wait = bytes.reserve(count, System.nanoTime());
+		}
+		sleep(wait);
+	}
+
+
+	/**
+	 * Report how long it took to write given bytes. It's used by the
+	 * adaptive mode to detect the pressure.
+	 */
+	public void written(long count, long nanos) {
+		if (count <= 0 || nanos <= 0) {
+			return;
+		}
+
+		synchronized (this) {
+			if (!adaptive) {
+				return;
+			}
+
+			long now = System.nanoTime();
+			double latency = (double) nanos / count;
+			peakThroughput = Math.max(peakThroughput, count * 1e9 / nanos);
+
+			boolean pressure = baseline > 0 && latency > baseline * LATENCY_PRESSURE;
+			if (baseline < 0 || latency < baseline) {
+				baseline = latency;
+			} else {
+				//the usual latency slowly follows the longer latencies
+				baseline += (latency - baseline) / 100;
+			}
+			pressure |= ioPressure(now) > IO_PRESSURE;
+
+			if (now - lastAdjust >= ADJUST_INTERVAL) {
+				lastAdjust = now;
+				adjust(pressure, now);
+			}
+		}
+	}
+
+
+	private void adjust(boolean pressure, long now) {
+		double rate = bytes.rate;
+		double ceiling = maxBytesRate > 0 ? maxBytesRate : Double.POSITIVE_INFINITY;
+		if (pressure) {
+			if (Double.isInfinite(rate)) {
+				rate = peakThroughput;
+			}
+			rate = Math.max(MIN_RATE, rate * DECREASE);
+		} else if (!Double.isInfinite(rate)) {
+			double step = (maxBytesRate > 0 ? maxBytesRate : peakThroughput) / 20;
+			rate = Math.min(ceiling, rate + Math.max(step, MIN_RATE));
+			if (maxBytesRate == 0 && rate > 2 * peakThroughput) {
+				rate = Double.POSITIVE_INFINITY;
+			}
+		}
+		bytes.setRate(rate, now);
+	}
+
+
+	/**
+	 * Returns avg10 of I/O pressure, or -1 if it's not available
+	 */
+	private double ioPressure(long now) {
+		if (now - lastPressureCheck < PRESSURE_INTERVAL) {
+			return lastPressure;
+		}
+		lastPressureCheck = now;
+		lastPressure = readPressure();
+		return lastPressure;
+	}
+
+
+	/**
+	 * Parse the line 'some avg10=1.23 avg60=... avg300=... total=...'
+	 */
+	static double readPressure() {
+		if (!PRESSURE_FILE.canRead()) {
+			return -1;
+		}
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(PRESSURE_FILE));
+			try {
+				String line = in.readLine();
+				if (line != null && line.startsWith("some ")) {
+					for (String field : line.split(" ")) {
+						if (field.startsWith("avg10=")) {
+							return Double.parseDouble(field.substring("avg10=".length()));
+						}
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			//pressure is not available
+		} catch (NumberFormatException e) {
+			//unknown format
+		}
+		return -1;
+	}
+
+
+	private static void sleep(long nanos) {
+		if (nanos <= 0) {
+			return;
+		}
+		try {
+			TimeUnit.NANOSECONDS.sleep(nanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SyncError("waiting for the rate limit has been interrupted", e);
+		}
+	}
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// inner classes
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Tokens refilled by the rate, guarded by the limiter
+	 */
+	private static class Bucket {
+		private double rate;
+		private double tokens;
+		private long lastRefill;
+
+		private Bucket(double rate) {
+			this.rate = rate;
+			this.tokens = capacity();
+			this.lastRefill = System.nanoTime();
+		}
+
+		/**
+		 * Take the tokens and returns the nanoseconds the caller
+		 * has to wait for them
+		 */
+		private long reserve(long count, long now) {
+			if (Double.isInfinite(rate)) {
+				return 0;
+			}
+			refill(now);
+			tokens -= count;
+			if (tokens >= 0) {
+				return 0;
+			}
+			return (long) (-tokens / rate * 1e9);
+		}
+
+		private void setRate(double rate, long now) {
+			refill(now);
+			this.rate = rate;
+			this.tokens = Math.min(tokens, capacity());
+		}
+
+		private void refill(long now) {
+			if (!Double.isInfinite(rate)) {
+				tokens = Math.min(capacity(), tokens + (now - lastRefill) * rate / 1e9);
+			}
+			lastRefill = now;
+		}
+
+		private double capacity() {
+			return rate;
+		}
+	}
+}
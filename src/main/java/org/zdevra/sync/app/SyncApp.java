@@ -22,6 +22,11 @@ import org.apache.log4j.Logger;
 import org.apache.log4j.PatternLayout;
 import org.zdevra.sync.Sync;
 import org.zdevra.sync.SyncError;
+import org.zdevra.sync.filesystem.FilesystemWatcher;
+import org.zdevra.sync.schedule.SyncPair;
+import org.zdevra.sync.schedule.SyncPairStatus;
+import org.zdevra.sync.schedule.SyncScheduler;
+import org.zdevra.sync.state.SyncStateStore;
 
 import javax.swing.*;
 import java.awt.*;
@@ -31,9 +36,9 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
 import java.text.DecimalFormat;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
@@ -49,8 +54,14 @@ public class SyncApp implements ActionListener {
 	private MenuItem aboutItem;
 	private MenuItem closeItem;
 	private MenuItem syncItem;
-
-	private ExecutorService executor = Executors.newFixedThreadPool(1);
+	private Menu statusMenu;
+
+	private SyncScheduler scheduler;
+	private List<SyncPair> runningPairs = new ArrayList<SyncPair>();
+	private List<SyncPair> periodicPairs = new ArrayList<SyncPair>();
+	private List<FilesystemWatcher> watchers = new ArrayList<FilesystemWatcher>();
+	private SyncFactory factory;
+	private List<SyncStateStore> watcherStateStores = new ArrayList<SyncStateStore>();
 	private DecimalFormat format = new DecimalFormat("#.#");
 
 
@@ -116,6 +127,9 @@ public class SyncApp implements ActionListener {
 			syncItem = new MenuItem("Synchronization");
 			syncItem.addActionListener(this);
 
+			//status of pairs
+			statusMenu = new Menu("Status");
+
 			//preferences
 			preferencesItem = new MenuItem("Preferences...");
 			preferencesItem.addActionListener(this);
@@ -134,6 +148,7 @@ public class SyncApp implements ActionListener {
 
 			PopupMenu popup = new PopupMenu();
 			popup.add(syncItem);
+			popup.add(statusMenu);
 			popup.addSeparator();
 			popup.add(preferencesItem);
 			popup.add(helpItem);
@@ -146,6 +161,10 @@ public class SyncApp implements ActionListener {
 
 			if (!getConfiguration().load()) {
 				onClickPreferences();
+			} else if (getConfiguration().isContinuous()) {
+				startContinuousSync();
+			} else if (getConfiguration().isScheduleAdaptive()) {
+				startPeriodicSync();
 			}
 
 		} catch (Exception e) {
@@ -195,37 +214,182 @@ public class SyncApp implements ActionListener {
 
 
 	private void onSyncStart() {
+		if (!watchers.isEmpty()) {
+			log.info("full sync requested.");
+			for (FilesystemWatcher watcher : watchers) {
+				watcher.requestFullSync();
+			}
+			return;
+		}
+
+		if (!periodicPairs.isEmpty()) {
+			log.info("sync of periodic pairs requested.");
+			for (SyncPair pair : periodicPairs) {
+				getScheduler().submit(pair);
+			}
+			return;
+		}
+
 		log.info("start sync.");
 
 		syncItem.setEnabled(false);
 		syncItem.setLabel("Synchronizing ");
 
-		executor.submit(new Callable<Object>() {
+		try {
+			//check the configuration whether is valid
+			getConfiguration().validate();
+
+			//submit all pairs into scheduler
+			statusMenu.removeAll();
+			List<SyncPair> pairs = new ArrayList<SyncPair>();
+			for (SyncPreferences.FolderPair folders : getConfiguration().getPairs()) {
+				pairs.add(createPair(folders));
+			}
+			runningPairs = pairs;
+			for (SyncPair pair : pairs) {
+				getScheduler().submit(pair);
+			}
+		} catch (Throwable e) {
+			log.error("Sync error:" + e.getMessage(), e);
+			JOptionPane.showMessageDialog(null, e, "Error", JOptionPane.ERROR_MESSAGE);
+			onSyncEnd();
+			return;
+		}
+
+		//wait for all pairs in background
+		Thread waiting = new Thread(new Runnable() {
 			@Override
-			public Object call() throws Exception {
+			public void run() {
 				try {
-					//check the configuration whether is valid
-					getConfiguration().validate();
-
-					//do sync
-					Sync sync = Sync.createForFilesystem(getConfiguration().getPrimaryDir(), getConfiguration().getSecondaryDir());
-					sync.addEventListener(new SyncProgressBar() {
-						@Override
-						protected void processing(double percentage) {
-							syncItem.setLabel("Synchronizing (" + format.format(percentage) + "%)");
-						}
-					});
-					sync.sync();
-
-				} catch (Throwable e) {
-					log.error("Sync error:" + e.getMessage(), e);
-					JOptionPane.showMessageDialog(null, e, "Error", JOptionPane.ERROR_MESSAGE);
+					while (!getScheduler().awaitIdle(1, TimeUnit.SECONDS)) {
+						//still running
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
 				}
 
+				for (SyncPair pair : runningPairs) {
+					if (pair.getStatus() == SyncPairStatus.FAILED) {
+						JOptionPane.showMessageDialog(null, pair.getName() + ": " + pair.getError(), "Error", JOptionPane.ERROR_MESSAGE);
+					}
+				}
 				onSyncEnd();
-				return null;
+			}
+		}, "sync-wait");
+		waiting.setDaemon(true);
+		waiting.start();
+	}
+
+
+	/**
+	 * Start periodic syncs of all pairs, the interval of each pair
+	 * is adjusted by its change rate.
+	 */
+	private void startPeriodicSync() {
+		try {
+			getConfiguration().validate();
+
+			statusMenu.removeAll();
+			List<SyncPair> pairs = new ArrayList<SyncPair>();
+			for (SyncPreferences.FolderPair folders : getConfiguration().getPairs()) {
+				pairs.add(createPair(folders));
+			}
+			periodicPairs = pairs;
+			runningPairs = pairs;
+			for (SyncPair pair : pairs) {
+				getScheduler().schedule(pair, getFactory().createInterval());
+			}
+			syncItem.setLabel("Synchronize now");
+			log.info("periodic sync started.");
+		} catch (Throwable e) {
+			log.error("Periodic sync error:" + e.getMessage(), e);
+			JOptionPane.showMessageDialog(null, e, "Error", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+
+
+	/**
+	 * Create the pair with its item in the status menu
+	 */
+	private SyncPair createPair(SyncPreferences.FolderPair folders) {
+		final MenuItem item = new MenuItem(folders.getName());
+		item.setEnabled(false);
+		statusMenu.add(item);
+
+		final SyncPair pair = getFactory().createPair(folders);
+		pair.getSync().addEventListener(new SyncProgressBar() {
+			@Override
+			protected void processing(double percentage) {
+				item.setLabel(pair.getName() + " (" + format.format(percentage) + "%)");
+				syncItem.setLabel("Synchronizing (" + format.format(totalProgress()) + "%)");
 			}
 		});
+		return pair;
+	}
+
+
+	/**
+	 * Returns the average progress of running pairs
+	 */
+	private double totalProgress() {
+		List<SyncPair> pairs = runningPairs;
+		double total = 0;
+		for (SyncPair pair : pairs) {
+			SyncPairStatus status = pair.getStatus();
+			if (status == SyncPairStatus.DONE || status == SyncPairStatus.FAILED) {
+				total += 100.0d;
+			} else if (pair.getProgress() > 0) {
+				total += pair.getProgress();
+			}
+		}
+		return pairs.isEmpty() ? 0 : total / pairs.size();
+	}
+
+
+	private synchronized SyncFactory getFactory() {
+		if (factory == null) {
+			factory = new SyncFactory(getConfiguration());
+		}
+		return factory;
+	}
+
+
+	private synchronized SyncScheduler getScheduler() {
+		if (scheduler == null) {
+			scheduler = new SyncScheduler(
+					getConfiguration().getSchedulerThreads(),
+					getConfiguration().getSchedulerDeviceThreads());
+		}
+		return scheduler;
+	}
+
+
+	/**
+	 * Start the continuous sync, which is watching directories of all
+	 * pairs and syncs changes as they come.
+	 */
+	private void startContinuousSync() {
+		try {
+			getConfiguration().validate();
+
+			for (SyncPreferences.FolderPair folders : getConfiguration().getPairs()) {
+				Sync sync = getFactory().createSync(folders.getPrimaryDir(), folders.getSecondaryDir());
+				SyncStateStore stateStore = getFactory().openStateStore(folders.getPrimaryDir(), folders.getSecondaryDir());
+				if (stateStore != null) {
+					watcherStateStores.add(stateStore);
+				}
+				sync.setStateStore(stateStore);
+
+				FilesystemWatcher watcher = new FilesystemWatcher(sync, folders.getPrimaryDir(), folders.getSecondaryDir());
+				watchers.add(watcher);
+				watcher.start();
+			}
+			syncItem.setLabel("Synchronize now");
+			log.info("continuous sync started.");
+		} catch (Throwable e) {
+			log.error("Continuous sync error:" + e.getMessage(), e);
+			JOptionPane.showMessageDialog(null, e, "Error", JOptionPane.ERROR_MESSAGE);
+		}
 	}
 
 
@@ -233,11 +397,27 @@ public class SyncApp implements ActionListener {
 		log.info("end sync.");
 		syncItem.setLabel("Synchronize");
 		syncItem.setEnabled(true);
+		for (int i = 0; i < runningPairs.size() && i < statusMenu.getItemCount(); ++i) {
+			statusMenu.getItem(i).setLabel(runningPairs.get(i).toString());
+		}
 	}
 
 
 	private void onClose() {
 		log.info("end");
+		try {
+			for (FilesystemWatcher watcher : watchers) {
+				watcher.close();
+			}
+			for (SyncStateStore stateStore : watcherStateStores) {
+				stateStore.close();
+			}
+			if (scheduler != null) {
+				scheduler.close();
+			}
+		} catch (IOException e) {
+			log.error("IO Error:" + e.getMessage(), e);
+		}
 		System.exit(0);
 	}
 }
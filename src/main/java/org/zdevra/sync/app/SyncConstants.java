@@ -35,6 +35,7 @@ public class SyncConstants {
 
 	public static final File PREFERENCES_FILE = getPreferencesFile();
 	public static final File LOG_FILE = getLogFile();
+	public static final File STATE_DIR = new File(PREFERENCES_FILE.getParentFile(), "state");
 	public static final OperationSystem OS = getOs();
 
 	/** singleton properties of 'app.properties' */
@@ -75,6 +76,8 @@ public class SyncConstants {
 				return OperationSystem.MAC;
 			} else if (os.contains("win")) {
 				return OperationSystem.WINDOWS;
+			} else if (os.contains("linux") || os.contains("nix") || os.contains("nux")) {
+				return OperationSystem.LINUX;
 			}
 		}
 		throw new SyncError("Unsupported OS:" + os);
@@ -91,6 +94,8 @@ public class SyncConstants {
 				return new File(home, "/Library/Preferences/Sync/sync.properties");
 			case WINDOWS:
 				return new File(home,"/AppData/Local/SyncApp/sync.properties");
+			case LINUX:
+				return new File(xdgDir("XDG_CONFIG_HOME", home, ".config"), "syncapp/sync.properties");
 			default:
 				return null;
 		}
@@ -107,8 +112,23 @@ public class SyncConstants {
 				return new File(home, "/Library/Logs/SyncApp/sync.log");
 			case WINDOWS:
 				return new File(home, "/AppData/Local/SyncApp/sync.log");
+			case LINUX:
+				return new File(xdgDir("XDG_STATE_HOME", home, ".local/state"), "syncapp/sync.log");
 			default:
 				return null;
 		}
 	}
+
+
+	/**
+	 * inner method returns the base directory given by XDG variable,
+	 * or its default under home
+	 */
+	private static File xdgDir(String variable, File home, String defaultDir) {
+		String dir = System.getenv(variable);
+		if (dir != null && dir.startsWith("/")) {
+			return new File(dir);
+		}
+		return new File(home, defaultDir);
+	}
 }
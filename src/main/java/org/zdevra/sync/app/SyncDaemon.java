@@ -0,0 +1,353 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.app;
+
+import org.apache.log4j.FileAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.zdevra.sync.SyncError;
+import org.zdevra.sync.SyncMetrics;
+import org.zdevra.sync.schedule.SyncPair;
+import org.zdevra.sync.schedule.SyncPairStatus;
+import org.zdevra.sync.schedule.SyncScheduler;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless entry point for servers and cron. The daemon doesn't load
+ * any AWT or Swing class, it reads preferences from the file and from
+ * command line, syncs all pairs once or periodically and prints the
+ * summary as one JSON object per line. The exit status is 0 if all
+ * pairs were synced, 1 if some of them failed and 2 for wrong usage
+ * or configuration.
+ *
+ * <pre>
+ * usage: syncd [--config FILE] [--interval SECONDS] [--quiet] [key=value ...]
+ *   e.g. syncd primary.dir=/data secondary.dir=/backup syncmode=onedirectional
+ * </pre>
+ *
+ * With 'schedule.adaptive=true', pairs are synced periodically by
+ * adaptive intervals until the daemon is stopped.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class SyncDaemon {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	static Logger log = Logger.getLogger(SyncDaemon.class);
+
+	public static final int EXIT_OK = 0;
+	public static final int EXIT_FAILED = 1;
+	public static final int EXIT_USAGE = 2;
+
+	private static final String USAGE = "usage: syncd [--config FILE] [--interval SECONDS] [--quiet] [key=value ...]";
+
+	private final PrintStream out;
+	private File configFile = SyncConstants.PREFERENCES_FILE;
+	private final Properties overrides = new Properties();
+
+	/** seconds between periodic syncs, 0 means one-shot */
+	private long interval;
+	private boolean quiet;
+
+	private volatile boolean stopped;
+
+	/** the JVM is shutting down, the exit status can't be set anymore */
+	private volatile boolean shutdown;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		//init log4j
+		if (SyncConstants.LOG_FILE != null) {
+			FileAppender fa = new FileAppender();
+			fa.setName("FileLogger");
+			fa.setFile(SyncConstants.LOG_FILE.getAbsolutePath());
+			fa.setLayout(new PatternLayout("%d %-5p [%c{1}] %m%n"));
+			fa.setThreshold(Level.INFO);
+			fa.setAppend(true);
+			fa.activateOptions();
+			Logger.getRootLogger().addAppender(fa);
+		}
+
+		SyncDaemon daemon = new SyncDaemon(System.out);
+		int status = daemon.run(args);
+		if (!daemon.shutdown) {
+			//System.exit() would block on the running shutdown hook
+			System.exit(status);
+		}
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param out stream the summary is printed into
+	 */
+	SyncDaemon(PrintStream out) {
+		this.out = out;
+	}
+
+
+	/**
+	 * Run the daemon with given arguments, returns the exit status
+	 */
+	int run(String[] args) {
+		SyncPreferences preferences;
+		try {
+			parse(args);
+			preferences = loadPreferences();
+			preferences.validate();
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			return EXIT_USAGE;
+		} catch (SyncError e) {
+			System.err.println("configuration error: " + e.getMessage());
+			return EXIT_USAGE;
+		} catch (IOException e) {
+			System.err.println("configuration error: " + e.getMessage());
+			return EXIT_USAGE;
+		}
+
+		SyncFactory factory = new SyncFactory(preferences);
+		List<SyncPair> pairs = new ArrayList<SyncPair>();
+		for (SyncPreferences.FolderPair folders : preferences.getPairs()) {
+			pairs.add(factory.createPair(folders));
+		}
+
+		SyncScheduler scheduler = new SyncScheduler(preferences.getSchedulerThreads(), preferences.getSchedulerDeviceThreads());
+		final Thread mainThread = Thread.currentThread();
+		final CountDownLatch finished = new CountDownLatch(1);
+		Thread shutdownHook = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				//let the running sync finish its summary before JVM exits
+				shutdown = true;
+				stopped = true;
+				mainThread.interrupt();
+				try {
+					finished.await(30, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "sync-shutdown");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+		try {
+			if (preferences.isScheduleAdaptive()) {
+				return runAdaptive(scheduler, pairs, factory);
+			}
+
+			int status;
+			do {
+				status = runOnce(scheduler, pairs);
+			} while (interval > 0 && !stopped && sleep(interval));
+			return status;
+		} finally {
+			scheduler.close();
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				//JVM is shutting down
+			}
+			finished.countDown();
+		}
+	}
+
+
+	/**
+	 * Sync all pairs and print the summary, returns the exit status
+	 */
+	private int runOnce(SyncScheduler scheduler, List<SyncPair> pairs) {
+		log.info("start sync of " + pairs.size() + " pairs.");
+		for (SyncPair pair : pairs) {
+			scheduler.submit(pair);
+		}
+
+		try {
+			while (!scheduler.awaitIdle(1, TimeUnit.SECONDS)) {
+				//still running
+			}
+		} catch (InterruptedException e) {
+			log.warn("sync interrupted.");
+			stopped = true;
+		}
+
+		int failed = 0;
+		for (SyncPair pair : pairs) {
+			if (pair.getStatus() != SyncPairStatus.DONE) {
+				failed++;
+			}
+			if (!quiet) {
+				out.println(summary(pair));
+			}
+		}
+		if (!quiet) {
+			out.println("{\"pairs\":" + pairs.size() + ",\"failed\":" + failed + "}");
+			out.flush();
+		}
+		log.info("end sync, failed pairs:" + failed);
+		return failed == 0 ? EXIT_OK : EXIT_FAILED;
+	}
+
+
+	/**
+	 * Sync pairs periodically by adaptive intervals until the daemon
+	 * is stopped
+	 */
+	private int runAdaptive(SyncScheduler scheduler, List<SyncPair> pairs, SyncFactory factory) {
+		log.info("start adaptive periodic sync of " + pairs.size() + " pairs.");
+		for (SyncPair pair : pairs) {
+			scheduler.schedule(pair, factory.createInterval());
+		}
+		while (!stopped && sleep(1)) {
+			//pairs are synced by scheduler
+		}
+		if (!quiet) {
+			for (SyncPair pair : pairs) {
+				out.println(summary(pair));
+			}
+			out.flush();
+		}
+		return EXIT_OK;
+	}
+
+
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			String arg = args[i];
+			if ("--config".equals(arg)) {
+				configFile = new File(value(args, ++i, arg));
+			} else if ("--interval".equals(arg)) {
+				try {
+					interval = Long.parseLong(value(args, ++i, arg));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("the interval must be number of seconds");
+				}
+				if (interval < 0) {
+					throw new IllegalArgumentException("the interval cannot be negative");
+				}
+			} else if ("--quiet".equals(arg)) {
+				quiet = true;
+			} else if (!arg.startsWith("-") && arg.indexOf('=') > 0) {
+				int eq = arg.indexOf('=');
+				overrides.setProperty(arg.substring(0, eq), arg.substring(eq + 1));
+			} else {
+				throw new IllegalArgumentException("unknown argument:" + arg);
+			}
+		}
+	}
+
+
+	private static String value(String[] args, int index, String option) {
+		if (index >= args.length) {
+			throw new IllegalArgumentException("missing value of " + option);
+		}
+		return args[index];
+	}
+
+
+	/**
+	 * Load the preferences file, if it exists, and apply overrides
+	 * from command line
+	 */
+	private SyncPreferences loadPreferences() throws IOException {
+		Properties properties = new Properties();
+		if (configFile != null && configFile.exists()) {
+			InputStream in = new FileInputStream(configFile);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		} else if (overrides.isEmpty()) {
+			throw new IllegalArgumentException("missing configuration:" + configFile);
+		}
+		properties.putAll(overrides);
+
+		SyncPreferences preferences = new SyncPreferences();
+		preferences.load(properties);
+		return preferences;
+	}
+
+
+	private static String summary(SyncPair pair) {
+		StringBuilder sb = new StringBuilder("{");
+		sb.append("\"pair\":").append(quote(pair.getName()));
+		sb.append(",\"status\":").append(quote(pair.getStatus().toString()));
+		SyncMetrics.Snapshot metrics = pair.getLastMetrics();
+		if (pair.getStatus() == SyncPairStatus.DONE && metrics != null) {
+			sb.append(",\"elapsedMillis\":").append(TimeUnit.NANOSECONDS.toMillis(metrics.getElapsed()));
+			sb.append(",\"processed\":").append(metrics.getProcessedFiles());
+			sb.append(",\"copied\":").append(metrics.getCopiedFiles());
+			sb.append(",\"bytes\":").append(metrics.getCopiedBytes());
+		}
+		if (pair.getError() != null) {
+			sb.append(",\"error\":").append(quote(String.valueOf(pair.getError().getMessage())));
+		}
+		return sb.append("}").toString();
+	}
+
+
+	private static String quote(String value) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+
+	/**
+	 * Sleep given seconds, returns false if the daemon was stopped
+	 */
+	private boolean sleep(long seconds) {
+		try {
+			TimeUnit.SECONDS.sleep(seconds);
+			return !stopped;
+		} catch (InterruptedException e) {
+			return false;
+		}
+	}
+}
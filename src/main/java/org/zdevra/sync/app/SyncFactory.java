@@ -0,0 +1,220 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.app;
+
+import org.apache.log4j.Logger;
+import org.zdevra.sync.ISyncRepository;
+import org.zdevra.sync.Sync;
+import org.zdevra.sync.SyncAction;
+import org.zdevra.sync.SyncDigestCache;
+import org.zdevra.sync.SyncError;
+import org.zdevra.sync.SyncPlan;
+import org.zdevra.sync.SyncRateLimiter;
+import org.zdevra.sync.filesystem.FilesystemRepository;
+import org.zdevra.sync.schedule.SyncAdaptiveInterval;
+import org.zdevra.sync.schedule.SyncPair;
+import org.zdevra.sync.state.SyncStateStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates syncs and pairs configured by preferences. It's shared by
+ * the tray application and the headless daemon, so it must not touch
+ * AWT or Swing.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class SyncFactory {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	static Logger log = Logger.getLogger(SyncFactory.class);
+
+	private final SyncPreferences preferences;
+	private final SyncDigestCache digestCache = new SyncDigestCache();
+
+	/** limiters of copies shared by all syncs writing into the same device */
+	private final Map<String, SyncRateLimiter> rateLimiters = new HashMap<String, SyncRateLimiter>();
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param preferences
+	 */
+	SyncFactory(SyncPreferences preferences) {
+		this.preferences = preferences;
+	}
+
+
+	/**
+	 * Create the pair which syncs given folders. The state store
+	 * is opened for each run and in dry-run mode, the plan is only
+	 * logged.
+	 */
+	SyncPair createPair(final SyncPreferences.FolderPair folders) {
+		Sync sync = createSync(folders.getPrimaryDir(), folders.getSecondaryDir());
+		return new SyncPair(
+				folders.getName(),
+				sync,
+				SyncPair.device(folders.getPrimaryDir()),
+				SyncPair.device(folders.getSecondaryDir())) {
+			@Override
+			protected void execute(Sync sync) {
+				try {
+					SyncStateStore stateStore = openStateStore(folders.getPrimaryDir(), folders.getSecondaryDir());
+					sync.setStateStore(stateStore);
+					try {
+						if (preferences.isDryRun()) {
+							SyncPlan plan = sync.plan();
+							for (SyncAction action : plan.getActions()) {
+								log.info("dry-run " + getName() + " " + action);
+							}
+							log.info("dry-run plan of " + getName() + ": " + plan);
+						} else {
+							sync.sync();
+							log.info("sync metrics of " + getName() + ": " + sync.getMetrics().snapshot());
+						}
+					} finally {
+						if (stateStore != null) {
+							stateStore.close();
+						}
+					}
+				} catch (IOException e) {
+					throw new SyncError("error when sync " + getName(), e);
+				}
+			}
+		};
+	}
+
+
+	/**
+	 * Create the interval of periodic syncs of one pair
+	 */
+	SyncAdaptiveInterval createInterval() {
+		return new SyncAdaptiveInterval(
+				TimeUnit.SECONDS.toMillis(preferences.getScheduleMinInterval()),
+				TimeUnit.SECONDS.toMillis(preferences.getScheduleMaxInterval()));
+	}
+
+
+	/**
+	 * Create the sync of given directories
+	 */
+	Sync createSync(File primaryDir, File secondaryDir) {
+		Sync sync;
+		if (preferences.isCachedAttributes()) {
+			sync = Sync.createForNioFilesystem(primaryDir, secondaryDir, preferences.getScanParallelism());
+		} else {
+			sync = Sync.createForFilesystem(primaryDir, secondaryDir, preferences.getScanParallelism());
+		}
+		sync.setSyncMode(preferences.getSyncMode());
+		sync.setCaseSensitivity(preferences.getCaseSensitivity());
+		sync.setStreaming(preferences.isStreaming());
+		sync.setCopyThreads(preferences.getCopyThreads());
+		if (preferences.getPrimaryCopyLimit() > 0) {
+			sync.setCopyLimit(sync.getPrimaryRepository(), preferences.getPrimaryCopyLimit());
+		}
+		if (preferences.getSecondaryCopyLimit() > 0) {
+			sync.setCopyLimit(sync.getSecondaryRepository(), preferences.getSecondaryCopyLimit());
+		}
+		sync.setRateLimiter(sync.getPrimaryRepository(), getRateLimiter(
+				primaryDir,
+				preferences.getPrimaryRateBytes(),
+				preferences.getPrimaryRateOps()));
+		sync.setRateLimiter(sync.getSecondaryRepository(), getRateLimiter(
+				secondaryDir,
+				preferences.getSecondaryRateBytes(),
+				preferences.getSecondaryRateOps()));
+		if (preferences.isDigestComparison()) {
+			sync.setDigestCache(digestCache);
+		}
+		sync.setDeltaThreshold(preferences.getDeltaThreshold());
+		sync.setDeletePropagation(preferences.isDeletePropagation());
+		sync.setTombstoneTtl(TimeUnit.DAYS.toMillis(preferences.getTombstoneDays()));
+		if (preferences.getTrashDir() != null) {
+			setTrashDir(sync.getPrimaryRepository(), primaryDir);
+			setTrashDir(sync.getSecondaryRepository(), secondaryDir);
+		}
+		return sync;
+	}
+
+
+	/**
+	 * Set the trash of the repository. Each directory has its own trash
+	 * named by the directory and the hash of its path, so deleted files
+	 * of different directories are not mixed.
+	 */
+	private void setTrashDir(ISyncRepository repository, File dir) {
+		if (!(repository instanceof FilesystemRepository)) {
+			log.warn("the trash is not supported by " + repository + ", deleted files are not kept");
+			return;
+		}
+		String path = dir.getAbsolutePath();
+		String name = dir.getName() + "-" + String.format("%08x", path.hashCode());
+		((FilesystemRepository) repository).setTrashDir(new File(preferences.getTrashDir(), name));
+	}
+
+
+	/**
+	 * Returns the limiter of copies into the directory, or null if
+	 * copies are not limited. Pairs writing into the same device share
+	 * one limiter, so together they don't exceed the rate. The limiter
+	 * is created with the rate of the first directory on the device.
+	 */
+	private synchronized SyncRateLimiter getRateLimiter(File dir, long bytes, long ops) {
+		boolean adaptive = preferences.isRateAdaptive();
+		if (bytes == 0 && ops == 0 && !adaptive) {
+			return null;
+		}
+		String device = SyncPair.device(dir);
+		SyncRateLimiter limiter = rateLimiters.get(device);
+		if (limiter == null) {
+			limiter = new SyncRateLimiter(bytes, ops);
+			limiter.setAdaptive(adaptive);
+			rateLimiters.put(device, limiter);
+		}
+		return limiter;
+	}
+
+
+	/**
+	 * Open the state store of given directories, returns null
+	 * if the state is disabled
+	 */
+	SyncStateStore openStateStore(File primaryDir, File secondaryDir) throws IOException {
+		if (!preferences.isStateEnabled()) {
+			return null;
+		}
+
+		File stateFile = SyncStateStore.fileFor(
+				SyncConstants.STATE_DIR,
+				primaryDir.getAbsolutePath(),
+				secondaryDir.getAbsolutePath());
+		return new SyncStateStore(stateFile);
+	}
+}
@@ -17,10 +17,14 @@
 package org.zdevra.sync.app;
 
 import org.apache.log4j.Logger;
+import org.zdevra.sync.SyncCaseSensitivity;
 import org.zdevra.sync.SyncError;
 import org.zdevra.sync.SyncMode;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -30,9 +34,38 @@ public class SyncPreferences {
 
 	static Logger log = Logger.getLogger(SyncPreferences.class);
 
+	/** name of the pair given by primary and secondary dir */
+	public static final String DEFAULT_PAIR = "default";
+
 	private File primaryDir;
 	private File secondaryDir;
 	private SyncMode syncMode = SyncMode.BI_DIRECTIONAL;
+	private SyncCaseSensitivity caseSensitivity = SyncCaseSensitivity.INSENSITIVE;
+	private int scanParallelism = 1;
+	private boolean streaming = false;
+	private boolean cachedAttributes = true;
+	private int copyThreads = 1;
+	private int primaryCopyLimit = 0;
+	private int secondaryCopyLimit = 0;
+	private long primaryRateBytes = 0;
+	private long secondaryRateBytes = 0;
+	private long primaryRateOps = 0;
+	private long secondaryRateOps = 0;
+	private boolean rateAdaptive = false;
+	private boolean stateEnabled = true;
+	private boolean deletePropagation = false;
+	private long tombstoneDays = 30;
+	private File trashDir;
+	private boolean continuous = false;
+	private boolean digestComparison = false;
+	private long deltaThreshold = 0;
+	private boolean dryRun = false;
+	private List<FolderPair> additionalPairs = new ArrayList<FolderPair>();
+	private int schedulerThreads = 2;
+	private int schedulerDeviceThreads = 1;
+	private boolean scheduleAdaptive = false;
+	private long scheduleMinInterval = 60;
+	private long scheduleMaxInterval = 3600;
 
 	public File getPrimaryDir() {
 		return primaryDir;
@@ -64,6 +97,84 @@ public class SyncPreferences {
 		this.secondaryDir = secondaryDir;
 	}
 
+	/**
+	 * Returns all synced pairs, the first one is given by primary
+	 * and secondary dir
+	 */
+	public List<FolderPair> getPairs() {
+		List<FolderPair> out = new ArrayList<FolderPair>(additionalPairs.size() + 1);
+		out.add(new FolderPair(DEFAULT_PAIR, primaryDir, secondaryDir));
+		out.addAll(additionalPairs);
+		return out;
+	}
+
+	/**
+	 * Returns pairs synced in addition to primary and secondary dir
+	 */
+	public List<FolderPair> getAdditionalPairs() {
+		return Collections.unmodifiableList(additionalPairs);
+	}
+
+	public void setAdditionalPairs(List<FolderPair> additionalPairs) {
+		this.additionalPairs = new ArrayList<FolderPair>(additionalPairs);
+	}
+
+	/**
+	 * max. number of pairs synced at once
+	 */
+	public int getSchedulerThreads() {
+		return schedulerThreads;
+	}
+
+	public void setSchedulerThreads(int schedulerThreads) {
+		this.schedulerThreads = schedulerThreads;
+	}
+
+	/**
+	 * max. number of pairs synced at once on one disk
+	 */
+	public int getSchedulerDeviceThreads() {
+		return schedulerDeviceThreads;
+	}
+
+	public void setSchedulerDeviceThreads(int schedulerDeviceThreads) {
+		this.schedulerDeviceThreads = schedulerDeviceThreads;
+	}
+
+	/**
+	 * if true, pairs are synced periodically by the interval adjusted
+	 * to their change rate
+	 */
+	public boolean isScheduleAdaptive() {
+		return scheduleAdaptive;
+	}
+
+	public void setScheduleAdaptive(boolean scheduleAdaptive) {
+		this.scheduleAdaptive = scheduleAdaptive;
+	}
+
+	/**
+	 * min. seconds between periodic syncs of the pair
+	 */
+	public long getScheduleMinInterval() {
+		return scheduleMinInterval;
+	}
+
+	public void setScheduleMinInterval(long scheduleMinInterval) {
+		this.scheduleMinInterval = scheduleMinInterval;
+	}
+
+	/**
+	 * max. seconds between periodic syncs of the pair
+	 */
+	public long getScheduleMaxInterval() {
+		return scheduleMaxInterval;
+	}
+
+	public void setScheduleMaxInterval(long scheduleMaxInterval) {
+		this.scheduleMaxInterval = scheduleMaxInterval;
+	}
+
 	public SyncMode getSyncMode() {
 		return syncMode;
 	}
@@ -72,7 +183,220 @@ public class SyncPreferences {
 		this.syncMode = syncMode;
 	}
 
+	public SyncCaseSensitivity getCaseSensitivity() {
+		return caseSensitivity;
+	}
+
+	public void setCaseSensitivity(SyncCaseSensitivity caseSensitivity) {
+		this.caseSensitivity = caseSensitivity;
+	}
+
+	public int getScanParallelism() {
+		return scanParallelism;
+	}
+
+	public void setScanParallelism(int scanParallelism) {
+		this.scanParallelism = scanParallelism;
+	}
+
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * if true, attributes of files are read once by the scan
+	 */
+	public boolean isCachedAttributes() {
+		return cachedAttributes;
+	}
+
+	public void setCachedAttributes(boolean cachedAttributes) {
+		this.cachedAttributes = cachedAttributes;
+	}
+
+	public int getCopyThreads() {
+		return copyThreads;
+	}
+
+	public void setCopyThreads(int copyThreads) {
+		this.copyThreads = copyThreads;
+	}
+
+	/**
+	 * max. number of concurrent copies into primary dir, 0 means no specific limit
+	 */
+	public int getPrimaryCopyLimit() {
+		return primaryCopyLimit;
+	}
+
+	public void setPrimaryCopyLimit(int primaryCopyLimit) {
+		this.primaryCopyLimit = primaryCopyLimit;
+	}
+
+	/**
+	 * max. number of concurrent copies into secondary dir, 0 means no specific limit
+	 */
+	public int getSecondaryCopyLimit() {
+		return secondaryCopyLimit;
+	}
+
+	public void setSecondaryCopyLimit(int secondaryCopyLimit) {
+		this.secondaryCopyLimit = secondaryCopyLimit;
+	}
+
+	/**
+	 * max. bytes per second copied into primary dir, 0 means unlimited
+	 */
+	public long getPrimaryRateBytes() {
+		return primaryRateBytes;
+	}
+
+	public void setPrimaryRateBytes(long primaryRateBytes) {
+		this.primaryRateBytes = primaryRateBytes;
+	}
+
+	/**
+	 * max. bytes per second copied into secondary dir, 0 means unlimited
+	 */
+	public long getSecondaryRateBytes() {
+		return secondaryRateBytes;
+	}
+
+	public void setSecondaryRateBytes(long secondaryRateBytes) {
+		this.secondaryRateBytes = secondaryRateBytes;
+	}
+
+	/**
+	 * max. files per second copied into primary dir, 0 means unlimited
+	 */
+	public long getPrimaryRateOps() {
+		return primaryRateOps;
+	}
+
+	public void setPrimaryRateOps(long primaryRateOps) {
+		this.primaryRateOps = primaryRateOps;
+	}
+
+	/**
+	 * max. files per second copied into secondary dir, 0 means unlimited
+	 */
+	public long getSecondaryRateOps() {
+		return secondaryRateOps;
+	}
+
+	public void setSecondaryRateOps(long secondaryRateOps) {
+		this.secondaryRateOps = secondaryRateOps;
+	}
+
+	/**
+	 * if true, copies are throttled when the destination is under pressure
+	 */
+	public boolean isRateAdaptive() {
+		return rateAdaptive;
+	}
+
+	public void setRateAdaptive(boolean rateAdaptive) {
+		this.rateAdaptive = rateAdaptive;
+	}
+
+	/**
+	 * if true, state of synced files is kept between syncs (see SyncConstants.STATE_DIR)
+	 */
+	public boolean isStateEnabled() {
+		return stateEnabled;
+	}
+
+	public void setStateEnabled(boolean stateEnabled) {
+		this.stateEnabled = stateEnabled;
+	}
+
+	/**
+	 * if true, files deleted since the last sync are deleted in the other directory too (needs the state)
+	 */
+	public boolean isDeletePropagation() {
+		return deletePropagation;
+	}
+
+	public void setDeletePropagation(boolean deletePropagation) {
+		this.deletePropagation = deletePropagation;
+	}
+
+	/**
+	 * number of days the tombstones of deleted files are kept
+	 */
+	public long getTombstoneDays() {
+		return tombstoneDays;
+	}
+
+	public void setTombstoneDays(long tombstoneDays) {
+		this.tombstoneDays = tombstoneDays;
+	}
+
+	/**
+	 * directory the deleted files are moved into, each synced directory has its own
+	 * subdirectory in it, null if they're deleted permanently
+	 */
+	public File getTrashDir() {
+		return trashDir;
+	}
+
+	public void setTrashDir(File trashDir) {
+		this.trashDir = trashDir;
+	}
+
+	/**
+	 * if true, directories are watched and changes are synced continuously
+	 */
+	public boolean isContinuous() {
+		return continuous;
+	}
+
+	public void setContinuous(boolean continuous) {
+		this.continuous = continuous;
+	}
+
+	/**
+	 * if true, files with different timestamps are compared by content before copy
+	 */
+	public boolean isDigestComparison() {
+		return digestComparison;
+	}
+
+	public void setDigestComparison(boolean digestComparison) {
+		this.digestComparison = digestComparison;
+	}
+
+	/**
+	 * min. size of files updated by delta transfer in bytes, 0 disables it
+	 */
+	public long getDeltaThreshold() {
+		return deltaThreshold;
+	}
+
+	public void setDeltaThreshold(long deltaThreshold) {
+		this.deltaThreshold = deltaThreshold;
+	}
+
+	/**
+	 * if true, the sync only plans and logs what it would do
+	 */
+	public boolean isDryRun() {
+		return dryRun;
+	}
+
+	public void setDryRun(boolean dryRun) {
+		this.dryRun = dryRun;
+	}
+
 	public void validate() {
+		if (primaryDir == null || secondaryDir == null) {
+			throw new SyncError("there is no primary or secondary directory specified");
+		}
+
 		if (!primaryDir.exists() || !primaryDir.isDirectory()) {
 			throw new SyncError("the directory:" + primaryDir.getAbsoluteFile() + " is not ready");
 		}
@@ -81,29 +405,119 @@ public class SyncPreferences {
 			throw new SyncError("the directory:" + secondaryDir.getAbsoluteFile() + " is not ready");
 		}
 
+		for (FolderPair pair : additionalPairs) {
+			if (!pair.getPrimaryDir().isDirectory() || !pair.getSecondaryDir().isDirectory()) {
+				throw new SyncError("the directories of pair:" + pair.getName() + " are not ready");
+			}
+		}
+
+		if (schedulerThreads < 1 || schedulerDeviceThreads < 1) {
+			throw new SyncError("the scheduler threads must be positive");
+		}
+
+		if (scheduleMinInterval < 1 || scheduleMaxInterval < scheduleMinInterval) {
+			throw new SyncError("invalid range of schedule interval:" + scheduleMinInterval + "-" + scheduleMaxInterval);
+		}
+
 		if (syncMode == null) {
 			throw new SyncError("there is no sync mode specified");
 		}
+
+		if (scanParallelism < 1) {
+			throw new SyncError("the scan parallelism must be positive:" + scanParallelism);
+		}
+
+		if (copyThreads < 1) {
+			throw new SyncError("the copy threads must be positive:" + copyThreads);
+		}
+
+		if (primaryCopyLimit < 0 || secondaryCopyLimit < 0) {
+			throw new SyncError("the copy limit cannot be negative");
+		}
+
+		if (primaryRateBytes < 0 || secondaryRateBytes < 0 || primaryRateOps < 0 || secondaryRateOps < 0) {
+			throw new SyncError("the rate limit cannot be negative");
+		}
+
+		if (deltaThreshold < 0) {
+			throw new SyncError("the delta threshold cannot be negative:" + deltaThreshold);
+		}
+
+		if (tombstoneDays < 0) {
+			throw new SyncError("the tombstone days cannot be negative:" + tombstoneDays);
+		}
 	}
 
 	public boolean load() throws IOException {
-		File preferencesFile = SyncConstants.PREFERENCES_FILE;
+		return load(SyncConstants.PREFERENCES_FILE);
+	}
+
+
+	/**
+	 * Load preferences from given file, returns false if there
+	 * is no such file
+	 */
+	public boolean load(File preferencesFile) throws IOException {
 		if (!preferencesFile.exists()) {
 			log.warn("Missing configuration. Do a first initialization configuration.");
 			return false;
 		}
 
 		Properties properties = new Properties();
-		properties.load(new FileInputStream(preferencesFile));
+		InputStream in = new FileInputStream(preferencesFile);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		load(properties);
+		return true;
+	}
+
 
+	/**
+	 * Load preferences from properties
+	 */
+	public void load(Properties properties) {
 		if (log.isDebugEnabled())
 			log.debug("properties " + properties.toString());
 
-		primaryDir = new File((String)properties.get("primary.dir"));
-		secondaryDir = new File((String)properties.get("secondary.dir"));
+		primaryDir = properties.containsKey("primary.dir") ? new File(properties.getProperty("primary.dir")) : null;
+		secondaryDir = properties.containsKey("secondary.dir") ? new File(properties.getProperty("secondary.dir")) : null;
 		syncMode = SyncMode.from((String) properties.get("syncmode"));
+		caseSensitivity = SyncCaseSensitivity.from((String) properties.get("casesensitivity"));
+		scanParallelism = Integer.parseInt(properties.getProperty("scan.parallelism", "1"));
+		streaming = Boolean.parseBoolean(properties.getProperty("scan.streaming", "false"));
+		cachedAttributes = Boolean.parseBoolean(properties.getProperty("scan.cachedattributes", "true"));
+		copyThreads = Integer.parseInt(properties.getProperty("copy.threads", "1"));
+		primaryCopyLimit = Integer.parseInt(properties.getProperty("primary.copy.limit", "0"));
+		secondaryCopyLimit = Integer.parseInt(properties.getProperty("secondary.copy.limit", "0"));
+		primaryRateBytes = Long.parseLong(properties.getProperty("primary.rate.bytes", "0"));
+		secondaryRateBytes = Long.parseLong(properties.getProperty("secondary.rate.bytes", "0"));
+		primaryRateOps = Long.parseLong(properties.getProperty("primary.rate.ops", "0"));
+		secondaryRateOps = Long.parseLong(properties.getProperty("secondary.rate.ops", "0"));
+		rateAdaptive = Boolean.parseBoolean(properties.getProperty("rate.adaptive", "false"));
+		stateEnabled = Boolean.parseBoolean(properties.getProperty("state.enabled", "true"));
+		deletePropagation = Boolean.parseBoolean(properties.getProperty("delete.propagate", "false"));
+		tombstoneDays = Long.parseLong(properties.getProperty("delete.tombstone.days", "30"));
+		trashDir = properties.containsKey("delete.trash.dir") ? new File(properties.getProperty("delete.trash.dir")) : null;
+		continuous = Boolean.parseBoolean(properties.getProperty("continuous", "false"));
+		digestComparison = Boolean.parseBoolean(properties.getProperty("compare.digest", "false"));
+		deltaThreshold = Long.parseLong(properties.getProperty("delta.threshold", "0"));
+		dryRun = Boolean.parseBoolean(properties.getProperty("dryrun", "false"));
+		schedulerThreads = Integer.parseInt(properties.getProperty("scheduler.threads", "2"));
+		schedulerDeviceThreads = Integer.parseInt(properties.getProperty("scheduler.device.threads", "1"));
+		scheduleAdaptive = Boolean.parseBoolean(properties.getProperty("schedule.adaptive", "false"));
+		scheduleMinInterval = Long.parseLong(properties.getProperty("schedule.interval.min", "60"));
+		scheduleMaxInterval = Long.parseLong(properties.getProperty("schedule.interval.max", "3600"));
 
-		return true;
+		additionalPairs = new ArrayList<FolderPair>();
+		for (int i = 1; properties.containsKey("pair." + i + ".primary.dir"); ++i) {
+			additionalPairs.add(new FolderPair(
+					properties.getProperty("pair." + i + ".name", "pair " + i),
+					new File(properties.getProperty("pair." + i + ".primary.dir")),
+					new File(properties.getProperty("pair." + i + ".secondary.dir", ""))));
+		}
 	}
 
 
@@ -112,6 +526,39 @@ public class SyncPreferences {
 		properties.put("primary.dir", primaryDir.getAbsolutePath());
 		properties.put("secondary.dir", secondaryDir.getAbsolutePath());
 		properties.put("syncmode", syncMode.toString());
+		properties.put("casesensitivity", caseSensitivity.toString());
+		properties.put("scan.parallelism", Integer.toString(scanParallelism));
+		properties.put("scan.streaming", Boolean.toString(streaming));
+		properties.put("scan.cachedattributes", Boolean.toString(cachedAttributes));
+		properties.put("copy.threads", Integer.toString(copyThreads));
+		properties.put("primary.copy.limit", Integer.toString(primaryCopyLimit));
+		properties.put("secondary.copy.limit", Integer.toString(secondaryCopyLimit));
+		properties.put("primary.rate.bytes", Long.toString(primaryRateBytes));
+		properties.put("secondary.rate.bytes", Long.toString(secondaryRateBytes));
+		properties.put("primary.rate.ops", Long.toString(primaryRateOps));
+		properties.put("secondary.rate.ops", Long.toString(secondaryRateOps));
+		properties.put("rate.adaptive", Boolean.toString(rateAdaptive));
+		properties.put("state.enabled", Boolean.toString(stateEnabled));
+		properties.put("delete.propagate", Boolean.toString(deletePropagation));
+		properties.put("delete.tombstone.days", Long.toString(tombstoneDays));
+		if (trashDir != null) {
+			properties.put("delete.trash.dir", trashDir.getAbsolutePath());
+		}
+		properties.put("continuous", Boolean.toString(continuous));
+		properties.put("compare.digest", Boolean.toString(digestComparison));
+		properties.put("delta.threshold", Long.toString(deltaThreshold));
+		properties.put("dryrun", Boolean.toString(dryRun));
+		properties.put("scheduler.threads", Integer.toString(schedulerThreads));
+		properties.put("scheduler.device.threads", Integer.toString(schedulerDeviceThreads));
+		properties.put("schedule.adaptive", Boolean.toString(scheduleAdaptive));
+		properties.put("schedule.interval.min", Long.toString(scheduleMinInterval));
+		properties.put("schedule.interval.max", Long.toString(scheduleMaxInterval));
+		for (int i = 0; i < additionalPairs.size(); ++i) {
+			FolderPair pair = additionalPairs.get(i);
+			properties.put("pair." + (i + 1) + ".name", pair.getName());
+			properties.put("pair." + (i + 1) + ".primary.dir", pair.getPrimaryDir().getAbsolutePath());
+			properties.put("pair." + (i + 1) + ".secondary.dir", pair.getSecondaryDir().getAbsolutePath());
+		}
 
 		File preferencesFile = SyncConstants.PREFERENCES_FILE;
 		if (!preferencesFile.getParentFile().exists()) {
@@ -124,4 +571,32 @@ public class SyncPreferences {
 		properties.store(new FileOutputStream(preferencesFile), "");
 	}
 
+
+	/**
+	 * Primary and secondary dir synced together
+	 */
+	public static class FolderPair {
+		private final String name;
+		private final File primaryDir;
+		private final File secondaryDir;
+
+		public FolderPair(String name, File primaryDir, File secondaryDir) {
+			this.name = name;
+			this.primaryDir = primaryDir;
+			this.secondaryDir = secondaryDir;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public File getPrimaryDir() {
+			return primaryDir;
+		}
+
+		public File getSecondaryDir() {
+			return secondaryDir;
+		}
+	}
+
 }
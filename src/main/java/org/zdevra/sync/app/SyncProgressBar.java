@@ -22,7 +22,14 @@ import org.zdevra.sync.ISyncRepository;
 import org.zdevra.sync.SyncEvent;
 import org.zdevra.sync.SyncEventListener;
 
+import java.awt.EventQueue;
+
 /**
+ * Listener showing the progress. Events are received on the sync's
+ * dispatcher thread, the progress is computed from coalesced progress
+ * events and {@link #processing(double)} is called on the AWT event
+ * dispatch thread.
+ *
  * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
  */
 public abstract class SyncProgressBar implements SyncEventListener {
@@ -30,23 +37,20 @@ public abstract class SyncProgressBar implements SyncEventListener {
 	/** log4j instance */
 	static Logger log = Logger.getLogger(SyncProgressBar.class);
 
-	/** sum of all files the sync will process. Needed for progress bar */
-	private long filesSum;
-
-	/** file index which file is processing. Needed for progress bar */
-	private long fileIndex;
+	/** last shown percentage, the progress bar is updated only when it changes */
+	private long lastPercentage;
 
 
 	/**
 	 * Constructor
 	 */
 	public SyncProgressBar() {
-		filesSum = 0;
-		fileIndex = 0;
+		lastPercentage = -1;
 	}
 
 	/**
-	 * here you will implement your progressbar show code
+	 * here you will implement your progressbar show code,
+	 * it's called on event dispatch thread
 	 * @param percentage
 	 */
 	protected abstract void  processing(double percentage);
@@ -57,16 +61,32 @@ public abstract class SyncProgressBar implements SyncEventListener {
 	 */
 	@Override
 	public void listen(SyncEvent e) {
-		if (e instanceof SyncEvent.StartEvent) {
-			filesSum = ((SyncEvent.StartEvent) e).count();
-		} else if (e instanceof SyncEvent.ProcessFileEvent) {
-			fileIndex++;
+		if (e instanceof SyncEvent.ProgressEvent) {
+			final double percentage = ((SyncEvent.ProgressEvent) e).getPercentage();
+			if (percentage < 0) {
+				return;
+			}
+
+			if ((long) percentage != lastPercentage) {
+				lastPercentage = (long) percentage;
+				EventQueue.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						processing(percentage);
+					}
+				});
+			}
 		} else if (e instanceof SyncEvent.CopyEvent) {
-			ISyncFile file = ((SyncEvent.CopyEvent) e).getSyncFile();
-			ISyncRepository dest = ((SyncEvent.CopyEvent) e).getDestination();
-			log.info("copy " + file.path() + " -> " + dest.toString());
-			double percentage = (fileIndex * 100.0d) / filesSum;
-			processing(percentage);
+			if (log.isInfoEnabled()) {
+				ISyncFile file = ((SyncEvent.CopyEvent) e).getSyncFile();
+				ISyncRepository dest = ((SyncEvent.CopyEvent) e).getDestination();
+				log.info("copy " + file.path() + " -> " + dest.toString());
+			}
+		} else if (e instanceof SyncEvent.DeleteEvent) {
+			if (log.isInfoEnabled()) {
+				SyncEvent.DeleteEvent delete = (SyncEvent.DeleteEvent) e;
+				log.info("delete " + delete.getPath() + " from " + delete.getRepository().toString());
+			}
 		}
 	}
 }
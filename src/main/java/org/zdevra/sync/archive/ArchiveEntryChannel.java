@@ -0,0 +1,184 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.archive;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Read-only channel of one entry. The stream is opened at the block
+ * containing the position, so only the part of one block is skipped
+ * after seek. Reading forward continues to the following blocks.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class ArchiveEntryChannel implements SeekableByteChannel {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final ArchiveRepository repository;
+	private final ArchiveIndex.Entry entry;
+
+	/** stream positioned at the {@link #position}, null if it wasn't opened yet */
+	private InputStream in;
+	private long position;
+	private boolean open = true;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param repository
+	 * @param entry
+	 */
+	ArchiveEntryChannel(ArchiveRepository repository, ArchiveIndex.Entry entry) {
+		this.repository = repository;
+		this.entry = entry;
+	}
+
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+		if (position >= entry.size) {
+			return -1;
+		}
+		if (in == null) {
+			in = openAt(entry.start + position);
+		}
+
+		int len = (int) Math.min(dst.remaining(), entry.size - position);
+		int n;
+		if (dst.hasArray()) {
+			n = in.read(dst.array(), dst.arrayOffset() + dst.position(), len);
+			if (n > 0) {
+				dst.position(dst.position() + n);
+			}
+		} else {
+			byte[] buf = new byte[Math.min(len, 64 * 1024)];
+			n = in.read(buf, 0, buf.length);
+			if (n > 0) {
+				dst.put(buf, 0, n);
+			}
+		}
+		if (n < 0) {
+			throw new IOException("unexpected end of archive in " + entry.name);
+		}
+		position += n;
+		return n;
+	}
+
+
+	@Override
+	public int write(ByteBuffer src) {
+		throw new NonWritableChannelException();
+	}
+
+
+	@Override
+	public long position() {
+		return position;
+	}
+
+
+	@Override
+	public SeekableByteChannel position(long newPosition) throws IOException {
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("negative position:" + newPosition);
+		}
+		if (newPosition != position) {
+			closeStream();
+			position = newPosition;
+		}
+		return this;
+	}
+
+
+	@Override
+	public long size() {
+		return entry.size;
+	}
+
+
+	@Override
+	public SeekableByteChannel truncate(long size) {
+		throw new NonWritableChannelException();
+	}
+
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		open = false;
+		closeStream();
+	}
+
+
+	/**
+	 * Open the decompressed stream at given position of the tar stream
+	 */
+	private InputStream openAt(long streamPosition) throws IOException {
+		repository.ensureReadable(streamPosition + entry.size - position);
+
+		ArchiveIndex index = repository.getIndex();
+		int block = index.blockOf(streamPosition);
+		FileInputStream file = new FileInputStream(repository.getArchive());
+		try {
+			file.getChannel().position(index.blockOffset(block));
+			InputStream stream = new GZIPInputStream(file, 64 * 1024);
+			long skip = streamPosition - index.blockStart(block);
+			while (skip > 0) {
+				long n = stream.skip(skip);
+				if (n <= 0) {
+					throw new IOException("unexpected end of archive in " + entry.name);
+				}
+				skip -= n;
+			}
+			return stream;
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+
+	private void closeStream() throws IOException {
+		if (in != null) {
+			in.close();
+			in = null;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.archive;
+
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.SyncError;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The file stored in the archive. The content is decompressed only
+ * from the block where the file starts.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class ArchiveFile implements ISyncFile {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final ArchiveRepository repository;
+	private final ArchiveIndex.Entry entry;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param repository
+	 * @param entry
+	 */
+	ArchiveFile(ArchiveRepository repository, ArchiveIndex.Entry entry) {
+		this.repository = repository;
+		this.entry = entry;
+	}
+
+
+	@Override
+	public String path() {
+		return ArchiveRepository.path(entry.name);
+	}
+
+
+	@Override
+	public long timestamp() {
+		return entry.getTimestamp();
+	}
+
+
+	@Override
+	public long size() {
+		return entry.size;
+	}
+
+
+	/**
+	 * Entries of the archive have no identity
+	 */
+	@Override
+	public String fileKey() {
+		return null;
+	}
+
+
+	/**
+	 * The timestamp is changed in the index, the header in the tar
+	 * stream keeps the time when the file was written
+	 */
+	@Override
+	public void touch(long timestamp) {
+		entry.setTimestamp(timestamp);
+		repository.touched();
+	}
+
+
+	@Override
+	public void copyTo(OutputStream os) throws IOException {
+		SeekableByteChannel in = openChannel();
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+			while (in.read(buf) > 0) {
+				os.write(buf.array(), 0, buf.position());
+				buf.clear();
+			}
+		} finally {
+			in.close();
+			os.close();
+		}
+	}
+
+
+	@Override
+	public byte[] digest() throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new SyncError("SHA-256 is not supported", e);
+		}
+
+		SeekableByteChannel in = openChannel();
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+			while (in.read(buf) > 0) {
+				buf.flip();
+				md.update(buf);
+				buf.clear();
+			}
+		} finally {
+			in.close();
+		}
+		return md.digest();
+	}
+
+
+	@Override
+	public SeekableByteChannel openChannel() {
+		return new ArchiveEntryChannel(repository, entry);
+	}
+
+
+	@Override
+	public String toString() {
+		return path();
+	}
+}
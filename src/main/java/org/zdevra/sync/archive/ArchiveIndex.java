@@ -0,0 +1,234 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Seekable index of the archive. The archive is the tar stream split
+ * into blocks, each block is compressed as independent gzip member.
+ * The index keeps the position of each block in the tar stream and
+ * in the archive file, and the position of each entry's content in the
+ * tar stream. Any byte of the content is read by decompressing only
+ * from the start of its block.
+ *
+ * The index is saved aside the archive, into temporary file which
+ * atomically replaces the previous index.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class ArchiveIndex {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private static final int MAGIC = 0x53594958;
+	private static final int VERSION = 1;
+
+	/** entries by name, the newest version of the file wins */
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+	private int blockCount;
+	private long[] blockStart = new long[64];
+	private long[] blockOffset = new long[64];
+
+	/** length of the tar stream before the trailer */
+	private long end;
+
+	/** position of the trailer's block in the archive file */
+	private long trailerOffset;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	synchronized Entry get(String name) {
+		return entries.get(name);
+	}
+
+
+	synchronized List<Entry> entries() {
+		return new ArrayList<Entry>(entries.values());
+	}
+
+
+	synchronized void put(Entry entry) {
+		entries.remove(entry.name);
+		entries.put(entry.name, entry);
+	}
+
+
+	/**
+	 * Record the block starting at given position of the tar stream,
+	 * stored at given offset of the archive file
+	 */
+	synchronized void addBlock(long start, long offset) {
+		if (blockCount == blockStart.length) {
+			blockStart = Arrays.copyOf(blockStart, blockCount * 2);
+			blockOffset = Arrays.copyOf(blockOffset, blockCount * 2);
+		}
+		blockStart[blockCount] = start;
+		blockOffset[blockCount] = offset;
+		blockCount++;
+	}
+
+
+	/**
+	 * Returns the block containing given position of the tar stream
+	 */
+	synchronized int blockOf(long position) {
+		int i = Arrays.binarySearch(blockStart, 0, blockCount, position);
+		return i >= 0 ? i : -i - 2;
+	}
+
+
+	synchronized long blockStart(int block) {
+		return blockStart[block];
+	}
+
+
+	synchronized long blockOffset(int block) {
+		return blockOffset[block];
+	}
+
+
+	synchronized long getEnd() {
+		return end;
+	}
+
+
+	synchronized long getTrailerOffset() {
+		return trailerOffset;
+	}
+
+
+	/**
+	 * Set where the trailer starts, it's overwritten by next entries
+	 */
+	synchronized void setTrailer(long end, long trailerOffset) {
+		this.end = end;
+		this.trailerOffset = trailerOffset;
+	}
+
+
+	static ArchiveIndex load(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("unknown format of archive index:" + file);
+			}
+			ArchiveIndex index = new ArchiveIndex();
+			index.end = in.readLong();
+			index.trailerOffset = in.readLong();
+			int blocks = in.readInt();
+			for (int i = 0; i < blocks; ++i) {
+				index.addBlock(in.readLong(), in.readLong());
+			}
+			int entries = in.readInt();
+			for (int i = 0; i < entries; ++i) {
+				index.put(new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readLong()));
+			}
+			return index;
+		} finally {
+			in.close();
+		}
+	}
+
+
+	synchronized void save(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(end);
+			out.writeLong(trailerOffset);
+			out.writeInt(blockCount);
+			for (int i = 0; i < blockCount; ++i) {
+				out.writeLong(blockStart[i]);
+				out.writeLong(blockOffset[i]);
+			}
+			out.writeInt(entries.size());
+			for (Entry entry : entries.values()) {
+				out.writeUTF(entry.name);
+				out.writeLong(entry.start);
+				out.writeLong(entry.size);
+				out.writeLong(entry.getTimestamp());
+			}
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// inner classes
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * The file stored in the archive
+	 */
+	static class Entry {
+		final String name;
+
+		/** position of the content in the tar stream */
+		final long start;
+		final long size;
+		private volatile long timestamp;
+
+		Entry(String name, long start, long size, long timestamp) {
+			this.name = name;
+			this.start = start;
+			this.size = size;
+			this.timestamp = timestamp;
+		}
+
+		long getTimestamp() {
+			return timestamp;
+		}
+
+		void setTimestamp(long timestamp) {
+			this.timestamp = timestamp;
+		}
+	}
+}
@@ -0,0 +1,461 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.archive;
+
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.ISyncFileIterator;
+import org.zdevra.sync.ISyncRepository;
+import org.zdevra.sync.ISyncTransfer;
+import org.zdevra.sync.SyncError;
+import org.zdevra.sync.SyncPathComparator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Repository storing files in one compressed tar archive, e.g. as the
+ * destination of one-directional backup. Many small files are written
+ * as one stream instead of millions of files on the backup volume.
+ *
+ * The tar stream is split into blocks compressed in parallel as
+ * independent gzip members, so the archive can be extracted by
+ * 'tar xzf'. The seekable index ('archive.idx') maps each file to its
+ * position in the stream and each block to its position in the archive
+ * file, so the file is read by decompressing from its block only.
+ *
+ * New files are appended after the existing ones, the newer version
+ * of the file wins (as when the tar is extracted). The archive and
+ * index are made consistent by {@link #flush()}, which is called by
+ * the sync at its end. Data written after the last flush is dropped
+ * when the archive is opened next time.
+ *
+ * Files can't be written at random positions, so the repository isn't
+ * {@link org.zdevra.sync.ISyncDeltaRepository} and the sync copies whole
+ * files into it even if the delta transfer is enabled.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class ArchiveRepository implements ISyncRepository, Flushable, Closeable {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	public static final String INDEX_SUFFIX = ".idx";
+
+	/** uncompressed size of one compressed block */
+	public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+	private final File archive;
+	private final File indexFile;
+	private final ArchiveIndex index;
+
+	/** number of threads compressing blocks */
+	private final int threads;
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+	private int level = Deflater.DEFAULT_COMPRESSION;
+
+	/** pool compressing blocks, created with the first write */
+	private ExecutorService compressors;
+
+	/** writer appending into archive, null if nothing was written since last flush */
+	private FileChannel channel;
+	private ArchiveWriter writer;
+
+	/** position of the tar stream up to which the archive file is readable */
+	private long readable;
+
+	/** true if the index was changed since last flush */
+	private volatile boolean dirty;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param archive the archive file, it's created by first write if it doesn't exist
+	 */
+	public ArchiveRepository(File archive) {
+		this(archive, Runtime.getRuntime().availableProcessors());
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param archive the archive file
+	 * @param threads number of threads compressing the blocks
+	 */
+	public ArchiveRepository(File archive, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be positive:" + threads);
+		}
+		this.archive = archive;
+		this.indexFile = new File(archive.getPath() + INDEX_SUFFIX);
+		this.threads = threads;
+
+		if (archive.exists()) {
+			if (!indexFile.exists()) {
+				throw new SyncError("missing index of archive:" + archive);
+			}
+			try {
+				this.index = ArchiveIndex.load(indexFile);
+			} catch (IOException e) {
+				throw new SyncError("cannot load index of archive:" + archive, e);
+			}
+		} else {
+			this.index = new ArchiveIndex();
+		}
+		this.readable = index.getEnd();
+	}
+
+
+	/**
+	 * Set the uncompressed size of the block. Bigger blocks compress
+	 * better, smaller blocks are faster for random reads.
+	 */
+	public synchronized void setBlockSize(int blockSize) {
+		if (blockSize < ArchiveTar.RECORD) {
+			throw new IllegalArgumentException("block size must be at least " + ArchiveTar.RECORD);
+		}
+		if (writer != null) {
+			throw new IllegalStateException("block size cannot be changed while writing");
+		}
+		this.blockSize = blockSize;
+	}
+
+
+	/**
+	 * Set the level of compression, 1 (fastest) - 9 (best)
+	 */
+	public synchronized void setCompressionLevel(int level) {
+		if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("compression level must be 1-9:" + level);
+		}
+		if (writer != null) {
+			throw new IllegalStateException("compression level cannot be changed while writing");
+		}
+		this.level = level;
+	}
+
+
+	public File getArchive() {
+		return archive;
+	}
+
+
+	@Override
+	public List<ISyncFile> scan() {
+		List<ArchiveIndex.Entry> entries = index.entries();
+		List<ISyncFile> out = new ArrayList<ISyncFile>(entries.size());
+		for (ArchiveIndex.Entry entry : entries) {
+			out.add(new ArchiveFile(this, entry));
+		}
+		return out;
+	}
+
+
+	@Override
+	public ISyncFileIterator iterate(final SyncPathComparator order) {
+		List<ISyncFile> files = scan();
+		Collections.sort(files, new Comparator<ISyncFile>() {
+			@Override
+			public int compare(ISyncFile f1, ISyncFile f2) {
+				return order.compare(f1.path(), f2.path());
+			}
+		});
+
+		final Iterator<ISyncFile> it = files.iterator();
+		return new ISyncFileIterator() {
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			@Override
+			public ISyncFile next() {
+				return it.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("the archive is read by iterator");
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+
+	@Override
+	public ISyncFile getFile(String path) {
+		ArchiveIndex.Entry entry = index.get(name(path));
+		return entry != null ? new ArchiveFile(this, entry) : null;
+	}
+
+
+	/**
+	 * Opens the stream of new entry, the entry is added by closing
+	 * the stream
+	 */
+	@Override
+	public OutputStream openStream(String path) {
+		final ArchiveTransfer transfer = new ArchiveTransfer(this, name(path), System.currentTimeMillis(), blockSize);
+		return new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				transfer.write(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				transfer.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				try {
+					transfer.commit();
+				} finally {
+					transfer.close();
+				}
+			}
+		};
+	}
+
+
+	/**
+	 * The archive doesn't support random writes
+	 */
+	@Override
+	public SeekableByteChannel openChannel(String path) throws IOException {
+		throw new IOException("the archive doesn't support random writes:" + path);
+	}
+
+
+	/**
+	 * Opens the transfer of the file. The interrupted transfer
+	 * is not resumed, it starts always from the beginning.
+	 */
+	@Override
+	public ISyncTransfer openTransfer(String path, long size, long timestamp) {
+		return new ArchiveTransfer(this, name(path), timestamp, (int) Math.min(size, blockSize));
+	}
+
+
+	/**
+	 * The archive is append-only, the entries cannot be deleted
+	 */
+	@Override
+	public void delete(String path) throws IOException {
+		throw new IOException("the archive doesn't support deletion:" + path);
+	}
+
+
+	@Override
+	public long getUsableSpace() {
+		File dir = archive.getAbsoluteFile().getParentFile();
+		while (dir != null && !dir.exists()) {
+			dir = dir.getParentFile();
+		}
+		return dir != null ? dir.getUsableSpace() : -1;
+	}
+
+
+	/**
+	 * Write all pending blocks, terminate the tar stream and save
+	 * the index
+	 */
+	@Override
+	public synchronized void flush() throws IOException {
+		if (writer != null) {
+			try {
+				writer.finish();
+			} finally {
+				channel.close();
+				channel = null;
+				writer = null;
+			}
+			readable = index.getEnd();
+			dirty = true;
+		}
+		if (dirty) {
+			index.save(indexFile);
+			dirty = false;
+		}
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			synchronized (this) {
+				if (compressors != null) {
+					compressors.shutdown();
+					compressors = null;
+				}
+			}
+		}
+	}
+
+
+	@Override
+	public String toString() {
+		return "archive:/" + archive.toString();
+	}
+
+
+	/**
+	 * Append the committed file into the tar stream
+	 */
+	synchronized void append(String name, long size, long timestamp, ByteBuffer memory, FileChannel spool) throws IOException {
+		ArchiveWriter w = writer();
+		w.write(ArchiveTar.header(name, size, timestamp));
+		long start = w.position();
+
+		w.write(memory.array(), memory.arrayOffset() + memory.position(), memory.remaining());
+		if (spool != null) {
+			ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+			long position = 0;
+			while (position < size) {
+				buf.clear();
+				int n = spool.read(buf, position);
+				if (n <= 0) {
+					throw new IOException("spool of " + name + " is shorter than " + size);
+				}
+				w.write(buf.array(), 0, n);
+				position += n;
+			}
+		}
+		w.write(new byte[ArchiveTar.padding(size)]);
+
+		index.put(new ArchiveIndex.Entry(name, start, size, timestamp));
+		dirty = true;
+	}
+
+
+	/**
+	 * Make sure the tar stream up to given position is written
+	 * into archive file
+	 */
+	synchronized void ensureReadable(long end) throws IOException {
+		if (writer != null && end > readable) {
+			writer.flush();
+			readable = writer.position();
+		}
+	}
+
+
+	void touched() {
+		dirty = true;
+	}
+
+
+	ArchiveIndex getIndex() {
+		return index;
+	}
+
+
+	File createSpoolFile() throws IOException {
+		File dir = archive.getAbsoluteFile().getParentFile();
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		return File.createTempFile(archive.getName(), ".spool", dir);
+	}
+
+
+	/**
+	 * Returns the writer appending at the end of the tar stream, the
+	 * trailer of previous write is overwritten
+	 */
+	private ArchiveWriter writer() throws IOException {
+		if (writer == null) {
+			File dir = archive.getAbsoluteFile().getParentFile();
+			if (!dir.exists()) {
+				dir.mkdirs();
+			}
+			channel = FileChannel.open(archive.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			channel.truncate(index.getTrailerOffset());
+			channel.position(index.getTrailerOffset());
+			writer = new ArchiveWriter(channel, index, compressors(), threads, blockSize, level);
+		}
+		return writer;
+	}
+
+
+	private ExecutorService compressors() {
+		if (compressors == null) {
+			compressors = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				private final AtomicInteger counter = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "sync-archive-" + counter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return compressors;
+	}
+
+
+	/**
+	 * Returns the name of the entry, e.g. 'dir/file.txt' for '/dir/file.txt'
+	 */
+	static String name(String path) {
+		String name = path.replace(File.separatorChar, '/');
+		int i = 0;
+		while (i < name.length() && name.charAt(i) == '/') {
+			i++;
+		}
+		return name.substring(i);
+	}
+
+
+	/**
+	 * Returns the path of the entry
+	 */
+	static String path(String name) {
+		return File.separator + name.replace('/', File.separatorChar);
+	}
+}
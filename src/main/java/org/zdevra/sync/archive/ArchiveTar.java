@@ -0,0 +1,134 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.archive;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Headers of the tar (ustar) format. Names longer than 100 bytes are
+ * written as GNU long name entries and sizes over 8 GB in base-256,
+ * both are supported by GNU tar and bsdtar.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+final class ArchiveTar {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	static final int RECORD = 512;
+
+	/** end of archive, two zero records */
+	static final byte[] TRAILER = new byte[2 * RECORD];
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int NAME_LENGTH = 100;
+	private static final long MAX_OCTAL_SIZE = 077777777777L;
+	private static final String LONG_LINK = "././@LongLink";
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	private ArchiveTar() {
+	}
+
+
+	/**
+	 * Returns headers of the regular file, the content follows them
+	 *
+	 * @param name      name in the archive, without leading '/'
+	 * @param size      size of the content
+	 * @param timestamp modification time in milliseconds
+	 */
+	static byte[] header(String name, long size, long timestamp) {
+		byte[] nameBytes = name.getBytes(UTF8);
+		if (nameBytes.length <= NAME_LENGTH) {
+			return record(nameBytes, size, timestamp, '0');
+		}
+
+		//GNU long name: the entry with the name as content precedes the file
+		int nameRecords = (nameBytes.length + 1 + RECORD - 1) / RECORD;
+		byte[] out = new byte[RECORD + nameRecords * RECORD + RECORD];
+		System.arraycopy(record(LONG_LINK.getBytes(UTF8), nameBytes.length + 1, 0, 'L'), 0, out, 0, RECORD);
+		System.arraycopy(nameBytes, 0, out, RECORD, nameBytes.length);
+		byte[] file = record(Arrays.copyOf(nameBytes, NAME_LENGTH), size, timestamp, '0');
+		System.arraycopy(file, 0, out, RECORD + nameRecords * RECORD, RECORD);
+		return out;
+	}
+
+
+	/**
+	 * Returns the number of zero bytes completing the content to the record
+	 */
+	static int padding(long size) {
+		int rest = (int) (size % RECORD);
+		return rest == 0 ? 0 : RECORD - rest;
+	}
+
+
+	private static byte[] record(byte[] name, long size, long timestamp, char type) {
+		byte[] header = new byte[RECORD];
+		System.arraycopy(name, 0, header, 0, Math.min(name.length, NAME_LENGTH));
+		octal(header, 100, 8, 0644);
+		octal(header, 108, 8, 0);
+		octal(header, 116, 8, 0);
+		if (size <= MAX_OCTAL_SIZE) {
+			octal(header, 124, 12, size);
+		} else {
+			//base-256, the first byte has the highest bit set
+			header[124] = (byte) 0x80;
+			for (int i = 0; i < 8; ++i) {
+				header[135 - i] = (byte) (size >>> (8 * i));
+			}
+		}
+		octal(header, 136, 12, Math.max(0, timestamp / 1000));
+		header[156] = (byte) type;
+		System.arraycopy("ustar\0".getBytes(UTF8), 0, header, 257, 6);
+		header[263] = '0';
+		header[264] = '0';
+
+		//checksum is computed with the checksum field filled by spaces
+		Arrays.fill(header, 148, 156, (byte) ' ');
+		long checksum = 0;
+		for (byte b : header) {
+			checksum += b & 0xFF;
+		}
+		octal(header, 148, 7, checksum);
+		header[155] = ' ';
+		return header;
+	}
+
+
+	/**
+	 * Write the zero-padded octal number terminated by NUL
+	 */
+	private static void octal(byte[] header, int offset, int length, long value) {
+		String digits = Long.toOctalString(value);
+		int pad = length - 1 - digits.length();
+		for (int i = 0; i < pad; ++i) {
+			header[offset + i] = '0';
+		}
+		for (int i = 0; i < digits.length(); ++i) {
+			header[offset + pad + i] = (byte) digits.charAt(i);
+		}
+		header[offset + length - 1] = 0;
+	}
+}
@@ -0,0 +1,172 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.archive;
+
+import org.zdevra.sync.ISyncTransfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Transfer of one file into the archive. The content is collected
+ * aside, in memory up to the block size and in the spool file over it,
+ * and it's appended into the archive as the whole entry by the commit.
+ * So the copies can run concurrently and the failed copy leaves no
+ * broken entry in the tar stream. The transfer can't be resumed.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class ArchiveTransfer implements ISyncTransfer {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final ArchiveRepository repository;
+	private final String name;
+	private final long timestamp;
+
+	/** content kept in memory */
+	private final ByteBuffer memory;
+
+	/** spool of the content which doesn't fit into memory, null if it's not needed */
+	private File spoolFile;
+	private FileChannel spool;
+
+	private long offset;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param repository
+	 * @param name       name of the entry
+	 * @param timestamp  modification time of the entry
+	 * @param memorySize max. bytes kept in memory
+	 */
+	ArchiveTransfer(ArchiveRepository repository, String name, long timestamp, int memorySize) {
+		this.repository = repository;
+		this.name = name;
+		this.timestamp = timestamp;
+		this.memory = ByteBuffer.allocate(memorySize);
+	}
+
+
+	@Override
+	public long getOffset() {
+		return offset;
+	}
+
+
+	@Override
+	public long transferFrom(ReadableByteChannel source, long count) throws IOException {
+		long transferred = 0;
+		while (transferred < count) {
+			int n;
+			if (spool == null && memory.hasRemaining()) {
+				int limit = (int) Math.min(memory.remaining(), count - transferred);
+				ByteBuffer slice = memory.duplicate();
+				slice.limit(slice.position() + limit);
+				n = source.read(slice);
+				if (n > 0) {
+					memory.position(slice.position());
+				}
+			} else {
+				n = (int) openSpool().transferFrom(source, offset, count - transferred);
+				if (n == 0) {
+					n = -1;
+				}
+			}
+
+			if (n < 0) {
+				break;
+			}
+			offset += n;
+			transferred += n;
+		}
+		return transferred;
+	}
+
+
+	/**
+	 * Write the bytes, it's used by the stream of the repository
+	 */
+	void write(byte[] data, int off, int len) throws IOException {
+		if (spool == null && memory.remaining() >= len) {
+			memory.put(data, off, len);
+		} else {
+			ByteBuffer buf = ByteBuffer.wrap(data, off, len);
+			while (buf.hasRemaining()) {
+				openSpool().write(buf, offset + (buf.position() - off));
+			}
+		}
+		offset += len;
+	}
+
+
+	/**
+	 * The content is in memory or spool only, there is nothing to checkpoint
+	 */
+	@Override
+	public void checkpoint() {
+	}
+
+
+	@Override
+	public void commit() throws IOException {
+		memory.flip();
+		repository.append(name, offset, timestamp, memory, spool);
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		if (spool != null) {
+			spool.close();
+			spool = null;
+			if (!spoolFile.delete()) {
+				spoolFile.deleteOnExit();
+			}
+		}
+	}
+
+
+	/**
+	 * Open the spool and move the content from memory into it
+	 */
+	private FileChannel openSpool() throws IOException {
+		if (spool == null) {
+			spoolFile = repository.createSpoolFile();
+			spool = new RandomAccessFile(spoolFile, "rw").getChannel();
+			memory.flip();
+			while (memory.hasRemaining()) {
+				spool.write(memory);
+			}
+			memory.clear();
+			memory.limit(0);
+		}
+		return spool;
+	}
+}
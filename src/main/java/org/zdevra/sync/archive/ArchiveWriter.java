@@ -0,0 +1,218 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the tar stream into the archive as independently compressed
+ * blocks. Full blocks are compressed in parallel by the pool, while
+ * the writer keeps filling the next block. Compressed blocks are
+ * appended in order, so the archive is a valid multi-member gzip
+ * of the tar stream. The number of blocks in flight is bounded.
+ *
+ * The writer is not thread-safe, it's guarded by the repository.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class ArchiveWriter {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final FileChannel out;
+	private final ArchiveIndex index;
+	private final ExecutorService compressors;
+	private final int maxInFlight;
+	private final int level;
+
+	/** blocks being compressed, in order of the stream */
+	private final Deque<Block> inFlight = new ArrayDeque<Block>();
+
+	/** uncompressed block being filled */
+	private byte[] buffer;
+	private int filled;
+
+	/** position in the tar stream */
+	private long position;
+
+	/** position in the archive file */
+	private long offset;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param out         archive file positioned at the end
+	 * @param index       index the blocks are recorded into
+	 * @param compressors pool compressing the blocks
+	 * @param threads     number of threads of the pool
+	 * @param blockSize   uncompressed size of the block
+	 * @param level       compression level of the deflater
+	 */
+	ArchiveWriter(FileChannel out, ArchiveIndex index, ExecutorService compressors, int threads, int blockSize, int level) throws IOException {
+		this.out = out;
+		this.index = index;
+		this.compressors = compressors;
+		this.maxInFlight = 2 * threads;
+		this.level = level;
+		this.buffer = new byte[blockSize];
+		this.position = index.getEnd();
+		this.offset = out.position();
+	}
+
+
+	/**
+	 * Returns the position in the tar stream
+	 */
+	long position() {
+		return position;
+	}
+
+
+	void write(byte[] data, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = Math.min(len, buffer.length - filled);
+			System.arraycopy(data, off, buffer, filled, n);
+			filled += n;
+			position += n;
+			off += n;
+			len -= n;
+			if (filled == buffer.length) {
+				submit();
+			}
+		}
+	}
+
+
+	void write(byte[] data) throws IOException {
+		write(data, 0, data.length);
+	}
+
+
+	/**
+	 * Write the partially filled block and wait for all compressed
+	 * blocks, so everything written is readable from the archive
+	 */
+	void flush() throws IOException {
+		if (filled > 0) {
+			submit();
+		}
+		while (!inFlight.isEmpty()) {
+			writeHead();
+		}
+	}
+
+
+	/**
+	 * Flush all blocks and terminate the tar stream by the trailer.
+	 * The trailer is not recorded as the block, the next writer
+	 * overwrites it.
+	 */
+	void finish() throws IOException {
+		flush();
+		index.setTrailer(position, offset);
+		ByteBuffer buf = ByteBuffer.wrap(compress(ArchiveTar.TRAILER, ArchiveTar.TRAILER.length));
+		while (buf.hasRemaining()) {
+			out.write(buf);
+		}
+		out.force(true);
+	}
+
+
+	private void submit() throws IOException {
+		final byte[] data = buffer;
+		final int length = filled;
+		Future<byte[]> compressed = compressors.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws IOException {
+				return compress(data, length);
+			}
+		});
+		inFlight.add(new Block(position - length, compressed));
+		buffer = new byte[buffer.length];
+		filled = 0;
+
+		while (inFlight.size() > maxInFlight || (!inFlight.isEmpty() && inFlight.peek().compressed.isDone())) {
+			writeHead();
+		}
+	}
+
+
+	private void writeHead() throws IOException {
+		Block block = inFlight.poll();
+		byte[] data;
+		try {
+			data = block.compressed.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("compression has been interrupted");
+		} catch (ExecutionException e) {
+			throw new IOException("compression failed", e.getCause());
+		}
+
+		index.addBlock(block.start, offset);
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		while (buf.hasRemaining()) {
+			offset += out.write(buf);
+		}
+	}
+
+
+	private byte[] compress(byte[] data, int length) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(length / 2 + 64);
+		GZIPOutputStream gzip = new GZIPOutputStream(bytes, 64 * 1024) {
+			{
+				def.setLevel(level);
+			}
+		};
+		gzip.write(data, 0, length);
+		gzip.close();
+		return bytes.toByteArray();
+	}
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// inner classes
+	//------------------------------------------------------------------------------------------------------------------
+
+	private static class Block {
+		private final long start;
+		private final Future<byte[]> compressed;
+
+		private Block(long start, Future<byte[]> compressed) {
+			this.start = start;
+			this.compressed = compressed;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.chunk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read-only channel of the chunked file. Only the chunk at the current
+ * position is held in memory.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class ChunkChannel implements SeekableByteChannel {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final ChunkStore store;
+	private final ChunkManifest manifest;
+
+	private long position;
+	private boolean open = true;
+
+	/** index of the chunk in the buffer, -1 if there is none */
+	private int current = -1;
+	private final byte[] chunk;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 */
+	ChunkChannel(ChunkStore store, ChunkManifest manifest) {
+		this.store = store;
+		this.manifest = manifest;
+		int max = 0;
+		for (int i = 0; i < manifest.getChunks().size(); i++) {
+			max = Math.max(max, manifest.length(i));
+		}
+		this.chunk = new byte[max];
+	}
+
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		checkOpen();
+		if (position >= manifest.getSize()) {
+			return -1;
+		}
+		int i = manifest.chunkAt(position);
+		if (i != current) {
+			store.read(manifest.getChunks().get(i), chunk, manifest.length(i));
+			current = i;
+		}
+		int offset = (int) (position - manifest.offset(i));
+		int n = Math.min(dst.remaining(), manifest.length(i) - offset);
+		dst.put(chunk, offset, n);
+		position += n;
+		return n;
+	}
+
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+
+	@Override
+	public long position() throws IOException {
+		checkOpen();
+		return position;
+	}
+
+
+	@Override
+	public SeekableByteChannel position(long newPosition) throws IOException {
+		checkOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("negative position:" + newPosition);
+		}
+		this.position = newPosition;
+		return this;
+	}
+
+
+	@Override
+	public long size() throws IOException {
+		checkOpen();
+		return manifest.getSize();
+	}
+
+
+	@Override
+	public SeekableByteChannel truncate(long size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		open = false;
+	}
+
+
+	private void checkOpen() throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.chunk;
+
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.SyncError;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * File of the chunk repository. The content is read chunk by chunk,
+ * so the file is never held in memory as whole.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class ChunkFile implements ISyncFile {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final ChunkRepository repository;
+	private final String path;
+	private final long size;
+	private volatile long timestamp;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param repository
+	 * @param path
+	 * @param size
+	 * @param timestamp
+	 */
+	ChunkFile(ChunkRepository repository, String path, long size, long timestamp) {
+		this.repository = repository;
+		this.path = path;
+		this.size = size;
+		this.timestamp = timestamp;
+	}
+
+
+	@Override
+	public String path() {
+		return path;
+	}
+
+
+	@Override
+	public long timestamp() throws IOException {
+		return timestamp;
+	}
+
+
+	@Override
+	public long size() throws IOException {
+		return size;
+	}
+
+
+	@Override
+	public String fileKey() throws IOException {
+		return null;
+	}
+
+
+	@Override
+	public void touch(long timestamp) throws IOException {
+		repository.touch(path, timestamp);
+		this.timestamp = timestamp;
+	}
+
+
+	@Override
+	public void copyTo(OutputStream os) throws IOException {
+		try {
+			ChunkManifest manifest = repository.manifest(path);
+			byte[] buf = new byte[ChunkSplitter.MAX_SIZE];
+			for (int i = 0; i < manifest.getChunks().size(); i++) {
+				int length = manifest.length(i);
+				if (length > buf.length) {
+					buf = new byte[length];
+				}
+				repository.getStore().read(manifest.getChunks().get(i), buf, length);
+				os.write(buf, 0, length);
+			}
+		} finally {
+			os.close();
+		}
+	}
+
+
+	@Override
+	public byte[] digest() throws IOException {
+		final MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new SyncError("SHA-256 is not supported", e);
+		}
+
+		copyTo(new OutputStream() {
+			@Override
+			public void write(int b) {
+				md.update((byte) b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				md.update(b, off, len);
+			}
+		});
+		return md.digest();
+	}
+
+
+	@Override
+	public SeekableByteChannel openChannel() throws IOException {
+		return new ChunkChannel(repository.getStore(), repository.manifest(path));
+	}
+
+
+	@Override
+	public String toString() {
+		return "chunk:" + path;
+	}
+}
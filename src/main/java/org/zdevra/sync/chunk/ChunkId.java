@@ -0,0 +1,118 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.chunk;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Identity of the chunk, the SHA-256 of its content
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+final class ChunkId {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	static final int LENGTH = 32;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final byte[] hash;
+	private final int hashCode;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 */
+	ChunkId(byte[] hash) {
+		if (hash.length != LENGTH) {
+			throw new IllegalArgumentException("invalid length of the chunk id:" + hash.length);
+		}
+		this.hash = hash;
+		this.hashCode = Arrays.hashCode(hash);
+	}
+
+
+	/**
+	 * Returns the id given by the hex string, or null if the string
+	 * isn't valid id
+	 */
+	static ChunkId parse(String hex) {
+		if (hex.length() != LENGTH * 2) {
+			return null;
+		}
+		byte[] hash = new byte[LENGTH];
+		for (int i = 0; i < LENGTH; i++) {
+			int hi = Character.digit(hex.charAt(2 * i), 16);
+			int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+			if (hi < 0 || lo < 0) {
+				return null;
+			}
+			hash[i] = (byte) ((hi << 4) | lo);
+		}
+		return new ChunkId(hash);
+	}
+
+
+	static ChunkId read(DataInput in) throws IOException {
+		byte[] hash = new byte[LENGTH];
+		in.readFully(hash);
+		return new ChunkId(hash);
+	}
+
+
+	void write(DataOutput out) throws IOException {
+		out.write(hash);
+	}
+
+
+	String toHex() {
+		char[] out = new char[LENGTH * 2];
+		for (int i = 0; i < LENGTH; i++) {
+			out[2 * i] = HEX[(hash[i] >> 4) & 0x0f];
+			out[2 * i + 1] = HEX[hash[i] & 0x0f];
+		}
+		return new String(out);
+	}
+
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof ChunkId && Arrays.equals(hash, ((ChunkId) o).hash);
+	}
+
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+
+	@Override
+	public String toString() {
+		return toHex();
+	}
+}
@@ -0,0 +1,218 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.chunk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * List of the chunks of one file. It's stored as:
+ *
+ * <pre>
+ *   int  MAGIC, int VERSION
+ *   long size, long timestamp
+ *   int  count of chunks
+ *   count * (32 bytes id, int length)
+ * </pre>
+ *
+ * The manifest of interrupted transfer has the size and timestamp
+ * of the source and the chunks transferred until the checkpoint.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class ChunkManifest {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private static final int MAGIC = 0x43484b4d;
+	private static final int VERSION = 1;
+
+	private final long size;
+	private final long timestamp;
+	private final List<ChunkId> chunks;
+
+	/** offset of each chunk in the file, and the size at the end */
+	private final long[] offsets;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param size      size of the file
+	 * @param timestamp timestamp of the file
+	 * @param chunks    chunks of the content
+	 * @param lengths   length of each chunk
+	 */
+	ChunkManifest(long size, long timestamp, List<ChunkId> chunks, int[] lengths) {
+		this.size = size;
+		this.timestamp = timestamp;
+		this.chunks = Collections.unmodifiableList(new ArrayList<ChunkId>(chunks));
+		this.offsets = new long[chunks.size() + 1];
+		for (int i = 0; i < chunks.size(); i++) {
+			offsets[i + 1] = offsets[i] + lengths[i];
+		}
+	}
+
+
+	/**
+	 * Read the whole manifest
+	 */
+	static ChunkManifest read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			long[] header = header(in, file);
+			int count = in.readInt();
+			if (count < 0) {
+				throw new IOException("corrupted manifest:" + file);
+			}
+			List<ChunkId> chunks = new ArrayList<ChunkId>(count);
+			int[] lengths = new int[count];
+			for (int i = 0; i < count; i++) {
+				chunks.add(ChunkId.read(in));
+				lengths[i] = in.readInt();
+			}
+			return new ChunkManifest(header[0], header[1], chunks, lengths);
+		} finally {
+			in.close();
+		}
+	}
+
+
+	/**
+	 * Read only the size and timestamp, e.g. for the scan
+	 */
+	static long[] readHeader(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return header(in, file);
+		} finally {
+			in.close();
+		}
+	}
+
+
+	/**
+	 * Write the manifest through the temporary file, so the manifest
+	 * is replaced atomically
+	 */
+	void write(File file, File tmp) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(size);
+			out.writeLong(timestamp);
+			out.writeInt(chunks.size());
+			for (int i = 0; i < chunks.size(); i++) {
+				chunks.get(i).write(out);
+				out.writeInt((int) (offsets[i + 1] - offsets[i]));
+			}
+		} finally {
+			out.close();
+		}
+
+		File dir = file.getParentFile();
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+
+	/**
+	 * Returns the copy with another timestamp
+	 */
+	ChunkManifest withTimestamp(long timestamp) {
+		int[] lengths = new int[chunks.size()];
+		for (int i = 0; i < lengths.length; i++) {
+			lengths[i] = length(i);
+		}
+		return new ChunkManifest(size, timestamp, chunks, lengths);
+	}
+
+
+	long getSize() {
+		return size;
+	}
+
+
+	long getTimestamp() {
+		return timestamp;
+	}
+
+
+	List<ChunkId> getChunks() {
+		return chunks;
+	}
+
+
+	long offset(int chunk) {
+		return offsets[chunk];
+	}
+
+
+	int length(int chunk) {
+		return (int) (offsets[chunk + 1] - offsets[chunk]);
+	}
+
+
+	/**
+	 * Returns the number of bytes in the chunks
+	 */
+	long getStoredLength() {
+		return offsets[chunks.size()];
+	}
+
+
+	/**
+	 * Returns the index of the chunk containing the position
+	 */
+	int chunkAt(long position) {
+		int i = Arrays.binarySearch(offsets, position);
+		return i >= 0 ? i : -i - 2;
+	}
+
+
+	private static long[] header(DataInputStream in, File file) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("not a manifest:" + file);
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("unsupported version " + version + " of manifest:" + file);
+		}
+		return new long[] {in.readLong(), in.readLong()};
+	}
+}
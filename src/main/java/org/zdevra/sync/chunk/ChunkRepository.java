@@ -0,0 +1,384 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.chunk;
+
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.ISyncFileIterator;
+import org.zdevra.sync.ISyncRepository;
+import org.zdevra.sync.ISyncTransfer;
+import org.zdevra.sync.SyncError;
+import org.zdevra.sync.SyncPathComparator;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Repository deduplicating the content across all files, e.g. for the
+ * backup of VM images or build artifacts. The content is split into
+ * chunks by the content-defined chunking ({@link ChunkSplitter}) and
+ * each chunk is stored only once, identified by its SHA-256. The file
+ * is the manifest listing its chunks. The directory looks like:
+ *
+ * <pre>
+ *   files/     manifests, in the same tree as the synced files
+ *   chunks/    chunks by their id
+ *   transfers/ manifests of interrupted transfers
+ *   tmp/       files being written
+ * </pre>
+ *
+ * The chunks which aren't referenced by any manifest anymore are
+ * deleted by {@link #gc()}, it can run together with the sync.
+ *
+ * Files can't be written at random positions, so the repository isn't
+ * {@link org.zdevra.sync.ISyncDeltaRepository} and the sync copies whole
+ * files into it even if the delta transfer is enabled.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class ChunkRepository implements ISyncRepository {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final File rootDir;
+	private final File filesDir;
+	private final File transfersDir;
+	private final File tmpDir;
+	private final ChunkStore store;
+
+	private final AtomicLong writtenBytes = new AtomicLong();
+	private final AtomicLong deduplicatedBytes = new AtomicLong();
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param rootDir directory of the repository, it's created by first write
+	 */
+	public ChunkRepository(File rootDir) {
+		this.rootDir = rootDir;
+		this.filesDir = new File(rootDir, "files");
+		this.transfersDir = new File(rootDir, "transfers");
+		this.tmpDir = new File(rootDir, "tmp");
+		this.store = new ChunkStore(new File(rootDir, "chunks"), tmpDir);
+	}
+
+
+	/**
+	 * Returns the number of bytes of new chunks written into the store
+	 */
+	public long getWrittenBytes() {
+		return writtenBytes.get();
+	}
+
+
+	/**
+	 * Returns the number of bytes which were already in the store
+	 * and weren't written again
+	 */
+	public long getDeduplicatedBytes() {
+		return deduplicatedBytes.get();
+	}
+
+
+	/**
+	 * Returns the number of stored chunks
+	 */
+	public int getChunkCount() {
+		return store.size();
+	}
+
+
+	/**
+	 * Delete the chunks which aren't referenced by any file or
+	 * interrupted transfer. Returns the number of freed bytes.
+	 */
+	public synchronized long gc() throws IOException {
+		store.beginCollection();
+		Set<ChunkId> live = new HashSet<ChunkId>();
+		try {
+			mark(filesDir, live);
+			mark(transfersDir, live);
+		} catch (IOException e) {
+			//nothing is deleted when the manifest can't be read
+			store.endCollection();
+			throw e;
+		}
+		return store.sweep(live);
+	}
+
+
+	@Override
+	public List<ISyncFile> scan() {
+		List<ISyncFile> out = new ArrayList<ISyncFile>();
+		try {
+			scan(filesDir, out);
+		} catch (IOException e) {
+			throw new SyncError("error when scan " + this, e);
+		}
+		return out;
+	}
+
+
+	@Override
+	public ISyncFileIterator iterate(final SyncPathComparator order) throws IOException {
+		List<ISyncFile> files = scan();
+		Collections.sort(files, new Comparator<ISyncFile>() {
+			@Override
+			public int compare(ISyncFile f1, ISyncFile f2) {
+				return order.compare(f1.path(), f2.path());
+			}
+		});
+
+		final Iterator<ISyncFile> it = files.iterator();
+		return new ISyncFileIterator() {
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			@Override
+			public ISyncFile next() {
+				return it.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("the repository is read by iterator");
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+
+	@Override
+	public ISyncFile getFile(String path) {
+		File manifest = manifestFile(path);
+		if (!manifest.isFile()) {
+			return null;
+		}
+		try {
+			long[] header = ChunkManifest.readHeader(manifest);
+			return new ChunkFile(this, path, header[0], header[1]);
+		} catch (FileNotFoundException e) {
+			return null;
+		} catch (IOException e) {
+			throw new SyncError("error when read manifest of " + path, e);
+		}
+	}
+
+
+	/**
+	 * Opens the stream of the file, the file is replaced by closing
+	 * the stream
+	 */
+	@Override
+	public OutputStream openStream(final String path) throws IOException {
+		final ChunkWriter writer = new ChunkWriter(this, null);
+		return new OutputStream() {
+			private boolean closed;
+
+			@Override
+			public void write(int b) throws IOException {
+				writer.write(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				writer.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				try {
+					writer.finish(System.currentTimeMillis()).write(manifestFile(path), tmpFile());
+				} finally {
+					writer.close();
+				}
+			}
+		};
+	}
+
+
+	/**
+	 * The chunks can't be written at random positions
+	 */
+	@Override
+	public SeekableByteChannel openChannel(String path) throws IOException {
+		throw new IOException("the chunk repository doesn't support random writes:" + path);
+	}
+
+
+	@Override
+	public ISyncTransfer openTransfer(String path, long size, long timestamp) throws IOException {
+		return new ChunkTransfer(this, path, size, timestamp);
+	}
+
+
+	/**
+	 * Deletes the manifest of the file, its chunks are freed by
+	 * the next {@link #gc()} if no other file references them
+	 */
+	@Override
+	public void delete(String path) throws IOException {
+		File manifest = manifestFile(path);
+		if (!manifest.isFile()) {
+			return;
+		}
+		Files.delete(manifest.toPath());
+
+		File root = filesDir.getAbsoluteFile();
+		File dir = manifest.getAbsoluteFile().getParentFile();
+		while (dir != null && !dir.equals(root) && dir.delete()) {
+			dir = dir.getParentFile();
+		}
+	}
+
+
+	@Override
+	public long getUsableSpace() {
+		File dir = rootDir.getAbsoluteFile();
+		while (dir != null && !dir.exists()) {
+			dir = dir.getParentFile();
+		}
+		return dir != null ? dir.getUsableSpace() : -1;
+	}
+
+
+	@Override
+	public String toString() {
+		return "chunk:/" + rootDir.toString();
+	}
+
+
+	ChunkStore getStore() {
+		return store;
+	}
+
+
+	File manifestFile(String path) {
+		return new File(filesDir, path);
+	}
+
+
+	/**
+	 * Returns the manifest of interrupted transfer of the file
+	 */
+	File transferFile(String path) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			return new File(transfersDir, new ChunkId(md.digest(path.getBytes("UTF-8"))).toHex());
+		} catch (NoSuchAlgorithmException e) {
+			throw new SyncError("SHA-256 is not supported", e);
+		} catch (IOException e) {
+			throw new SyncError("UTF-8 is not supported", e);
+		}
+	}
+
+
+	File tmpFile() throws IOException {
+		if (!tmpDir.exists()) {
+			tmpDir.mkdirs();
+		}
+		return File.createTempFile("manifest", ".tmp", tmpDir);
+	}
+
+
+	ChunkManifest manifest(String path) throws IOException {
+		return ChunkManifest.read(manifestFile(path));
+	}
+
+
+	/**
+	 * Rewrite the manifest with new timestamp
+	 */
+	synchronized void touch(String path, long timestamp) throws IOException {
+		manifest(path).withTimestamp(timestamp).write(manifestFile(path), tmpFile());
+	}
+
+
+	void written(long count) {
+		writtenBytes.addAndGet(count);
+	}
+
+
+	void deduplicated(long count) {
+		deduplicatedBytes.addAndGet(count);
+	}
+
+
+	private void scan(File dir, List<ISyncFile> out) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		String root = filesDir.getAbsolutePath();
+		for (File f : files) {
+			if (f.isDirectory()) {
+				scan(f, out);
+			} else if (f.isFile()) {
+				long[] header = ChunkManifest.readHeader(f);
+				out.add(new ChunkFile(this, f.getAbsolutePath().substring(root.length()), header[0], header[1]));
+			}
+		}
+	}
+
+
+	private static void mark(File dir, Set<ChunkId> live) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File f : files) {
+			if (f.isDirectory()) {
+				mark(f, live);
+			} else if (f.isFile()) {
+				try {
+					live.addAll(ChunkManifest.read(f).getChunks());
+				} catch (FileNotFoundException e) {
+					//replaced or deleted meanwhile
+				}
+			}
+		}
+	}
+}
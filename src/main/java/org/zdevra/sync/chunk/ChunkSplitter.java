@@ -0,0 +1,95 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.chunk;
+
+/**
+ * Content-defined chunking by the gear rolling hash (FastCDC). The
+ * boundary is placed where the hash of the last bytes matches the mask,
+ * so it depends only on the content around it: the data inserted into
+ * the file shifts the boundaries with the content and chunks after the
+ * change are found again. The harder mask before the average size and
+ * the easier one after it keep the chunk sizes close to the average.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+final class ChunkSplitter {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	static final int MIN_SIZE = 16 * 1024;
+	static final int AVG_SIZE = 64 * 1024;
+	static final int MAX_SIZE = 256 * 1024;
+
+	/** mask of 18 bits (2 more than log2(AVG_SIZE)), used before the average size */
+	private static final long MASK_S = 0x1a250e90227c0000L;
+
+	/** mask of 14 bits (2 less than log2(AVG_SIZE)), used after the average size */
+	private static final long MASK_L = 0x12250a90203c0000L;
+
+	/** random value of each byte; it must never change, the chunks of stored files depend on it */
+	private static final long[] GEAR = new long[256];
+
+	static {
+		long seed = 0x5eed5eed5eedL;
+		for (int i = 0; i < GEAR.length; i++) {
+			seed += 0x9E3779B97F4A7C15L;
+			long z = seed;
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			GEAR[i] = z ^ (z >>> 31);
+		}
+	}
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	private ChunkSplitter() {
+	}
+
+
+	/**
+	 * Returns the length of the chunk starting at the offset. The data
+	 * must contain at least {@link #MAX_SIZE} bytes, or all remaining
+	 * bytes of the file.
+	 */
+	static int boundary(byte[] data, int offset, int length) {
+		if (length <= MIN_SIZE) {
+			return length;
+		}
+		int end = Math.min(length, MAX_SIZE);
+		int normal = Math.min(end, AVG_SIZE);
+		long hash = 0;
+		int i = MIN_SIZE;
+		for (; i < normal; i++) {
+			hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+			if ((hash & MASK_S) == 0) {
+				return i + 1;
+			}
+		}
+		for (; i < end; i++) {
+			hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+			if ((hash & MASK_L) == 0) {
+				return i + 1;
+			}
+		}
+		return end;
+	}
+}
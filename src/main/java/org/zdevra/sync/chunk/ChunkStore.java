@@ -0,0 +1,249 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.chunk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Content-addressed store of the chunks. Each chunk is the file named
+ * by its id in the directory given by the first byte of the id. The
+ * index of stored chunks is built by listing the directory, so the
+ * existence of the chunk is checked without the filesystem.
+ *
+ * The chunks used by writers are pinned. The garbage collection doesn't
+ * delete the pinned chunks, nor the chunks pinned or released since the
+ * collection started, because their manifests could be written after
+ * the collection has read the manifests.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class ChunkStore {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final File dir;
+	private final File tmpDir;
+
+	/** ids of stored chunks, null until the store is listed */
+	private Set<ChunkId> index;
+
+	/** number of writers using each chunk */
+	private final Map<ChunkId, Integer> pins = new HashMap<ChunkId, Integer>();
+
+	/** chunks pinned or released since the collection started, null if it's not running */
+	private Set<ChunkId> recent;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param dir    directory of the chunks
+	 * @param tmpDir directory of the files being written
+	 */
+	ChunkStore(File dir, File tmpDir) {
+		this.dir = dir;
+		this.tmpDir = tmpDir;
+	}
+
+
+	/**
+	 * Pin the chunk, returns true if it's already stored
+	 */
+	synchronized boolean pin(ChunkId id) {
+		Integer count = pins.get(id);
+		pins.put(id, count == null ? 1 : count + 1);
+		if (recent != null) {
+			recent.add(id);
+		}
+		return index().contains(id);
+	}
+
+
+	synchronized void release(Collection<ChunkId> ids) {
+		for (ChunkId id : ids) {
+			Integer count = pins.get(id);
+			if (count == null) {
+				continue;
+			}
+			if (count == 1) {
+				pins.remove(id);
+			} else {
+				pins.put(id, count - 1);
+			}
+			if (recent != null) {
+				recent.add(id);
+			}
+		}
+	}
+
+
+	/**
+	 * Store the pinned chunk
+	 */
+	void put(ChunkId id, byte[] data, int offset, int length) throws IOException {
+		File file = file(id);
+		File tmp = File.createTempFile("chunk", ".tmp", tmpDir());
+		try {
+			FileOutputStream out = new FileOutputStream(tmp);
+			try {
+				out.write(data, offset, length);
+			} finally {
+				out.close();
+			}
+			File parent = file.getParentFile();
+			if (!parent.exists()) {
+				parent.mkdirs();
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tmp.delete();
+		}
+		synchronized (this) {
+			index().add(id);
+		}
+	}
+
+
+	/**
+	 * Read the chunk into the buffer
+	 */
+	void read(ChunkId id, byte[] buf, int length) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file(id), "r");
+		try {
+			if (in.length() != length) {
+				throw new IOException("chunk " + id + " has wrong length " + in.length() + ", expected " + length);
+			}
+			in.readFully(buf, 0, length);
+		} finally {
+			in.close();
+		}
+	}
+
+
+	/**
+	 * Start the garbage collection, the manifests must be read after
+	 * this call
+	 */
+	synchronized void beginCollection() {
+		index();
+		recent = new HashSet<ChunkId>();
+	}
+
+
+	/**
+	 * Delete the chunks which aren't live, returns the number of freed
+	 * bytes. It ends the collection.
+	 */
+	long sweep(Set<ChunkId> live) {
+		List<ChunkId> candidates = new ArrayList<ChunkId>();
+		synchronized (this) {
+			for (ChunkId id : index) {
+				if (!live.contains(id)) {
+					candidates.add(id);
+				}
+			}
+		}
+
+		long freed = 0;
+		try {
+			for (ChunkId id : candidates) {
+				synchronized (this) {
+					if (pins.containsKey(id) || recent.contains(id)) {
+						continue;
+					}
+					File file = file(id);
+					long length = file.length();
+					if (file.delete() || !file.exists()) {
+						index.remove(id);
+						freed += length;
+					}
+				}
+			}
+		} finally {
+			endCollection();
+		}
+		return freed;
+	}
+
+
+	synchronized void endCollection() {
+		recent = null;
+	}
+
+
+	synchronized int size() {
+		return index().size();
+	}
+
+
+	private File file(ChunkId id) {
+		String hex = id.toHex();
+		return new File(new File(dir, hex.substring(0, 2)), hex);
+	}
+
+
+	private File tmpDir() {
+		if (!tmpDir.exists()) {
+			tmpDir.mkdirs();
+		}
+		return tmpDir;
+	}
+
+
+	/**
+	 * Returns the index, it's built by the first call
+	 */
+	private Set<ChunkId> index() {
+		if (index == null) {
+			index = new HashSet<ChunkId>();
+			File[] subdirs = dir.listFiles();
+			if (subdirs != null) {
+				for (File subdir : subdirs) {
+					String[] names = subdir.list();
+					if (names == null) {
+						continue;
+					}
+					for (String name : names) {
+						ChunkId id = ChunkId.parse(name);
+						if (id != null) {
+							index.add(id);
+						}
+					}
+				}
+			}
+		}
+		return index;
+	}
+}
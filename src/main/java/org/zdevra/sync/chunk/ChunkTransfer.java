@@ -0,0 +1,122 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.chunk;
+
+import org.zdevra.sync.ISyncTransfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Transfer into the chunk repository. The checkpoint saves the manifest
+ * of the chunks stored so far, and the interrupted transfer of the same
+ * source is resumed after the last of them.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class ChunkTransfer implements ISyncTransfer {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final ChunkRepository repository;
+	private final String path;
+	private final long size;
+	private final long timestamp;
+
+	/** manifest of the interrupted transfer */
+	private final File partial;
+	private final ChunkWriter writer;
+	private final ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param repository
+	 * @param path
+	 * @param size       size of the source
+	 * @param timestamp  timestamp of the source
+	 */
+	ChunkTransfer(ChunkRepository repository, String path, long size, long timestamp) throws IOException {
+		this.repository = repository;
+		this.path = path;
+		this.size = size;
+		this.timestamp = timestamp;
+		this.partial = repository.transferFile(path);
+
+		ChunkManifest resumed = null;
+		if (partial.exists()) {
+			ChunkManifest manifest = ChunkManifest.read(partial);
+			if (manifest.getSize() == size && manifest.getTimestamp() == timestamp) {
+				resumed = manifest;
+			} else {
+				partial.delete();
+			}
+		}
+		this.writer = new ChunkWriter(repository, resumed);
+	}
+
+
+	@Override
+	public long getOffset() {
+		return writer.getOffset();
+	}
+
+
+	@Override
+	public long transferFrom(ReadableByteChannel source, long count) throws IOException {
+		long transferred = 0;
+		while (transferred < count) {
+			buf.clear();
+			buf.limit((int) Math.min(buf.capacity(), count - transferred));
+			int n = source.read(buf);
+			if (n <= 0) {
+				break;
+			}
+			writer.write(buf.array(), 0, n);
+			transferred += n;
+		}
+		return transferred;
+	}
+
+
+	@Override
+	public void checkpoint() throws IOException {
+		writer.checkpoint(size, timestamp).write(partial, repository.tmpFile());
+	}
+
+
+	@Override
+	public void commit() throws IOException {
+		writer.finish(timestamp).write(repository.manifestFile(path), repository.tmpFile());
+		partial.delete();
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+}
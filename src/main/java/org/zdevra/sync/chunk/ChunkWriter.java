@@ -0,0 +1,166 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.chunk;
+
+import org.zdevra.sync.SyncError;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the written content into chunks and stores the chunks which
+ * aren't in the store yet. The chunks are pinned until the writer is
+ * closed, so the garbage collection doesn't delete them before they're
+ * referenced by the manifest.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class ChunkWriter implements Closeable {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final ChunkRepository repository;
+	private final ChunkStore store;
+	private final MessageDigest sha;
+
+	/** content not split yet */
+	private final byte[] buffer = new byte[2 * ChunkSplitter.MAX_SIZE];
+	private int length;
+
+	private final List<ChunkId> chunks = new ArrayList<ChunkId>();
+	private int[] lengths = new int[16];
+
+	/** bytes in the chunks */
+	private long stored;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param repository
+	 * @param resumed    chunks of the interrupted transfer, or null
+	 */
+	ChunkWriter(ChunkRepository repository, ChunkManifest resumed) {
+		this.repository = repository;
+		this.store = repository.getStore();
+		try {
+			this.sha = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new SyncError("SHA-256 is not supported", e);
+		}
+
+		if (resumed != null) {
+			for (int i = 0; i < resumed.getChunks().size(); i++) {
+				ChunkId id = resumed.getChunks().get(i);
+				store.pin(id);
+				add(id, resumed.length(i));
+			}
+		}
+	}
+
+
+	void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = Math.min(len, buffer.length - length);
+			System.arraycopy(b, off, buffer, length, n);
+			length += n;
+			off += n;
+			len -= n;
+			while (length >= ChunkSplitter.MAX_SIZE) {
+				cut();
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the number of written bytes
+	 */
+	long getOffset() {
+		return stored + length;
+	}
+
+
+	/**
+	 * Returns the manifest of the chunks stored so far, the content
+	 * not split yet isn't included
+	 */
+	ChunkManifest checkpoint(long size, long timestamp) {
+		return new ChunkManifest(size, timestamp, chunks, lengths);
+	}
+
+
+	/**
+	 * Split and store the rest of the content, returns the manifest
+	 * of the file
+	 */
+	ChunkManifest finish(long timestamp) throws IOException {
+		while (length > 0) {
+			cut();
+		}
+		return new ChunkManifest(stored, timestamp, chunks, lengths);
+	}
+
+
+	/**
+	 * Release the chunks, the manifest must be written before
+	 */
+	@Override
+	public void close() {
+		store.release(chunks);
+		chunks.clear();
+	}
+
+
+	private void cut() throws IOException {
+		int n = ChunkSplitter.boundary(buffer, 0, length);
+		sha.update(buffer, 0, n);
+		ChunkId id = new ChunkId(sha.digest());
+		if (store.pin(id)) {
+			repository.deduplicated(n);
+		} else {
+			store.put(id, buffer, 0, n);
+			repository.written(n);
+		}
+		add(id, n);
+
+		System.arraycopy(buffer, n, buffer, 0, length - n);
+		length -= n;
+	}
+
+
+	private void add(ChunkId id, int chunkLength) {
+		if (chunks.size() == lengths.length) {
+			int[] grown = new int[lengths.length * 2];
+			System.arraycopy(lengths, 0, grown, 0, lengths.length);
+			lengths = grown;
+		}
+		lengths[chunks.size()] = chunkLength;
+		chunks.add(id);
+		stored += chunkLength;
+	}
+}
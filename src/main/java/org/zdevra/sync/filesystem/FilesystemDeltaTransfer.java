@@ -0,0 +1,94 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.filesystem;
+
+import org.zdevra.sync.ISyncDeltaTransfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Delta transfer into the sibling part file. The destination is copied
+ * into the part file, the delta is applied to it and the part file is
+ * renamed over the destination on commit. The checkpoint of the earlier
+ * transfer of the same destination is dropped, it doesn't belong to the
+ * content of the part file anymore.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class FilesystemDeltaTransfer implements ISyncDeltaTransfer {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final File target;
+	private final File part;
+	private final FileChannel channel;
+	private boolean committed;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor copies the destination into the part file
+	 *
+	 * @param target the existing destination file
+	 */
+	FilesystemDeltaTransfer(File target) throws IOException {
+		this.target = target;
+		this.part = new File(target.getParentFile(), target.getName() + FilesystemTransfer.PART_SUFFIX);
+		new File(target.getParentFile(), target.getName() + FilesystemTransfer.CHECKPOINT_SUFFIX).delete();
+
+		Files.copy(target.toPath(), part.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		this.channel = FileChannel.open(part.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+
+	@Override
+	public SeekableByteChannel getChannel() {
+		return channel;
+	}
+
+
+	@Override
+	public void commit() throws IOException {
+		channel.force(false);
+		channel.close();
+		FilesystemTransfer.move(part, target);
+		committed = true;
+	}
+
+
+	/**
+	 * Close the transfer, not committed part file is deleted
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!committed) {
+			channel.close();
+			part.delete();
+		}
+	}
+}
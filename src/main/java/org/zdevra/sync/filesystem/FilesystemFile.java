@@ -17,11 +17,24 @@
 package org.zdevra.sync.filesystem;
 
 import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.SyncBufferPool;
+import org.zdevra.sync.SyncError;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
@@ -36,6 +49,9 @@ class FilesystemFile implements ISyncFile {
 	private final File path;
 	private final String subpath;
 
+	/** buffers used when file is copied into non-file stream */
+	private final SyncBufferPool buffers;
+
 
 	//------------------------------------------------------------------------------------------------------------------
 	// methods
@@ -44,11 +60,15 @@ class FilesystemFile implements ISyncFile {
 	/**
 	 * extract the path from root and source
 	 */
-	static ISyncFile create(File root, File source) {
+	static ISyncFile create(File root, File source, SyncBufferPool buffers) {
+		return new FilesystemFile(root, source, subpath(root, source), buffers);
+	}
+
+
+	static String subpath(File root, File source) {
 		String pathStr = source.getAbsolutePath();
 		String rootStr = root.getAbsolutePath();
-		String subpath = pathStr.substring(rootStr.length());
-		return new FilesystemFile(root, source, subpath);
+		return pathStr.substring(rootStr.length());
 	}
 
 	/**
@@ -57,11 +77,13 @@ class FilesystemFile implements ISyncFile {
 	 * @param root
 	 * @param path
 	 * @param subpath
+	 * @param buffers
 	 */
-	private FilesystemFile(File root, File path, String subpath) {
+	FilesystemFile(File root, File path, String subpath, SyncBufferPool buffers) {
 		this.root = root;
 		this.path = path;
 		this.subpath = subpath;
+		this.buffers = buffers;
 	}
 
 
@@ -77,20 +99,39 @@ class FilesystemFile implements ISyncFile {
 	}
 
 
+	@Override
+	public long size() throws IOException {
+		return path.length();
+	}
+
+
+	@Override
+	public String fileKey() throws IOException {
+		Object key = Files.readAttributes(path.toPath(), BasicFileAttributes.class).fileKey();
+		return key != null ? key.toString() : null;
+	}
+
+
 	@Override
 	public void touch(long timestamp) throws IOException {
 		path.setLastModified(timestamp);
 	}
 
 
+	/**
+	 * Copy the content into destination. If the destination is another
+	 * file, the content is transferred channel-to-channel and kernel
+	 * can copy it without going through the user space.
+	 */
 	@Override
 	public void copyTo(OutputStream destination) throws IOException {
 		FileInputStream source = new FileInputStream(path);
 		try {
-			byte[] buf = new byte[1024];
-			int bytesRead;
-			while ((bytesRead = source.read(buf)) > 0) {
-				destination.write(buf, 0, bytesRead);
+			FileChannel in = source.getChannel();
+			if (destination instanceof FileOutputStream) {
+				transfer(in, ((FileOutputStream) destination).getChannel());
+			} else {
+				copy(in, destination);
 			}
 		} finally {
 			source.close();
@@ -99,6 +140,72 @@ class FilesystemFile implements ISyncFile {
 	}
 
 
+	@Override
+	public byte[] digest() throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new SyncError("SHA-256 is not supported", e);
+		}
+
+		FileInputStream source = new FileInputStream(path);
+		ByteBuffer buf = buffers.acquire();
+		try {
+			FileChannel in = source.getChannel();
+			while (in.read(buf) > 0) {
+				buf.flip();
+				md.update(buf);
+				buf.clear();
+			}
+		} finally {
+			buffers.release(buf);
+			source.close();
+		}
+		return md.digest();
+	}
+
+
+	@Override
+	public SeekableByteChannel openChannel() throws IOException {
+		return FileChannel.open(path.toPath(), StandardOpenOption.READ);
+	}
+
+
+	private static void transfer(FileChannel in, FileChannel out) throws IOException {
+		long size = in.size();
+		long position = 0;
+		while (position < size) {
+			long transferred = in.transferTo(position, size - position, out);
+			if (transferred <= 0) {
+				break;
+			}
+			position += transferred;
+		}
+	}
+
+
+	private void copy(FileChannel in, OutputStream out) throws IOException {
+		ByteBuffer buf = buffers.acquire();
+		try {
+			WritableByteChannel outChannel = buf.hasArray() ? null : Channels.newChannel(out);
+			while (in.read(buf) > 0) {
+				buf.flip();
+				if (outChannel == null) {
+					out.write(buf.array(), buf.arrayOffset(), buf.remaining());
+				} else {
+					while (buf.hasRemaining()) {
+						outChannel.write(buf);
+					}
+				}
+				buf.clear();
+			}
+		} finally {
+			buffers.release(buf);
+		}
+	}
+
+
 	@Override
 	public String toString() {
 		return path();
@@ -0,0 +1,185 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.filesystem;
+
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.ISyncFileIterator;
+import org.zdevra.sync.SyncBufferPool;
+import org.zdevra.sync.SyncPathComparator;
+
+import java.io.File;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+
+/**
+ * Depth-first walk over the directory tree returning files in
+ * order of {@link SyncPathComparator}. Only listings of directories
+ * on the current path are kept in memory. Each directory is listed
+ * once when walk enters it, so files created later by sync in
+ * already listed directories are not returned.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class FilesystemFileIterator implements ISyncFileIterator {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final File root;
+	private final SyncPathComparator order;
+	private final SyncBufferPool buffers;
+	private final boolean cachedAttributes;
+
+	/** sorted listings of directories on the current path */
+	private final Deque<Listing> stack = new ArrayDeque<Listing>();
+
+	/** prefetched next file, null if there is no file anymore */
+	private ISyncFile next;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param root
+	 * @param order
+	 * @param buffers
+	 * @param cachedAttributes if true, attributes of each entry are read once
+	 *                         and kept by the returned file
+	 */
+	FilesystemFileIterator(File root, SyncPathComparator order, SyncBufferPool buffers, boolean cachedAttributes) {
+		this.root = root;
+		this.order = order;
+		this.buffers = buffers;
+		this.cachedAttributes = cachedAttributes;
+		push(root);
+		this.next = fetch();
+	}
+
+
+	@Override
+	public boolean hasNext() {
+		return next != null;
+	}
+
+
+	@Override
+	public ISyncFile next() {
+		if (next == null) {
+			throw new NoSuchElementException();
+		}
+		ISyncFile out = next;
+		next = fetch();
+		return out;
+	}
+
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+
+	@Override
+	public void close() {
+		stack.clear();
+		next = null;
+	}
+
+
+	private ISyncFile fetch() {
+		while (!stack.isEmpty()) {
+			Listing listing = stack.peek();
+			if (listing.index == listing.entries.length) {
+				stack.pop();
+				continue;
+			}
+
+			File f = listing.entries[listing.index++].file;
+			if (FilesystemTransfer.skip(f)) {
+				continue;
+			} else if (cachedAttributes) {
+				BasicFileAttributes attributes = NioFilesystemFile.attributes(f);
+				if (attributes == null) {
+					continue;
+				} else if (attributes.isRegularFile()) {
+					return NioFilesystemFile.create(root, f, attributes, buffers);
+				} else if (attributes.isDirectory()) {
+					push(f);
+				}
+			} else if (f.isFile()) {
+				return FilesystemFile.create(root, f, buffers);
+			} else if (f.isDirectory()) {
+				push(f);
+			}
+		}
+		return null;
+	}
+
+
+	private void push(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		Entry[] entries = new Entry[files.length];
+		for (int i = 0; i < files.length; ++i) {
+			entries[i] = new Entry(order.key(files[i].getName()), files[i]);
+		}
+		Arrays.sort(entries, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry e1, Entry e2) {
+				return order.compareKeys(e1.key, e2.key);
+			}
+		});
+		stack.push(new Listing(entries));
+	}
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// inner classes
+	//------------------------------------------------------------------------------------------------------------------
+
+	private static class Entry {
+		private final String key;
+		private final File file;
+
+		private Entry(String key, File file) {
+			this.key = key;
+			this.file = file;
+		}
+	}
+
+
+	private static class Listing {
+		private final Entry[] entries;
+		private int index;
+
+		private Listing(Entry[] entries) {
+			this.entries = entries;
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.filesystem;
+
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.SyncBufferPool;
+import org.zdevra.sync.SyncFileTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Table of files scanned with their attributes. Files are served as
+ * views of the table rows, which stat nothing for size, timestamp
+ * and file key. Operations with the content are delegated to the
+ * {@link FilesystemFile} created for the call.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class FilesystemFileTable extends SyncFileTable {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final File root;
+	private final SyncBufferPool buffers;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param root
+	 * @param buffers
+	 * @param offHeap
+	 */
+	FilesystemFileTable(File root, SyncBufferPool buffers, boolean offHeap) {
+		super(File.separatorChar, offHeap);
+		this.root = root;
+		this.buffers = buffers;
+	}
+
+
+	/**
+	 * Add the scanned file with its attributes
+	 */
+	void addFile(int dir, String name, BasicFileAttributes attributes) {
+		Object key = attributes.fileKey();
+		addFile(dir, name, attributes.size(), attributes.lastModifiedTime().toMillis(), key != null ? key.toString() : null);
+	}
+
+
+	@Override
+	protected ISyncFile view(int index) {
+		return new View(this, index);
+	}
+
+
+	private FilesystemFile file(int index) {
+		String path = path(index);
+		return new FilesystemFile(root, new File(root, path), path, buffers);
+	}
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// inner classes
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * The file on one row of the table
+	 */
+	private static class View implements ISyncFile {
+		private final FilesystemFileTable table;
+		private final int index;
+
+		private View(FilesystemFileTable table, int index) {
+			this.table = table;
+			this.index = index;
+		}
+
+		@Override
+		public String path() {
+			return table.path(index);
+		}
+
+		@Override
+		public long timestamp() {
+			return table.timestamp(index);
+		}
+
+		@Override
+		public long size() {
+			return table.fileSize(index);
+		}
+
+		@Override
+		public String fileKey() {
+			return table.fileKey(index);
+		}
+
+		/**
+		 * Touch the file and read the timestamp back, because filesystem
+		 * may store it with lower precision.
+		 */
+		@Override
+		public void touch(long timestamp) throws IOException {
+			FilesystemFile file = table.file(index);
+			file.touch(timestamp);
+			table.setTimestamp(index, file.timestamp());
+		}
+
+		@Override
+		public void copyTo(OutputStream os) throws IOException {
+			table.file(index).copyTo(os);
+		}
+
+		@Override
+		public byte[] digest() throws IOException {
+			return table.file(index).digest();
+		}
+
+		@Override
+		public SeekableByteChannel openChannel() throws IOException {
+			return table.file(index).openChannel();
+		}
+
+		@Override
+		public String toString() {
+			return path();
+		}
+	}
+}
@@ -16,26 +16,53 @@
  *****************************************************************************/
 package org.zdevra.sync.filesystem;
 
+import org.zdevra.sync.ISyncDeltaRepository;
+import org.zdevra.sync.ISyncDeltaTransfer;
 import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.ISyncFileIterator;
 import org.zdevra.sync.ISyncRepository;
+import org.zdevra.sync.ISyncTransfer;
+import org.zdevra.sync.SyncBufferPool;
+import org.zdevra.sync.SyncDelta;
+import org.zdevra.sync.SyncError;
+import org.zdevra.sync.SyncFileTable;
+import org.zdevra.sync.SyncPathComparator;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.LinkedList;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
  */
-public class FilesystemRepository implements ISyncRepository {
+public class FilesystemRepository implements ISyncRepository, ISyncDeltaRepository {
 
 	//------------------------------------------------------------------------------------------------------------------
 	// members
 	//------------------------------------------------------------------------------------------------------------------
 	private final File rootDir;
 
+	/** number of threads scanning the directory tree, 1 means sequential scan */
+	private final int parallelism;
+
+	/** if true, attributes are read once by the scan and kept by scanned files */
+	private final boolean cachedAttributes;
+
+	/** buffers used for copying into streams which are not files */
+	private SyncBufferPool buffers = SyncBufferPool.DEFAULT;
+
+	/** directory the deleted files are moved into, null if they're deleted permanently */
+	private File trashDir;
+
 
 	//------------------------------------------------------------------------------------------------------------------
 	// methods
@@ -47,13 +74,67 @@ public class FilesystemRepository implements ISyncRepository {
 	 * @param rootDir
 	 */
 	public FilesystemRepository(File rootDir) {
+		this(rootDir, 1);
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param rootDir
+	 * @param parallelism number of threads used for scan. For network mounts
+	 *                    it's worth to use more threads than CPU cores.
+	 */
+	public FilesystemRepository(File rootDir, int parallelism) {
+		this(rootDir, parallelism, false);
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param rootDir
+	 * @param parallelism
+	 * @param cachedAttributes
+	 */
+	FilesystemRepository(File rootDir, int parallelism, boolean cachedAttributes) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be positive:" + parallelism);
+		}
 		this.rootDir = rootDir;
+		this.parallelism = parallelism;
+		this.cachedAttributes = cachedAttributes;
+	}
+
+
+	/**
+	 * Set the pool of buffers used when the file is copied into
+	 * repository which isn't a filesystem.
+	 */
+	public void setBufferPool(SyncBufferPool buffers) {
+		this.buffers = buffers;
+	}
+
+
+	/**
+	 * Set the directory the deleted files are moved into, under their
+	 * relative paths. The trash must be outside of the repository, null
+	 * means the files are deleted permanently.
+	 */
+	public void setTrashDir(File trashDir) {
+		if (trashDir != null) {
+			Path trash = trashDir.getAbsoluteFile().toPath().normalize();
+			if (trash.startsWith(rootDir.getAbsoluteFile().toPath().normalize())) {
+				throw new IllegalArgumentException("the trash must be outside of the repository:" + trashDir);
+			}
+		}
+		this.trashDir = trashDir;
 	}
 
 
 	@Override
 	public OutputStream openStream(String path) throws IOException {
-		File file = new File(rootDir, path);
+		File file = resolve(path);
 		if (!file.getParentFile().exists()) {
 			file.getParentFile().mkdirs();
 		}
@@ -66,6 +147,139 @@ public class FilesystemRepository implements ISyncRepository {
 	}
 
 
+	@Override
+	public SeekableByteChannel openChannel(String path) throws IOException {
+		File file = resolve(path);
+		if (!file.getParentFile().exists()) {
+			file.getParentFile().mkdirs();
+		}
+
+		return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+
+	@Override
+	public ISyncTransfer openTransfer(String path, long size, long timestamp) throws IOException {
+		return new FilesystemTransfer(resolve(path), size, timestamp);
+	}
+
+
+	@Override
+	public SyncDelta.Signatures signatures(String path, int blockSize) throws IOException {
+		FileChannel channel = FileChannel.open(resolve(path).toPath(), StandardOpenOption.READ);
+		try {
+			return new SyncDelta(blockSize).signatures(channel);
+		} finally {
+			channel.close();
+		}
+	}
+
+
+	@Override
+	public ISyncDeltaTransfer openDeltaTransfer(String path) throws IOException {
+		return new FilesystemDeltaTransfer(resolve(path));
+	}
+
+
+	@Override
+	public void delete(String path) throws IOException {
+		File file = resolve(path);
+		if (!file.isFile()) {
+			return;
+		}
+
+		if (trashDir != null) {
+			File target = trashFile(path);
+			target.getParentFile().mkdirs();
+			Files.move(file.toPath(), target.toPath());
+		} else {
+			Files.delete(file.toPath());
+		}
+
+		//remove directories which are empty now, up to the root
+		File root = rootDir.getAbsoluteFile();
+		File dir = file.getAbsoluteFile().getParentFile();
+		while (dir != null && !dir.equals(root) && dir.delete()) {
+			dir = dir.getParentFile();
+		}
+	}
+
+
+	/**
+	 * Returns the file in trash for the path. When the file was already
+	 * deleted before, the number is appended to the name.
+	 */
+	private File trashFile(String path) {
+		File target = new File(trashDir, path);
+		for (int i = 1; target.exists(); ++i) {
+			target = new File(trashDir, path + "." + i);
+		}
+		return target;
+	}
+
+
+	@Override
+	public long getUsableSpace() {
+		//the root may not exist yet, the space is given by the nearest existing parent
+		File dir = rootDir.getAbsoluteFile();
+		while (dir != null && !dir.exists()) {
+			dir = dir.getParentFile();
+		}
+		return dir != null ? dir.getUsableSpace() : -1;
+	}
+
+
+	/**
+	 * Returns the file on the path. The path is rejected if it points
+	 * outside of the root directory (e.g. by '..'), as it may come from
+	 * the remote client.
+	 */
+	File resolve(String path) throws IOException {
+		File file = new File(rootDir, path);
+		Path root = rootDir.getAbsoluteFile().toPath().normalize();
+		Path normalized = file.getAbsoluteFile().toPath().normalize();
+		if (!normalized.startsWith(root) || normalized.equals(root)) {
+			throw new IOException("the path is outside of the repository:" + path);
+		}
+		return file;
+	}
+
+
+	/**
+	 * Variant of {@link #resolve(String)} for lookups which don't throw IOException
+	 */
+	File file(String path) {
+		try {
+			return resolve(path);
+		} catch (IOException e) {
+			throw new SyncError(e.getMessage(), e);
+		}
+	}
+
+
+	File getRootDir() {
+		return rootDir;
+	}
+
+
+	int getParallelism() {
+		return parallelism;
+	}
+
+
+	SyncBufferPool getBufferPool() {
+		return buffers;
+	}
+
+
+	/**
+	 * Creates the table for files scanned with attributes
+	 */
+	FilesystemFileTable createTable() {
+		return new FilesystemFileTable(rootDir, buffers, false);
+	}
+
+
 	@Override
 	public String toString() {
 		return "file:/" + rootDir.toString();
@@ -74,30 +288,52 @@ public class FilesystemRepository implements ISyncRepository {
 
 	@Override
 	public ISyncFile getFile(String path) {
-		return FilesystemFile.create(rootDir, new File(rootDir, path));
+		File file = file(path);
+		if (FilesystemTransfer.isTransferFile(file.getName()) || !file.isFile()) {
+			return null;
+		}
+		return FilesystemFile.create(rootDir, file, buffers);
 	}
 
 
 	@Override
 	public List<ISyncFile> scan() {
-		return scanDir(rootDir, rootDir);
+		if (parallelism == 1) {
+			List<ISyncFile> out = new ArrayList<ISyncFile>();
+			scanDir(rootDir, rootDir, buffers, out);
+			return out;
+		}
+
+		FilesystemFileTable table = cachedAttributes ? createTable() : null;
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			List<ISyncFile> out = pool.invoke(new FilesystemScanTask(rootDir, rootDir, buffers, table, SyncFileTable.ROOT));
+			return table != null ? table : out;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+
+	@Override
+	public ISyncFileIterator iterate(SyncPathComparator order) {
+		return new FilesystemFileIterator(rootDir, order, buffers, cachedAttributes);
 	}
 
 
-	private static List<ISyncFile> scanDir(File root, File dir) {
+	private static void scanDir(File root, File dir, SyncBufferPool buffers, List<ISyncFile> out) {
 		File[] files = dir.listFiles();
-		List<ISyncFile> out = new LinkedList<ISyncFile>();
 		if (files != null) {
 			for (File f : files) {
-				if (f.isFile()) {
-					ISyncFile file = FilesystemFile.create(root, f);
+				if (FilesystemTransfer.skip(f)) {
+					continue;
+				} else if (f.isFile()) {
+					ISyncFile file = FilesystemFile.create(root, f, buffers);
 					out.add(file);
 				} else if (f.isDirectory()) {
-					List<ISyncFile> items = scanDir(root, f);
-					out.addAll(items);
+					scanDir(root, f, buffers, out);
 				}
 			}
 		}
-		return out;
 	}
 }
@@ -0,0 +1,123 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.filesystem;
+
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.SyncBufferPool;
+
+import java.io.File;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork/join task scanning one directory. Each subdirectory is
+ * forked as a new task, so idle workers of the pool steal
+ * subtrees and keep several directory listings in flight.
+ * With the table, the attributes of each entry are read once
+ * and files are appended into the table instead of the list.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class FilesystemScanTask extends RecursiveTask<List<ISyncFile>> {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private static final long serialVersionUID = 1L;
+
+	private final File root;
+	private final File dir;
+	private final SyncBufferPool buffers;
+
+	/** table of scanned files, null if files are returned in list */
+	private final FilesystemFileTable table;
+
+	/** index of the directory in the table */
+	private final int dirIndex;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param root
+	 * @param dir
+	 * @param buffers
+	 * @param table    table the files are added into, or null
+	 * @param dirIndex index of the directory in the table
+	 */
+	FilesystemScanTask(File root, File dir, SyncBufferPool buffers, FilesystemFileTable table, int dirIndex) {
+		this.root = root;
+		this.dir = dir;
+		this.buffers = buffers;
+		this.table = table;
+		this.dirIndex = dirIndex;
+	}
+
+
+	@Override
+	protected List<ISyncFile> compute() {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return new ArrayList<ISyncFile>(0);
+		}
+
+		List<ISyncFile> out = new ArrayList<ISyncFile>(files.length);
+		List<FilesystemScanTask> subtasks = new ArrayList<FilesystemScanTask>();
+		for (File f : files) {
+			if (FilesystemTransfer.skip(f)) {
+				continue;
+			}
+
+			boolean isFile;
+			boolean isDirectory;
+			BasicFileAttributes attributes = null;
+			if (table != null) {
+				attributes = NioFilesystemFile.attributes(f);
+				isFile = attributes != null && attributes.isRegularFile();
+				isDirectory = attributes != null && attributes.isDirectory();
+			} else {
+				isFile = f.isFile();
+				isDirectory = !isFile && f.isDirectory();
+			}
+
+			if (isFile) {
+				if (table != null) {
+					table.addFile(dirIndex, f.getName(), attributes);
+				} else {
+					out.add(FilesystemFile.create(root, f, buffers));
+				}
+			} else if (isDirectory) {
+				int subdirIndex = table != null ? table.addDirectory(dirIndex, f.getName()) : 0;
+				FilesystemScanTask task = new FilesystemScanTask(root, f, buffers, table, subdirIndex);
+				task.fork();
+				subtasks.add(task);
+			}
+		}
+
+		for (FilesystemScanTask task : subtasks) {
+			out.addAll(task.join());
+		}
+		return out;
+	}
+}
@@ -0,0 +1,229 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.filesystem;
+
+import org.zdevra.sync.ISyncTransfer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Transfer written into the sibling part file, which is renamed over
+ * the destination on commit. The checkpoint file next to the part file
+ * records the source (size and timestamp) and the length of the part
+ * which was forced to disk. The next transfer of the same source
+ * truncates the part file to this length and continues from there.
+ *
+ * Part and checkpoint files are ignored by the scan. The files which
+ * weren't modified for {@link #EXPIRATION} are left by the source deleted
+ * or renamed since, the scan deletes them.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class FilesystemTransfer implements ISyncTransfer {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	static final String PART_SUFFIX = ".sync-part";
+	static final String CHECKPOINT_SUFFIX = ".sync-part.ckpt";
+	static final String CHECKPOINT_TMP_SUFFIX = ".sync-part.ckpt.tmp";
+
+	/** time in milliseconds after the abandoned transfer files are deleted */
+	static final long EXPIRATION = 7L * 24 * 60 * 60 * 1000;
+
+	private static final int MAGIC = 0x53594e50;
+
+	private final File target;
+	private final File part;
+	private final File checkpoint;
+	private final long size;
+	private final long timestamp;
+
+	private final FileChannel channel;
+	private final long resumedOffset;
+	private long offset;
+	private boolean committed;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor opens the part file, resumes it if it has
+	 * the checkpoint of the same source
+	 *
+	 * @param target    the destination file
+	 * @param size      size of the source
+	 * @param timestamp timestamp of the source
+	 */
+	FilesystemTransfer(File target, long size, long timestamp) throws IOException {
+		this.target = target;
+		this.part = new File(target.getParentFile(), target.getName() + PART_SUFFIX);
+		this.checkpoint = new File(target.getParentFile(), target.getName() + CHECKPOINT_SUFFIX);
+		this.size = size;
+		this.timestamp = timestamp;
+
+		if (!target.getParentFile().exists()) {
+			target.getParentFile().mkdirs();
+		}
+
+		long resume = readCheckpoint();
+		this.channel = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		if (resume > channel.size()) {
+			resume = 0;
+		}
+		channel.truncate(resume);
+		channel.position(resume);
+		this.resumedOffset = resume;
+		this.offset = resume;
+	}
+
+
+	/**
+	 * Returns true if the file name belongs to part or checkpoint file
+	 */
+	static boolean isTransferFile(String name) {
+		return name.endsWith(PART_SUFFIX) || name.endsWith(CHECKPOINT_SUFFIX) || name.endsWith(CHECKPOINT_TMP_SUFFIX);
+	}
+
+
+	/**
+	 * Returns true if the scan skips the file because it belongs to the
+	 * transfer. The expired transfer file is deleted.
+	 */
+	static boolean skip(File file) {
+		if (!isTransferFile(file.getName())) {
+			return false;
+		}
+		long modified = file.lastModified();
+		if (modified > 0 && modified < System.currentTimeMillis() - EXPIRATION) {
+			file.delete();
+		}
+		return true;
+	}
+
+
+	@Override
+	public long getOffset() {
+		return offset;
+	}
+
+
+	/**
+	 * Returns the offset where the transfer was resumed, 0 for new transfer
+	 */
+	long getResumedOffset() {
+		return resumedOffset;
+	}
+
+
+	@Override
+	public long transferFrom(ReadableByteChannel source, long count) throws IOException {
+		long transferred = channel.transferFrom(source, offset, count);
+		offset += transferred;
+		channel.position(offset);
+		return transferred;
+	}
+
+
+	@Override
+	public void checkpoint() throws IOException {
+		channel.force(false);
+
+		File tmp = new File(target.getParentFile(), target.getName() + CHECKPOINT_TMP_SUFFIX);
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+		try {
+			out.writeInt(MAGIC);
+			out.writeLong(size);
+			out.writeLong(timestamp);
+			out.writeLong(offset);
+		} finally {
+			out.close();
+		}
+		move(tmp, checkpoint);
+	}
+
+
+	@Override
+	public void commit() throws IOException {
+		channel.close();
+		move(part, target);
+		checkpoint.delete();
+		committed = true;
+	}
+
+
+	/**
+	 * Close the transfer. Not committed transfer keeps its part
+	 * and checkpoint files for the resume.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!committed) {
+			channel.close();
+		}
+	}
+
+
+	/**
+	 * Returns the checkpointed length if the checkpoint belongs to the
+	 * same source, otherwise 0
+	 */
+	private long readCheckpoint() {
+		if (!checkpoint.exists()) {
+			return 0;
+		}
+
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(checkpoint));
+			try {
+				if (in.readInt() == MAGIC && in.readLong() == size && in.readLong() == timestamp) {
+					long length = in.readLong();
+					return length >= 0 && length <= size ? length : 0;
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			//broken checkpoint, transfer starts over
+		}
+		checkpoint.delete();
+		return 0;
+	}
+
+
+	static void move(File source, File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -0,0 +1,395 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.filesystem;
+
+import org.apache.log4j.Logger;
+import org.zdevra.sync.Sync;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Continuous sync driven by file system events. The watcher registers
+ * all directories of both roots, collects changed paths and when the
+ * burst of events settles down, it syncs only changed paths. When the
+ * watch service loses events (overflow), the full sync is done instead.
+ * Removed directory is expanded into its files still existing in any root.
+ *
+ * The events caused by sync itself are processed as well, but they're
+ * resolved as 'nothing to do' because both sides are same.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class FilesystemWatcher implements Closeable {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	static Logger log = Logger.getLogger(FilesystemWatcher.class);
+
+	private final Sync sync;
+	private final Path primaryRoot;
+	private final Path secondaryRoot;
+	private final WatchService watchService;
+
+	/** root of each registered directory */
+	private final Map<WatchKey, Path> roots = new HashMap<WatchKey, Path>();
+
+	/** all registered directories, the deleted directory isn't recognizable by file system anymore */
+	private final Set<Path> directories = new HashSet<Path>();
+
+	/** changed paths relative to roots, waiting for sync */
+	private final Set<String> pending = new LinkedHashSet<String>();
+
+	/** sync is waiting for the burst of events to settle down this time */
+	private long quietMillis = 200;
+
+	/** pending changes are synced at latest after this time */
+	private long maxDelayMillis = 1000;
+
+	private boolean fullSyncRequested;
+	private long firstEventTime;
+	private long lastEventTime;
+
+	private Thread thread;
+	private volatile boolean running;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param sync          configured sync of the primary and secondary directory
+	 * @param primaryDir
+	 * @param secondaryDir
+	 */
+	public FilesystemWatcher(Sync sync, File primaryDir, File secondaryDir) throws IOException {
+		this.sync = sync;
+		this.primaryRoot = primaryDir.getAbsoluteFile().toPath();
+		this.secondaryRoot = secondaryDir.getAbsoluteFile().toPath();
+		this.watchService = FileSystems.getDefault().newWatchService();
+	}
+
+
+	/**
+	 * Set the debounce of events
+	 *
+	 * @param quietMillis    changes are synced when there was no event in this time
+	 * @param maxDelayMillis changes are synced at latest after this time, even if events are still coming
+	 */
+	public void setDebounce(long quietMillis, long maxDelayMillis) {
+		this.quietMillis = quietMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+
+	/**
+	 * Register both roots, do the full sync and start watching
+	 * for changes in background thread.
+	 */
+	public synchronized void start() throws IOException {
+		registerTree(primaryRoot, primaryRoot, null);
+		registerTree(secondaryRoot, secondaryRoot, null);
+		fullSyncRequested = true;
+		firstEventTime = lastEventTime = 0;
+
+		running = true;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, "sync-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	/**
+	 * Request the full sync of both directories
+	 */
+	public void requestFullSync() {
+		synchronized (pending) {
+			fullSyncRequested = true;
+			firstEventTime = lastEventTime = 0;
+		}
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		running = false;
+		watchService.close();
+		if (thread != null && thread != Thread.currentThread()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+
+	private void loop() {
+		while (running) {
+			try {
+				WatchKey key = watchService.poll(pollTimeout(), TimeUnit.MILLISECONDS);
+				while (key != null) {
+					processKey(key);
+					key = watchService.poll();
+				}
+				syncIfSettled();
+			} catch (ClosedWatchServiceException e) {
+				break;
+			} catch (InterruptedException e) {
+				break;
+			} catch (Throwable e) {
+				log.error("Sync error:" + e.getMessage(), e);
+				//the next sync must be full, the changes which failed are unknown
+				requestFullSync();
+				sleep(maxDelayMillis);
+			}
+		}
+	}
+
+
+	private void processKey(WatchKey key) throws IOException {
+		Path root = roots.get(key);
+		Path dir = (Path) key.watchable();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				log.warn("watch events overflow, full sync is requested");
+				requestFullSync();
+				continue;
+			}
+
+			if (root == null) {
+				continue;
+			}
+
+			Path path = dir.resolve((Path) event.context());
+			if (FilesystemTransfer.isTransferFile(path.getFileName().toString())) {
+				//the transfer is seen when its part file is renamed
+				continue;
+			} else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+					&& Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+				//new directory, its content may be created before the registration
+				List<String> created = new ArrayList<String>();
+				try {
+					registerTree(root, path, created);
+				} catch (NoSuchFileException e) {
+					//directory was deleted before registration
+				}
+				addPending(created);
+			} else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE && unregisterTree(path)) {
+				//deleted or moved out directory, the event doesn't carry its files
+				addPending(subtree(root, path));
+			} else {
+				addPending(Collections.singletonList(relativize(root, path)));
+			}
+		}
+
+		if (!key.reset()) {
+			//directory was deleted or is not accessible anymore
+			roots.remove(key);
+		}
+	}
+
+
+	private void addPending(List<String> paths) {
+		synchronized (pending) {
+			long now = System.currentTimeMillis();
+			if (pending.isEmpty() && !fullSyncRequested) {
+				firstEventTime = now;
+			}
+			lastEventTime = now;
+			pending.addAll(paths);
+		}
+	}
+
+
+	private void syncIfSettled() {
+		boolean fullSync;
+		List<String> paths;
+		synchronized (pending) {
+			if (pending.isEmpty() && !fullSyncRequested) {
+				return;
+			}
+
+			long now = System.currentTimeMillis();
+			if (now - lastEventTime < quietMillis && now - firstEventTime < maxDelayMillis) {
+				return;
+			}
+
+			fullSync = fullSyncRequested;
+			paths = new ArrayList<String>(pending);
+			pending.clear();
+			fullSyncRequested = false;
+		}
+
+		if (fullSync) {
+			log.info("full sync");
+			sync.sync();
+		} else {
+			if (log.isDebugEnabled()) {
+				log.debug("sync of " + paths.size() + " changed paths");
+			}
+			sync.sync(paths);
+		}
+	}
+
+
+	private long pollTimeout() {
+		synchronized (pending) {
+			if (pending.isEmpty() && !fullSyncRequested) {
+				return maxDelayMillis;
+			}
+			return Math.max(1, quietMillis);
+		}
+	}
+
+
+	/**
+	 * Register the directory and all subdirectories. If the 'files' is
+	 * not null, all found files are added into it.
+	 */
+	private void registerTree(final Path root, Path start, final List<String> files) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				WatchKey key = dir.register(watchService,
+						StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+				roots.put(key, root);
+				directories.add(dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (files != null && attrs.isRegularFile() && !FilesystemTransfer.isTransferFile(file.getFileName().toString())) {
+					files.add(relativize(root, file));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+				//file was deleted in meantime
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+
+	/**
+	 * Forget the directory and all its subdirectories, returns false if the
+	 * path wasn't registered directory.
+	 */
+	private boolean unregisterTree(Path dir) {
+		if (!directories.remove(dir)) {
+			return false;
+		}
+
+		Iterator<Path> it = directories.iterator();
+		while (it.hasNext()) {
+			if (it.next().startsWith(dir)) {
+				it.remove();
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Returns files of the removed directory which still exist in any
+	 * root, so the sync deletes them or copies them back.
+	 */
+	private List<String> subtree(Path root, Path dir) throws IOException {
+		Path relative = root.relativize(dir);
+		List<String> files = new ArrayList<String>();
+		for (Path other : new Path[] {primaryRoot, secondaryRoot}) {
+			Path start = other.resolve(relative);
+			if (Files.isDirectory(start, LinkOption.NOFOLLOW_LINKS)) {
+				listTree(other, start, files);
+			}
+		}
+		return files;
+	}
+
+
+	private static void listTree(final Path root, Path start, final List<String> files) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (attrs.isRegularFile() && !FilesystemTransfer.isTransferFile(file.getFileName().toString())) {
+					files.add(relativize(root, file));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+				//file was deleted in meantime
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+
+	private static String relativize(Path root, Path path) {
+		return File.separator + root.relativize(path).toString();
+	}
+
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.filesystem;
+
+import org.zdevra.sync.SyncBufferPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * File with attributes read once by the scan. The size, timestamp
+ * and file key are served from memory, so the file is not stat'ed
+ * again by the merge. Touching the file refreshes the timestamp,
+ * files written by repository are always fetched again.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class NioFilesystemFile extends FilesystemFile {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final long size;
+	private final String fileKey;
+	private volatile long timestamp;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Create the file with given attributes
+	 */
+	static NioFilesystemFile create(File root, File source, BasicFileAttributes attributes, SyncBufferPool buffers) {
+		return new NioFilesystemFile(root, source, subpath(root, source), attributes, buffers);
+	}
+
+
+	/**
+	 * Returns attributes of the file, or null if they can't be read
+	 * (e.g. the file was deleted in meantime)
+	 */
+	static BasicFileAttributes attributes(File file) {
+		try {
+			return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param root
+	 * @param path
+	 * @param subpath
+	 * @param attributes
+	 * @param buffers
+	 */
+	private NioFilesystemFile(File root, File path, String subpath, BasicFileAttributes attributes, SyncBufferPool buffers) {
+		super(root, path, subpath, buffers);
+		this.size = attributes.size();
+		this.timestamp = attributes.lastModifiedTime().toMillis();
+		Object key = attributes.fileKey();
+		this.fileKey = key != null ? key.toString() : null;
+	}
+
+
+	@Override
+	public long timestamp() {
+		return timestamp;
+	}
+
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+
+	@Override
+	public String fileKey() {
+		return fileKey;
+	}
+
+
+	/**
+	 * Touch the file and read the timestamp back, because filesystem
+	 * may store it with lower precision.
+	 */
+	@Override
+	public void touch(long timestamp) throws IOException {
+		super.touch(timestamp);
+		this.timestamp = super.timestamp();
+	}
+}
@@ -0,0 +1,157 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.filesystem;
+
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.SyncError;
+import org.zdevra.sync.SyncFileTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Filesystem repository reading attributes of each entry only once.
+ * The scan walks the tree by {@link Files#walkFileTree} and scanned
+ * files keep their size, timestamp and file key, so the merge doesn't
+ * stat them again. On network mounts each saved stat is a round trip.
+ * Scanned files are stored in the compact {@link SyncFileTable}.
+ * Symbolic links are followed as by other scans, the link which
+ * makes a cycle is skipped.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class NioFilesystemRepository extends FilesystemRepository {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	/** if true, names of scanned files are kept in the direct memory */
+	private boolean offHeap;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param rootDir
+	 */
+	public NioFilesystemRepository(File rootDir) {
+		this(rootDir, 1);
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param rootDir
+	 * @param parallelism number of threads used for scan
+	 */
+	public NioFilesystemRepository(File rootDir, int parallelism) {
+		super(rootDir, parallelism, true);
+	}
+
+
+	/**
+	 * Keep names of scanned files off the heap. It's worth for trees
+	 * with millions of files.
+	 */
+	public void setOffHeap(boolean offHeap) {
+		this.offHeap = offHeap;
+	}
+
+
+	@Override
+	FilesystemFileTable createTable() {
+		return new FilesystemFileTable(getRootDir(), getBufferPool(), offHeap);
+	}
+
+
+	@Override
+	public ISyncFile getFile(String path) {
+		File file = file(path);
+		if (FilesystemTransfer.isTransferFile(file.getName())) {
+			return null;
+		}
+		BasicFileAttributes attributes = NioFilesystemFile.attributes(file);
+		if (attributes == null || !attributes.isRegularFile()) {
+			return null;
+		}
+		return NioFilesystemFile.create(getRootDir(), file, attributes, getBufferPool());
+	}
+
+
+	@Override
+	public List<ISyncFile> scan() {
+		if (getParallelism() > 1) {
+			return super.scan();
+		}
+
+		final File root = getRootDir();
+		final FilesystemFileTable table = createTable();
+		final Deque<Integer> dirs = new ArrayDeque<Integer>();
+		try {
+			Files.walkFileTree(root.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+					if (dirs.isEmpty()) {
+						dirs.push(SyncFileTable.ROOT);
+					} else {
+						dirs.push(table.addDirectory(dirs.peek(), dir.getFileName().toString()));
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+					if (attributes.isRegularFile() && !FilesystemTransfer.skip(file.toFile())) {
+						table.addFile(dirs.peek(), file.getFileName().toString(), attributes);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					//unreadable entries and cycles of links are skipped as by the listing
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+					dirs.pop();
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			throw new SyncError("error when scan " + root, e);
+		}
+		return table;
+	}
+}
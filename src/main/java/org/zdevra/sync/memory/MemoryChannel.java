@@ -0,0 +1,194 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Channel of the memory file. The read-only channel reads the content
+ * the file had when the channel was opened. The writable channel works
+ * with the copy of the content, which replaces the content of the file
+ * when the channel is closed. Read and written bytes are limited by
+ * the bandwidth of the repository.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class MemoryChannel implements SeekableByteChannel {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final MemoryRepository repository;
+	private final MemoryFile file;
+
+	/** content read by read-only channel */
+	private final MemoryContent content;
+
+	/** content of writable channel, null if channel is read-only */
+	private byte[] data;
+	private int length;
+
+	private long position;
+	private boolean open = true;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param repository
+	 * @param file
+	 * @param writable   true if the content of the file can be changed
+	 */
+	MemoryChannel(MemoryRepository repository, MemoryFile file, boolean writable) {
+		this.repository = repository;
+		this.file = file;
+		this.content = file.content();
+		if (writable) {
+			this.data = content.toArray().clone();
+			this.length = data.length;
+		}
+	}
+
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		checkOpen();
+		int n;
+		if (data != null) {
+			if (position >= length) {
+				return -1;
+			}
+			n = (int) Math.min(dst.remaining(), length - position);
+			dst.put(data, (int) position, n);
+		} else if (dst.hasArray()) {
+			n = content.read(position, dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+			if (n > 0) {
+				dst.position(dst.position() + n);
+			}
+		} else {
+			byte[] buf = new byte[Math.min(dst.remaining(), 64 * 1024)];
+			n = content.read(position, buf, 0, buf.length);
+			if (n > 0) {
+				dst.put(buf, 0, n);
+			}
+		}
+
+		if (n > 0) {
+			position += n;
+			repository.transferred(n);
+		}
+		return n;
+	}
+
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		checkOpen();
+		if (data == null) {
+			throw new NonWritableChannelException();
+		}
+		int n = src.remaining();
+		long end = position + n;
+		if (end > Integer.MAX_VALUE - 8) {
+			throw new IOException("file is too large for the memory:" + file.path());
+		}
+		if (end > data.length) {
+			data = Arrays.copyOf(data, (int) Math.max(end, data.length * 2L));
+		}
+		if (position > length) {
+			Arrays.fill(data, length, (int) position, (byte) 0);
+		}
+		src.get(data, (int) position, n);
+		position = end;
+		length = (int) Math.max(length, end);
+		repository.transferred(n);
+		return n;
+	}
+
+
+	@Override
+	public long position() throws IOException {
+		checkOpen();
+		return position;
+	}
+
+
+	@Override
+	public SeekableByteChannel position(long newPosition) throws IOException {
+		checkOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("negative position:" + newPosition);
+		}
+		this.position = newPosition;
+		return this;
+	}
+
+
+	@Override
+	public long size() throws IOException {
+		checkOpen();
+		return data != null ? length : content.size();
+	}
+
+
+	@Override
+	public SeekableByteChannel truncate(long size) throws IOException {
+		checkOpen();
+		if (data == null) {
+			throw new NonWritableChannelException();
+		}
+		if (size < length) {
+			length = (int) size;
+		}
+		position = Math.min(position, size);
+		return this;
+	}
+
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		if (open) {
+			open = false;
+			if (data != null) {
+				file.setContent(new MemoryContent(Arrays.copyOf(data, length)));
+			}
+		}
+	}
+
+
+	private void checkOpen() throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.memory;
+
+/**
+ * Immutable content of the memory file. The content is either held
+ * in the array, or generated from the seed, so trees of millions
+ * of files don't occupy the memory by their content. Any byte of
+ * the generated content is computed from its position, so it can
+ * be read from any position as well.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+final class MemoryContent {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	static final MemoryContent EMPTY = new MemoryContent(new byte[0]);
+
+	/** the content, null if it's generated */
+	private final byte[] data;
+	private final long seed;
+	private final long size;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor of the content held in the array
+	 */
+	MemoryContent(byte[] data) {
+		this.data = data;
+		this.seed = 0;
+		this.size = data.length;
+	}
+
+
+	private MemoryContent(long seed, long size) {
+		this.data = null;
+		this.seed = seed;
+		this.size = size;
+	}
+
+
+	/**
+	 * Returns pseudo-random content of given size, the same seed
+	 * gives always the same content
+	 */
+	static MemoryContent generated(long seed, long size) {
+		return new MemoryContent(seed, size);
+	}
+
+
+	long size() {
+		return size;
+	}
+
+
+	/**
+	 * Read the content at the position into array, returns the number
+	 * of read bytes, or -1 if the position is at the end
+	 */
+	int read(long position, byte[] b, int off, int len) {
+		if (position >= size) {
+			return -1;
+		}
+		int count = (int) Math.min(len, size - position);
+		if (data != null) {
+			System.arraycopy(data, (int) position, b, off, count);
+			return count;
+		}
+
+		long word = mix(seed + (position >>> 3));
+		for (int i = 0; i < count; i++) {
+			long pos = position + i;
+			if (i > 0 && (pos & 7) == 0) {
+				word = mix(seed + (pos >>> 3));
+			}
+			b[off + i] = (byte) (word >>> ((pos & 7) << 3));
+		}
+		return count;
+	}
+
+
+	/**
+	 * Returns the content as the array, the generated content is
+	 * materialized
+	 */
+	byte[] toArray() {
+		if (data != null) {
+			return data;
+		}
+		if (size > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("content is too large for the array:" + size);
+		}
+		byte[] out = new byte[(int) size];
+		read(0, out, 0, out.length);
+		return out;
+	}
+
+
+	/**
+	 * Returns well mixed bits of the value (finalizer of SplitMix64)
+	 */
+	static long mix(long value) {
+		long z = value * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,159 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.memory;
+
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.SyncError;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * File of the memory repository. The attributes are read without
+ * any delay, as they're returned by the scan of remote repositories.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class MemoryFile implements ISyncFile {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final MemoryRepository repository;
+	private final String path;
+	private volatile long timestamp;
+	private volatile MemoryContent content;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param repository
+	 * @param path
+	 * @param timestamp
+	 * @param content
+	 */
+	MemoryFile(MemoryRepository repository, String path, long timestamp, MemoryContent content) {
+		this.repository = repository;
+		this.path = path;
+		this.timestamp = timestamp;
+		this.content = content;
+	}
+
+
+	@Override
+	public String path() {
+		return path;
+	}
+
+
+	@Override
+	public long timestamp() throws IOException {
+		return timestamp;
+	}
+
+
+	@Override
+	public long size() throws IOException {
+		return content.size();
+	}
+
+
+	@Override
+	public String fileKey() throws IOException {
+		return null;
+	}
+
+
+	@Override
+	public void touch(long timestamp) throws IOException {
+		repository.operation(MemoryOperation.TOUCH, path);
+		this.timestamp = timestamp;
+	}
+
+
+	@Override
+	public void copyTo(OutputStream os) throws IOException {
+		SeekableByteChannel in = openChannel();
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+			while (in.read(buf) > 0) {
+				os.write(buf.array(), 0, buf.position());
+				buf.clear();
+			}
+		} finally {
+			in.close();
+			os.close();
+		}
+	}
+
+
+	@Override
+	public byte[] digest() throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new SyncError("SHA-256 is not supported", e);
+		}
+
+		SeekableByteChannel in = openChannel();
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+			while (in.read(buf) > 0) {
+				buf.flip();
+				md.update(buf);
+				buf.clear();
+			}
+		} finally {
+			in.close();
+		}
+		return md.digest();
+	}
+
+
+	@Override
+	public SeekableByteChannel openChannel() throws IOException {
+		repository.operation(MemoryOperation.READ, path);
+		return new MemoryChannel(repository, this, false);
+	}
+
+
+	@Override
+	public String toString() {
+		return "memory:" + path;
+	}
+
+
+	MemoryContent content() {
+		return content;
+	}
+
+
+	void setContent(MemoryContent content) {
+		this.content = content;
+	}
+}
@@ -0,0 +1,52 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.memory;
+
+/**
+ * Operations of the memory repository, each of them can be delayed
+ * or failed independently.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public enum MemoryOperation {
+	/** listing of the repository by scan or iterator */
+	SCAN("scan"),
+	/** lookup of one file by its path */
+	LOOKUP("lookup"),
+	/** opening of the file for reading */
+	READ("read"),
+	/** opening of the file for writing */
+	WRITE("write"),
+	/** replacement of the file by the transferred content */
+	COMMIT("commit"),
+	/** change of the file timestamp */
+	TOUCH("touch"),
+	/** deletion of the file */
+	DELETE("delete");
+
+	private String name;
+
+	MemoryOperation(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
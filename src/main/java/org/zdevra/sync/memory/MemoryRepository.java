@@ -0,0 +1,425 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.memory;
+
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.ISyncFileIterator;
+import org.zdevra.sync.ISyncRepository;
+import org.zdevra.sync.ISyncTransfer;
+import org.zdevra.sync.SyncError;
+import org.zdevra.sync.SyncPathComparator;
+import org.zdevra.sync.SyncRateLimiter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Repository holding files in memory, used for benchmarks and tests
+ * of the sync without the disk. It simulates the slow remote
+ * repository by the latency of each operation, random jitter,
+ * bandwidth of the content and injected failures.
+ *
+ * The jitter and failures are given by the seed, the operation and
+ * the path, so they don't depend on the order in which threads run:
+ * the same seed delays and fails the same files in each run.
+ *
+ * The trees of millions of files are created by {@link #generate},
+ * their content is generated on read and doesn't occupy the memory.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class MemoryRepository implements ISyncRepository {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	/** timestamp of the first generated file */
+	public static final long BASE_TIMESTAMP = 1000000000000L;
+
+	private static final int OPERATIONS = MemoryOperation.values().length;
+
+	private final ConcurrentMap<String, MemoryFile> files;
+
+	/** content of interrupted transfers by path */
+	private final ConcurrentMap<String, MemoryTransfer.Checkpoint> checkpoints;
+
+	private final long seed;
+
+	/** latency of each operation in nanoseconds */
+	private final long[] latencies = new long[OPERATIONS];
+
+	/** probability of failure of each operation */
+	private final double[] failureRates = new double[OPERATIONS];
+
+	/** number of executed operations */
+	private final AtomicLongArray counts = new AtomicLongArray(OPERATIONS);
+
+	/** max. random delay added to each latency in nanoseconds */
+	private volatile long jitter;
+
+	/** limiter of read and written bytes, null if unlimited */
+	private volatile SyncRateLimiter bandwidth;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor of the repository without delays and failures
+	 */
+	public MemoryRepository() {
+		this(0);
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param seed seed of the jitter and failures
+	 */
+	public MemoryRepository(long seed) {
+		this.files = new ConcurrentHashMap<String, MemoryFile>();
+		this.checkpoints = new ConcurrentHashMap<String, MemoryTransfer.Checkpoint>();
+		this.seed = seed;
+	}
+
+
+	/**
+	 * Set the latency of the operation
+	 */
+	public void setLatency(MemoryOperation operation, long latency, TimeUnit unit) {
+		if (latency < 0) {
+			throw new IllegalArgumentException("latency must not be negative:" + latency);
+		}
+		synchronized (latencies) {
+			latencies[operation.ordinal()] = unit.toNanos(latency);
+		}
+	}
+
+
+	/**
+	 * Set the max. random delay added to the latency of each operation
+	 */
+	public void setJitter(long jitter, TimeUnit unit) {
+		if (jitter < 0) {
+			throw new IllegalArgumentException("jitter must not be negative:" + jitter);
+		}
+		this.jitter = unit.toNanos(jitter);
+	}
+
+
+	/**
+	 * Set the bandwidth of the read and written content in bytes
+	 * per second, 0 means unlimited
+	 */
+	public void setBandwidth(long bytesPerSecond) {
+		if (bytesPerSecond < 0) {
+			throw new IllegalArgumentException("bandwidth must not be negative:" + bytesPerSecond);
+		}
+		this.bandwidth = bytesPerSecond > 0 ? new SyncRateLimiter(bytesPerSecond, 0) : null;
+	}
+
+
+	/**
+	 * Set the probability (0.0 - 1.0) the operation fails by IOException
+	 */
+	public void setFailureRate(MemoryOperation operation, double rate) {
+		if (rate < 0.0 || rate > 1.0) {
+			throw new IllegalArgumentException("failure rate must be 0.0 - 1.0:" + rate);
+		}
+		synchronized (failureRates) {
+			failureRates[operation.ordinal()] = rate;
+		}
+	}
+
+
+	/**
+	 * Returns the number of executed operations, including failed ones
+	 */
+	public long getOperationCount(MemoryOperation operation) {
+		return counts.get(operation.ordinal());
+	}
+
+
+	/**
+	 * Returns the number of files in repository
+	 */
+	public int size() {
+		return files.size();
+	}
+
+
+	/**
+	 * Add the file, or replace the existing one
+	 */
+	public void put(String path, byte[] content, long timestamp) {
+		put(path, new MemoryContent(content.clone()), timestamp);
+	}
+
+
+	/**
+	 * Generate the tree of files with pseudo-random content. Each
+	 * directory has up to fanout entries, e.g. 1000000 files with
+	 * fanout 100 are generated as '/d00/d00/f00.dat' .. '/d99/d99/f99.dat'.
+	 * The same seed gives the same content, the timestamps are
+	 * increasing by one second from {@link #BASE_TIMESTAMP}.
+	 *
+	 * @param count  number of files
+	 * @param fanout number of entries in each directory
+	 * @param size   size of each file
+	 * @param seed   seed of the content
+	 */
+	public void generate(int count, int fanout, long size, long seed) {
+		if (fanout < 2) {
+			throw new IllegalArgumentException("fanout must be at least 2:" + fanout);
+		}
+		int levels = 1;
+		long capacity = fanout;
+		while (capacity < count) {
+			capacity *= fanout;
+			levels++;
+		}
+		int digits = Integer.toString(fanout - 1).length();
+
+		for (int i = 0; i < count; i++) {
+			String path = generatedPath(i, fanout, levels, digits);
+			files.put(path, new MemoryFile(this, path, BASE_TIMESTAMP + i * 1000L, MemoryContent.generated(seed + i, size)));
+		}
+	}
+
+
+	@Override
+	public List<ISyncFile> scan() {
+		try {
+			operation(MemoryOperation.SCAN, File.separator);
+		} catch (IOException e) {
+			throw new SyncError("error when scan " + this, e);
+		}
+		return new ArrayList<ISyncFile>(files.values());
+	}
+
+
+	@Override
+	public ISyncFileIterator iterate(final SyncPathComparator order) throws IOException {
+		operation(MemoryOperation.SCAN, File.separator);
+		List<ISyncFile> list = new ArrayList<ISyncFile>(files.values());
+		Collections.sort(list, new Comparator<ISyncFile>() {
+			@Override
+			public int compare(ISyncFile f1, ISyncFile f2) {
+				return order.compare(f1.path(), f2.path());
+			}
+		});
+
+		final Iterator<ISyncFile> it = list.iterator();
+		return new ISyncFileIterator() {
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			@Override
+			public ISyncFile next() {
+				return it.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("the repository is read by iterator");
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+
+	@Override
+	public ISyncFile getFile(String path) {
+		try {
+			operation(MemoryOperation.LOOKUP, path);
+		} catch (IOException e) {
+			throw new SyncError("error when lookup " + path, e);
+		}
+		return files.get(path);
+	}
+
+
+	/**
+	 * Opens the stream of the file, the file is replaced by closing
+	 * the stream
+	 */
+	@Override
+	public OutputStream openStream(final String path) throws IOException {
+		operation(MemoryOperation.WRITE, path);
+		return new ByteArrayOutputStream() {
+			@Override
+			public synchronized void write(byte[] b, int off, int len) {
+				super.write(b, off, len);
+				transferred(len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				put(path, new MemoryContent(toByteArray()), System.currentTimeMillis());
+			}
+		};
+	}
+
+
+	@Override
+	public SeekableByteChannel openChannel(String path) throws IOException {
+		operation(MemoryOperation.WRITE, path);
+		MemoryFile file = files.get(path);
+		if (file == null) {
+			MemoryFile created = new MemoryFile(this, path, System.currentTimeMillis(), MemoryContent.EMPTY);
+			file = files.putIfAbsent(path, created);
+			if (file == null) {
+				file = created;
+			}
+		}
+		return new MemoryChannel(this, file, true);
+	}
+
+
+	@Override
+	public ISyncTransfer openTransfer(String path, long size, long timestamp) throws IOException {
+		operation(MemoryOperation.WRITE, path);
+		return new MemoryTransfer(this, path, size, timestamp, checkpoints.get(path));
+	}
+
+
+	@Override
+	public void delete(String path) throws IOException {
+		operation(MemoryOperation.DELETE, path);
+		files.remove(path);
+	}
+
+
+	@Override
+	public long getUsableSpace() {
+		return -1;
+	}
+
+
+	@Override
+	public String toString() {
+		return "memory:" + Long.toHexString(seed);
+	}
+
+
+	/**
+	 * Execute the operation: count it, delay it by its latency and
+	 * jitter, and fail it with its probability
+	 */
+	void operation(MemoryOperation operation, String path) throws IOException {
+		int i = operation.ordinal();
+		counts.incrementAndGet(i);
+
+		long latency;
+		double failureRate;
+		synchronized (latencies) {
+			latency = latencies[i];
+		}
+		synchronized (failureRates) {
+			failureRate = failureRates[i];
+		}
+
+		long hash = MemoryContent.mix(seed ^ MemoryContent.mix(path.hashCode() * 31L + i));
+		long delay = latency + (long) (jitter * uniform(hash));
+		if (delay > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted " + operation + " of " + path);
+			}
+		}
+
+		if (failureRate > 0 && uniform(MemoryContent.mix(hash)) < failureRate) {
+			throw new IOException("injected failure of " + operation + " of " + path);
+		}
+	}
+
+
+	/**
+	 * Wait for the bandwidth of the read or written bytes
+	 */
+	void transferred(long count) {
+		SyncRateLimiter limiter = bandwidth;
+		if (limiter != null) {
+			limiter.acquireBytes(count);
+		}
+	}
+
+
+	void checkpoint(String path, MemoryTransfer.Checkpoint checkpoint) {
+		checkpoints.put(path, checkpoint);
+	}
+
+
+	void put(String path, MemoryContent content, long timestamp) {
+		files.put(path, new MemoryFile(this, path, timestamp, content));
+		checkpoints.remove(path);
+	}
+
+
+	/**
+	 * Returns the path of i-th generated file
+	 */
+	private static String generatedPath(int i, int fanout, int levels, int digits) {
+		StringBuilder path = new StringBuilder();
+		int[] components = new int[levels];
+		int value = i;
+		for (int level = levels - 1; level >= 0; level--) {
+			components[level] = value % fanout;
+			value /= fanout;
+		}
+		for (int level = 0; level < levels; level++) {
+			path.append(File.separatorChar).append(level < levels - 1 ? 'd' : 'f');
+			String digit = Integer.toString(components[level]);
+			for (int pad = digit.length(); pad < digits; pad++) {
+				path.append('0');
+			}
+			path.append(digit);
+		}
+		return path.append(".dat").toString();
+	}
+
+
+	/**
+	 * Returns the value in 0.0 - 1.0 given by the hash
+	 */
+	private static double uniform(long hash) {
+		return (hash >>> 11) * 0x1.0p-53;
+	}
+}
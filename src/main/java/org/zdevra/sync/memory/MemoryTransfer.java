@@ -0,0 +1,144 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.memory;
+
+import org.zdevra.sync.ISyncTransfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Transfer into the memory repository. The checkpointed content
+ * is kept by the repository, so the interrupted transfer of the same
+ * source is resumed like the transfer into filesystem.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class MemoryTransfer implements ISyncTransfer {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final MemoryRepository repository;
+	private final String path;
+	private final long size;
+	private final long timestamp;
+
+	private byte[] data;
+	private int length;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param repository
+	 * @param path
+	 * @param size       size of the source
+	 * @param timestamp  timestamp of the source
+	 * @param resumed    checkpoint of interrupted transfer, or null
+	 */
+	MemoryTransfer(MemoryRepository repository, String path, long size, long timestamp, Checkpoint resumed) throws IOException {
+		if (size > Integer.MAX_VALUE - 8) {
+			throw new IOException("file is too large for the memory:" + path);
+		}
+		this.repository = repository;
+		this.path = path;
+		this.size = size;
+		this.timestamp = timestamp;
+		this.data = new byte[(int) size];
+		if (resumed != null && resumed.size == size && resumed.timestamp == timestamp) {
+			System.arraycopy(resumed.data, 0, data, 0, resumed.data.length);
+			this.length = resumed.data.length;
+		}
+	}
+
+
+	@Override
+	public long getOffset() {
+		return length;
+	}
+
+
+	@Override
+	public long transferFrom(ReadableByteChannel source, long count) throws IOException {
+		long end = length + count;
+		if (end > data.length) {
+			if (end > Integer.MAX_VALUE - 8) {
+				throw new IOException("file is too large for the memory:" + path);
+			}
+			data = Arrays.copyOf(data, (int) end);
+		}
+
+		long transferred = 0;
+		while (transferred < count) {
+			int n = source.read(ByteBuffer.wrap(data, length, (int) (count - transferred)));
+			if (n <= 0) {
+				break;
+			}
+			length += n;
+			transferred += n;
+			repository.transferred(n);
+		}
+		return transferred;
+	}
+
+
+	@Override
+	public void checkpoint() throws IOException {
+		repository.checkpoint(path, new Checkpoint(size, timestamp, Arrays.copyOf(data, length)));
+	}
+
+
+	@Override
+	public void commit() throws IOException {
+		repository.operation(MemoryOperation.COMMIT, path);
+		repository.put(path, new MemoryContent(Arrays.copyOf(data, length)), timestamp);
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		data = null;
+	}
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// inner classes
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Content of the interrupted transfer
+	 */
+	static class Checkpoint {
+		private final long size;
+		private final long timestamp;
+		private final byte[] data;
+
+		Checkpoint(long size, long timestamp, byte[] data) {
+			this.size = size;
+			this.timestamp = timestamp;
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.remote;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Pending request sent by the client. The frames of the response
+ * are queued until the caller reads them, so the caller can send
+ * other requests before it waits for this one.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class RemoteCall {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final int id;
+	private final BlockingQueue<RemoteFrame> frames;
+
+	/** the last frame, the response doesn't continue after it */
+	private RemoteFrame last;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 */
+	RemoteCall(int id) {
+		this.id = id;
+		this.frames = new LinkedBlockingQueue<RemoteFrame>();
+	}
+
+
+	int getId() {
+		return id;
+	}
+
+
+	/**
+	 * Returns the next frame of the response, the {@link RemoteProtocol#END}
+	 * frame is the last one. The error response is thrown as IOException.
+	 */
+	RemoteFrame next() throws IOException {
+		if (last != null) {
+			throw new IllegalStateException("the response has ended");
+		}
+		RemoteFrame frame;
+		try {
+			frame = frames.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for response");
+		}
+
+		if (frame.getType() == RemoteProtocol.DATA) {
+			return frame;
+		}
+		last = frame;
+		if (frame.getType() == RemoteProtocol.ERROR) {
+			throw new IOException(frame.input().readUTF());
+		}
+		return frame;
+	}
+
+
+	/**
+	 * Wait for the end of the response and returns its payload
+	 */
+	DataInputStream await() throws IOException {
+		RemoteFrame frame = last != null ? last : next();
+		while (frame.getType() != RemoteProtocol.END) {
+			frame = next();
+		}
+		return frame.input();
+	}
+
+
+	/**
+	 * Called by the reader of the connection
+	 */
+	void received(RemoteFrame frame) {
+		frames.add(frame);
+	}
+
+
+	/**
+	 * Called when the connection fails
+	 */
+	void failed(String message) {
+		frames.add(new RemoteFrame(id, RemoteProtocol.ERROR, RemoteFrame.payload().writeUTF(message).toByteArray()));
+	}
+}
@@ -0,0 +1,275 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.remote;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Channel of the remote file. The read-only channel reads ahead
+ * several chunks, so the sequential read doesn't wait for the round
+ * trip of each chunk. Writes are sent without waiting for their
+ * responses, they're checked when the channel is closed.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class RemoteChannel implements SeekableByteChannel {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	/** number of chunks requested ahead, or written without response */
+	static final int WINDOW = 4;
+
+	private final RemoteConnection connection;
+	private final int handle;
+	private final boolean writable;
+
+	private long size;
+	private long position;
+	private boolean open = true;
+
+	/** the last read chunk */
+	private byte[] chunk;
+	private long chunkPosition;
+
+	/** chunks requested ahead */
+	private final Deque<Prefetch> prefetch = new ArrayDeque<Prefetch>();
+
+	/** writes without response */
+	private final Deque<RemoteCall> pending = new ArrayDeque<RemoteCall>();
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param connection
+	 * @param handle     handle of the channel opened by server
+	 * @param size       size of the file
+	 * @param writable
+	 */
+	RemoteChannel(RemoteConnection connection, int handle, long size, boolean writable) {
+		this.connection = connection;
+		this.handle = handle;
+		this.size = size;
+		this.writable = writable;
+	}
+
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		checkOpen();
+		if (position >= size) {
+			return -1;
+		}
+		if (chunk == null || position < chunkPosition || position >= chunkPosition + chunk.length) {
+			chunk = fetch(position);
+			chunkPosition = position;
+			if (chunk.length == 0) {
+				return -1;
+			}
+		}
+
+		int offset = (int) (position - chunkPosition);
+		int n = Math.min(dst.remaining(), chunk.length - offset);
+		dst.put(chunk, offset, n);
+		position += n;
+		return n;
+	}
+
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		checkOpen();
+		if (!writable) {
+			throw new NonWritableChannelException();
+		}
+		invalidate();
+		int written = 0;
+		while (src.hasRemaining()) {
+			int n = Math.min(src.remaining(), RemoteProtocol.CHUNK);
+			byte[] b = new byte[n];
+			src.get(b);
+			send(connection.call(RemoteProtocol.WRITE,
+					RemoteFrame.payload().writeInt(handle).writeLong(position).writeBytes(b, 0, n)));
+			position += n;
+			written += n;
+		}
+		size = Math.max(size, position);
+		return written;
+	}
+
+
+	@Override
+	public long position() throws IOException {
+		checkOpen();
+		return position;
+	}
+
+
+	@Override
+	public SeekableByteChannel position(long newPosition) throws IOException {
+		checkOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("negative position:" + newPosition);
+		}
+		this.position = newPosition;
+		return this;
+	}
+
+
+	@Override
+	public long size() throws IOException {
+		checkOpen();
+		return size;
+	}
+
+
+	@Override
+	public SeekableByteChannel truncate(long newSize) throws IOException {
+		checkOpen();
+		if (!writable) {
+			throw new NonWritableChannelException();
+		}
+		invalidate();
+		send(connection.call(RemoteProtocol.TRUNCATE, RemoteFrame.payload().writeInt(handle).writeLong(newSize)));
+		size = Math.min(size, newSize);
+		position = Math.min(position, newSize);
+		return this;
+	}
+
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+
+	/**
+	 * Close the channel on the server, the failure of any write
+	 * is thrown here
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!open) {
+			return;
+		}
+		open = false;
+		prefetch.clear();
+		try {
+			flush();
+		} finally {
+			connection.call(RemoteProtocol.CLOSE, RemoteFrame.payload().writeInt(handle)).await();
+		}
+	}
+
+
+	/**
+	 * Wait for responses of all writes, the failure of any write is
+	 * thrown here
+	 */
+	void flush() throws IOException {
+		while (!pending.isEmpty()) {
+			pending.poll().await();
+		}
+	}
+
+
+	/**
+	 * Returns the chunk at the position and request the next chunks
+	 */
+	private byte[] fetch(long position) throws IOException {
+		while (!prefetch.isEmpty() && prefetch.peek().position != position) {
+			prefetch.poll();
+		}
+		if (prefetch.isEmpty()) {
+			request(position);
+		}
+		Prefetch current = prefetch.poll();
+
+		if (!writable) {
+			long next = prefetch.isEmpty() ? current.position + RemoteProtocol.CHUNK : prefetch.peekLast().position + RemoteProtocol.CHUNK;
+			while (prefetch.size() < WINDOW - 1 && next < size) {
+				request(next);
+				next += RemoteProtocol.CHUNK;
+			}
+		}
+
+		DataInputStream in = current.call.await();
+		return RemoteProtocol.readBytes(in);
+	}
+
+
+	private void request(long position) throws IOException {
+		RemoteCall call = connection.call(RemoteProtocol.READ,
+				RemoteFrame.payload().writeInt(handle).writeLong(position).writeInt(RemoteProtocol.CHUNK));
+		prefetch.add(new Prefetch(position, call));
+	}
+
+
+	/**
+	 * Send the write, wait for the oldest one if there are too many
+	 */
+	private void send(RemoteCall call) throws IOException {
+		pending.add(call);
+		if (pending.size() > WINDOW) {
+			pending.poll().await();
+		}
+	}
+
+
+	/**
+	 * Forget the read content, it's changed by write
+	 */
+	private void invalidate() {
+		chunk = null;
+		prefetch.clear();
+	}
+
+
+	private void checkOpen() throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// inner classes
+	//------------------------------------------------------------------------------------------------------------------
+
+	private static class Prefetch {
+		private final long position;
+		private final RemoteCall call;
+
+		private Prefetch(long position, RemoteCall call) {
+			this.position = position;
+			this.call = call;
+		}
+	}
+}
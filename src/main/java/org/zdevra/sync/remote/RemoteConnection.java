@@ -0,0 +1,234 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client side of the connection. Requests of all threads are queued
+ * and written by the sender thread, which flushes the socket only when
+ * the queue is empty and joins consecutive small requests into one
+ * batch frame. The reader thread dispatches the responses to the
+ * pending calls by their ids.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class RemoteConnection implements Closeable {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private static final int CONNECT_TIMEOUT = 30000;
+
+	/** requests with smaller payload can be batched */
+	private static final int BATCHED_PAYLOAD = RemoteProtocol.SMALL_FILE + 4096;
+
+	private final Socket socket;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+
+	private final AtomicInteger ids = new AtomicInteger();
+	private final ConcurrentMap<Integer, RemoteCall> calls = new ConcurrentHashMap<Integer, RemoteCall>();
+	private final BlockingQueue<RemoteFrame> outgoing = new LinkedBlockingQueue<RemoteFrame>();
+
+	private final Thread reader;
+	private final Thread sender;
+
+	/** the reason the connection is broken, null if it works */
+	private volatile String failure;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor connects to the server
+	 *
+	 * @param secret the secret shared with the server, or null
+	 */
+	RemoteConnection(String host, int port, byte[] secret) throws IOException {
+		this.socket = new Socket();
+		try {
+			socket.setTcpNoDelay(true);
+			socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+			socket.setSoTimeout(CONNECT_TIMEOUT);
+			RemoteProtocol.connect(in, out, secret);
+			socket.setSoTimeout(0);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+
+		String name = host + ":" + port;
+		this.reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				read();
+			}
+		}, "sync-remote-reader-" + name);
+		this.sender = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				send();
+			}
+		}, "sync-remote-sender-" + name);
+		reader.setDaemon(true);
+		sender.setDaemon(true);
+		reader.start();
+		sender.start();
+	}
+
+
+	/**
+	 * Send the request, the response is read from the returned call
+	 */
+	RemoteCall call(byte type, RemoteFrame.Payload payload) throws IOException {
+		checkOpen();
+		RemoteCall call = new RemoteCall(ids.incrementAndGet());
+		calls.put(call.getId(), call);
+		if (failure != null) {
+			calls.remove(call.getId());
+			checkOpen();
+		}
+		outgoing.add(new RemoteFrame(call.getId(), type, payload.toByteArray()));
+		return call;
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		fail("connection closed");
+		sender.interrupt();
+		socket.close();
+	}
+
+
+	private void checkOpen() throws IOException {
+		String reason = failure;
+		if (reason != null) {
+			throw new IOException(reason);
+		}
+	}
+
+
+	private void read() {
+		try {
+			RemoteFrame frame;
+			while ((frame = RemoteProtocol.readFrame(in)) != null) {
+				RemoteCall call = calls.get(frame.getId());
+				if (call == null) {
+					continue;
+				}
+				if (frame.getType() != RemoteProtocol.DATA) {
+					calls.remove(frame.getId());
+				}
+				call.received(frame);
+			}
+			fail("connection closed by server");
+		} catch (IOException e) {
+			fail("connection failed:" + e.getMessage());
+		}
+	}
+
+
+	private void send() {
+		try {
+			while (true) {
+				RemoteFrame frame = outgoing.take();
+				RemoteFrame next = outgoing.peek();
+				if (next != null && batched(frame) && batched(next)) {
+					sendBatch(frame);
+				} else {
+					RemoteProtocol.writeFrame(out, frame.getId(), frame.getType(), frame.getPayload());
+				}
+				if (outgoing.isEmpty()) {
+					out.flush();
+				}
+			}
+		} catch (InterruptedException e) {
+			//closed
+		} catch (IOException e) {
+			fail("connection failed:" + e.getMessage());
+			try {
+				socket.close();
+			} catch (IOException ex) {
+				//already broken
+			}
+		}
+	}
+
+
+	/**
+	 * Send the frame together with the following small frames
+	 */
+	private void sendBatch(RemoteFrame first) throws IOException {
+		List<RemoteFrame> frames = new ArrayList<RemoteFrame>();
+		frames.add(first);
+		int size = first.getPayload().length;
+		RemoteFrame next;
+		while ((next = outgoing.peek()) != null && batched(next) && size + next.getPayload().length <= RemoteProtocol.BATCH_SIZE) {
+			frames.add(outgoing.poll());
+			size += next.getPayload().length;
+		}
+
+		RemoteFrame.Payload batch = RemoteFrame.payload().writeInt(frames.size());
+		for (RemoteFrame frame : frames) {
+			batch.writeInt(frame.getId());
+			batch.writeByte(frame.getType());
+			batch.writeBytes(frame.getPayload(), 0, frame.getPayload().length);
+		}
+		RemoteProtocol.writeFrame(out, 0, RemoteProtocol.BATCH, batch.toByteArray());
+	}
+
+
+	private static boolean batched(RemoteFrame frame) {
+		return frame.getPayload().length <= BATCHED_PAYLOAD;
+	}
+
+
+	/**
+	 * Mark the connection as broken and fail all pending calls
+	 */
+	private void fail(String reason) {
+		if (failure == null) {
+			failure = reason;
+		}
+		for (RemoteCall call : calls.values()) {
+			if (calls.remove(call.getId()) != null) {
+				call.failed(failure);
+			}
+		}
+	}
+}
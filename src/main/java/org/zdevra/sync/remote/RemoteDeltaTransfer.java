@@ -0,0 +1,80 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.remote;
+
+import org.zdevra.sync.ISyncDeltaTransfer;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Delta transfer into the copy of the file made by the server. The copy
+ * is read and written through the channel of the transfer's handle, the
+ * commit waits until all writes are done.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class RemoteDeltaTransfer implements ISyncDeltaTransfer {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final RemoteConnection connection;
+	private final int handle;
+	private final RemoteChannel channel;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param connection
+	 * @param handle     handle of the transfer opened by server
+	 * @param size       size of the copy
+	 */
+	RemoteDeltaTransfer(RemoteConnection connection, int handle, long size) {
+		this.connection = connection;
+		this.handle = handle;
+		this.channel = new RemoteChannel(connection, handle, size, true);
+	}
+
+
+	@Override
+	public SeekableByteChannel getChannel() {
+		return channel;
+	}
+
+
+	@Override
+	public void commit() throws IOException {
+		channel.flush();
+		connection.call(RemoteProtocol.COMMIT, RemoteFrame.payload().writeInt(handle)).await();
+	}
+
+
+	/**
+	 * Close the transfer, the server discards not committed copy
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,161 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.remote;
+
+import org.zdevra.sync.ISyncFile;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * File of the remote repository. The attributes are those returned
+ * by the listing or lookup, they aren't read from the server again.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class RemoteFile implements ISyncFile {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final RemoteConnection connection;
+	private final String path;
+	private final long size;
+	private volatile long timestamp;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param connection
+	 * @param path       local form of the path
+	 * @param size
+	 * @param timestamp
+	 */
+	RemoteFile(RemoteConnection connection, String path, long size, long timestamp) {
+		this.connection = connection;
+		this.path = path;
+		this.size = size;
+		this.timestamp = timestamp;
+	}
+
+
+	@Override
+	public String path() {
+		return path;
+	}
+
+
+	@Override
+	public long timestamp() throws IOException {
+		return timestamp;
+	}
+
+
+	@Override
+	public long size() throws IOException {
+		return size;
+	}
+
+
+	@Override
+	public String fileKey() throws IOException {
+		return null;
+	}
+
+
+	@Override
+	public void touch(long timestamp) throws IOException {
+		connection.call(RemoteProtocol.TOUCH,
+				RemoteFrame.payload().writeUTF(RemoteProtocol.toWire(path)).writeLong(timestamp)).await();
+		this.timestamp = timestamp;
+	}
+
+
+	/**
+	 * Copy the content into the stream. The small file is read by one
+	 * request, the large one by the channel reading ahead.
+	 */
+	@Override
+	public void copyTo(OutputStream os) throws IOException {
+		try {
+			if (size <= RemoteProtocol.SMALL_FILE) {
+				byte[] content;
+				try {
+					DataInputStream in = connection.call(RemoteProtocol.GET,
+							RemoteFrame.payload().writeUTF(RemoteProtocol.toWire(path))).await();
+					content = RemoteProtocol.readBytes(in);
+				} catch (IOException e) {
+					//e.g. the file grew since the listing, the channel reports other errors again
+					content = null;
+				}
+				if (content != null) {
+					os.write(content);
+					return;
+				}
+			}
+
+			SeekableByteChannel in = openChannel();
+			try {
+				ByteBuffer buf = ByteBuffer.allocate(RemoteProtocol.CHUNK);
+				while (in.read(buf) > 0) {
+					os.write(buf.array(), 0, buf.position());
+					buf.clear();
+				}
+			} finally {
+				in.close();
+			}
+		} finally {
+			os.close();
+		}
+	}
+
+
+	/**
+	 * The digest is computed by the server, the content isn't transferred
+	 */
+	@Override
+	public byte[] digest() throws IOException {
+		DataInputStream in = connection.call(RemoteProtocol.DIGEST,
+				RemoteFrame.payload().writeUTF(RemoteProtocol.toWire(path))).await();
+		return RemoteProtocol.readBytes(in);
+	}
+
+
+	@Override
+	public SeekableByteChannel openChannel() throws IOException {
+		DataInputStream in = connection.call(RemoteProtocol.OPEN_READ,
+				RemoteFrame.payload().writeUTF(RemoteProtocol.toWire(path))).await();
+		int handle = in.readInt();
+		long channelSize = in.readLong();
+		return new RemoteChannel(connection, handle, channelSize, false);
+	}
+
+
+	@Override
+	public String toString() {
+		return "remote:" + path;
+	}
+}
@@ -0,0 +1,150 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * One frame of the protocol. The payload is written by the builder
+ * returned by {@link #payload()} and read by {@link #input()}.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class RemoteFrame {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final int id;
+	private final byte type;
+	private final byte[] payload;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 */
+	RemoteFrame(int id, byte type, byte[] payload) {
+		this.id = id;
+		this.type = type;
+		this.payload = payload;
+	}
+
+
+	int getId() {
+		return id;
+	}
+
+
+	byte getType() {
+		return type;
+	}
+
+
+	byte[] getPayload() {
+		return payload;
+	}
+
+
+	DataInputStream input() {
+		return new DataInputStream(new ByteArrayInputStream(payload));
+	}
+
+
+	static Payload payload() {
+		return new Payload();
+	}
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// inner classes
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Builder of the payload. It writes into memory, so it doesn't
+	 * throw IOException.
+	 */
+	static class Payload {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+
+		Payload writeByte(int value) {
+			try {
+				out.writeByte(value);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			return this;
+		}
+
+		Payload writeInt(int value) {
+			try {
+				out.writeInt(value);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			return this;
+		}
+
+		Payload writeLong(long value) {
+			try {
+				out.writeLong(value);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			return this;
+		}
+
+		Payload writeUTF(String value) {
+			try {
+				out.writeUTF(value);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			return this;
+		}
+
+		/**
+		 * Write the length and the bytes
+		 */
+		Payload writeBytes(byte[] b, int off, int len) {
+			try {
+				out.writeInt(len);
+				out.write(b, off, len);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			return this;
+		}
+
+		int size() {
+			return bytes.size();
+		}
+
+		byte[] toByteArray() {
+			return bytes.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,356 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.remote;
+
+import org.zdevra.sync.SyncError;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary protocol between the remote repository and the server.
+ *
+ * The connection starts by the exchange of {@link #MAGIC} and
+ * {@link #VERSION}. The server sends the random nonce with its version,
+ * the client proves it knows the shared secret by HMAC of the nonce and
+ * the server answers whether the client is accepted. The secret itself
+ * isn't sent. Then both sides send frames:
+ *
+ * <pre>
+ *   int  length of the rest of the frame
+ *   int  id of the request
+ *   byte type (command or response)
+ *   ...  payload
+ * </pre>
+ *
+ * The client doesn't wait for the response before it sends the next
+ * request, the responses are matched to the requests by their ids and
+ * can come in any order. The request is answered by any number of
+ * {@link #DATA} frames (e.g. the compressed chunks of the listing)
+ * terminated by the {@link #END} or {@link #ERROR} frame. Consecutive
+ * small requests are sent as one {@link #BATCH} frame.
+ *
+ * The paths are sent with '/' as the separator, the paths with '..'
+ * are rejected.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+final class RemoteProtocol {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	static final int MAGIC = 0x53594e43;
+	static final int VERSION = 3;
+
+	/** length of the handshake nonce */
+	static final int NONCE_SIZE = 16;
+
+	/** length of the HMAC-SHA256 proof of the secret */
+	static final int PROOF_SIZE = 32;
+
+	/** max. length of the frame */
+	static final int MAX_FRAME = 16 * 1024 * 1024;
+
+	/** max. content sent in one frame */
+	static final int CHUNK = 256 * 1024;
+
+	/** files up to this size are sent in one frame */
+	static final int SMALL_FILE = 64 * 1024;
+
+	/** max. length of the batch frame */
+	static final int BATCH_SIZE = 1024 * 1024;
+
+	/** number of files in one chunk of the listing */
+	static final int LIST_CHUNK = 1024;
+
+	/** number of block signatures in one chunk */
+	static final int SIGNATURE_CHUNK = 4096;
+
+	//commands
+
+	/** list the files: case sensitivity of the order, or empty string for scan in any order */
+	static final byte LIST = 1;
+	/** attributes of the file: path */
+	static final byte STAT = 2;
+	/** content of the small file: path */
+	static final byte GET = 3;
+	/** SHA-256 of the file: path */
+	static final byte DIGEST = 4;
+	/** set the timestamp: path, timestamp */
+	static final byte TOUCH = 5;
+	/** replace the file by the content in the frame: path, timestamp, content */
+	static final byte PUT = 6;
+	/** usable space of the repository */
+	static final byte SPACE = 7;
+	/** open the file for reading: path, returns handle and size */
+	static final byte OPEN_READ = 8;
+	/** open the file for reading and writing: path, returns handle and size */
+	static final byte OPEN_WRITE = 9;
+	/** open the transfer: path, size, timestamp, returns handle and offset */
+	static final byte OPEN_TRANSFER = 10;
+	/** read from the channel: handle, position, length */
+	static final byte READ = 11;
+	/** write into the channel: handle, position, content */
+	static final byte WRITE = 12;
+	/** truncate the channel: handle, size */
+	static final byte TRUNCATE = 13;
+	/** append to the transfer: handle, content */
+	static final byte TRANSFER = 14;
+	/** checkpoint of the transfer: handle */
+	static final byte CHECKPOINT = 15;
+	/** commit of the transfer: handle */
+	static final byte COMMIT = 16;
+	/** close the channel or transfer: handle */
+	static final byte CLOSE = 17;
+	/** several requests in one frame: count, then id, type, length and payload of each */
+	static final byte BATCH = 18;
+	/** delete the file: path */
+	static final byte DELETE = 19;
+	/** block signatures of the file: path, block size, returns size and tail digest, then chunks of signatures */
+	static final byte SIGNATURE = 20;
+	/** open the delta transfer into the copy of the file: path, returns handle and size */
+	static final byte OPEN_DELTA = 21;
+
+	//responses
+
+	/** part of the response, more frames follow */
+	static final byte DATA = 100;
+	/** last frame of the response */
+	static final byte END = 101;
+	/** failure of the request: message */
+	static final byte ERROR = 102;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	private RemoteProtocol() {
+	}
+
+
+	static void writeFrame(DataOutputStream out, int id, byte type, byte[] payload) throws IOException {
+		out.writeInt(payload.length + 5);
+		out.writeInt(id);
+		out.writeByte(type);
+		out.write(payload);
+	}
+
+
+	/**
+	 * Returns the next frame, or null if the stream is closed
+	 */
+	static RemoteFrame readFrame(DataInputStream in) throws IOException {
+		int length;
+		try {
+			length = in.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+		if (length < 5 || length > MAX_FRAME) {
+			throw new IOException("invalid length of the frame:" + length);
+		}
+		int id = in.readInt();
+		byte type = in.readByte();
+		byte[] payload = new byte[length - 5];
+		in.readFully(payload);
+		return new RemoteFrame(id, type, payload);
+	}
+
+
+	/**
+	 * Read the bytes written by {@link RemoteFrame.Payload#writeBytes}
+	 */
+	static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > MAX_FRAME) {
+			throw new IOException("invalid length of the content:" + length);
+		}
+		byte[] out = new byte[length];
+		in.readFully(out);
+		return out;
+	}
+
+
+	/**
+	 * Client side of the handshake
+	 *
+	 * @param secret the shared secret, or null if the server doesn't need it
+	 */
+	static void connect(DataInputStream in, DataOutputStream out, byte[] secret) throws IOException {
+		writeVersion(out);
+		out.flush();
+		checkVersion(in);
+
+		byte[] nonce = new byte[NONCE_SIZE];
+		in.readFully(nonce);
+		out.write(secret != null ? proof(secret, nonce) : new byte[PROOF_SIZE]);
+		out.flush();
+		if (in.readByte() != 1) {
+			throw new IOException("the server rejected the secret");
+		}
+	}
+
+
+	/**
+	 * Server side of the handshake
+	 *
+	 * @param secret the shared secret, or null if any client is accepted
+	 */
+	static void accept(DataInputStream in, DataOutputStream out, byte[] secret) throws IOException {
+		checkVersion(in);
+		byte[] nonce = new byte[NONCE_SIZE];
+		new SecureRandom().nextBytes(nonce);
+		writeVersion(out);
+		out.write(nonce);
+		out.flush();
+
+		byte[] proof = new byte[PROOF_SIZE];
+		in.readFully(proof);
+		boolean accepted = secret == null || MessageDigest.isEqual(proof, proof(secret, nonce));
+		out.writeByte(accepted ? 1 : 0);
+		out.flush();
+		if (!accepted) {
+			throw new IOException("the client doesn't know the secret");
+		}
+	}
+
+
+	private static void writeVersion(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+	}
+
+
+	private static void checkVersion(DataInputStream in) throws IOException {
+		int magic = in.readInt();
+		int version = in.readInt();
+		if (magic != MAGIC) {
+			throw new IOException("the peer doesn't speak the sync protocol");
+		}
+		if (version != VERSION) {
+			throw new IOException("unsupported version of the protocol:" + version);
+		}
+	}
+
+
+	private static byte[] proof(byte[] secret, byte[] nonce) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+			return mac.doFinal(nonce);
+		} catch (GeneralSecurityException e) {
+			throw new SyncError("HmacSHA256 is not supported", e);
+		}
+	}
+
+
+	/**
+	 * Returns the bytes of the secret, or null if there is no secret
+	 */
+	static byte[] secret(String secret) {
+		if (secret == null || secret.isEmpty()) {
+			return null;
+		}
+		return secret.getBytes(Charset.forName("UTF-8"));
+	}
+
+
+	static String toWire(String path) {
+		return File.separatorChar == '/' ? path : path.replace(File.separatorChar, '/');
+	}
+
+
+	/**
+	 * Returns the local path of the path received from the peer
+	 *
+	 * @throws IOException if the path contains '..' and may point outside of the repository
+	 */
+	static String fromWire(String path) throws IOException {
+		for (String name : path.split("[/\\\\]")) {
+			if (name.equals("..")) {
+				throw new IOException("invalid path:" + path);
+			}
+		}
+		if (path.indexOf('\0') >= 0) {
+			throw new IOException("invalid path:" + path);
+		}
+		return File.separatorChar == '/' ? path : path.replace('/', File.separatorChar);
+	}
+
+
+	static byte[] compress(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+			byte[] buf = new byte[8192];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buf);
+				out.write(buf, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+
+	static byte[] decompress(byte[] data, int length) throws IOException {
+		if (length < 0 || length > MAX_FRAME * 16) {
+			throw new IOException("invalid length of the compressed data:" + length);
+		}
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data);
+			byte[] out = new byte[length];
+			int n = 0;
+			while (n < length) {
+				int read = inflater.inflate(out, n, length - n);
+				if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+					break;
+				}
+				n += read;
+			}
+			if (n != length) {
+				throw new IOException("the compressed data are truncated");
+			}
+			return out;
+		} catch (DataFormatException e) {
+			throw new IOException("the compressed data are corrupted", e);
+		} finally {
+			inflater.end();
+		}
+	}
+}
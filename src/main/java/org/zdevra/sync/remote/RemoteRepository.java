@@ -0,0 +1,324 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.remote;
+
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.ISyncFileIterator;
+import org.zdevra.sync.ISyncRepository;
+import org.zdevra.sync.ISyncDeltaRepository;
+import org.zdevra.sync.ISyncDeltaTransfer;
+import org.zdevra.sync.ISyncTransfer;
+import org.zdevra.sync.SyncDelta;
+import org.zdevra.sync.SyncError;
+import org.zdevra.sync.SyncPathComparator;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Repository on the remote {@link RemoteServer}. All requests go
+ * through one connection and they're pipelined: the listing is
+ * streamed in compressed chunks, the large content is read ahead and
+ * written without waiting for each chunk, small files are read and
+ * written by one request, and requests sent together by several
+ * threads are batched into one frame. Signatures for the delta transfer
+ * are computed by the server and the delta is applied to the copy of the
+ * file made by the server.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class RemoteRepository implements ISyncRepository, ISyncDeltaRepository, Closeable {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final String host;
+	private final int port;
+	private final RemoteConnection connection;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor connects to the server which doesn't need the secret
+	 */
+	public RemoteRepository(String host, int port) {
+		this(host, port, null);
+	}
+
+
+	/**
+	 * Constructor connects to the server
+	 *
+	 * @param secret the secret shared with the server
+	 */
+	public RemoteRepository(String host, int port, String secret) {
+		this.host = host;
+		this.port = port;
+		try {
+			this.connection = new RemoteConnection(host, port, RemoteProtocol.secret(secret));
+		} catch (IOException e) {
+			throw new SyncError("cannot connect to " + host + ":" + port, e);
+		}
+	}
+
+
+	@Override
+	public List<ISyncFile> scan() {
+		ListIterator it;
+		try {
+			it = list("");
+		} catch (IOException e) {
+			throw new SyncError("error when scan " + this, e);
+		}
+		List<ISyncFile> out = new ArrayList<ISyncFile>();
+		while (it.hasNext()) {
+			out.add(it.next());
+		}
+		return out;
+	}
+
+
+	@Override
+	public ISyncFileIterator iterate(SyncPathComparator order) throws IOException {
+		return list(order.getCaseSensitivity().toString());
+	}
+
+
+	@Override
+	public ISyncFile getFile(String path) {
+		try {
+			DataInputStream in = connection.call(RemoteProtocol.STAT,
+					RemoteFrame.payload().writeUTF(RemoteProtocol.toWire(path))).await();
+			if (in.readByte() == 0) {
+				return null;
+			}
+			long size = in.readLong();
+			long timestamp = in.readLong();
+			return new RemoteFile(connection, path, size, timestamp);
+		} catch (IOException e) {
+			throw new SyncError("error when lookup " + path + " in " + this, e);
+		}
+	}
+
+
+	@Override
+	public OutputStream openStream(String path) throws IOException {
+		SeekableByteChannel channel = openChannel(path);
+		channel.truncate(0);
+		return Channels.newOutputStream(channel);
+	}
+
+
+	@Override
+	public SeekableByteChannel openChannel(String path) throws IOException {
+		DataInputStream in = connection.call(RemoteProtocol.OPEN_WRITE,
+				RemoteFrame.payload().writeUTF(RemoteProtocol.toWire(path))).await();
+		int handle = in.readInt();
+		long size = in.readLong();
+		return new RemoteChannel(connection, handle, size, true);
+	}
+
+
+	/**
+	 * Opens the transfer. The small file is sent by the commit in one
+	 * frame, so it's not resumed.
+	 */
+	@Override
+	public ISyncTransfer openTransfer(String path, long size, long timestamp) throws IOException {
+		if (size <= RemoteProtocol.SMALL_FILE) {
+			return new RemoteTransfer(connection, RemoteProtocol.toWire(path), size, timestamp);
+		}
+		DataInputStream in = connection.call(RemoteProtocol.OPEN_TRANSFER,
+				RemoteFrame.payload().writeUTF(RemoteProtocol.toWire(path)).writeLong(size).writeLong(timestamp)).await();
+		int handle = in.readInt();
+		long offset = in.readLong();
+		return new RemoteTransfer(connection, handle, offset);
+	}
+
+
+	@Override
+	public void delete(String path) throws IOException {
+		connection.call(RemoteProtocol.DELETE,
+				RemoteFrame.payload().writeUTF(RemoteProtocol.toWire(path))).await();
+	}
+
+
+	/**
+	 * Signatures are computed by the server, so the file isn't read
+	 * over the network
+	 */
+	@Override
+	public SyncDelta.Signatures signatures(String path, int blockSize) throws IOException {
+		RemoteCall call = connection.call(RemoteProtocol.SIGNATURE,
+				RemoteFrame.payload().writeUTF(RemoteProtocol.toWire(path)).writeInt(blockSize));
+		DataInputStream in = call.next().input();
+		SyncDelta.Signatures signatures = new SyncDelta.Signatures(blockSize, in.readLong());
+		signatures.setTail(RemoteProtocol.readBytes(in));
+
+		int index = 0;
+		RemoteFrame frame = call.next();
+		while (frame.getType() != RemoteProtocol.END) {
+			in = frame.input();
+			int count = in.readInt();
+			if (count < 0 || index + count > signatures.getCount()) {
+				throw new IOException("invalid signatures of " + path);
+			}
+			for (int i = 0; i < count; ++i) {
+				int weak = in.readInt();
+				signatures.add(index++, weak, RemoteProtocol.readBytes(in));
+			}
+			frame = call.next();
+		}
+		if (index != signatures.getCount()) {
+			throw new IOException("incomplete signatures of " + path);
+		}
+		return signatures;
+	}
+
+
+	@Override
+	public ISyncDeltaTransfer openDeltaTransfer(String path) throws IOException {
+		DataInputStream in = connection.call(RemoteProtocol.OPEN_DELTA,
+				RemoteFrame.payload().writeUTF(RemoteProtocol.toWire(path))).await();
+		int handle = in.readInt();
+		long size = in.readLong();
+		return new RemoteDeltaTransfer(connection, handle, size);
+	}
+
+
+	@Override
+	public long getUsableSpace() {
+		try {
+			return connection.call(RemoteProtocol.SPACE, RemoteFrame.payload()).await().readLong();
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		connection.close();
+	}
+
+
+	@Override
+	public String toString() {
+		return "remote://" + host + ":" + port;
+	}
+
+
+	private ListIterator list(String order) throws IOException {
+		return new ListIterator(connection.call(RemoteProtocol.LIST, RemoteFrame.payload().writeUTF(order)));
+	}
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// inner classes
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Iterator decoding the chunks of the listing as they come
+	 */
+	private class ListIterator implements ISyncFileIterator {
+		private final RemoteCall call;
+		private final List<ISyncFile> chunk = new ArrayList<ISyncFile>(RemoteProtocol.LIST_CHUNK);
+		private int index;
+		private String previous = "";
+		private boolean ended;
+
+		private ListIterator(RemoteCall call) {
+			this.call = call;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (index >= chunk.size() && !ended) {
+				try {
+					RemoteFrame frame = call.next();
+					if (frame.getType() == RemoteProtocol.END) {
+						ended = true;
+					} else {
+						decode(frame.input());
+					}
+				} catch (IOException e) {
+					ended = true;
+					throw new SyncError("error when list " + RemoteRepository.this, e);
+				}
+			}
+			return index < chunk.size();
+		}
+
+		@Override
+		public ISyncFile next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return chunk.get(index++);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("the repository is read by iterator");
+		}
+
+		@Override
+		public void close() {
+			ended = true;
+			chunk.clear();
+		}
+
+		/**
+		 * Decode the chunk: count, uncompressed length and compressed
+		 * entries (length of the prefix shared with previous path,
+		 * rest of the path, size and timestamp)
+		 */
+		private void decode(DataInputStream in) throws IOException {
+			int count = in.readInt();
+			int length = in.readInt();
+			byte[] compressed = RemoteProtocol.readBytes(in);
+			DataInputStream entries = new DataInputStream(
+					new ByteArrayInputStream(RemoteProtocol.decompress(compressed, length)));
+
+			chunk.clear();
+			index = 0;
+			for (int i = 0; i < count; i++) {
+				int prefix = entries.readInt();
+				if (prefix < 0 || prefix > previous.length()) {
+					throw new IOException("invalid listing");
+				}
+				String path = previous.substring(0, prefix) + entries.readUTF();
+				long size = entries.readLong();
+				long timestamp = entries.readLong();
+				chunk.add(new RemoteFile(connection, RemoteProtocol.fromWire(path), size, timestamp));
+				previous = path;
+			}
+		}
+	}
+}
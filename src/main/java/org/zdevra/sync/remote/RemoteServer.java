@@ -0,0 +1,796 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.remote;
+
+import org.apache.log4j.Logger;
+import org.zdevra.sync.ISyncDeltaRepository;
+import org.zdevra.sync.ISyncDeltaTransfer;
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.ISyncFileIterator;
+import org.zdevra.sync.ISyncRepository;
+import org.zdevra.sync.ISyncTransfer;
+import org.zdevra.sync.SyncCaseSensitivity;
+import org.zdevra.sync.SyncDelta;
+import org.zdevra.sync.SyncPathComparator;
+import org.zdevra.sync.filesystem.NioFilesystemRepository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server giving the access to the repository for {@link RemoteRepository}
+ * clients. Requests of one connection are executed in parallel by the
+ * pool of workers, only requests of the same channel or transfer are
+ * executed in the order they came.
+ *
+ * The server listens on the loopback only by default. To listen on
+ * the network, the shared secret must be set, so only clients knowing
+ * it are accepted. The paths pointing outside of the served directory
+ * are rejected.
+ *
+ * It can run as the standalone process serving the directory, the
+ * secret is given by the SYNC_SECRET environment variable:
+ * <pre>
+ *   java -cp sync.jar org.zdevra.sync.remote.RemoteServer DIRECTORY [PORT [ADDRESS]]
+ * </pre>
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class RemoteServer implements Closeable {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	static Logger log = Logger.getLogger(RemoteServer.class);
+
+	public static final int DEFAULT_PORT = 7373;
+
+	/** max. time of the handshake in milliseconds */
+	private static final int HANDSHAKE_TIMEOUT = 30000;
+
+	/** name of the environment variable with the secret of standalone server */
+	public static final String SECRET_VARIABLE = "SYNC_SECRET";
+
+	private final ISyncRepository repository;
+	private final int port;
+	private int threads = 8;
+
+	/** address the server listens on */
+	private InetAddress bindAddress = InetAddress.getLoopbackAddress();
+
+	/** the secret shared with clients, null if any client is accepted */
+	private byte[] secret;
+
+	private ServerSocket serverSocket;
+	private ExecutorService workers;
+	private Thread acceptor;
+	private final Set<Session> sessions = Collections.newSetFromMap(new ConcurrentHashMap<Session, Boolean>());
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	public static void main(String[] args) {
+		if (args.length < 1 || args.length > 3) {
+			System.err.println("usage: RemoteServer DIRECTORY [PORT [ADDRESS]]");
+			System.exit(2);
+		}
+		File dir = new File(args[0]);
+		if (!dir.isDirectory()) {
+			System.err.println("not a directory: " + dir);
+			System.exit(2);
+		}
+
+		RemoteServer server;
+		try {
+			int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+			server = new RemoteServer(new NioFilesystemRepository(dir), port);
+			if (args.length > 2) {
+				server.setBindAddress(InetAddress.getByName(args[2]));
+			}
+			server.setSecret(System.getenv(SECRET_VARIABLE));
+			server.start();
+		} catch (NumberFormatException e) {
+			System.err.println("invalid port: " + args[1]);
+			System.exit(2);
+			return;
+		} catch (IllegalStateException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+			return;
+		} catch (IOException e) {
+			System.err.println("cannot start the server: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		System.out.println("serving " + dir.getAbsolutePath() + " on " + server.bindAddress.getHostAddress() + ":" + server.getPort());
+		try {
+			server.acceptor.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param repository the served repository
+	 * @param port       port to listen on, 0 for any free port
+	 */
+	public RemoteServer(ISyncRepository repository, int port) {
+		this.repository = repository;
+		this.port = port;
+	}
+
+
+	/**
+	 * Set the number of threads executing the requests
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be positive:" + threads);
+		}
+		this.threads = threads;
+	}
+
+
+	/**
+	 * Set the address the server listens on, default is the loopback.
+	 * The wildcard address listens on all interfaces.
+	 */
+	public void setBindAddress(InetAddress bindAddress) {
+		this.bindAddress = bindAddress;
+	}
+
+
+	/**
+	 * Set the secret shared with clients, null or empty string means
+	 * any client is accepted. It's required if the server doesn't
+	 * listen on the loopback.
+	 */
+	public void setSecret(String secret) {
+		this.secret = RemoteProtocol.secret(secret);
+	}
+
+
+	/**
+	 * Start listening, the connections are accepted by background thread
+	 *
+	 * @throws IllegalStateException if the server listens on the network without secret
+	 */
+	public synchronized void start() throws IOException {
+		if (serverSocket != null) {
+			throw new IllegalStateException("the server is already started");
+		}
+		if (secret == null && !bindAddress.isLoopbackAddress()) {
+			throw new IllegalStateException("the server listening on " + bindAddress.getHostAddress() + " needs the secret");
+		}
+		serverSocket = new ServerSocket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(new InetSocketAddress(bindAddress, port));
+		workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger counter = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "sync-server-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "sync-server-acceptor");
+		acceptor.start();
+	}
+
+
+	/**
+	 * Returns the port the server listens on
+	 */
+	public synchronized int getPort() {
+		return serverSocket != null ? serverSocket.getLocalPort() : port;
+	}
+
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (serverSocket == null) {
+			return;
+		}
+		serverSocket.close();
+		for (Session session : sessions) {
+			session.close();
+		}
+		workers.shutdown();
+	}
+
+
+	private void accept() {
+		int counter = 0;
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				Session session = new Session(socket);
+				sessions.add(session);
+				Thread thread = new Thread(session, "sync-session-" + (++counter));
+				thread.setDaemon(true);
+				thread.start();
+			} catch (IOException e) {
+				if (!serverSocket.isClosed()) {
+					log.error("error when accept the connection", e);
+				}
+			}
+		}
+	}
+
+
+	private static boolean isHandleCommand(byte type) {
+		return type >= RemoteProtocol.READ && type <= RemoteProtocol.CLOSE;
+	}
+
+
+	private static int commonPrefix(String s1, String s2) {
+		int len = Math.min(s1.length(), s2.length());
+		int i = 0;
+		while (i < len && s1.charAt(i) == s2.charAt(i)) {
+			i++;
+		}
+		return i;
+	}
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// inner classes
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * One client connection. The frames are read by the session thread
+	 * and executed by the workers.
+	 */
+	private class Session implements Runnable, Closeable {
+		private final Socket socket;
+		private DataOutputStream out;
+		private final Map<Integer, Handle> handles = new ConcurrentHashMap<Integer, Handle>();
+		private final AtomicInteger handleIds = new AtomicInteger();
+
+		private Session(Socket socket) {
+			this.socket = socket;
+		}
+
+		@Override
+		public void run() {
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+				out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+				socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+				synchronized (out) {
+					RemoteProtocol.accept(in, out, secret);
+				}
+				socket.setSoTimeout(0);
+
+				RemoteFrame frame;
+				while ((frame = RemoteProtocol.readFrame(in)) != null) {
+					if (frame.getType() == RemoteProtocol.BATCH) {
+						DataInputStream batch = frame.input();
+						int count = batch.readInt();
+						for (int i = 0; i < count; i++) {
+							int id = batch.readInt();
+							byte type = batch.readByte();
+							dispatch(new RemoteFrame(id, type, RemoteProtocol.readBytes(batch)));
+						}
+					} else {
+						dispatch(frame);
+					}
+				}
+			} catch (IOException e) {
+				if (!socket.isClosed()) {
+					log.warn("connection " + socket.getRemoteSocketAddress() + " failed: " + e.getMessage());
+				}
+			} finally {
+				close();
+			}
+		}
+
+		/**
+		 * Close the connection and all channels and transfers left
+		 * open by the client. The transfers aren't committed, so they
+		 * can be resumed from their checkpoints.
+		 */
+		@Override
+		public void close() {
+			sessions.remove(this);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				//closing anyway
+			}
+			for (Integer id : handles.keySet()) {
+				Handle handle = handles.remove(id);
+				if (handle != null) {
+					handle.close();
+				}
+			}
+		}
+
+		private void dispatch(final RemoteFrame frame) {
+			Executor executor = workers;
+			if (isHandleCommand(frame.getType())) {
+				Handle handle;
+				try {
+					handle = handles.get(frame.input().readInt());
+				} catch (IOException e) {
+					handle = null;
+				}
+				if (handle == null) {
+					respondError(frame.getId(), "invalid handle");
+					return;
+				}
+				executor = handle.serial;
+			}
+
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						execute(frame);
+					} catch (Exception e) {
+						respondError(frame.getId(), e.getMessage() != null ? e.getMessage() : e.toString());
+					}
+				}
+			});
+		}
+
+		private void execute(RemoteFrame frame) throws IOException {
+			DataInputStream in = frame.input();
+			int id = frame.getId();
+			switch (frame.getType()) {
+				case RemoteProtocol.LIST:
+					list(id, in.readUTF());
+					break;
+
+				case RemoteProtocol.STAT: {
+					ISyncFile file = repository.getFile(RemoteProtocol.fromWire(in.readUTF()));
+					RemoteFrame.Payload payload = RemoteFrame.payload();
+					if (file == null) {
+						payload.writeByte(0);
+					} else {
+						payload.writeByte(1).writeLong(file.size()).writeLong(file.timestamp());
+					}
+					respond(id, payload);
+					break;
+				}
+
+				case RemoteProtocol.GET: {
+					byte[] content = get(in.readUTF());
+					respond(id, RemoteFrame.payload().writeBytes(content, 0, content.length));
+					break;
+				}
+
+				case RemoteProtocol.DIGEST: {
+					byte[] digest = file(in.readUTF()).digest();
+					respond(id, RemoteFrame.payload().writeBytes(digest, 0, digest.length));
+					break;
+				}
+
+				case RemoteProtocol.SIGNATURE:
+					signatures(id, in.readUTF(), in.readInt());
+					break;
+
+				case RemoteProtocol.TOUCH: {
+					ISyncFile file = file(in.readUTF());
+					file.touch(in.readLong());
+					respond(id, RemoteFrame.payload());
+					break;
+				}
+
+				case RemoteProtocol.PUT:
+					put(RemoteProtocol.fromWire(in.readUTF()), in.readLong(), RemoteProtocol.readBytes(in));
+					respond(id, RemoteFrame.payload());
+					break;
+
+				case RemoteProtocol.SPACE:
+					respond(id, RemoteFrame.payload().writeLong(repository.getUsableSpace()));
+					break;
+
+				case RemoteProtocol.DELETE:
+					repository.delete(RemoteProtocol.fromWire(in.readUTF()));
+					respond(id, RemoteFrame.payload());
+					break;
+
+				case RemoteProtocol.OPEN_READ: {
+					SeekableByteChannel channel = file(in.readUTF()).openChannel();
+					respond(id, RemoteFrame.payload().writeInt(open(channel)).writeLong(channel.size()));
+					break;
+				}
+
+				case RemoteProtocol.OPEN_WRITE: {
+					SeekableByteChannel channel = repository.openChannel(RemoteProtocol.fromWire(in.readUTF()));
+					respond(id, RemoteFrame.payload().writeInt(open(channel)).writeLong(channel.size()));
+					break;
+				}
+
+				case RemoteProtocol.OPEN_DELTA: {
+					ISyncDeltaTransfer transfer = deltaRepository().openDeltaTransfer(RemoteProtocol.fromWire(in.readUTF()));
+					respond(id, RemoteFrame.payload().writeInt(open(transfer)).writeLong(transfer.getChannel().size()));
+					break;
+				}
+
+				case RemoteProtocol.OPEN_TRANSFER: {
+					String path = RemoteProtocol.fromWire(in.readUTF());
+					ISyncTransfer transfer = repository.openTransfer(path, in.readLong(), in.readLong());
+					respond(id, RemoteFrame.payload().writeInt(open(transfer)).writeLong(transfer.getOffset()));
+					break;
+				}
+
+				case RemoteProtocol.READ: {
+					SeekableByteChannel channel = channel(in.readInt());
+					channel.position(in.readLong());
+					ByteBuffer buf = ByteBuffer.allocate(Math.min(in.readInt(), RemoteProtocol.CHUNK));
+					while (buf.hasRemaining() && channel.read(buf) > 0) {
+					}
+					respond(id, RemoteFrame.payload().writeBytes(buf.array(), 0, buf.position()));
+					break;
+				}
+
+				case RemoteProtocol.WRITE: {
+					SeekableByteChannel channel = channel(in.readInt());
+					channel.position(in.readLong());
+					ByteBuffer buf = ByteBuffer.wrap(RemoteProtocol.readBytes(in));
+					while (buf.hasRemaining()) {
+						channel.write(buf);
+					}
+					respond(id, RemoteFrame.payload());
+					break;
+				}
+
+				case RemoteProtocol.TRUNCATE:
+					channel(in.readInt()).truncate(in.readLong());
+					respond(id, RemoteFrame.payload());
+					break;
+
+				case RemoteProtocol.TRANSFER: {
+					ISyncTransfer transfer = transfer(in.readInt());
+					byte[] content = RemoteProtocol.readBytes(in);
+					transferAll(transfer, content, 0);
+					respond(id, RemoteFrame.payload());
+					break;
+				}
+
+				case RemoteProtocol.CHECKPOINT:
+					transfer(in.readInt()).checkpoint();
+					respond(id, RemoteFrame.payload());
+					break;
+
+				case RemoteProtocol.COMMIT: {
+					int handle = in.readInt();
+					Handle h = handles.get(handle);
+					if (h != null && h.target instanceof ISyncDeltaTransfer) {
+						((ISyncDeltaTransfer) h.target).commit();
+					} else {
+						transfer(handle).commit();
+					}
+					respond(id, RemoteFrame.payload());
+					break;
+				}
+
+				case RemoteProtocol.CLOSE: {
+					Handle handle = handles.remove(in.readInt());
+					if (handle != null) {
+						handle.target.close();
+					}
+					respond(id, RemoteFrame.payload());
+					break;
+				}
+
+				default:
+					throw new IOException("unknown command:" + frame.getType());
+			}
+		}
+
+		/**
+		 * Stream the listing in compressed chunks
+		 */
+		private void list(int id, String order) throws IOException {
+			Iterator<ISyncFile> files;
+			ISyncFileIterator it = null;
+			if (order.isEmpty()) {
+				files = repository.scan().iterator();
+			} else {
+				it = repository.iterate(new SyncPathComparator(SyncCaseSensitivity.from(order)));
+				files = it;
+			}
+
+			try {
+				RemoteFrame.Payload entries = RemoteFrame.payload();
+				int count = 0;
+				String previous = "";
+				while (files.hasNext()) {
+					ISyncFile file = files.next();
+					String path = RemoteProtocol.toWire(file.path());
+					int prefix = commonPrefix(previous, path);
+					entries.writeInt(prefix).writeUTF(path.substring(prefix)).writeLong(file.size()).writeLong(file.timestamp());
+					previous = path;
+					if (++count == RemoteProtocol.LIST_CHUNK) {
+						sendChunk(id, count, entries);
+						entries = RemoteFrame.payload();
+						count = 0;
+					}
+				}
+				if (count > 0) {
+					sendChunk(id, count, entries);
+				}
+				respond(id, RemoteFrame.payload());
+			} finally {
+				if (it != null) {
+					it.close();
+				}
+			}
+		}
+
+		/**
+		 * Compute signatures of the file and stream them in chunks, the
+		 * first frame carries the size and the digest of the tail
+		 */
+		private void signatures(int id, String path, int blockSize) throws IOException {
+			if (blockSize < SyncDelta.MIN_BLOCK_SIZE || blockSize > SyncDelta.MAX_BLOCK_SIZE) {
+				throw new IOException("invalid block size:" + blockSize);
+			}
+			SyncDelta.Signatures signatures = deltaRepository().signatures(RemoteProtocol.fromWire(path), blockSize);
+
+			byte[] tail = signatures.getTail();
+			send(id, RemoteProtocol.DATA, RemoteFrame.payload()
+					.writeLong(signatures.getSize()).writeBytes(tail, 0, tail.length).toByteArray());
+			for (int start = 0; start < signatures.getCount(); start += RemoteProtocol.SIGNATURE_CHUNK) {
+				int count = Math.min(RemoteProtocol.SIGNATURE_CHUNK, signatures.getCount() - start);
+				RemoteFrame.Payload chunk = RemoteFrame.payload().writeInt(count);
+				for (int i = start; i < start + count; ++i) {
+					byte[] strong = signatures.getStrong(i);
+					chunk.writeInt(signatures.getWeak(i)).writeBytes(strong, 0, strong.length);
+				}
+				send(id, RemoteProtocol.DATA, chunk.toByteArray());
+			}
+			respond(id, RemoteFrame.payload());
+		}
+
+		private void sendChunk(int id, int count, RemoteFrame.Payload entries) throws IOException {
+			byte[] raw = entries.toByteArray();
+			byte[] compressed = RemoteProtocol.compress(raw);
+			send(id, RemoteProtocol.DATA, RemoteFrame.payload()
+					.writeInt(count).writeInt(raw.length).writeBytes(compressed, 0, compressed.length).toByteArray());
+		}
+
+		/**
+		 * Returns the content of the small file. The file which is larger,
+		 * or grows while it's read, is rejected, so the response always
+		 * fits into one frame.
+		 */
+		private byte[] get(String path) throws IOException {
+			ISyncFile file = file(path);
+			if (file.size() > RemoteProtocol.SMALL_FILE) {
+				throw new IOException("the file is too large to be sent in one frame:" + path);
+			}
+			ByteArrayOutputStream content = new ByteArrayOutputStream() {
+				@Override
+				public synchronized void write(byte[] b, int off, int len) {
+					if (count + len > RemoteProtocol.SMALL_FILE) {
+						throw new IllegalStateException("the file grew over the size of one frame");
+					}
+					super.write(b, off, len);
+				}
+
+				@Override
+				public synchronized void write(int b) {
+					write(new byte[] {(byte) b}, 0, 1);
+				}
+			};
+			try {
+				file.copyTo(content);
+			} catch (IllegalStateException e) {
+				throw new IOException(e.getMessage() + ":" + path);
+			}
+			return content.toByteArray();
+		}
+
+		/**
+		 * Replace the file by the content sent in one frame
+		 */
+		private void put(String path, long timestamp, byte[] content) throws IOException {
+			if (content.length > RemoteProtocol.SMALL_FILE) {
+				throw new IOException("the content is too large to be sent in one frame:" + path);
+			}
+			ISyncTransfer transfer = repository.openTransfer(path, content.length, timestamp);
+			try {
+				transferAll(transfer, content, (int) transfer.getOffset());
+				transfer.commit();
+			} finally {
+				transfer.close();
+			}
+		}
+
+		private void transferAll(ISyncTransfer transfer, byte[] content, int offset) throws IOException {
+			ReadableByteChannel source = Channels.newChannel(
+					new ByteArrayInputStream(content, offset, content.length - offset));
+			long remaining = content.length - offset;
+			while (remaining > 0) {
+				long n = transfer.transferFrom(source, remaining);
+				if (n <= 0) {
+					throw new IOException("the transfer doesn't accept the content");
+				}
+				remaining -= n;
+			}
+		}
+
+		private ISyncFile file(String path) throws IOException {
+			ISyncFile file = repository.getFile(RemoteProtocol.fromWire(path));
+			if (file == null) {
+				throw new IOException("file not found:" + path);
+			}
+			return file;
+		}
+
+		private ISyncDeltaRepository deltaRepository() throws IOException {
+			if (!(repository instanceof ISyncDeltaRepository)) {
+				throw new IOException("the delta transfer isn't supported by " + repository);
+			}
+			return (ISyncDeltaRepository) repository;
+		}
+
+		private int open(Closeable target) {
+			int handle = handleIds.incrementAndGet();
+			handles.put(handle, new Handle(target, workers));
+			return handle;
+		}
+
+		private SeekableByteChannel channel(int handle) throws IOException {
+			Handle h = handles.get(handle);
+			if (h != null && h.target instanceof ISyncDeltaTransfer) {
+				return ((ISyncDeltaTransfer) h.target).getChannel();
+			}
+			if (h == null || !(h.target instanceof SeekableByteChannel)) {
+				throw new IOException("invalid handle of the channel:" + handle);
+			}
+			return (SeekableByteChannel) h.target;
+		}
+
+		private ISyncTransfer transfer(int handle) throws IOException {
+			Handle h = handles.get(handle);
+			if (h == null || !(h.target instanceof ISyncTransfer)) {
+				throw new IOException("invalid handle of the transfer:" + handle);
+			}
+			return (ISyncTransfer) h.target;
+		}
+
+		private void respond(int id, RemoteFrame.Payload payload) throws IOException {
+			send(id, RemoteProtocol.END, payload.toByteArray());
+		}
+
+		private void respondError(int id, String message) {
+			try {
+				send(id, RemoteProtocol.ERROR, RemoteFrame.payload().writeUTF(message).toByteArray());
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		private void send(int id, byte type, byte[] payload) throws IOException {
+			synchronized (out) {
+				RemoteProtocol.writeFrame(out, id, type, payload);
+				out.flush();
+			}
+		}
+	}
+
+
+	/**
+	 * Channel or transfer opened by the client
+	 */
+	private static class Handle {
+		private final Closeable target;
+
+		/** requests of the handle are executed one by one */
+		private final Executor serial;
+
+		private Handle(Closeable target, Executor executor) {
+			this.target = target;
+			this.serial = new SerialExecutor(executor);
+		}
+
+		private void close() {
+			try {
+				target.close();
+			} catch (IOException e) {
+				log.warn("error when close " + target + ": " + e.getMessage());
+			}
+		}
+	}
+
+
+	/**
+	 * Executes the tasks in the order they came, one by one, on
+	 * the threads of the underlying executor
+	 */
+	private static class SerialExecutor implements Executor {
+		private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+		private final Executor executor;
+		private Runnable active;
+
+		private SerialExecutor(Executor executor) {
+			this.executor = executor;
+		}
+
+		@Override
+		public synchronized void execute(final Runnable task) {
+			tasks.add(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						task.run();
+					} finally {
+						scheduleNext();
+					}
+				}
+			});
+			if (active == null) {
+				scheduleNext();
+			}
+		}
+
+		private synchronized void scheduleNext() {
+			active = tasks.poll();
+			if (active != null) {
+				executor.execute(active);
+			}
+		}
+	}
+}
@@ -0,0 +1,194 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.remote;
+
+import org.zdevra.sync.ISyncTransfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Transfer into the remote repository. The content of the small file
+ * is collected and sent by the commit in one frame. The content of
+ * the large file is sent in chunks without waiting for their responses,
+ * the checkpoint and commit wait until all chunks are written.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+class RemoteTransfer implements ISyncTransfer {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final RemoteConnection connection;
+	private final String path;
+	private final long timestamp;
+
+	/** handle of the transfer opened by server, -1 for the small file */
+	private final int handle;
+
+	/** content of the small file */
+	private byte[] data;
+
+	private long offset;
+	private boolean closed;
+
+	/** chunks without response */
+	private final Deque<RemoteCall> pending = new ArrayDeque<RemoteCall>();
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor of the small file transfer
+	 *
+	 * @param connection
+	 * @param path       path in wire format
+	 * @param size
+	 * @param timestamp
+	 */
+	RemoteTransfer(RemoteConnection connection, String path, long size, long timestamp) {
+		this.connection = connection;
+		this.path = path;
+		this.timestamp = timestamp;
+		this.handle = -1;
+		this.data = new byte[(int) size];
+	}
+
+
+	/**
+	 * Constructor of the transfer opened by server
+	 *
+	 * @param connection
+	 * @param handle     handle of the transfer
+	 * @param offset     offset the transfer is resumed from
+	 */
+	RemoteTransfer(RemoteConnection connection, int handle, long offset) {
+		this.connection = connection;
+		this.path = null;
+		this.timestamp = 0;
+		this.handle = handle;
+		this.offset = offset;
+	}
+
+
+	@Override
+	public long getOffset() {
+		return offset;
+	}
+
+
+	@Override
+	public long transferFrom(ReadableByteChannel source, long count) throws IOException {
+		long transferred = 0;
+		while (transferred < count) {
+			int n = (int) Math.min(count - transferred, RemoteProtocol.CHUNK);
+			ByteBuffer buf;
+			if (data != null) {
+				if (offset + n > data.length) {
+					data = Arrays.copyOf(data, (int) (offset + n));
+				}
+				buf = ByteBuffer.wrap(data, (int) offset, n);
+			} else {
+				buf = ByteBuffer.allocate(n);
+			}
+
+			int read = 0;
+			while (buf.hasRemaining()) {
+				int r = source.read(buf);
+				if (r <= 0) {
+					break;
+				}
+				read += r;
+			}
+			if (read == 0) {
+				break;
+			}
+
+			if (data == null) {
+				send(connection.call(RemoteProtocol.TRANSFER,
+						RemoteFrame.payload().writeInt(handle).writeBytes(buf.array(), 0, read)));
+			}
+			offset += read;
+			transferred += read;
+			if (read < n) {
+				break;
+			}
+		}
+		return transferred;
+	}
+
+
+	@Override
+	public void checkpoint() throws IOException {
+		if (data == null) {
+			awaitPending();
+			connection.call(RemoteProtocol.CHECKPOINT, RemoteFrame.payload().writeInt(handle)).await();
+		}
+	}
+
+
+	@Override
+	public void commit() throws IOException {
+		if (data != null) {
+			connection.call(RemoteProtocol.PUT,
+					RemoteFrame.payload().writeUTF(path).writeLong(timestamp).writeBytes(data, 0, (int) offset)).await();
+		} else {
+			awaitPending();
+			connection.call(RemoteProtocol.COMMIT, RemoteFrame.payload().writeInt(handle)).await();
+		}
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		data = null;
+		if (handle >= 0) {
+			try {
+				awaitPending();
+			} finally {
+				connection.call(RemoteProtocol.CLOSE, RemoteFrame.payload().writeInt(handle)).await();
+			}
+		}
+	}
+
+
+	private void send(RemoteCall call) throws IOException {
+		pending.add(call);
+		if (pending.size() > RemoteChannel.WINDOW) {
+			pending.poll().await();
+		}
+	}
+
+
+	private void awaitPending() throws IOException {
+		while (!pending.isEmpty()) {
+			pending.poll().await();
+		}
+	}
+}
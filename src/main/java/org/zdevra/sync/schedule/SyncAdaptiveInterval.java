@@ -0,0 +1,127 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.schedule;
+
+/**
+ * Interval between periodic syncs of one pair adjusted by the observed
+ * change rate. When the sync copied nothing, the interval is doubled
+ * (exponential back-off up to the max. interval). When the sync copied
+ * files, the change rate is estimated from them and the interval is
+ * adjusted, so the next sync copies about the target number of files.
+ * The interval grows at most twice per sync, one quiet period doesn't
+ * stretch it at once.
+ * The interval is never shorter than the multiple of the last sync's
+ * duration, so the big tree is not scanned all the time.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class SyncAdaptiveInterval {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	/** the sync is expected to copy about this number of files */
+	public static final long DEFAULT_TARGET_CHANGES = 100;
+
+	/** the interval is at least this multiple of sync's duration */
+	public static final long DEFAULT_COST_FACTOR = 10;
+
+	private final long minInterval;
+	private final long maxInterval;
+	private long targetChanges = DEFAULT_TARGET_CHANGES;
+	private long costFactor = DEFAULT_COST_FACTOR;
+
+	/** current interval in milliseconds */
+	private long interval;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor, the first interval is the min. one
+	 *
+	 * @param minInterval min. milliseconds between syncs
+	 * @param maxInterval max. milliseconds between syncs
+	 */
+	public SyncAdaptiveInterval(long minInterval, long maxInterval) {
+		if (minInterval < 1 || maxInterval < minInterval) {
+			throw new IllegalArgumentException("invalid interval range:" + minInterval + "-" + maxInterval);
+		}
+		this.minInterval = minInterval;
+		this.maxInterval = maxInterval;
+		this.interval = minInterval;
+	}
+
+
+	public void setTargetChanges(long targetChanges) {
+		if (targetChanges < 1) {
+			throw new IllegalArgumentException("target changes must be positive:" + targetChanges);
+		}
+		this.targetChanges = targetChanges;
+	}
+
+
+	public void setCostFactor(long costFactor) {
+		if (costFactor < 0) {
+			throw new IllegalArgumentException("cost factor cannot be negative:" + costFactor);
+		}
+		this.costFactor = costFactor;
+	}
+
+
+	/**
+	 * Returns the current interval in milliseconds
+	 */
+	public synchronized long getInterval() {
+		return interval;
+	}
+
+
+	/**
+	 * Compute the interval after the finished sync
+	 *
+	 * @param copiedFiles number of files copied by the sync
+	 * @param duration    duration of the sync in milliseconds
+	 * @return milliseconds till the next sync
+	 */
+	public synchronized long next(long copiedFiles, long duration) {
+		long doubled = interval > maxInterval / 2 ? maxInterval : interval * 2;
+		long next;
+		if (copiedFiles == 0) {
+			next = doubled;
+		} else {
+			//changes were collected since the previous sync
+			double rate = (double) copiedFiles / (interval + duration);
+			next = (long) Math.min(doubled, targetChanges / rate);
+		}
+
+		next = Math.max(next, duration * costFactor);
+		interval = Math.max(minInterval, Math.min(maxInterval, next));
+		return interval;
+	}
+
+
+	/**
+	 * Compute the interval after the failed sync, the interval is kept
+	 */
+	public synchronized long failed() {
+		return interval;
+	}
+}
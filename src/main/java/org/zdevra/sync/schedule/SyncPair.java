@@ -0,0 +1,201 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.schedule;
+
+import org.zdevra.sync.Sync;
+import org.zdevra.sync.SyncEvent;
+import org.zdevra.sync.SyncEventListener;
+import org.zdevra.sync.SyncMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * One pair of synced folders run by the {@link SyncScheduler}. The pair
+ * knows devices its folders are stored on, so the scheduler doesn't run
+ * too many syncs on the same disk. The pair keeps its own status and
+ * progress, which can be shown while more pairs are running.
+ *
+ * The default run is the full sync, subclass can override
+ * {@link #execute(Sync)} to prepare the sync (e.g. open the state
+ * store) or to do only the dry run.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class SyncPair {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final String name;
+	private final Sync sync;
+	private final Set<String> devices;
+
+	private volatile SyncPairStatus status = SyncPairStatus.IDLE;
+	private volatile double progress = -1;
+	private volatile Throwable error;
+	private volatile SyncMetrics.Snapshot lastMetrics;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param name    name of the pair shown to the user
+	 * @param sync    sync of the pair
+	 * @param devices devices the folders are stored on (see {@link #device(File)})
+	 */
+	public SyncPair(String name, Sync sync, String... devices) {
+		this.name = name;
+		this.sync = sync;
+		this.devices = Collections.unmodifiableSet(new LinkedHashSet<String>(Arrays.asList(devices)));
+		this.sync.addEventListener(new SyncEventListener() {
+			@Override
+			public void listen(SyncEvent e) {
+				if (e instanceof SyncEvent.ProgressEvent) {
+					progress = ((SyncEvent.ProgressEvent) e).getPercentage();
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * Returns the device (the file store) of the directory. The directory
+	 * may not exist yet, then the device of its nearest existing parent
+	 * is returned.
+	 */
+	public static String device(File dir) {
+		File existing = dir.getAbsoluteFile();
+		while (existing != null && !existing.exists()) {
+			existing = existing.getParentFile();
+		}
+		if (existing == null) {
+			return dir.getAbsolutePath();
+		}
+		try {
+			FileStore store = Files.getFileStore(existing.toPath());
+			return store.name() + ":" + store.type();
+		} catch (IOException e) {
+			return existing.getAbsolutePath();
+		}
+	}
+
+
+	public String getName() {
+		return name;
+	}
+
+
+	public Sync getSync() {
+		return sync;
+	}
+
+
+	public Set<String> getDevices() {
+		return devices;
+	}
+
+
+	public SyncPairStatus getStatus() {
+		return status;
+	}
+
+
+	/**
+	 * Returns the progress of running sync in percents, or -1
+	 * if it's not known
+	 */
+	public double getProgress() {
+		return progress;
+	}
+
+
+	/**
+	 * Returns the error of last failed run, or null
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+
+	/**
+	 * Returns metrics of the last finished run, or null
+	 */
+	public SyncMetrics.Snapshot getLastMetrics() {
+		return lastMetrics;
+	}
+
+
+	/**
+	 * Sync the pair, it's invoked by the scheduler
+	 */
+	protected void execute(Sync sync) {
+		sync.sync();
+	}
+
+
+	/**
+	 * Mark the pair as waiting in the scheduler's queue. Returns false
+	 * if it's already queued or running.
+	 */
+	boolean enqueue() {
+		synchronized (this) {
+			if (status == SyncPairStatus.QUEUED || status == SyncPairStatus.RUNNING) {
+				return false;
+			}
+			status = SyncPairStatus.QUEUED;
+			return true;
+		}
+	}
+
+
+	void run() {
+		status = SyncPairStatus.RUNNING;
+		progress = -1;
+		error = null;
+		try {
+			execute(sync);
+			lastMetrics = sync.getMetrics().snapshot();
+			status = SyncPairStatus.DONE;
+		} catch (Throwable e) {
+			error = e;
+			status = SyncPairStatus.FAILED;
+			throw e;
+		}
+	}
+
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(name).append(": ").append(status);
+		if (status == SyncPairStatus.RUNNING && progress >= 0) {
+			sb.append(" (").append((long) progress).append("%)");
+		}
+		return sb.toString();
+	}
+}
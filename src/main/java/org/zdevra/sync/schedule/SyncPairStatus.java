@@ -0,0 +1,50 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.schedule;
+
+/**
+ * Status of the {@link SyncPair}
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public enum SyncPairStatus {
+
+	/** the pair wasn't synced yet */
+	IDLE("idle"),
+
+	/** the pair waits for free slot in the scheduler */
+	QUEUED("queued"),
+
+	RUNNING("running"),
+
+	/** the last sync finished successfully */
+	DONE("done"),
+
+	/** the last sync failed */
+	FAILED("failed");
+
+	private String name;
+
+	SyncPairStatus(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
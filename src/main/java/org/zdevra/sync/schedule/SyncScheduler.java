@@ -0,0 +1,342 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.schedule;
+
+import org.apache.log4j.Logger;
+import org.zdevra.sync.SyncMetrics;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared scheduler running syncs of more folder pairs. The number of
+ * concurrently running pairs is limited globally and per device, so
+ * pairs on different disks run in parallel while pairs on the same
+ * disk wait for each other instead of thrashing it. Waiting pairs are
+ * started in order they were submitted, the pair which can't start
+ * because of its device doesn't block pairs on other devices.
+ *
+ * Pairs can be scheduled periodically. The next run is planned only
+ * when the previous one is finished, with the interval adjusted by
+ * {@link SyncAdaptiveInterval}, so runs of one pair never overlap.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class SyncScheduler implements Closeable {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	static Logger log = Logger.getLogger(SyncScheduler.class);
+
+	/** max. number of pairs running at once */
+	private final int maxRunning;
+
+	/** max. number of pairs running at once on one device */
+	private final int maxPerDevice;
+
+	private final ExecutorService executor;
+
+	/** all pairs ever submitted, in order of submission */
+	private final List<SyncPair> pairs = new ArrayList<SyncPair>();
+
+	/** pairs waiting for free slot, guarded by this */
+	private final LinkedList<SyncPair> queue = new LinkedList<SyncPair>();
+
+	/** number of running pairs per device, guarded by this */
+	private final Map<String, Integer> runningPerDevice = new HashMap<String, Integer>();
+
+	/** intervals of periodically synced pairs, guarded by this */
+	private final Map<SyncPair, SyncAdaptiveInterval> periodic = new HashMap<SyncPair, SyncAdaptiveInterval>();
+
+	/** planned runs of periodic pairs, guarded by this */
+	private final Map<SyncPair, ScheduledFuture<?>> planned = new HashMap<SyncPair, ScheduledFuture<?>>();
+
+	/** timer of periodic syncs, created with the first periodic pair */
+	private ScheduledExecutorService timer;
+
+	/** number of running pairs, guarded by this */
+	private int running;
+
+	private boolean closed;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxRunning   max. number of concurrently running pairs
+	 * @param maxPerDevice max. number of concurrently running pairs on one device
+	 */
+	public SyncScheduler(int maxRunning, int maxPerDevice) {
+		if (maxRunning < 1 || maxPerDevice < 1) {
+			throw new IllegalArgumentException("limits of scheduler must be positive");
+		}
+		this.maxRunning = maxRunning;
+		this.maxPerDevice = maxPerDevice;
+		this.executor = Executors.newFixedThreadPool(maxRunning, new ThreadFactory() {
+			private final AtomicInteger counter = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "sync-pair-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+
+	/**
+	 * Queue the sync of the pair. The pair which is already queued or
+	 * running is not queued again. Returns true if the pair was queued.
+	 */
+	public boolean submit(SyncPair pair) {
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("scheduler is closed");
+			}
+			if (!pairs.contains(pair)) {
+				pairs.add(pair);
+			}
+			if (!pair.enqueue()) {
+				return false;
+			}
+			queue.add(pair);
+			dispatch();
+			return true;
+		}
+	}
+
+
+	/**
+	 * Sync the pair now and then periodically by given interval,
+	 * until it's unscheduled or the scheduler is closed.
+	 */
+	public void schedule(SyncPair pair, SyncAdaptiveInterval interval) {
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("scheduler is closed");
+			}
+			periodic.put(pair, interval);
+			if (timer == null) {
+				timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "sync-timer");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
+		}
+		submit(pair);
+	}
+
+
+	/**
+	 * Stop periodic syncs of the pair, the running sync is finished
+	 */
+	public synchronized void unschedule(SyncPair pair) {
+		periodic.remove(pair);
+		ScheduledFuture<?> next = planned.remove(pair);
+		if (next != null) {
+			next.cancel(false);
+		}
+	}
+
+
+	/**
+	 * Returns all submitted pairs with their status
+	 */
+	public synchronized List<SyncPair> getPairs() {
+		return new ArrayList<SyncPair>(pairs);
+	}
+
+
+	/**
+	 * Returns true if no pair is running or waiting
+	 */
+	public synchronized boolean isIdle() {
+		return running == 0 && queue.isEmpty();
+	}
+
+
+	/**
+	 * Wait until all submitted pairs are finished. Returns false
+	 * if the timeout elapsed before.
+	 */
+	public synchronized boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!isIdle()) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return true;
+	}
+
+
+	/**
+	 * Stop the scheduler, waiting pairs are not started and running
+	 * pairs are finished.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			queue.clear();
+			periodic.clear();
+			planned.clear();
+			if (timer != null) {
+				timer.shutdownNow();
+			}
+		}
+		executor.shutdown();
+	}
+
+
+	/**
+	 * Start waiting pairs which fit into limits. Must be called
+	 * with the lock.
+	 */
+	private void dispatch() {
+		Iterator<SyncPair> it = queue.iterator();
+		while (running < maxRunning && it.hasNext()) {
+			final SyncPair pair = it.next();
+			if (!isDeviceFree(pair)) {
+				continue;
+			}
+
+			it.remove();
+			acquire(pair);
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						pair.run();
+					} catch (Throwable e) {
+						log.error("sync of " + pair.getName() + " failed:" + e.getMessage(), e);
+					} finally {
+						finished(pair);
+					}
+				}
+			});
+		}
+	}
+
+
+	private synchronized void finished(SyncPair pair) {
+		release(pair);
+		if (!closed) {
+			reschedule(pair);
+			dispatch();
+		}
+		notifyAll();
+	}
+
+
+	/**
+	 * Plan the next run of the periodic pair. Must be called with the lock.
+	 */
+	private void reschedule(final SyncPair pair) {
+		SyncAdaptiveInterval interval = periodic.get(pair);
+		if (interval == null) {
+			return;
+		}
+
+		long delay;
+		SyncMetrics.Snapshot metrics = pair.getLastMetrics();
+		if (pair.getStatus() == SyncPairStatus.DONE && metrics != null) {
+			delay = interval.next(metrics.getCopiedFiles(), TimeUnit.NANOSECONDS.toMillis(metrics.getElapsed()));
+		} else {
+			delay = interval.failed();
+		}
+
+		if (log.isDebugEnabled()) {
+			log.debug("next sync of " + pair.getName() + " in " + delay + "ms");
+		}
+		ScheduledFuture<?> next = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (SyncScheduler.this) {
+					planned.remove(pair);
+					if (!closed && periodic.containsKey(pair)) {
+						submit(pair);
+					}
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+
+		//the pair submitted also manually must not have two planned runs
+		ScheduledFuture<?> previous = planned.put(pair, next);
+		if (previous != null) {
+			previous.cancel(false);
+		}
+	}
+
+
+	private boolean isDeviceFree(SyncPair pair) {
+		for (String device : pair.getDevices()) {
+			Integer count = runningPerDevice.get(device);
+			if (count != null && count >= maxPerDevice) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	private void acquire(SyncPair pair) {
+		running++;
+		for (String device : pair.getDevices()) {
+			Integer count = runningPerDevice.get(device);
+			runningPerDevice.put(device, count != null ? count + 1 : 1);
+		}
+	}
+
+
+	private void release(SyncPair pair) {
+		running--;
+		for (String device : pair.getDevices()) {
+			int count = runningPerDevice.get(device) - 1;
+			if (count == 0) {
+				runningPerDevice.remove(device);
+			} else {
+				runningPerDevice.put(device, count);
+			}
+		}
+	}
+}
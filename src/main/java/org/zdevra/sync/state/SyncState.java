@@ -0,0 +1,151 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.state;
+
+/**
+ * State of the file pair after its last successful sync. Both sides
+ * have the same size, the timestamps are stored separately because
+ * some filesystems round them differently.
+ *
+ * When the file was deleted on one side and the deletion was propagated,
+ * the state is kept as a tombstone with the time of deletion. The stale
+ * copy of the file which appears later (e.g. from an offline replica or
+ * a backup) is recognized by the tombstone and deleted again.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class SyncState {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	private final long size;
+	private final long primaryTimestamp;
+	private final long secondaryTimestamp;
+
+	/** identity of primary file (e.g. inode), null if not supported */
+	private final String primaryId;
+
+	/** identity of secondary file (e.g. inode), null if not supported */
+	private final String secondaryId;
+
+	/** time of the propagated deletion in milliseconds, 0 if the file is alive */
+	private final long deleted;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 */
+	public SyncState(long size, long primaryTimestamp, long secondaryTimestamp, String primaryId, String secondaryId) {
+		this(size, primaryTimestamp, secondaryTimestamp, primaryId, secondaryId, 0);
+	}
+
+
+	/**
+	 * Constructor
+	 *
+	 * @param deleted time of the deletion in milliseconds, 0 if the file is alive
+	 */
+	public SyncState(long size, long primaryTimestamp, long secondaryTimestamp, String primaryId, String secondaryId, long deleted) {
+		this.size = size;
+		this.primaryTimestamp = primaryTimestamp;
+		this.secondaryTimestamp = secondaryTimestamp;
+		this.primaryId = primaryId;
+		this.secondaryId = secondaryId;
+		this.deleted = deleted;
+	}
+
+
+	/**
+	 * Returns the tombstone of this state
+	 *
+	 * @param deleted time of the deletion in milliseconds
+	 */
+	public SyncState tombstone(long deleted) {
+		return new SyncState(size, primaryTimestamp, secondaryTimestamp, primaryId, secondaryId, deleted);
+	}
+
+
+	public long getSize() {
+		return size;
+	}
+
+
+	public long getPrimaryTimestamp() {
+		return primaryTimestamp;
+	}
+
+
+	public long getSecondaryTimestamp() {
+		return secondaryTimestamp;
+	}
+
+
+	public String getPrimaryId() {
+		return primaryId;
+	}
+
+
+	public String getSecondaryId() {
+		return secondaryId;
+	}
+
+
+	public long getDeleted() {
+		return deleted;
+	}
+
+
+	public boolean isTombstone() {
+		return deleted != 0;
+	}
+
+
+	/**
+	 * Returns true if the primary file is same as at the last sync
+	 */
+	public boolean matchesPrimary(long size, long timestamp, String id) {
+		return matches(size, timestamp, id, primaryTimestamp, primaryId);
+	}
+
+
+	/**
+	 * Returns true if the secondary file is same as at the last sync
+	 */
+	public boolean matchesSecondary(long size, long timestamp, String id) {
+		return matches(size, timestamp, id, secondaryTimestamp, secondaryId);
+	}
+
+
+	private boolean matches(long size, long timestamp, String id, long stateTimestamp, String stateId) {
+		if (this.size != size || stateTimestamp != timestamp) {
+			return false;
+		}
+		return stateId == null || id == null || stateId.equals(id);
+	}
+
+
+	@Override
+	public String toString() {
+		return "size=" + size + " primary=" + primaryTimestamp + " secondary=" + secondaryTimestamp + (deleted != 0 ? " deleted=" + deleted : "");
+	}
+}
@@ -0,0 +1,429 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.state;
+
+import org.apache.log4j.Logger;
+import org.zdevra.sync.SyncError;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Durable store of {@link SyncState} per path of one repository pair.
+ *
+ * The store is an append-only log of checksummed records, the latest
+ * record of the path wins. The whole index is loaded into memory when
+ * the store is opened. If the process was killed in the middle of write,
+ * the torn or corrupted tail of the log is truncated and the store
+ * recovers to the last complete record. When the log grows over the
+ * number of live entries, it's rewritten into temporary file which
+ * atomically replaces the log. Tombstones of deleted files are kept
+ * till they're expired by {@link #expire(long)}.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public class SyncStateStore implements Closeable {
+
+	//------------------------------------------------------------------------------------------------------------------
+	// members
+	//------------------------------------------------------------------------------------------------------------------
+
+	static Logger log = Logger.getLogger(SyncStateStore.class);
+
+	private static final int MAGIC = 0x53594e43;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+
+	private static final byte PUT = 1;
+	private static final byte REMOVE = 2;
+	private static final byte TOMBSTONE = 3;
+
+	/** max. size of one record, anything bigger is considered as corruption */
+	private static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+	/** number of records after which the buffered records are handed to OS */
+	private static final int FLUSH_RECORDS = 1024;
+
+	private final File file;
+	private final Map<String, SyncState> entries = new HashMap<String, SyncState>();
+
+	private FileOutputStream fos;
+	private DataOutputStream out;
+
+	/** number of records in the log */
+	private long records;
+
+	/** number of records written since last flush */
+	private int unflushed;
+
+
+	//------------------------------------------------------------------------------------------------------------------
+	// methods
+	//------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Returns the store file for the pair of repositories in given directory
+	 */
+	public static File fileFor(File dir, String primary, String secondary) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5");
+			md.update((primary + "\n" + secondary).getBytes(Charset.forName("UTF-8")));
+			String name = String.format("%032x", new BigInteger(1, md.digest()));
+			return new File(dir, name + ".state");
+		} catch (NoSuchAlgorithmException e) {
+			throw new SyncError("MD5 is not supported", e);
+		}
+	}
+
+
+	/**
+	 * Open the store, recover it when it's damaged and create it
+	 * if there is no such file.
+	 */
+	public SyncStateStore(File file) throws IOException {
+		this.file = file;
+		if (file.getParentFile() != null && !file.getParentFile().exists()) {
+			file.getParentFile().mkdirs();
+		}
+
+		File tmp = tmpFile();
+		if (tmp.exists()) {
+			//crashed compaction, the original log is still valid
+			tmp.delete();
+		}
+
+		load();
+		if (records > 2L * entries.size() + FLUSH_RECORDS) {
+			compact();
+		} else {
+			openLog();
+		}
+	}
+
+
+	public synchronized SyncState get(String key) {
+		return entries.get(key);
+	}
+
+
+	public synchronized void put(String key, SyncState state) {
+		entries.put(key, state);
+		try {
+			writePut(key, state);
+			flushIfNeeded();
+		} catch (IOException e) {
+			throw new SyncError("cannot write sync state into " + file, e);
+		}
+	}
+
+
+	public synchronized void remove(String key) {
+		if (entries.remove(key) == null) {
+			return;
+		}
+		try {
+			ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+			DataOutputStream data = new DataOutputStream(payload);
+			data.writeByte(REMOVE);
+			data.writeUTF(key);
+			writeRecord(payload.toByteArray());
+			flushIfNeeded();
+		} catch (IOException e) {
+			throw new SyncError("cannot write sync state into " + file, e);
+		}
+	}
+
+
+	/**
+	 * Remove tombstones of files deleted before given time
+	 *
+	 * @param before time in milliseconds
+	 * @return number of removed tombstones
+	 */
+	public synchronized int expire(long before) {
+		List<String> expired = new ArrayList<String>();
+		for (Map.Entry<String, SyncState> e : entries.entrySet()) {
+			if (e.getValue().isTombstone() && e.getValue().getDeleted() < before) {
+				expired.add(e.getKey());
+			}
+		}
+		for (String key : expired) {
+			remove(key);
+		}
+		return expired.size();
+	}
+
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+
+	/**
+	 * Write all records and force them to the disk
+	 */
+	public synchronized void flush() throws IOException {
+		out.flush();
+		fos.getChannel().force(false);
+		unflushed = 0;
+	}
+
+
+	/**
+	 * Rewrite the log to contain only live entries
+	 */
+	public synchronized void compact() throws IOException {
+		closeLog();
+
+		File tmp = tmpFile();
+		FileOutputStream tmpStream = new FileOutputStream(tmp);
+		try {
+			DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(tmpStream, 64 * 1024));
+			writeHeader(tmpOut);
+			out = tmpOut;
+			records = 0;
+			for (Map.Entry<String, SyncState> e : entries.entrySet()) {
+				writePut(e.getKey(), e.getValue());
+			}
+			tmpOut.flush();
+			tmpStream.getChannel().force(true);
+		} finally {
+			out = null;
+			tmpStream.close();
+		}
+
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		syncDirectory();
+		openLog();
+	}
+
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (out != null) {
+			flush();
+			closeLog();
+		}
+	}
+
+
+	private void writePut(String key, SyncState state) throws IOException {
+		ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+		DataOutputStream data = new DataOutputStream(payload);
+		data.writeByte(state.isTombstone() ? TOMBSTONE : PUT);
+		data.writeUTF(key);
+		data.writeLong(state.getSize());
+		data.writeLong(state.getPrimaryTimestamp());
+		data.writeLong(state.getSecondaryTimestamp());
+		writeOptionalUTF(data, state.getPrimaryId());
+		writeOptionalUTF(data, state.getSecondaryId());
+		if (state.isTombstone()) {
+			data.writeLong(state.getDeleted());
+		}
+		writeRecord(payload.toByteArray());
+	}
+
+
+	private void flushIfNeeded() throws IOException {
+		if (++unflushed >= FLUSH_RECORDS) {
+			out.flush();
+			unflushed = 0;
+		}
+	}
+
+
+	private void writeRecord(byte[] payload) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		out.writeInt(payload.length);
+		out.write(payload);
+		out.writeInt((int) crc.getValue());
+		records++;
+	}
+
+
+	/**
+	 * Read the log into memory. Reading stops at the first incomplete
+	 * or damaged record and the log is truncated there.
+	 */
+	private void load() throws IOException {
+		if (!file.exists() || file.length() < HEADER_SIZE) {
+			initialize();
+			return;
+		}
+
+		long valid = HEADER_SIZE;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				log.warn("unknown format of sync state " + file + ", the state is reset");
+				in.close();
+				initialize();
+				return;
+			}
+
+			while (true) {
+				int length;
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				if (length <= 0 || length > MAX_RECORD_SIZE) {
+					break;
+				}
+
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+				int checksum = in.readInt();
+
+				CRC32 crc = new CRC32();
+				crc.update(payload);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+
+				apply(payload);
+				valid += 4 + length + 4;
+				records++;
+			}
+		} catch (EOFException e) {
+			//torn record at the end of log
+		} finally {
+			in.close();
+		}
+
+		if (valid < file.length()) {
+			log.warn("sync state " + file + " is damaged, recovered " + entries.size() + " entries");
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(valid);
+				raf.getChannel().force(true);
+			} finally {
+				raf.close();
+			}
+		}
+	}
+
+
+	private void apply(byte[] payload) throws IOException {
+		DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload));
+		byte type = data.readByte();
+		String key = data.readUTF();
+		if (type == PUT || type == TOMBSTONE) {
+			long size = data.readLong();
+			long primaryTimestamp = data.readLong();
+			long secondaryTimestamp = data.readLong();
+			String primaryId = readOptionalUTF(data);
+			String secondaryId = readOptionalUTF(data);
+			long deleted = type == TOMBSTONE ? data.readLong() : 0;
+			entries.put(key, new SyncState(size, primaryTimestamp, secondaryTimestamp, primaryId, secondaryId, deleted));
+		} else if (type == REMOVE) {
+			entries.remove(key);
+		}
+	}
+
+
+	private void initialize() throws IOException {
+		FileOutputStream stream = new FileOutputStream(file);
+		try {
+			DataOutputStream header = new DataOutputStream(stream);
+			writeHeader(header);
+			header.flush();
+			stream.getChannel().force(true);
+		} finally {
+			stream.close();
+		}
+	}
+
+
+	private void openLog() throws IOException {
+		fos = new FileOutputStream(file, true);
+		out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+	}
+
+
+	private void closeLog() throws IOException {
+		if (out != null) {
+			out.close();
+			out = null;
+			fos = null;
+		}
+	}
+
+
+	private void syncDirectory() {
+		try {
+			FileChannel dir = FileChannel.open(file.getAbsoluteFile().getParentFile().toPath(), StandardOpenOption.READ);
+			try {
+				dir.force(true);
+			} finally {
+				dir.close();
+			}
+		} catch (IOException e) {
+			//not supported on every platform
+		}
+	}
+
+
+	private File tmpFile() {
+		return new File(file.getPath() + ".tmp");
+	}
+
+
+	private static void writeHeader(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+	}
+
+
+	private static void writeOptionalUTF(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+
+	private static String readOptionalUTF(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
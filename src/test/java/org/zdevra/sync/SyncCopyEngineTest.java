@@ -0,0 +1,103 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import junit.framework.Assert;
+import org.testng.annotations.Test;
+import org.zdevra.sync.filesystem.FilesystemRepository;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class SyncCopyEngineTest {
+
+	@Test
+	public void testDestinationLimit() {
+		ISyncRepository destination = new FilesystemRepository(new File("."));
+		Map<ISyncRepository, Integer> limits = new HashMap<ISyncRepository, Integer>();
+		limits.put(destination, 2);
+
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		final AtomicInteger done = new AtomicInteger();
+
+		SyncCopyEngine engine = new SyncCopyEngine(8, limits);
+		try {
+			for (int i = 0; i < 20; ++i) {
+				engine.submit(destination, new Runnable() {
+					@Override
+					public void run() {
+						int r = running.incrementAndGet();
+						synchronized (maxRunning) {
+							maxRunning.set(Math.max(maxRunning.get(), r));
+						}
+						sleep(5);
+						running.decrementAndGet();
+						done.incrementAndGet();
+					}
+				});
+			}
+			engine.await();
+		} finally {
+			engine.shutdown();
+		}
+
+		Assert.assertEquals(20, done.get());
+		Assert.assertTrue(maxRunning.get() <= 2);
+	}
+
+
+	@Test(expectedExceptions = SyncError.class)
+	public void testFailure() {
+		SyncCopyEngine engine = new SyncCopyEngine(4, Collections.<ISyncRepository, Integer>emptyMap());
+		try {
+			engine.submit(null, new Runnable() {
+				@Override
+				public void run() {
+					throw new SyncError("copy failed");
+				}
+			});
+			for (int i = 0; i < 10; ++i) {
+				engine.submit(null, new Runnable() {
+					@Override
+					public void run() {
+						sleep(5);
+					}
+				});
+			}
+			engine.await();
+		} finally {
+			engine.shutdown();
+		}
+	}
+
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
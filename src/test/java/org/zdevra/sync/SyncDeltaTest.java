@@ -0,0 +1,149 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import junit.framework.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class SyncDeltaTest {
+
+	private static final int BLOCK = 2048;
+
+	@Test
+	public void testChangedBlock() throws IOException {
+		byte[] old = random(1, 100 * BLOCK);
+		byte[] changed = old.clone();
+		changed[50 * BLOCK + 10] ^= 1;
+
+		SyncDelta.Result result = apply(changed, old);
+		Assert.assertEquals(BLOCK, result.getLiteral());
+		Assert.assertEquals(BLOCK, result.getWritten());
+	}
+
+
+	@Test
+	public void testInsertedData() throws IOException {
+		byte[] old = random(2, 100 * BLOCK);
+		byte[] inserted = new byte[old.length + 100];
+		System.arraycopy(old, 0, inserted, 0, 10 * BLOCK);
+		System.arraycopy(old, 10 * BLOCK, inserted, 10 * BLOCK + 100, old.length - 10 * BLOCK);
+
+		//shifted blocks can't be moved towards the end in place
+		SyncDelta.Result result = apply(inserted, old);
+		Assert.assertEquals(10 * BLOCK, result.getMatched());
+	}
+
+
+	@Test
+	public void testRemovedData() throws IOException {
+		byte[] old = random(3, 100 * BLOCK);
+		byte[] removed = new byte[old.length - 100];
+		System.arraycopy(old, 0, removed, 0, 10 * BLOCK);
+		System.arraycopy(old, 10 * BLOCK + 100, removed, 10 * BLOCK, removed.length - 10 * BLOCK);
+
+		SyncDelta.Result result = apply(removed, old);
+		Assert.assertTrue(result.getLiteral() < 2 * BLOCK);
+	}
+
+
+	@Test
+	public void testAppended() throws IOException {
+		byte[] old = random(4, 10 * BLOCK + 7);
+		byte[] appended = Arrays.copyOf(old, old.length + 1000);
+		System.arraycopy(random(5, 1000), 0, appended, old.length, 1000);
+
+		SyncDelta.Result result = apply(appended, old);
+		Assert.assertTrue(result.isAppended());
+		Assert.assertEquals(1000, result.getWritten());
+	}
+
+
+	@Test
+	public void testChangedAndAppended() throws IOException {
+		byte[] old = random(13, 100 * BLOCK);
+		byte[] appended = Arrays.copyOf(old, old.length + 1000);
+		appended[0] ^= 1;
+
+		SyncDelta.Result result = apply(appended, old);
+		Assert.assertFalse(result.isAppended());
+
+		//the change between sampled blocks
+		appended = Arrays.copyOf(old, old.length + 1000);
+		appended[50 * BLOCK + 10] ^= 1;
+		result = apply(appended, old);
+		Assert.assertFalse(result.isAppended());
+		Assert.assertEquals(BLOCK + 1000, result.getLiteral());
+	}
+
+
+	@Test
+	public void testUnrelatedFiles() throws IOException {
+		apply(random(6, 7 * BLOCK + 3), random(7, 3 * BLOCK));
+		apply(random(8, 3 * BLOCK), random(9, 7 * BLOCK + 3));
+		apply(new byte[0], random(10, BLOCK));
+		apply(random(11, 5 * 1024 * 1024 + 17), random(12, 5 * 1024 * 1024));
+	}
+
+
+	/**
+	 * Apply the delta of source into destination and check the
+	 * destination has the same content as source.
+	 */
+	private static SyncDelta.Result apply(byte[] source, byte[] destination) throws IOException {
+		File dir = SyncTestUtils.createDir("sync-delta");
+		File sourceFile = new File(dir, "source.dat");
+		File destinationFile = new File(dir, "destination.dat");
+		try {
+			SyncTestUtils.write(sourceFile, source);
+			SyncTestUtils.write(destinationFile, destination);
+
+			SyncDelta.Result result;
+			FileChannel in = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(destinationFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try {
+				result = new SyncDelta(BLOCK).apply(in, out);
+			} finally {
+				in.close();
+				out.close();
+			}
+
+			Assert.assertTrue(Arrays.equals(source, Files.readAllBytes(destinationFile.toPath())));
+			return result;
+		} finally {
+			SyncTestUtils.delete(dir);
+		}
+	}
+
+
+	private static byte[] random(long seed, int length) {
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+}
@@ -0,0 +1,69 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import junit.framework.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class SyncDigestCacheTest {
+
+	@Test
+	public void testIdenticalFilesAreNotCopied() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-digest");
+		File primaryDir = new File(dir, "primary");
+		File secondaryDir = new File(dir, "secondary");
+
+		for (int i = 0; i < 20; ++i) {
+			SyncTestUtils.write(new File(primaryDir, "file" + i + ".txt"), "content " + i);
+			SyncTestUtils.write(new File(secondaryDir, "file" + i + ".txt"), "content " + i);
+			new File(secondaryDir, "file" + i + ".txt").setLastModified(1000000000000L);
+		}
+
+		//one file with the same size but different content
+		SyncTestUtils.write(new File(secondaryDir, "file1.txt"), "CONTENT 1");
+		new File(secondaryDir, "file1.txt").setLastModified(1000000000000L);
+
+		final AtomicInteger copies = new AtomicInteger();
+		Sync sync = Sync.createForFilesystem(primaryDir, secondaryDir);
+		sync.setDigestCache(new SyncDigestCache());
+		sync.setDigestThreads(4);
+		sync.addEventListener(new SyncEventListener() {
+			@Override
+			public void listen(SyncEvent e) {
+				if (e instanceof SyncEvent.CopyEvent) {
+					copies.incrementAndGet();
+				}
+			}
+		});
+		sync.sync();
+
+		Assert.assertEquals(1, copies.get());
+		for (int i = 0; i < 20; ++i) {
+			File a = new File(primaryDir, "file" + i + ".txt");
+			File b = new File(secondaryDir, "file" + i + ".txt");
+			Assert.assertEquals(a.lastModified(), b.lastModified());
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import junit.framework.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class SyncEventDispatcherTest {
+
+	@Test
+	public void testConcurrentProducers() throws InterruptedException {
+		final List<SyncEvent> received = Collections.synchronizedList(new ArrayList<SyncEvent>());
+		List<SyncEventListener> listeners = new CopyOnWriteArrayList<SyncEventListener>();
+		listeners.add(new SyncEventListener() {
+			@Override
+			public void listen(SyncEvent e) {
+				received.add(e);
+			}
+		});
+
+		final SyncEventDispatcher dispatcher = new SyncEventDispatcher(listeners, 16, 1000, null);
+		Thread[] producers = new Thread[4];
+		for (int i = 0; i < producers.length; ++i) {
+			producers[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 10000; ++j) {
+						dispatcher.publishAndWait(new SyncEvent.StartEvent(j));
+					}
+				}
+			};
+			producers[i].start();
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		dispatcher.close();
+
+		Assert.assertEquals(40000, received.size());
+		Assert.assertEquals(0, dispatcher.getDropped());
+	}
+
+
+	@Test
+	public void testSlowListenerDoesntBlock() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger received = new AtomicInteger();
+		List<SyncEventListener> listeners = new CopyOnWriteArrayList<SyncEventListener>();
+		listeners.add(new SyncEventListener() {
+			@Override
+			public void listen(SyncEvent e) {
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				received.incrementAndGet();
+			}
+		});
+
+		SyncEventDispatcher dispatcher = new SyncEventDispatcher(listeners, 8, 1000, null);
+		for (int i = 0; i < 100; ++i) {
+			dispatcher.publish(new SyncEvent.StartEvent(i));
+		}
+		Assert.assertTrue(dispatcher.getDropped() >= 100 - 8 - 1);
+
+		release.countDown();
+		dispatcher.close();
+		Assert.assertEquals(100 - dispatcher.getDropped(), received.get());
+	}
+
+
+	@Test
+	public void testProgress() {
+		final AtomicInteger progress = new AtomicInteger();
+		List<SyncEventListener> listeners = new CopyOnWriteArrayList<SyncEventListener>();
+		listeners.add(new SyncEventListener() {
+			@Override
+			public void listen(SyncEvent e) {
+				if (e instanceof SyncEvent.ProgressEvent) {
+					progress.incrementAndGet();
+				}
+			}
+		});
+
+		SyncEventDispatcher dispatcher = new SyncEventDispatcher(listeners, 8, 1000, new SyncEventDispatcher.ProgressSource() {
+			@Override
+			public SyncEvent progress() {
+				return new SyncEvent.ProgressEvent(10, 10, 0, 0, 0);
+			}
+		});
+		dispatcher.close();
+
+		//the last progress is always delivered
+		Assert.assertEquals(1, progress.get());
+	}
+}
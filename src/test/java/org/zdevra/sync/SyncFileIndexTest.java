@@ -0,0 +1,122 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import junit.framework.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class SyncFileIndexTest {
+
+	@Test
+	public void testCaseInsensitive() {
+		SyncFileIndex index = new SyncFileIndex(
+				Arrays.asList(file("/folder/Foo.txt"), file("/bar.txt")),
+				SyncCaseSensitivity.INSENSITIVE);
+
+		Assert.assertNotNull(index.getAndRemove(file("/folder/foo.TXT")));
+		Assert.assertNull(index.getAndRemove(file("/folder/foo.TXT")));
+		Assert.assertEquals(1, index.remaining().size());
+		Assert.assertEquals("/bar.txt", index.remaining().iterator().next().path());
+	}
+
+
+	@Test
+	public void testCaseSensitive() {
+		SyncFileIndex index = new SyncFileIndex(
+				Arrays.asList(file("/Foo.txt"), file("/foo.txt")),
+				SyncCaseSensitivity.SENSITIVE);
+
+		Assert.assertNull(index.getAndRemove(file("/FOO.txt")));
+		Assert.assertEquals("/foo.txt", index.getAndRemove(file("/foo.txt")).path());
+		Assert.assertEquals(1, index.remaining().size());
+	}
+
+
+	@Test
+	public void testUnicodeNormalization() {
+		// 'e' with acute accent as single code point (NFC) and as 'e' + combining accent (NFD)
+		SyncFileIndex index = new SyncFileIndex(
+				Arrays.asList(file("/caf\u00e9.txt")),
+				SyncCaseSensitivity.SENSITIVE);
+
+		Assert.assertNotNull(index.getAndRemove(file("/cafe\u0301.txt")));
+	}
+
+
+	@Test
+	public void testDuplicatesRemain() {
+		SyncFileIndex index = new SyncFileIndex(
+				Arrays.asList(file("/Foo.txt"), file("/foo.txt")),
+				SyncCaseSensitivity.INSENSITIVE);
+
+		Assert.assertEquals("/Foo.txt", index.getAndRemove(file("/FOO.TXT")).path());
+		Assert.assertEquals(1, index.remaining().size());
+		Assert.assertEquals("/foo.txt", index.remaining().iterator().next().path());
+	}
+
+
+	private static ISyncFile file(final String path) {
+		return new ISyncFile() {
+			@Override
+			public String path() {
+				return path;
+			}
+
+			@Override
+			public long timestamp() throws IOException {
+				return 0;
+			}
+
+			@Override
+			public long size() throws IOException {
+				return 0;
+			}
+
+			@Override
+			public String fileKey() throws IOException {
+				return null;
+			}
+
+			@Override
+			public void touch(long timestamp) throws IOException {
+			}
+
+			@Override
+			public void copyTo(OutputStream os) throws IOException {
+			}
+
+			@Override
+			public byte[] digest() throws IOException {
+				return new byte[0];
+			}
+
+			@Override
+			public SeekableByteChannel openChannel() throws IOException {
+				throw new IOException("not supported");
+			}
+		};
+	}
+}
@@ -0,0 +1,88 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import junit.framework.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class SyncFileTableTest {
+
+	@Test
+	public void testPaths() {
+		SyncFileTable table = table(false);
+		int docs = table.addDirectory(SyncFileTable.ROOT, "docs");
+		int drafts = table.addDirectory(docs, "drafts");
+		table.addFile(SyncFileTable.ROOT, "readme.txt", 10, 1000, null);
+		table.addFile(drafts, "caf\u00e9.txt", 20, 2000, "(dev=1,ino=2)");
+
+		Assert.assertEquals(2, table.size());
+		Assert.assertEquals("/readme.txt", table.path(0));
+		Assert.assertEquals("/docs/drafts/caf\u00e9.txt", table.path(1));
+		Assert.assertEquals(20, table.fileSize(1));
+		Assert.assertEquals(2000, table.timestamp(1));
+		Assert.assertNull(table.fileKey(0));
+		Assert.assertEquals("(dev=1,ino=2)", table.fileKey(1));
+
+		table.setTimestamp(1, 3000);
+		Assert.assertEquals(3000, table.timestamp(1));
+	}
+
+
+	@Test
+	public void testGrowth() {
+		SyncFileTable heap = table(false);
+		SyncFileTable direct = table(true);
+		for (SyncFileTable table : new SyncFileTable[] {heap, direct}) {
+			int dir = SyncFileTable.ROOT;
+			for (int i = 0; i < 10000; ++i) {
+				if (i % 100 == 0) {
+					dir = table.addDirectory(SyncFileTable.ROOT, "dir" + i);
+				}
+				table.addFile(dir, "file-with-a-longer-name-" + i + ".dat", i, i * 1000L, null);
+			}
+		}
+
+		Assert.assertEquals(10000, heap.size());
+		Assert.assertEquals("/dir9900/file-with-a-longer-name-9999.dat", heap.path(9999));
+		for (int i = 0; i < 10000; i += 37) {
+			Assert.assertEquals(heap.path(i), direct.path(i));
+			Assert.assertEquals(i, direct.fileSize(i));
+		}
+		Assert.assertTrue(direct.isOffHeap());
+		Assert.assertTrue(heap.getMemoryUsage() < 10000 * 100);
+	}
+
+
+	@Test(expectedExceptions = IndexOutOfBoundsException.class)
+	public void testOutOfBounds() {
+		table(false).path(0);
+	}
+
+
+	private static SyncFileTable table(boolean offHeap) {
+		return new SyncFileTable('/', offHeap) {
+			@Override
+			protected ISyncFile view(int index) {
+				return null;
+			}
+		};
+	}
+}
@@ -0,0 +1,86 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import junit.framework.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class SyncMetricsTest {
+
+	@Test
+	public void testCopiedAndSkipped() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-metrics");
+		File primaryDir = new File(dir, "primary");
+		File secondaryDir = new File(dir, "secondary");
+
+		for (int i = 0; i < 10; ++i) {
+			SyncTestUtils.write(new File(primaryDir, "file" + i + ".txt"), "content " + i);
+		}
+		for (int i = 0; i < 4; ++i) {
+			SyncTestUtils.write(new File(secondaryDir, "file" + i + ".txt"), "content " + i);
+			new File(secondaryDir, "file" + i + ".txt").setLastModified(new File(primaryDir, "file" + i + ".txt").lastModified());
+		}
+
+		final List<SyncPhase> phases = new ArrayList<SyncPhase>();
+		Sync sync = Sync.createForFilesystem(primaryDir, secondaryDir);
+		sync.setCopyThreads(2);
+		sync.addEventListener(new SyncEventListener() {
+			@Override
+			public void listen(SyncEvent e) {
+				if (e instanceof SyncEvent.PhaseEndEvent) {
+					phases.add(((SyncEvent.PhaseEndEvent) e).getPhase());
+				}
+			}
+		});
+		sync.sync();
+
+		SyncMetrics.Snapshot snapshot = sync.getMetrics().snapshot();
+		Assert.assertTrue(snapshot.isFinished());
+		Assert.assertEquals(10, snapshot.getProcessedFiles());
+		Assert.assertEquals(4, snapshot.getSkippedFiles());
+		Assert.assertEquals(6, snapshot.getCopiedFiles());
+		Assert.assertEquals(6 * "content 0".length(), snapshot.getCopiedBytes());
+		Assert.assertTrue(snapshot.getCopyLatencyPercentile(0.99) > 0);
+
+		long histogram = 0;
+		for (long count : snapshot.getCopyLatencyHistogram()) {
+			histogram += count;
+		}
+		Assert.assertEquals(6, histogram);
+		Assert.assertEquals(3, phases.size());
+		Assert.assertEquals(SyncPhase.COPY, phases.get(2));
+	}
+
+
+	@Test
+	public void testBucket() {
+		Assert.assertEquals(0, SyncMetrics.bucket(0));
+		Assert.assertEquals(1, SyncMetrics.bucket(1));
+		Assert.assertEquals(2, SyncMetrics.bucket(3));
+		Assert.assertEquals(11, SyncMetrics.bucket(1024));
+		Assert.assertEquals(SyncMetrics.BUCKETS - 1, SyncMetrics.bucket(Long.MAX_VALUE));
+	}
+}
@@ -0,0 +1,171 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import junit.framework.Assert;
+import org.testng.annotations.Test;
+import org.zdevra.sync.filesystem.FilesystemRepository;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class SyncPlanTest {
+
+	@Test
+	public void testPlanIsDryRun() throws IOException {
+		File dir = createDirs();
+		File primaryDir = new File(dir, "primary");
+		File secondaryDir = new File(dir, "secondary");
+
+		SyncPlan plan = Sync.createForFilesystem(primaryDir, secondaryDir).plan();
+
+		Assert.assertEquals(3, plan.getFileCount());
+		Assert.assertEquals(2, plan.getActions().size());
+		Assert.assertEquals(1, plan.getTransfers(SyncDirection.TO_SECONDARY));
+		Assert.assertEquals(1, plan.getTransfers(SyncDirection.TO_PRIMARY));
+		Assert.assertEquals("primary".length(), plan.getBytes(SyncDirection.TO_SECONDARY));
+		Assert.assertEquals("secondary".length(), plan.getSpaceNeeded(SyncDirection.TO_PRIMARY));
+
+		//nothing was written
+		Assert.assertFalse(new File(secondaryDir, "a.txt").exists());
+		Assert.assertFalse(new File(primaryDir, "b.txt").exists());
+	}
+
+
+	@Test
+	public void testExecuteDeserializedPlan() throws IOException, ClassNotFoundException {
+		File dir = createDirs();
+		File primaryDir = new File(dir, "primary");
+		File secondaryDir = new File(dir, "secondary");
+
+		SyncPlan plan = Sync.createForFilesystem(primaryDir, secondaryDir).plan();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(plan);
+		out.close();
+		SyncPlan restored = (SyncPlan) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		Assert.assertEquals(plan.getBytes(), restored.getBytes());
+
+		Sync sync = Sync.createForFilesystem(primaryDir, secondaryDir);
+		sync.execute(restored);
+
+		Assert.assertTrue(new File(secondaryDir, "a.txt").exists());
+		Assert.assertTrue(new File(primaryDir, "b.txt").exists());
+		Assert.assertEquals(2, sync.getMetrics().snapshot().getCopiedFiles());
+		Assert.assertTrue(Sync.createForFilesystem(primaryDir, secondaryDir).plan().isEmpty());
+	}
+
+
+	@Test
+	public void testSpaceOfReplacedFile() throws IOException {
+		File dir = createDirs();
+		File primaryDir = new File(dir, "primary");
+		File secondaryDir = new File(dir, "secondary");
+		SyncTestUtils.write(new File(primaryDir, "c.txt"), "same, but longer");
+		new File(primaryDir, "c.txt").setLastModified(System.currentTimeMillis() + 10000);
+
+		SyncPlan plan = Sync.createForFilesystem(primaryDir, secondaryDir).plan();
+
+		//new 'a.txt', growth of 'c.txt' and the old 'c.txt' kept till the rename
+		Assert.assertEquals("primary".length() + "same, but longer".length(), plan.getBytes(SyncDirection.TO_SECONDARY));
+		Assert.assertEquals("primary".length() + "same, but longer".length(), plan.getSpaceNeeded(SyncDirection.TO_SECONDARY));
+
+		//shrinking file needs only the space of its part file
+		SyncTestUtils.write(new File(primaryDir, "c.txt"), "sam");
+		new File(primaryDir, "c.txt").setLastModified(System.currentTimeMillis() + 20000);
+		plan = Sync.createForFilesystem(primaryDir, secondaryDir).plan();
+		Assert.assertEquals("primary".length() + "sam".length(), plan.getSpaceNeeded(SyncDirection.TO_SECONDARY));
+	}
+
+
+	@Test
+	public void testSpaceOfConcurrentCopies() throws IOException {
+		File dir = createDirs();
+		File primaryDir = new File(dir, "primary");
+		File secondaryDir = new File(dir, "secondary");
+		SyncTestUtils.write(new File(primaryDir, "c.txt"), "same, but longer");
+		SyncTestUtils.write(new File(secondaryDir, "d.txt"), "old d");
+		SyncTestUtils.write(new File(primaryDir, "d.txt"), "new d, longer");
+		new File(primaryDir, "c.txt").setLastModified(System.currentTimeMillis() + 10000);
+		new File(primaryDir, "d.txt").setLastModified(System.currentTimeMillis() + 10000);
+		long growth = "primary".length() + "same, but longer".length() - "same".length() + "new d, longer".length() - "old d".length();
+
+		//one copy at a time keeps aside only the largest replaced file
+		Assert.assertEquals(growth + "old d".length(), Sync.createForFilesystem(primaryDir, secondaryDir).plan().getSpaceNeeded(SyncDirection.TO_SECONDARY));
+
+		//concurrent copies may keep both replaced files
+		FilesystemRepository secondaryRepo = new FilesystemRepository(secondaryDir);
+		Sync sync = new Sync(new FilesystemRepository(primaryDir), secondaryRepo);
+		sync.setCopyThreads(2);
+		Assert.assertEquals(growth + "old d".length() + "same".length(), sync.plan().getSpaceNeeded(SyncDirection.TO_SECONDARY));
+
+		//the copy limit of the destination lowers the concurrency
+		sync.setCopyLimit(secondaryRepo, 1);
+		Assert.assertEquals(growth + "old d".length(), sync.plan().getSpaceNeeded(SyncDirection.TO_SECONDARY));
+	}
+
+
+	@Test
+	public void testNotEnoughSpace() throws IOException {
+		File dir = createDirs();
+		File primaryDir = new File(dir, "primary");
+		File secondaryDir = new File(dir, "secondary");
+
+		Sync sync = new Sync(new FilesystemRepository(primaryDir), new FilesystemRepository(secondaryDir) {
+			@Override
+			public long getUsableSpace() {
+				return 1;
+			}
+		});
+
+		try {
+			sync.sync();
+			Assert.fail("sync must be rejected");
+		} catch (SyncError e) {
+			//expected
+		}
+		Assert.assertFalse(new File(secondaryDir, "a.txt").exists());
+		Assert.assertFalse(new File(primaryDir, "b.txt").exists());
+	}
+
+
+	/**
+	 * Creates file 'a.txt' only in primary, 'b.txt' only in secondary
+	 * and 'c.txt' in sync in both.
+	 */
+	private static File createDirs() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-plan");
+		File primaryDir = new File(dir, "primary");
+		File secondaryDir = new File(dir, "secondary");
+
+		SyncTestUtils.write(new File(primaryDir, "a.txt"), "primary");
+		SyncTestUtils.write(new File(secondaryDir, "b.txt"), "secondary");
+		SyncTestUtils.write(new File(primaryDir, "c.txt"), "same");
+		SyncTestUtils.write(new File(secondaryDir, "c.txt"), "same");
+		new File(secondaryDir, "c.txt").setLastModified(new File(primaryDir, "c.txt").lastModified());
+		return dir;
+	}
+}
@@ -0,0 +1,90 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import junit.framework.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class SyncRateLimiterTest {
+
+	@Test
+	public void testBytesRate() {
+		SyncRateLimiter limiter = new SyncRateLimiter(1024 * 1024, 0);
+
+		long start = System.nanoTime();
+		limiter.acquireBytes(1024 * 1024);
+		Assert.assertTrue(elapsedMillis(start) < 200);
+
+		// next half of megabyte is over the burst, it waits for ~0.5s
+		limiter.acquireBytes(512 * 1024);
+		Assert.assertTrue(elapsedMillis(start) >= 400);
+	}
+
+
+	@Test
+	public void testOpsRate() {
+		SyncRateLimiter limiter = new SyncRateLimiter(0, 100);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < 150; ++i) {
+			limiter.acquireOperation();
+		}
+		Assert.assertTrue(elapsedMillis(start) >= 400);
+	}
+
+
+	@Test
+	public void testUnlimited() {
+		SyncRateLimiter limiter = new SyncRateLimiter(0, 0);
+
+		long start = System.nanoTime();
+		limiter.acquireBytes(Long.MAX_VALUE / 2);
+		limiter.acquireOperation();
+		Assert.assertTrue(elapsedMillis(start) < 200);
+		Assert.assertEquals(-1.0, limiter.getBytesRate());
+	}
+
+
+	@Test
+	public void testAdaptive() throws InterruptedException {
+		SyncRateLimiter limiter = new SyncRateLimiter(100 * 1024 * 1024, 0);
+		limiter.setAdaptive(true);
+
+		// usual latency 1ms per MB, then the destination slows down 10x
+		limiter.written(1024 * 1024, TimeUnit.MILLISECONDS.toNanos(1));
+		Thread.sleep(300);
+		limiter.written(1024 * 1024, TimeUnit.MILLISECONDS.toNanos(10));
+		double lowered = limiter.getBytesRate();
+		Assert.assertTrue(lowered < 100 * 1024 * 1024);
+
+		// latency is back to usual
+		Thread.sleep(300);
+		limiter.written(1024 * 1024, TimeUnit.MILLISECONDS.toNanos(1));
+		Assert.assertTrue(limiter.getBytesRate() > lowered);
+	}
+
+
+	private static long elapsedMillis(long start) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+}
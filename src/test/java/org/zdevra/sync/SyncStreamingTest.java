@@ -0,0 +1,137 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import junit.framework.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.zdevra.sync.filesystem.FilesystemRepository;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class SyncStreamingTest {
+
+	private File primaryDir;
+	private File secondaryDir;
+
+
+	@BeforeMethod
+	public void init() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-streaming");
+		primaryDir = new File(dir, "primary");
+		secondaryDir = new File(dir, "secondary");
+		primaryDir.mkdirs();
+		secondaryDir.mkdirs();
+	}
+
+
+	@Test
+	public void testSortedIterator() throws IOException {
+		SyncTestUtils.write(new File(primaryDir, "a.txt"), "1");
+		SyncTestUtils.write(new File(primaryDir, "a/b.txt"), "2");
+		SyncTestUtils.write(new File(primaryDir, "B.txt"), "3");
+
+		SyncPathComparator order = new SyncPathComparator(SyncCaseSensitivity.INSENSITIVE);
+		ISyncFileIterator it = new FilesystemRepository(primaryDir).iterate(order);
+		List<String> paths = new ArrayList<String>();
+		try {
+			while (it.hasNext()) {
+				paths.add(it.next().path().replace(File.separatorChar, '/'));
+			}
+		} finally {
+			it.close();
+		}
+
+		Assert.assertEquals("[/a/b.txt, /a.txt, /B.txt]", paths.toString());
+	}
+
+
+	@Test
+	public void testStreamingSync() throws IOException {
+		SyncTestUtils.write(new File(primaryDir, "a/only-primary.txt"), "primary");
+		SyncTestUtils.write(new File(primaryDir, "both.txt"), "primary");
+		SyncTestUtils.write(new File(secondaryDir, "a/z/only-secondary.txt"), "secondary");
+		SyncTestUtils.write(new File(secondaryDir, "both.txt"), "secondary version");
+		new File(secondaryDir, "both.txt").setLastModified(new File(primaryDir, "both.txt").lastModified() + 10000);
+
+		Sync sync = Sync.createForFilesystem(primaryDir, secondaryDir);
+		sync.setStreaming(true);
+		sync.sync();
+
+		Assert.assertTrue(new File(secondaryDir, "a/only-primary.txt").exists());
+		Assert.assertTrue(new File(primaryDir, "a/z/only-secondary.txt").exists());
+		Assert.assertEquals(new File(secondaryDir, "both.txt").length(), new File(primaryDir, "both.txt").length());
+	}
+
+
+	@Test
+	public void testCopyDuringMerge() throws IOException {
+		SyncTestUtils.write(new File(primaryDir, "a.txt"), "a");
+		SyncTestUtils.write(new File(primaryDir, "b.txt"), "b");
+		SyncTestUtils.write(new File(secondaryDir, "c.txt"), "c");
+
+		final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+		Sync sync = Sync.createForFilesystem(primaryDir, secondaryDir);
+		sync.setStreaming(true);
+		sync.addEventListener(new SyncEventListener() {
+			@Override
+			public void listen(SyncEvent e) {
+				if (e instanceof SyncEvent.CopyEvent) {
+					events.add("copy " + ((SyncEvent.CopyEvent) e).getSyncFile().path().substring(1));
+				} else if (e instanceof SyncEvent.PhaseEndEvent) {
+					events.add("end " + ((SyncEvent.PhaseEndEvent) e).getPhase());
+				}
+			}
+		});
+		sync.sync();
+
+		Assert.assertEquals("[copy a.txt, copy b.txt, copy c.txt, end match, end copy]", events.toString());
+		Assert.assertTrue(new File(primaryDir, "c.txt").exists());
+	}
+
+
+	@Test
+	public void testNotEnoughSpace() throws IOException {
+		SyncTestUtils.write(new File(primaryDir, "a.txt"), "first");
+		SyncTestUtils.write(new File(primaryDir, "b.txt"), "second");
+
+		Sync sync = new Sync(new FilesystemRepository(primaryDir), new FilesystemRepository(secondaryDir) {
+			@Override
+			public long getUsableSpace() {
+				return 8;
+			}
+		});
+		sync.setStreaming(true);
+
+		try {
+			sync.sync();
+			Assert.fail("sync must be rejected");
+		} catch (SyncError e) {
+			//expected
+		}
+		Assert.assertTrue(new File(secondaryDir, "a.txt").exists());
+		Assert.assertFalse(new File(secondaryDir, "b.txt").exists());
+	}
+}
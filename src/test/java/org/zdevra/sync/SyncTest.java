@@ -21,6 +21,8 @@ import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Optional;
 import org.testng.annotations.Parameters;
 import org.testng.annotations.Test;
+import org.zdevra.sync.filesystem.FilesystemRepository;
+import org.zdevra.sync.state.SyncStateStore;
 
 import java.io.*;
 
@@ -108,4 +110,111 @@ public class SyncTest {
 		Assert.assertEquals(originalLen, primaryLen);
 	}
 
-}
\ No newline at end of file
+
+	@Test
+	public void testSyncPropagatesDeletion() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-delete");
+		File primaryDir = new File(dir, "primary");
+		File secondaryDir = new File(dir, "secondary");
+		File trashDir = new File(dir, "trash");
+		SyncTestUtils.write(new File(primaryDir, "folder/deleted.txt"), "deleted");
+		SyncTestUtils.write(new File(primaryDir, "kept.txt"), "kept");
+		SyncTestUtils.write(new File(secondaryDir, "modified.txt"), "version 1");
+
+		SyncStateStore store = new SyncStateStore(new File(dir, "sync.state"));
+		try {
+			sync(primaryDir, secondaryDir, trashDir, store);
+			Assert.assertTrue(new File(secondaryDir, "folder/deleted.txt").exists());
+			Assert.assertTrue(new File(primaryDir, "modified.txt").exists());
+
+			//delete one file on each side, but modify the other copy of the second one
+			File stale = new File(dir, "stale.txt");
+			Assert.assertTrue(new File(secondaryDir, "folder/deleted.txt").renameTo(stale));
+			Assert.assertTrue(new File(primaryDir, "modified.txt").delete());
+			SyncTestUtils.write(new File(secondaryDir, "modified.txt"), "version 2");
+			new File(secondaryDir, "modified.txt").setLastModified(System.currentTimeMillis() + 10000);
+
+			Sync sync = sync(primaryDir, secondaryDir, trashDir, store);
+			Assert.assertFalse(new File(primaryDir, "folder/deleted.txt").exists());
+			Assert.assertFalse(new File(primaryDir, "folder").exists());
+			Assert.assertTrue(new File(trashDir, "primary/folder/deleted.txt").exists());
+			Assert.assertEquals(1, sync.getMetrics().snapshot().getDeletedFiles());
+			Assert.assertEquals(9, new File(primaryDir, "modified.txt").length());
+			Assert.assertTrue(new File(primaryDir, "kept.txt").exists());
+			Assert.assertTrue(store.get("/folder/deleted.txt").isTombstone());
+
+			//the stale copy is deleted again by the tombstone
+			File restored = new File(secondaryDir, "folder/deleted.txt");
+			restored.getParentFile().mkdirs();
+			Assert.assertTrue(stale.renameTo(restored));
+			sync(primaryDir, secondaryDir, trashDir, store);
+			Assert.assertFalse(restored.exists());
+			Assert.assertFalse(new File(primaryDir, "folder/deleted.txt").exists());
+			Assert.assertTrue(new File(trashDir, "secondary/folder/deleted.txt").exists());
+		} finally {
+			store.close();
+		}
+	}
+
+
+	@Test
+	public void testDeletionIsNotPropagatedByDefault() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-delete");
+		File primaryDir = new File(dir, "primary");
+		File secondaryDir = new File(dir, "secondary");
+		SyncTestUtils.write(new File(primaryDir, "a.txt"), "a");
+		SyncTestUtils.write(new File(primaryDir, "b.txt"), "b");
+
+		SyncStateStore store = new SyncStateStore(new File(dir, "sync.state"));
+		try {
+			Sync sync = Sync.createForFilesystem(primaryDir, secondaryDir);
+			sync.setStateStore(store);
+			sync.sync();
+
+			Assert.assertTrue(new File(secondaryDir, "a.txt").delete());
+			sync = Sync.createForFilesystem(primaryDir, secondaryDir);
+			sync.setStateStore(store);
+			sync.sync();
+			Assert.assertTrue(new File(primaryDir, "a.txt").exists());
+			Assert.assertTrue(new File(secondaryDir, "a.txt").exists());
+		} finally {
+			store.close();
+		}
+	}
+
+
+	@Test
+	public void testSyncKeepsFilesOfEmptyRepository() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-empty");
+		File primaryDir = new File(dir, "primary");
+		File secondaryDir = new File(dir, "secondary");
+		SyncTestUtils.write(new File(primaryDir, "a.txt"), "a");
+
+		SyncStateStore store = new SyncStateStore(new File(dir, "sync.state"));
+		try {
+			sync(primaryDir, secondaryDir, null, store);
+
+			//unmounted secondary looks like the empty directory
+			Assert.assertTrue(new File(secondaryDir, "a.txt").delete());
+			sync(primaryDir, secondaryDir, null, store);
+			Assert.assertTrue(new File(primaryDir, "a.txt").exists());
+		} finally {
+			store.close();
+		}
+	}
+
+
+	private static Sync sync(File primaryDir, File secondaryDir, File trashDir, SyncStateStore store) {
+		FilesystemRepository primary = new FilesystemRepository(primaryDir);
+		FilesystemRepository secondary = new FilesystemRepository(secondaryDir);
+		if (trashDir != null) {
+			primary.setTrashDir(new File(trashDir, "primary"));
+			secondary.setTrashDir(new File(trashDir, "secondary"));
+		}
+		Sync sync = new Sync(primary, secondary);
+		sync.setStateStore(store);
+		sync.setDeletePropagation(true);
+		sync.sync();
+		return sync;
+	}
+}
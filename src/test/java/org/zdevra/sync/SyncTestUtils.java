@@ -0,0 +1,89 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Helpers shared by tests. Directories of tests are created in
+ * './target/test-dirs' like the directories of {@link SyncTest}, so
+ * they're removed by the clean build.
+ *
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+public final class SyncTestUtils {
+
+	private static final File TEST_DIRS = new File("./target/test-dirs");
+	private static final AtomicInteger counter = new AtomicInteger();
+
+
+	private SyncTestUtils() {
+	}
+
+
+	/**
+	 * Create the empty directory with unique name, the content left
+	 * there by the previous run is deleted
+	 */
+	public static File createDir(String name) {
+		File dir = new File(TEST_DIRS, name + "-" + counter.incrementAndGet());
+		delete(dir);
+		dir.mkdirs();
+		return dir;
+	}
+
+
+	/**
+	 * Write the content into the file, missing parent directories are created
+	 */
+	public static void write(File file, String content) throws IOException {
+		write(file, content.getBytes("UTF-8"));
+	}
+
+
+	/**
+	 * Write the data into the file, missing parent directories are created
+	 */
+	public static void write(File file, byte[] data) throws IOException {
+		file.getParentFile().mkdirs();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+
+	/**
+	 * Delete the file or the directory with its content, symbolic
+	 * links are deleted without their targets
+	 */
+	public static void delete(File file) {
+		File[] children = Files.isSymbolicLink(file.toPath()) ? null : file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,67 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.app;
+
+import junit.framework.Assert;
+import org.testng.annotations.Test;
+import org.zdevra.sync.SyncTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class SyncDaemonTest {
+
+	@Test
+	public void testOneShot() throws IOException {
+		File primary = SyncTestUtils.createDir("sync-daemon");
+		File secondary = SyncTestUtils.createDir("sync-daemon");
+		SyncTestUtils.write(new File(primary, "file.txt"), "content");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int status = new SyncDaemon(new PrintStream(out, true, "UTF-8")).run(new String[] {
+				"--config", new File(primary, "missing.properties").getPath(),
+				"primary.dir=" + primary.getAbsolutePath(),
+				"secondary.dir=" + secondary.getAbsolutePath(),
+				"state.enabled=false"});
+
+		Assert.assertEquals(SyncDaemon.EXIT_OK, status);
+		Assert.assertTrue(new File(secondary, "file.txt").exists());
+
+		String[] lines = out.toString("UTF-8").trim().split("\n");
+		Assert.assertEquals(2, lines.length);
+		Assert.assertTrue(lines[0], lines[0].startsWith("{\"pair\":\"default\",\"status\":\"done\""));
+		Assert.assertTrue(lines[0], lines[0].contains("\"copied\":1"));
+		Assert.assertEquals("{\"pairs\":1,\"failed\":0}", lines[1]);
+	}
+
+
+	@Test
+	public void testWrongUsage() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SyncDaemon daemon = new SyncDaemon(new PrintStream(out));
+
+		Assert.assertEquals(SyncDaemon.EXIT_USAGE, daemon.run(new String[] {"--unknown"}));
+		Assert.assertEquals(SyncDaemon.EXIT_USAGE, daemon.run(new String[] {"primary.dir=/nonexisting/dir"}));
+		Assert.assertEquals(0, out.size());
+	}
+}
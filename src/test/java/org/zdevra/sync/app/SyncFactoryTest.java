@@ -0,0 +1,46 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.app;
+
+import junit.framework.Assert;
+import org.testng.annotations.Test;
+import org.zdevra.sync.Sync;
+import org.zdevra.sync.SyncTestUtils;
+
+import java.io.File;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class SyncFactoryTest {
+
+	@Test
+	public void testRateLimiterSharedByDevice() {
+		File dir = SyncTestUtils.createDir("sync-factory");
+		SyncPreferences preferences = new SyncPreferences();
+		preferences.setSecondaryRateBytes(1024 * 1024);
+		SyncFactory factory = new SyncFactory(preferences);
+
+		Sync first = factory.createSync(new File(dir, "primary1"), new File(dir, "secondary1"));
+		Sync second = factory.createSync(new File(dir, "primary2"), new File(dir, "secondary2"));
+
+		Assert.assertNull(first.getRateLimiter(first.getPrimaryRepository()));
+		Assert.assertNotNull(first.getRateLimiter(first.getSecondaryRepository()));
+		Assert.assertSame(first.getRateLimiter(first.getSecondaryRepository()), second.getRateLimiter(second.getSecondaryRepository()));
+	}
+}
@@ -0,0 +1,229 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.archive;
+
+import junit.framework.Assert;
+import org.testng.annotations.Test;
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.Sync;
+import org.zdevra.sync.SyncMode;
+import org.zdevra.sync.SyncTestUtils;
+import org.zdevra.sync.filesystem.FilesystemRepository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class ArchiveRepositoryTest {
+
+	@Test
+	public void testSyncIntoArchive() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-archive");
+		File primaryDir = new File(dir, "primary");
+		new File(primaryDir, "folder").mkdirs();
+		byte[] large = random(300000);
+		SyncTestUtils.write(new File(primaryDir, "large.dat"), large);
+		SyncTestUtils.write(new File(primaryDir, "folder/small.txt"), "small".getBytes("UTF-8"));
+		new File(primaryDir, "large.dat").setLastModified(1234567000L);
+
+		File archive = new File(dir, "backup.tar.gz");
+		Sync sync = new Sync(new FilesystemRepository(primaryDir), archive(archive));
+		sync.setSyncMode(SyncMode.ONE_DIRECTIONAL);
+		sync.sync();
+
+		//reopened archive reads the files by index
+		ArchiveRepository repo = new ArchiveRepository(archive);
+		Assert.assertEquals(2, repo.scan().size());
+		ISyncFile file = repo.getFile(File.separator + "large.dat");
+		Assert.assertEquals(large.length, file.size());
+		Assert.assertEquals(1234567000L, file.timestamp());
+		Assert.assertTrue(Arrays.equals(large, content(file)));
+		Assert.assertEquals("small", new String(content(repo.getFile("/folder/small.txt")), "UTF-8"));
+
+		//read from the middle decompresses from the block of the position
+		SeekableByteChannel channel = file.openChannel();
+		try {
+			channel.position(200000);
+			ByteBuffer buf = ByteBuffer.allocate(100);
+			Assert.assertEquals(100, channel.read(buf));
+			Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(large, 200000, 200100), buf.array()));
+		} finally {
+			channel.close();
+		}
+
+		//nothing is copied by second sync
+		sync = new Sync(new FilesystemRepository(primaryDir), repo);
+		sync.setSyncMode(SyncMode.ONE_DIRECTIONAL);
+		sync.sync();
+		Assert.assertEquals(0, sync.getMetrics().snapshot().getCopiedFiles());
+	}
+
+
+	@Test
+	public void testArchiveIsTarGz() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-archive");
+		File archive = new File(dir, "backup.tar.gz");
+		ArchiveRepository repo = archive(archive);
+		write(repo, "/a.txt", "first".getBytes("UTF-8"));
+		write(repo, "/b.txt", random(10000));
+		repo.close();
+
+		//the blocks are gzip members read as one stream
+		byte[] tar = gunzip(archive);
+		Assert.assertEquals(0, tar.length % ArchiveTar.RECORD);
+		Assert.assertEquals("a.txt", name(tar, 0));
+		Assert.assertEquals("first", new String(tar, ArchiveTar.RECORD, 5, "UTF-8"));
+		Assert.assertEquals("b.txt", name(tar, 2 * ArchiveTar.RECORD));
+		for (int i = tar.length - ArchiveTar.TRAILER.length; i < tar.length; i++) {
+			Assert.assertEquals(0, tar[i]);
+		}
+	}
+
+
+	@Test
+	public void testAppendAfterReopen() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-archive");
+		File archive = new File(dir, "backup.tar.gz");
+		ArchiveRepository repo = archive(archive);
+		write(repo, "/a.txt", "first".getBytes("UTF-8"));
+		repo.close();
+
+		StringBuilder longName = new StringBuilder("/dir");
+		while (longName.length() < 300) {
+			longName.append("/subdirectory");
+		}
+		longName.append("/file.txt");
+
+		repo = archive(archive);
+		write(repo, "/a.txt", "second".getBytes("UTF-8"));
+		write(repo, longName.toString(), "long".getBytes("UTF-8"));
+
+		//the written files are readable before flush
+		Assert.assertEquals("long", new String(content(repo.getFile(longName.toString())), "UTF-8"));
+		repo.close();
+
+		repo = new ArchiveRepository(archive);
+		Assert.assertEquals(2, repo.scan().size());
+		Assert.assertEquals("second", new String(content(repo.getFile("/a.txt")), "UTF-8"));
+		Assert.assertEquals("long", new String(content(repo.getFile(longName.toString())), "UTF-8"));
+		Assert.assertEquals(longName.substring(1), name(gunzip(archive), 4 * ArchiveTar.RECORD));
+	}
+
+
+	@Test
+	public void testUnflushedWriteIsDropped() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-archive");
+		File archive = new File(dir, "backup.tar.gz");
+		ArchiveRepository repo = archive(archive);
+		write(repo, "/a.txt", "first".getBytes("UTF-8"));
+		repo.close();
+		long length = archive.length();
+
+		//crash before flush, the index still points to the old trailer
+		repo = archive(archive);
+		write(repo, "/b.txt", random(100000));
+		repo.ensureReadable(Long.MAX_VALUE);
+
+		repo = archive(archive);
+		Assert.assertEquals(1, repo.scan().size());
+		write(repo, "/c.txt", "third".getBytes("UTF-8"));
+		repo.close();
+
+		Assert.assertTrue(archive.length() > length);
+		Assert.assertEquals(2, new ArchiveRepository(archive).scan().size());
+		Assert.assertNull(new ArchiveRepository(archive).getFile("/b.txt"));
+		Assert.assertEquals("third", new String(content(new ArchiveRepository(archive).getFile("/c.txt")), "UTF-8"));
+	}
+
+
+	private static ArchiveRepository archive(File archive) {
+		ArchiveRepository repo = new ArchiveRepository(archive, 2);
+		repo.setBlockSize(16 * 1024);
+		return repo;
+	}
+
+
+	/**
+	 * Returns the name in the tar header at given position
+	 */
+	private static String name(byte[] tar, int offset) throws IOException {
+		int end = offset;
+		while (end < offset + 100 && tar[end] != 0) {
+			end++;
+		}
+		if ("././@LongLink".equals(new String(tar, offset, end - offset, "UTF-8"))) {
+			end = offset + ArchiveTar.RECORD;
+			while (tar[end] != 0) {
+				end++;
+			}
+			return new String(tar, offset + ArchiveTar.RECORD, end - offset - ArchiveTar.RECORD, "UTF-8");
+		}
+		return new String(tar, offset, end - offset, "UTF-8");
+	}
+
+
+	private static byte[] gunzip(File archive) throws IOException {
+		InputStream in = new GZIPInputStream(new FileInputStream(archive));
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				out.write(buf, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+
+	private static byte[] content(ISyncFile file) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		file.copyTo(out);
+		return out.toByteArray();
+	}
+
+
+	private static void write(ArchiveRepository repo, String path, byte[] data) throws IOException {
+		OutputStream out = repo.openStream(path);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+
+	private static byte[] random(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+}
@@ -0,0 +1,207 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.chunk;
+
+import junit.framework.Assert;
+import org.testng.annotations.Test;
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.ISyncTransfer;
+import org.zdevra.sync.Sync;
+import org.zdevra.sync.SyncMode;
+import org.zdevra.sync.SyncTestUtils;
+import org.zdevra.sync.filesystem.FilesystemRepository;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class ChunkRepositoryTest {
+
+	@Test
+	public void testInsertionIsDeduplicated() throws IOException {
+		ChunkRepository repo = new ChunkRepository(SyncTestUtils.createDir("sync-chunk"));
+		byte[] original = random(2000000, 1);
+		write(repo, "/a.dat", original);
+		Assert.assertEquals(original.length, repo.getWrittenBytes());
+
+		//100 bytes inserted in the middle change only the chunks around them
+		byte[] modified = new byte[original.length + 100];
+		System.arraycopy(original, 0, modified, 0, 1000000);
+		System.arraycopy(random(100, 2), 0, modified, 1000000, 100);
+		System.arraycopy(original, 1000000, modified, 1000100, 1000000);
+		write(repo, "/b.dat", modified);
+
+		Assert.assertTrue(repo.getDeduplicatedBytes() > modified.length - 2 * ChunkSplitter.MAX_SIZE);
+		Assert.assertTrue(Arrays.equals(modified, content(repo.getFile("/b.dat"))));
+		Assert.assertTrue(Arrays.equals(original, content(repo.getFile("/a.dat"))));
+	}
+
+
+	@Test
+	public void testSync() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-chunk");
+		File primaryDir = new File(dir, "primary");
+		primaryDir.mkdirs();
+		byte[] image = random(1500000, 3);
+		SyncTestUtils.write(new File(primaryDir, "image.vm"), image);
+		SyncTestUtils.write(new File(primaryDir, "copy of image.vm"), image);
+		SyncTestUtils.write(new File(primaryDir, "small.txt"), "small".getBytes("UTF-8"));
+
+		ChunkRepository repo = new ChunkRepository(new File(dir, "store"));
+		Sync sync = new Sync(new FilesystemRepository(primaryDir), repo);
+		sync.setSyncMode(SyncMode.ONE_DIRECTIONAL);
+		sync.setCheckpointInterval(500000);
+		sync.sync();
+
+		//the copy is stored once
+		Assert.assertEquals(image.length + 5, repo.getWrittenBytes());
+		Assert.assertEquals(image.length, repo.getDeduplicatedBytes());
+
+		repo = new ChunkRepository(new File(dir, "store"));
+		Assert.assertEquals(3, repo.scan().size());
+		ISyncFile file = repo.getFile(File.separator + "copy of image.vm");
+		Assert.assertEquals(new File(primaryDir, "copy of image.vm").lastModified(), file.timestamp());
+		Assert.assertTrue(Arrays.equals(image, content(file)));
+
+		SeekableByteChannel channel = file.openChannel();
+		try {
+			channel.position(1234567);
+			ByteBuffer buf = ByteBuffer.allocate(100000);
+			while (buf.hasRemaining() && channel.read(buf) > 0) {
+			}
+			Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(image, 1234567, 1334567), buf.array()));
+		} finally {
+			channel.close();
+		}
+
+		sync = new Sync(new FilesystemRepository(primaryDir), repo);
+		sync.setSyncMode(SyncMode.ONE_DIRECTIONAL);
+		sync.sync();
+		Assert.assertEquals(0, sync.getMetrics().snapshot().getCopiedFiles());
+	}
+
+
+	@Test
+	public void testDeltaIsNotUsed() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-chunk");
+		File primaryDir = new File(dir, "primary");
+		primaryDir.mkdirs();
+		byte[] image = random(300000, 5);
+		SyncTestUtils.write(new File(primaryDir, "image.vm"), image);
+
+		ChunkRepository repo = new ChunkRepository(new File(dir, "store"));
+		Sync sync = new Sync(new FilesystemRepository(primaryDir), repo);
+		sync.setSyncMode(SyncMode.ONE_DIRECTIONAL);
+		sync.setDeltaThreshold(1);
+		sync.sync();
+
+		//the changed file is copied whole, the repository can't apply the delta
+		image[100000] ^= 1;
+		SyncTestUtils.write(new File(primaryDir, "image.vm"), image);
+		new File(primaryDir, "image.vm").setLastModified(System.currentTimeMillis() + 10000);
+		sync.sync();
+
+		Assert.assertEquals(1, sync.getMetrics().snapshot().getCopiedFiles());
+		Assert.assertTrue(Arrays.equals(image, content(repo.getFile(File.separator + "image.vm"))));
+	}
+
+
+	@Test
+	public void testResume() throws IOException {
+		ChunkRepository repo = new ChunkRepository(SyncTestUtils.createDir("sync-chunk"));
+		byte[] content = random(1000000, 4);
+
+		ISyncTransfer transfer = repo.openTransfer("/large.dat", content.length, 1000L);
+		transfer.transferFrom(Channels.newChannel(new ByteArrayInputStream(content, 0, 700000)), 700000);
+		transfer.checkpoint();
+		transfer.close();
+		Assert.assertNull(repo.getFile("/large.dat"));
+
+		//resumed after the last stored chunk
+		transfer = repo.openTransfer("/large.dat", content.length, 1000L);
+		long offset = transfer.getOffset();
+		Assert.assertTrue(offset > 0 && offset <= 700000);
+		transfer.transferFrom(Channels.newChannel(new ByteArrayInputStream(content, (int) offset, content.length)), content.length - offset);
+		transfer.commit();
+		transfer.close();
+
+		Assert.assertEquals(1000L, repo.getFile("/large.dat").timestamp());
+		Assert.assertTrue(Arrays.equals(content, content(repo.getFile("/large.dat"))));
+	}
+
+
+	@Test
+	public void testGc() throws IOException {
+		ChunkRepository repo = new ChunkRepository(SyncTestUtils.createDir("sync-chunk"));
+		byte[] shared = random(500000, 5);
+		write(repo, "/a.dat", shared);
+		write(repo, "/b.dat", shared);
+		write(repo, "/c.dat", random(500000, 6));
+		int chunks = repo.getChunkCount();
+		Assert.assertEquals(0, repo.gc());
+
+		//the chunks of the replaced file are freed, the shared ones stay
+		write(repo, "/a.dat", "replaced".getBytes("UTF-8"));
+		write(repo, "/c.dat", "replaced".getBytes("UTF-8"));
+		Assert.assertEquals(500000, repo.gc());
+		Assert.assertTrue(repo.getChunkCount() < chunks);
+		Assert.assertTrue(Arrays.equals(shared, content(repo.getFile("/b.dat"))));
+
+		//the chunks of the open stream aren't collected
+		OutputStream out = repo.openStream("/d.dat");
+		byte[] pending = random(600000, 7);
+		out.write(pending);
+		Assert.assertEquals(0, repo.gc());
+		out.close();
+		Assert.assertTrue(Arrays.equals(pending, content(repo.getFile("/d.dat"))));
+	}
+
+
+	private static void write(ChunkRepository repo, String path, byte[] data) throws IOException {
+		OutputStream out = repo.openStream(path);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+
+	private static byte[] content(ISyncFile file) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		file.copyTo(out);
+		return out.toByteArray();
+	}
+
+
+	private static byte[] random(int length, long seed) {
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+}
@@ -0,0 +1,139 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.filesystem;
+
+import junit.framework.Assert;
+import org.testng.annotations.Test;
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.SyncBufferPool;
+import org.zdevra.sync.SyncTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class FilesystemRepositoryTest {
+
+	private final File dir = new File("./src/test-dirs/primary");
+
+
+	@Test
+	public void testParallelScan() {
+		List<ISyncFile> sequential = new FilesystemRepository(dir).scan();
+		List<ISyncFile> parallel = new FilesystemRepository(dir, 4).scan();
+
+		Assert.assertEquals(3, sequential.size());
+		Assert.assertEquals(paths(sequential), paths(parallel));
+	}
+
+
+	@Test
+	public void testCopy() throws IOException {
+		File source = new File(dir, "test1.txt");
+		File target = new File(SyncTestUtils.createDir("sync-copy"), "target.txt");
+
+		FilesystemRepository repo = new FilesystemRepository(dir);
+		repo.setBufferPool(new SyncBufferPool(4, false));
+		ISyncFile file = repo.getFile("test1.txt");
+
+		//channel transfer into file
+		file.copyTo(new FileOutputStream(target));
+		Assert.assertEquals(source.length(), target.length());
+
+		//pooled buffer copy into stream
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		file.copyTo(out);
+		Assert.assertEquals(source.length(), out.size());
+	}
+
+
+	@Test
+	public void testNioScan() throws IOException {
+		List<ISyncFile> files = new FilesystemRepository(dir).scan();
+		Set<String> expected = attributes(files);
+		Assert.assertEquals(expected, attributes(new NioFilesystemRepository(dir).scan()));
+		Assert.assertEquals(expected, attributes(new NioFilesystemRepository(dir, 4).scan()));
+	}
+
+
+	@Test
+	public void testNioCachedAttributes() throws IOException {
+		File root = SyncTestUtils.createDir("sync-nio");
+		File source = new File(root, "file.txt");
+		SyncTestUtils.write(source, "content");
+
+		NioFilesystemRepository repo = new NioFilesystemRepository(root);
+		ISyncFile file = repo.scan().get(0);
+		Assert.assertEquals(7, file.size());
+
+		//the scanned file keeps attributes, only fetched file is fresh
+		SyncTestUtils.write(source, "longer content");
+		Assert.assertEquals(7, file.size());
+		Assert.assertEquals(14, repo.getFile("/file.txt").size());
+		Assert.assertNull(repo.getFile("/missing.txt"));
+
+		file.touch(1000000000000L);
+		Assert.assertEquals(1000000000000L, file.timestamp());
+		Assert.assertEquals(1000000000000L, source.lastModified());
+	}
+
+
+	@Test
+	public void testSymlinks() throws IOException {
+		File root = SyncTestUtils.createDir("sync-links");
+		File real = new File(root, "real");
+		real.mkdirs();
+		SyncTestUtils.write(new File(real, "file.txt"), "content");
+		Files.createSymbolicLink(new File(root, "link.txt").toPath(), new File(real, "file.txt").getAbsoluteFile().toPath());
+		Files.createSymbolicLink(new File(root, "linkdir").toPath(), real.getAbsoluteFile().toPath());
+
+		List<ISyncFile> files = new FilesystemRepository(root).scan();
+		Set<String> expected = attributes(files);
+		Assert.assertEquals(3, files.size());
+		Assert.assertTrue(paths(files).contains(File.separator + "link.txt"));
+		Assert.assertTrue(paths(files).contains(File.separator + "linkdir" + File.separator + "file.txt"));
+		Assert.assertEquals(expected, attributes(new NioFilesystemRepository(root).scan()));
+		Assert.assertEquals(expected, attributes(new NioFilesystemRepository(root, 4).scan()));
+	}
+
+
+	private static Set<String> attributes(List<ISyncFile> files) throws IOException {
+		Set<String> out = new HashSet<String>();
+		for (ISyncFile f : files) {
+			out.add(f.path() + ":" + f.size() + ":" + f.timestamp() + ":" + f.fileKey());
+		}
+		return out;
+	}
+
+
+	private static Set<String> paths(List<ISyncFile> files) {
+		Set<String> out = new HashSet<String>();
+		for (ISyncFile f : files) {
+			out.add(f.path());
+		}
+		return out;
+	}
+}
@@ -0,0 +1,200 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.filesystem;
+
+import junit.framework.Assert;
+import org.testng.annotations.Test;
+import org.zdevra.sync.ISyncDeltaTransfer;
+import org.zdevra.sync.ISyncTransfer;
+import org.zdevra.sync.Sync;
+import org.zdevra.sync.SyncTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class FilesystemTransferTest {
+
+	@Test
+	public void testResumeFromCheckpoint() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-transfer");
+		File source = new File(dir, "source.dat");
+		byte[] content = random(100000);
+		SyncTestUtils.write(source, content);
+		SyncTestUtils.write(new File(dir, "target.dat"), "old".getBytes("UTF-8"));
+
+		FilesystemRepository repo = new FilesystemRepository(dir);
+		FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+		try {
+			//interrupted transfer, the bytes after checkpoint are lost
+			ISyncTransfer transfer = repo.openTransfer("/target.dat", content.length, 1000L);
+			transfer.transferFrom(in, 40000);
+			transfer.checkpoint();
+			transfer.transferFrom(in, 30000);
+			transfer.close();
+
+			Assert.assertEquals("old", new String(Files.readAllBytes(new File(dir, "target.dat").toPath()), "UTF-8"));
+			Assert.assertEquals(2, repo.scan().size());
+
+			//resumed transfer
+			transfer = repo.openTransfer("/target.dat", content.length, 1000L);
+			Assert.assertEquals(40000, transfer.getOffset());
+			in.position(transfer.getOffset());
+			while (transfer.getOffset() < content.length) {
+				transfer.transferFrom(in, content.length);
+			}
+			transfer.commit();
+			transfer.close();
+		} finally {
+			in.close();
+		}
+
+		Assert.assertTrue(Arrays.equals(content, Files.readAllBytes(new File(dir, "target.dat").toPath())));
+		Assert.assertEquals(2, dir.list().length);
+	}
+
+
+	@Test
+	public void testChangedSourceStartsOver() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-transfer");
+		FilesystemRepository repo = new FilesystemRepository(dir);
+		File source = new File(dir, "source.dat");
+		SyncTestUtils.write(source, random(1000));
+
+		FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+		try {
+			ISyncTransfer transfer = repo.openTransfer("/target.dat", 1000, 1000L);
+			transfer.transferFrom(in, 500);
+			transfer.checkpoint();
+			transfer.close();
+		} finally {
+			in.close();
+		}
+
+		ISyncTransfer transfer = repo.openTransfer("/target.dat", 1000, 2000L);
+		Assert.assertEquals(0, transfer.getOffset());
+		transfer.close();
+	}
+
+
+	@Test
+	public void testSyncWithCheckpoints() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-transfer");
+		File primaryDir = new File(dir, "primary");
+		File secondaryDir = new File(dir, "secondary");
+		primaryDir.mkdirs();
+		byte[] content = random(100000);
+		SyncTestUtils.write(new File(primaryDir, "large.dat"), content);
+
+		Sync sync = Sync.createForFilesystem(primaryDir, secondaryDir);
+		sync.setCheckpointInterval(4096);
+		sync.sync();
+
+		Assert.assertTrue(Arrays.equals(content, Files.readAllBytes(new File(secondaryDir, "large.dat").toPath())));
+		Assert.assertEquals(1, secondaryDir.list().length);
+	}
+
+
+	@Test
+	public void testExpiredTransferFiles() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-transfer");
+		SyncTestUtils.write(new File(dir, "file.txt"), "content".getBytes("UTF-8"));
+		String[] names = {"file.txt.sync-part", "gone.txt.sync-part", "gone.txt.sync-part.ckpt", "gone.txt.sync-part.ckpt.tmp"};
+		for (String name : names) {
+			SyncTestUtils.write(new File(dir, name), "part".getBytes("UTF-8"));
+		}
+		long expired = System.currentTimeMillis() - FilesystemTransfer.EXPIRATION - 1000;
+		for (int i = 1; i < names.length; ++i) {
+			new File(dir, names[i]).setLastModified(expired);
+		}
+
+		Assert.assertEquals(1, new NioFilesystemRepository(dir).scan().size());
+		Assert.assertEquals("[file.txt, file.txt.sync-part]", sorted(dir.list()));
+		Assert.assertEquals(1, new FilesystemRepository(dir).scan().size());
+	}
+
+
+	@Test
+	public void testDeltaTransfer() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-transfer");
+		File target = new File(dir, "target.dat");
+		SyncTestUtils.write(target, "old content".getBytes("UTF-8"));
+		FilesystemRepository repo = new FilesystemRepository(dir);
+
+		//not committed transfer leaves the destination untouched
+		ISyncDeltaTransfer transfer = repo.openDeltaTransfer("/target.dat");
+		transfer.getChannel().position(0);
+		transfer.getChannel().write(ByteBuffer.wrap("broken".getBytes("UTF-8")));
+		transfer.close();
+		Assert.assertEquals("old content", new String(Files.readAllBytes(target.toPath()), "UTF-8"));
+		Assert.assertEquals(1, dir.list().length);
+
+		transfer = repo.openDeltaTransfer("/target.dat");
+		transfer.getChannel().position(0);
+		transfer.getChannel().write(ByteBuffer.wrap("new".getBytes("UTF-8")));
+		transfer.commit();
+		transfer.close();
+		Assert.assertEquals("new content", new String(Files.readAllBytes(target.toPath()), "UTF-8"));
+		Assert.assertEquals(1, dir.list().length);
+	}
+
+
+	@Test
+	public void testSyncWithDelta() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-transfer");
+		File primaryDir = new File(dir, "primary");
+		File secondaryDir = new File(dir, "secondary");
+		primaryDir.mkdirs();
+		secondaryDir.mkdirs();
+		byte[] content = random(100000);
+		SyncTestUtils.write(new File(secondaryDir, "large.dat"), content);
+		byte[] changed = Arrays.copyOf(content, content.length + 100);
+		changed[50000] ^= 1;
+		SyncTestUtils.write(new File(primaryDir, "large.dat"), changed);
+		new File(primaryDir, "large.dat").setLastModified(System.currentTimeMillis() + 10000);
+
+		Sync sync = Sync.createForFilesystem(primaryDir, secondaryDir);
+		sync.setDeltaThreshold(1);
+		sync.sync();
+
+		Assert.assertTrue(Arrays.equals(changed, Files.readAllBytes(new File(secondaryDir, "large.dat").toPath())));
+		Assert.assertTrue(sync.getMetrics().snapshot().getCopiedBytes() < 10000);
+		Assert.assertEquals(1, secondaryDir.list().length);
+	}
+
+
+	private static String sorted(String[] names) {
+		Arrays.sort(names);
+		return Arrays.toString(names);
+	}
+
+
+	private static byte[] random(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+}
@@ -0,0 +1,102 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.filesystem;
+
+import junit.framework.Assert;
+import org.testng.annotations.Test;
+import org.zdevra.sync.Sync;
+import org.zdevra.sync.SyncTestUtils;
+import org.zdevra.sync.state.SyncStateStore;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class FilesystemWatcherTest {
+
+	@Test
+	public void testContinuousSync() throws IOException, InterruptedException {
+		File dir = SyncTestUtils.createDir("sync-watcher");
+		File primaryDir = new File(dir, "primary");
+		File secondaryDir = new File(dir, "secondary");
+		primaryDir.mkdirs();
+		secondaryDir.mkdirs();
+		SyncTestUtils.write(new File(primaryDir, "initial.txt"), "initial");
+
+		FilesystemWatcher watcher = new FilesystemWatcher(Sync.createForFilesystem(primaryDir, secondaryDir), primaryDir, secondaryDir);
+		watcher.setDebounce(50, 200);
+		watcher.start();
+		try {
+			Assert.assertTrue(waitFor(new File(secondaryDir, "initial.txt")));
+
+			//new file in existing directory
+			SyncTestUtils.write(new File(primaryDir, "changed.txt"), "changed");
+			Assert.assertTrue(waitFor(new File(secondaryDir, "changed.txt")));
+
+			//new directory with content on the other side
+			SyncTestUtils.write(new File(secondaryDir, "newdir/sub/file.txt"), "new");
+			Assert.assertTrue(waitFor(new File(primaryDir, "newdir/sub/file.txt")));
+		} finally {
+			watcher.close();
+		}
+	}
+
+
+	@Test
+	public void testDeletedDirectory() throws IOException, InterruptedException {
+		File dir = SyncTestUtils.createDir("sync-watcher");
+		File primaryDir = new File(dir, "primary");
+		File secondaryDir = new File(dir, "secondary");
+		SyncTestUtils.write(new File(primaryDir, "kept.txt"), "kept");
+		SyncTestUtils.write(new File(primaryDir, "folder/sub/deleted.txt"), "deleted");
+
+		SyncStateStore store = new SyncStateStore(new File(dir, "sync.state"));
+		Sync sync = Sync.createForFilesystem(primaryDir, secondaryDir);
+		sync.setStateStore(store);
+		sync.setDeletePropagation(true);
+
+		FilesystemWatcher watcher = new FilesystemWatcher(sync, primaryDir, secondaryDir);
+		watcher.setDebounce(50, 200);
+		watcher.start();
+		try {
+			File copy = new File(secondaryDir, "folder/sub/deleted.txt");
+			Assert.assertTrue(waitFor(copy));
+
+			//whole directory is moved out, only one event for the directory comes
+			Assert.assertTrue(new File(primaryDir, "folder").renameTo(new File(dir, "moved")));
+			for (int i = 0; i < 100 && copy.exists(); ++i) {
+				Thread.sleep(50);
+			}
+			Assert.assertFalse(copy.exists());
+			Assert.assertTrue(new File(secondaryDir, "kept.txt").exists());
+		} finally {
+			watcher.close();
+			store.close();
+		}
+	}
+
+
+	private static boolean waitFor(File file) throws InterruptedException {
+		for (int i = 0; i < 100 && !file.exists(); ++i) {
+			Thread.sleep(50);
+		}
+		return file.exists();
+	}
+}
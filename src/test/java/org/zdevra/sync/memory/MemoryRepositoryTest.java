@@ -0,0 +1,150 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.memory;
+
+import junit.framework.Assert;
+import org.testng.annotations.Test;
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.Sync;
+import org.zdevra.sync.SyncError;
+import org.zdevra.sync.SyncMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class MemoryRepositoryTest {
+
+	@Test
+	public void testGenerate() throws IOException {
+		MemoryRepository repo = new MemoryRepository();
+		repo.generate(1000, 10, 100, 1);
+
+		Assert.assertEquals(1000, repo.size());
+		String last = File.separator + "d9" + File.separator + "d9" + File.separator + "f9.dat";
+		ISyncFile file = repo.getFile(last);
+		Assert.assertEquals(100, file.size());
+		Assert.assertEquals(MemoryRepository.BASE_TIMESTAMP + 999000L, file.timestamp());
+
+		//the same seed generates the same content, readable at any position
+		MemoryRepository other = new MemoryRepository();
+		other.generate(1000, 10, 100, 1);
+		Assert.assertTrue(Arrays.equals(file.digest(), other.getFile(last).digest()));
+
+		byte[] all = read(file, 0, 100);
+		Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(all, 37, 100), read(file, 37, 63)));
+	}
+
+
+	@Test
+	public void testSync() throws IOException {
+		MemoryRepository primary = new MemoryRepository();
+		primary.generate(500, 8, 20000, 7);
+		MemoryRepository secondary = new MemoryRepository();
+
+		Sync sync = new Sync(primary, secondary);
+		sync.setSyncMode(SyncMode.ONE_DIRECTIONAL);
+		sync.setCheckpointInterval(4096);
+		sync.sync();
+
+		Assert.assertEquals(500, secondary.size());
+		Assert.assertEquals(500, secondary.getOperationCount(MemoryOperation.COMMIT));
+		for (ISyncFile file : primary.scan()) {
+			ISyncFile copy = secondary.getFile(file.path());
+			Assert.assertEquals(file.timestamp(), copy.timestamp());
+			Assert.assertTrue(Arrays.equals(file.digest(), copy.digest()));
+		}
+	}
+
+
+	@Test
+	public void testLatencyAndBandwidth() {
+		MemoryRepository primary = new MemoryRepository();
+		primary.generate(10, 10, 10000, 1);
+		primary.setLatency(MemoryOperation.READ, 20, TimeUnit.MILLISECONDS);
+		MemoryRepository secondary = new MemoryRepository();
+
+		Sync sync = new Sync(primary, secondary);
+		sync.setSyncMode(SyncMode.ONE_DIRECTIONAL);
+		sync.setCopyThreads(1);
+		long start = System.nanoTime();
+		sync.sync();
+		Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+
+		//100 kB with 50 kB/s, the first 50 kB are the burst
+		MemoryRepository slow = new MemoryRepository();
+		slow.setBandwidth(50000);
+		sync = new Sync(primary, slow);
+		sync.setSyncMode(SyncMode.ONE_DIRECTIONAL);
+		primary.setLatency(MemoryOperation.READ, 0, TimeUnit.MILLISECONDS);
+		start = System.nanoTime();
+		sync.sync();
+		Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(800));
+		Assert.assertEquals(10, slow.size());
+	}
+
+
+	@Test
+	public void testFailuresAreDeterministic() {
+		String first = failure(42);
+		Assert.assertNotNull(first);
+		Assert.assertEquals(first, failure(42));
+	}
+
+
+	private static String failure(long seed) {
+		MemoryRepository primary = new MemoryRepository();
+		primary.generate(200, 10, 100, 1);
+		MemoryRepository secondary = new MemoryRepository(seed);
+		secondary.setFailureRate(MemoryOperation.COMMIT, 0.05);
+
+		Sync sync = new Sync(primary, secondary);
+		sync.setSyncMode(SyncMode.ONE_DIRECTIONAL);
+		sync.setCopyThreads(1);
+		try {
+			sync.sync();
+			return null;
+		} catch (SyncError e) {
+			Throwable cause = e;
+			while (cause.getCause() != null) {
+				cause = cause.getCause();
+			}
+			return cause.getMessage();
+		}
+	}
+
+
+	private static byte[] read(ISyncFile file, long position, int length) throws IOException {
+		SeekableByteChannel channel = file.openChannel();
+		try {
+			channel.position(position);
+			ByteBuffer buf = ByteBuffer.allocate(length);
+			while (buf.hasRemaining() && channel.read(buf) > 0) {
+			}
+			return buf.array();
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,346 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.remote;
+
+import junit.framework.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.zdevra.sync.ISyncFile;
+import org.zdevra.sync.ISyncFileIterator;
+import org.zdevra.sync.Sync;
+import org.zdevra.sync.SyncCaseSensitivity;
+import org.zdevra.sync.SyncDelta;
+import org.zdevra.sync.SyncError;
+import org.zdevra.sync.SyncMode;
+import org.zdevra.sync.SyncPathComparator;
+import org.zdevra.sync.SyncTestUtils;
+import org.zdevra.sync.filesystem.FilesystemRepository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class RemoteRepositoryTest {
+
+	private File serverDir;
+	private RemoteServer server;
+
+
+	@BeforeClass
+	public void startServer() throws IOException {
+		serverDir = SyncTestUtils.createDir("sync-remote");
+		server = new RemoteServer(new FilesystemRepository(serverDir), 0);
+		server.start();
+	}
+
+
+	@AfterClass
+	public void stopServer() throws IOException {
+		server.close();
+	}
+
+
+	@Test
+	public void testSyncToServer() throws IOException {
+		File primaryDir = new File(SyncTestUtils.createDir("sync-remote"), "primary");
+		new File(primaryDir, "folder").mkdirs();
+		for (int i = 0; i < 50; i++) {
+			SyncTestUtils.write(new File(primaryDir, "folder/small" + i + ".txt"), ("small " + i).getBytes("UTF-8"));
+		}
+		byte[] large = random(1000000);
+		SyncTestUtils.write(new File(primaryDir, "large.dat"), large);
+
+		RemoteRepository remote = connect();
+		try {
+			Sync sync = new Sync(new FilesystemRepository(primaryDir), remote);
+			sync.setSyncMode(SyncMode.ONE_DIRECTIONAL);
+			sync.setCopyThreads(4);
+			sync.setCheckpointInterval(300000);
+			sync.sync();
+
+			File copy = new File(serverDir, "large.dat");
+			Assert.assertTrue(Arrays.equals(large, Files.readAllBytes(copy.toPath())));
+			Assert.assertEquals(new File(primaryDir, "large.dat").lastModified(), copy.lastModified());
+			Assert.assertEquals("small 7", new String(Files.readAllBytes(new File(serverDir, "folder/small7.txt").toPath()), "UTF-8"));
+
+			//the streaming sync finds nothing to copy
+			sync = new Sync(new FilesystemRepository(primaryDir), remote);
+			sync.setSyncMode(SyncMode.ONE_DIRECTIONAL);
+			sync.setStreaming(true);
+			sync.sync();
+			Assert.assertEquals(0, sync.getMetrics().snapshot().getCopiedFiles());
+		} finally {
+			remote.close();
+		}
+	}
+
+
+	@Test
+	public void testDeltaToServer() throws IOException {
+		byte[] old = random(900000);
+		SyncTestUtils.write(new File(serverDir, "delta/large.dat"), old);
+		byte[] changed = Arrays.copyOf(old, old.length + 5000);
+		changed[400000] ^= 1;
+		File primaryDir = new File(SyncTestUtils.createDir("sync-remote"), "primary");
+		SyncTestUtils.write(new File(primaryDir, "delta/large.dat"), changed);
+		new File(primaryDir, "delta/large.dat").setLastModified(System.currentTimeMillis() + 10000);
+
+		RemoteRepository remote = connect();
+		try {
+			//signatures are computed by the server
+			String path = File.separator + "delta" + File.separator + "large.dat";
+			SyncDelta.Signatures signatures = remote.signatures(path, SyncDelta.MIN_BLOCK_SIZE);
+			Assert.assertEquals(old.length, signatures.getSize());
+			Assert.assertEquals(old.length / SyncDelta.MIN_BLOCK_SIZE, signatures.getCount());
+
+			Sync sync = new Sync(new FilesystemRepository(primaryDir), remote);
+			sync.setSyncMode(SyncMode.ONE_DIRECTIONAL);
+			sync.setDeltaThreshold(1);
+			sync.sync();
+
+			Assert.assertTrue(Arrays.equals(changed, Files.readAllBytes(new File(serverDir, "delta/large.dat").toPath())));
+			Assert.assertTrue(sync.getMetrics().snapshot().getCopiedBytes() < 100000);
+		} finally {
+			remote.close();
+		}
+	}
+
+
+	@Test
+	public void testReadFromServer() throws IOException {
+		byte[] large = random(700000);
+		SyncTestUtils.write(new File(serverDir, "read/large.dat"), large);
+		SyncTestUtils.write(new File(serverDir, "read/b.txt"), "b".getBytes("UTF-8"));
+
+		RemoteRepository remote = connect();
+		try {
+			ISyncFile file = remote.getFile(File.separator + "read" + File.separator + "large.dat");
+			Assert.assertEquals(large.length, file.size());
+			Assert.assertTrue(Arrays.equals(large, content(file)));
+			Assert.assertTrue(Arrays.equals(new FilesystemRepository(serverDir).getFile(file.path()).digest(), file.digest()));
+			Assert.assertEquals("b", new String(content(remote.getFile(File.separator + "read" + File.separator + "b.txt")), "UTF-8"));
+			Assert.assertNull(remote.getFile(File.separator + "missing.txt"));
+
+			//random access
+			SeekableByteChannel channel = file.openChannel();
+			try {
+				channel.position(600000);
+				ByteBuffer buf = ByteBuffer.allocate(1000);
+				while (buf.hasRemaining() && channel.read(buf) > 0) {
+				}
+				Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(large, 600000, 601000), buf.array()));
+			} finally {
+				channel.close();
+			}
+
+			//the listing in path order
+			ISyncFileIterator it = remote.iterate(new SyncPathComparator(SyncCaseSensitivity.SENSITIVE));
+			String previous = null;
+			int count = 0;
+			try {
+				while (it.hasNext()) {
+					String path = it.next().path();
+					if (previous != null) {
+						Assert.assertTrue(new SyncPathComparator(SyncCaseSensitivity.SENSITIVE).compare(previous, path) < 0);
+					}
+					previous = path;
+					count++;
+				}
+			} finally {
+				it.close();
+			}
+			Assert.assertEquals(new FilesystemRepository(serverDir).scan().size(), count);
+		} finally {
+			remote.close();
+		}
+	}
+
+
+	@Test
+	public void testWriteChannel() throws IOException {
+		RemoteRepository remote = connect();
+		try {
+			OutputStream out = remote.openStream(File.separator + "stream.txt");
+			out.write("hello world".getBytes("UTF-8"));
+			out.close();
+
+			SeekableByteChannel channel = remote.openChannel(File.separator + "stream.txt");
+			channel.position(6);
+			channel.write(ByteBuffer.wrap("WORLD".getBytes("UTF-8")));
+			channel.close();
+			Assert.assertEquals("hello WORLD", new String(Files.readAllBytes(new File(serverDir, "stream.txt").toPath()), "UTF-8"));
+		} finally {
+			remote.close();
+		}
+	}
+
+
+	@Test
+	public void testErrors() throws IOException {
+		SyncTestUtils.write(new File(serverDir, "errors.txt"), "error".getBytes("UTF-8"));
+		RemoteRepository remote = connect();
+		ISyncFile file = remote.getFile(File.separator + "errors.txt");
+		new File(serverDir, "errors.txt").delete();
+		try {
+			file.touch(1000L);
+			Assert.fail("touch of deleted file must fail");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().contains("file not found"));
+		}
+
+		//closed connection fails the calls
+		remote.close();
+		try {
+			file.digest();
+			Assert.fail("closed connection must fail");
+		} catch (IOException e) {
+			//expected
+		}
+	}
+
+
+	@Test
+	public void testFileGrewSinceListing() throws IOException {
+		SyncTestUtils.write(new File(serverDir, "growing.dat"), "small".getBytes("UTF-8"));
+		RemoteRepository remote = connect();
+		try {
+			ISyncFile file = remote.getFile(File.separator + "growing.dat");
+
+			//the server refuses to send it in one frame, it's read by channel
+			byte[] large = random(RemoteProtocol.SMALL_FILE * 3);
+			SyncTestUtils.write(new File(serverDir, "growing.dat"), large);
+			Assert.assertTrue(Arrays.equals(large, content(file)));
+		} finally {
+			remote.close();
+		}
+	}
+
+
+	@Test
+	public void testPathOutsideOfRepository() throws IOException {
+		File outside = new File(serverDir.getParentFile(), serverDir.getName() + "-outside.txt");
+		SyncTestUtils.write(outside, "secret".getBytes("UTF-8"));
+		String path = "/folder/../../" + outside.getName();
+
+		RemoteRepository remote = connect();
+		try {
+			try {
+				remote.getFile(path);
+				Assert.fail("lookup outside of repository must fail");
+			} catch (SyncError e) {
+				Assert.assertTrue(e.getCause().getMessage().contains("invalid path"));
+			}
+			try {
+				remote.openStream(path).close();
+				Assert.fail("write outside of repository must fail");
+			} catch (IOException e) {
+				Assert.assertTrue(e.getMessage().contains("invalid path"));
+			}
+			try {
+				remote.delete(path);
+				Assert.fail("deletion outside of repository must fail");
+			} catch (IOException e) {
+				Assert.assertTrue(e.getMessage().contains("invalid path"));
+			}
+		} finally {
+			remote.close();
+		}
+
+		//the repository rejects such paths by itself
+		FilesystemRepository repository = new FilesystemRepository(serverDir);
+		try {
+			repository.delete(path);
+			Assert.fail("deletion outside of repository must fail");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().contains("outside of the repository"));
+		}
+		Assert.assertTrue(outside.exists());
+		outside.delete();
+	}
+
+
+	@Test
+	public void testSecret() throws IOException {
+		RemoteServer secured = new RemoteServer(new FilesystemRepository(serverDir), 0);
+		secured.setSecret("s3cret");
+		secured.start();
+		try {
+			try {
+				new RemoteRepository("localhost", secured.getPort(), "wrong");
+				Assert.fail("wrong secret must be rejected");
+			} catch (SyncError e) {
+				Assert.assertTrue(e.getCause().getMessage().contains("rejected"));
+			}
+			try {
+				new RemoteRepository("localhost", secured.getPort());
+				Assert.fail("missing secret must be rejected");
+			} catch (SyncError e) {
+				//expected
+			}
+
+			RemoteRepository remote = new RemoteRepository("localhost", secured.getPort(), "s3cret");
+			try {
+				Assert.assertTrue(remote.getUsableSpace() != 0);
+			} finally {
+				remote.close();
+			}
+		} finally {
+			secured.close();
+		}
+
+		//the server listening on network needs the secret
+		RemoteServer open = new RemoteServer(new FilesystemRepository(serverDir), 0);
+		open.setBindAddress(InetAddress.getByName("0.0.0.0"));
+		try {
+			open.start();
+			Assert.fail("server without secret must listen on loopback only");
+		} catch (IllegalStateException e) {
+			//expected
+		}
+	}
+
+
+	private RemoteRepository connect() {
+		return new RemoteRepository("localhost", server.getPort());
+	}
+
+
+	private static byte[] content(ISyncFile file) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		file.copyTo(out);
+		return out.toByteArray();
+	}
+
+
+	private static byte[] random(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+}
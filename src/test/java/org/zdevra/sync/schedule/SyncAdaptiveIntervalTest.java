@@ -0,0 +1,69 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.schedule;
+
+import junit.framework.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class SyncAdaptiveIntervalTest {
+
+	@Test
+	public void testBackOff() {
+		SyncAdaptiveInterval interval = new SyncAdaptiveInterval(1000, 10000);
+		Assert.assertEquals(1000, interval.getInterval());
+		Assert.assertEquals(2000, interval.next(0, 10));
+		Assert.assertEquals(4000, interval.next(0, 10));
+		Assert.assertEquals(8000, interval.next(0, 10));
+		Assert.assertEquals(10000, interval.next(0, 10));
+		Assert.assertEquals(10000, interval.next(0, 10));
+	}
+
+
+	@Test
+	public void testChangeRate() {
+		SyncAdaptiveInterval interval = new SyncAdaptiveInterval(100, 100000);
+		interval.setTargetChanges(10);
+		interval.next(0, 0);
+		interval.next(0, 0);
+		Assert.assertEquals(400, interval.getInterval());
+
+		// few changes make the interval longer, but at most twice per sync
+		Assert.assertEquals(800, interval.next(1, 0));
+		Assert.assertEquals(1600, interval.next(1, 0));
+
+		// 8 files in 1600ms, 10 files are expected in 2000ms
+		Assert.assertEquals(2000, interval.next(8, 0));
+
+		// 160 files in 2000ms is 0.08 file/ms, 10 files are expected in 125ms
+		Assert.assertEquals(125, interval.next(160, 0));
+	}
+
+
+	@Test
+	public void testScanCost() {
+		SyncAdaptiveInterval interval = new SyncAdaptiveInterval(100, 100000);
+		interval.setCostFactor(10);
+
+		// the sync took 50ms, so the next one isn't sooner than in 500ms
+		Assert.assertEquals(500, interval.next(1000, 50));
+		Assert.assertEquals(500, interval.failed());
+	}
+}
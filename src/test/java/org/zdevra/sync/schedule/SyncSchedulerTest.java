@@ -0,0 +1,169 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.schedule;
+
+import junit.framework.Assert;
+import org.testng.annotations.Test;
+import org.zdevra.sync.Sync;
+import org.zdevra.sync.SyncError;
+import org.zdevra.sync.SyncTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class SyncSchedulerTest {
+
+	@Test
+	public void testDeviceLimits() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		final Map<String, AtomicInteger> perDevice = new HashMap<String, AtomicInteger>();
+		final AtomicInteger maxPerDevice = new AtomicInteger();
+		perDevice.put("disk-a", new AtomicInteger());
+		perDevice.put("disk-b", new AtomicInteger());
+
+		SyncScheduler scheduler = new SyncScheduler(3, 1);
+		try {
+			for (int i = 0; i < 6; ++i) {
+				final String device = i % 2 == 0 ? "disk-a" : "disk-b";
+				scheduler.submit(new SyncPair("pair" + i, sync(), device) {
+					@Override
+					protected void execute(Sync sync) {
+						maxRunning.set(Math.max(maxRunning.get(), running.incrementAndGet()));
+						int onDevice = perDevice.get(device).incrementAndGet();
+						maxPerDevice.set(Math.max(maxPerDevice.get(), onDevice));
+						sleep(50);
+						perDevice.get(device).decrementAndGet();
+						running.decrementAndGet();
+					}
+				});
+			}
+
+			Assert.assertTrue(scheduler.awaitIdle(10, TimeUnit.SECONDS));
+			Assert.assertEquals(2, maxRunning.get());
+			Assert.assertEquals(1, maxPerDevice.get());
+			for (SyncPair pair : scheduler.getPairs()) {
+				Assert.assertEquals(SyncPairStatus.DONE, pair.getStatus());
+				Assert.assertNotNull(pair.getLastMetrics());
+			}
+		} finally {
+			scheduler.close();
+		}
+	}
+
+
+	@Test
+	public void testStatus() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		SyncScheduler scheduler = new SyncScheduler(1, 1);
+		try {
+			SyncPair blocking = new SyncPair("blocking", sync(), "disk") {
+				@Override
+				protected void execute(Sync sync) {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+			SyncPair failing = new SyncPair("failing", sync(), "other-disk") {
+				@Override
+				protected void execute(Sync sync) {
+					throw new SyncError("broken disk");
+				}
+			};
+
+			Assert.assertTrue(scheduler.submit(blocking));
+			Assert.assertTrue(scheduler.submit(failing));
+
+			//the global limit is 1, so the second pair waits
+			Assert.assertEquals(SyncPairStatus.QUEUED, failing.getStatus());
+			Assert.assertFalse(scheduler.submit(failing));
+
+			release.countDown();
+			Assert.assertTrue(scheduler.awaitIdle(10, TimeUnit.SECONDS));
+			Assert.assertEquals(SyncPairStatus.DONE, blocking.getStatus());
+			Assert.assertEquals(SyncPairStatus.FAILED, failing.getStatus());
+			Assert.assertEquals("broken disk", failing.getError().getMessage());
+		} finally {
+			scheduler.close();
+		}
+	}
+
+
+	@Test
+	public void testPeriodic() throws Exception {
+		final AtomicInteger runs = new AtomicInteger();
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger overlaps = new AtomicInteger();
+
+		SyncScheduler scheduler = new SyncScheduler(2, 2);
+		try {
+			SyncPair pair = new SyncPair("periodic", sync(), "disk") {
+				@Override
+				protected void execute(Sync sync) {
+					if (running.incrementAndGet() > 1) {
+						overlaps.incrementAndGet();
+					}
+					runs.incrementAndGet();
+					sleep(20);
+					running.decrementAndGet();
+				}
+			};
+			scheduler.schedule(pair, new SyncAdaptiveInterval(10, 40));
+
+			//manual sync of running or queued pair is ignored
+			scheduler.submit(pair);
+			sleep(400);
+			scheduler.unschedule(pair);
+
+			Assert.assertTrue(scheduler.awaitIdle(10, TimeUnit.SECONDS));
+			int finished = runs.get();
+			Assert.assertTrue("runs:" + finished, finished >= 3);
+			Assert.assertEquals(0, overlaps.get());
+
+			sleep(100);
+			Assert.assertEquals(finished, runs.get());
+		} finally {
+			scheduler.close();
+		}
+	}
+
+
+	private static Sync sync() throws IOException {
+		return Sync.createForFilesystem(SyncTestUtils.createDir("sync-scheduler"), SyncTestUtils.createDir("sync-scheduler"));
+	}
+
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/*****************************************************************************
+ * Copyright 2013 Zdenko Vrabel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+package org.zdevra.sync.state;
+
+import junit.framework.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.zdevra.sync.Sync;
+import org.zdevra.sync.SyncTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * @author Zdenko Vrabel (vrabel.zdenko@gmail.com)
+ */
+@Test
+public class SyncStateStoreTest {
+
+	private File file;
+
+
+	@BeforeMethod
+	public void init() throws IOException {
+		file = new File(SyncTestUtils.createDir("sync-state"), "sync.state");
+	}
+
+
+	@Test
+	public void testReopen() throws IOException {
+		SyncStateStore store = new SyncStateStore(file);
+		store.put("/a.txt", new SyncState(10, 1000, 1001, "ino1", null));
+		store.put("/b.txt", new SyncState(20, 2000, 2000, null, null));
+		store.put("/a.txt", new SyncState(11, 1100, 1101, "ino1", "ino2"));
+		store.remove("/b.txt");
+		store.close();
+
+		store = new SyncStateStore(file);
+		try {
+			Assert.assertEquals(1, store.size());
+			SyncState a = store.get("/a.txt");
+			Assert.assertEquals(11, a.getSize());
+			Assert.assertEquals(1101, a.getSecondaryTimestamp());
+			Assert.assertEquals("ino2", a.getSecondaryId());
+			Assert.assertNull(store.get("/b.txt"));
+		} finally {
+			store.close();
+		}
+	}
+
+
+	@Test
+	public void testTornTail() throws IOException {
+		SyncStateStore store = new SyncStateStore(file);
+		store.put("/a.txt", new SyncState(10, 1000, 1000, null, null));
+		store.put("/b.txt", new SyncState(20, 2000, 2000, null, null));
+		store.close();
+
+		//simulate the crash in the middle of the last record
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 3);
+		raf.close();
+
+		store = new SyncStateStore(file);
+		Assert.assertEquals(1, store.size());
+		Assert.assertNotNull(store.get("/a.txt"));
+
+		//store is still writable after the recovery
+		store.put("/c.txt", new SyncState(30, 3000, 3000, null, null));
+		store.close();
+
+		store = new SyncStateStore(file);
+		try {
+			Assert.assertEquals(2, store.size());
+			Assert.assertNotNull(store.get("/c.txt"));
+		} finally {
+			store.close();
+		}
+	}
+
+
+	@Test
+	public void testCompact() throws IOException {
+		SyncStateStore store = new SyncStateStore(file);
+		for (int i = 0; i < 100; ++i) {
+			store.put("/a.txt", new SyncState(i, i, i, null, null));
+		}
+		store.flush();
+		long before = file.length();
+		store.compact();
+		store.close();
+
+		Assert.assertTrue(file.length() < before);
+		store = new SyncStateStore(file);
+		try {
+			Assert.assertEquals(99, store.get("/a.txt").getSize());
+		} finally {
+			store.close();
+		}
+	}
+
+
+	@Test
+	public void testSyncDetectsRestoredFile() throws IOException {
+		File dir = SyncTestUtils.createDir("sync-state");
+		File primaryDir = new File(dir, "primary");
+		File secondaryDir = new File(dir, "secondary");
+		secondaryDir.mkdirs();
+
+		File a = new File(primaryDir, "restored.txt");
+		File b = new File(secondaryDir, "restored.txt");
+		SyncTestUtils.write(a, "version 1");
+		a.setLastModified(1000000000000L);
+
+		SyncStateStore store = new SyncStateStore(file);
+		try {
+			Sync sync = Sync.createForFilesystem(primaryDir, secondaryDir);
+			sync.setStateStore(store);
+			sync.sync();
+			Assert.assertTrue(b.exists());
+
+			//restore the older version on primary side
+			SyncTestUtils.write(a, "old");
+			a.setLastModified(900000000000L);
+
+			sync = Sync.createForFilesystem(primaryDir, secondaryDir);
+			sync.setStateStore(store);
+			sync.sync();
+			Assert.assertEquals(3, b.length());
+			Assert.assertEquals(900000000000L, b.lastModified());
+		} finally {
+			store.close();
+		}
+	}
+
+
+	@Test
+	public void testTombstone() throws IOException {
+		SyncStateStore store = new SyncStateStore(file);
+		store.put("/a.txt", new SyncState(10, 1000, 1000, null, null).tombstone(5000));
+		store.put("/b.txt", new SyncState(20, 2000, 2000, null, null).tombstone(9000));
+		store.put("/c.txt", new SyncState(30, 3000, 3000, null, null));
+		store.close();
+
+		store = new SyncStateStore(file);
+		try {
+			Assert.assertTrue(store.get("/a.txt").isTombstone());
+			Assert.assertEquals(5000, store.get("/a.txt").getDeleted());
+			Assert.assertFalse(store.get("/c.txt").isTombstone());
+
+			Assert.assertEquals(1, store.expire(6000));
+			Assert.assertNull(store.get("/a.txt"));
+			Assert.assertNotNull(store.get("/b.txt"));
+			Assert.assertNotNull(store.get("/c.txt"));
+		} finally {
+			store.close();
+		}
+	}
+}